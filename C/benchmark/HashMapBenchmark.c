@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#include <postgres.h>
+#include <fmgr.h>
+#include <utils/builtins.h>
+#include <utils/memutils.h>
+#include <sys/time.h>
+
+#include "pljava/HashMap.h"
+#include "pljava/OidHashMap.h"
+
+/*
+ * Micro-benchmark that compares the lookup performance of the HashMap and
+ * the OidHashMap using Oid keys. It is built into a separate module by the
+ * benchmark_all target and is never part of the pljava module. It uses the
+ * map implementations of the loaded pljava module, so PL/Java must have been
+ * initialized in the session, e.g. by calling any Java function, before it
+ * is called. To run it, install the module, declare the function and call
+ * it with the number of keys and the number of lookups to perform:
+ *
+ * CREATE FUNCTION sqlj.hashmap_benchmark(int4, int4) RETURNS text
+ *    AS 'pljava_benchmark', 'pljava_hashmap_benchmark' LANGUAGE C STRICT;
+ *
+ * SELECT sqlj.hashmap_benchmark(200, 10000000);
+ *
+ * Half of the keys are sequential, like the Oids of the types and functions
+ * that are created together, and the other half are scattered. Every other
+ * lookup is a miss.
+ */
+extern Datum pljava_hashmap_benchmark(PG_FUNCTION_ARGS);
+PG_FUNCTION_INFO_V1(pljava_hashmap_benchmark);
+
+static double elapsedMillis(struct timeval* start)
+{
+	struct timeval end;
+	gettimeofday(&end, 0);
+	return (end.tv_sec - start->tv_sec) * 1000.0 + (end.tv_usec - start->tv_usec) / 1000.0;
+}
+
+Datum pljava_hashmap_benchmark(PG_FUNCTION_ARGS)
+{
+	int32 numKeys = PG_GETARG_INT32(0);
+	int32 numLookups = PG_GETARG_INT32(1);
+	int32 idx;
+	int32 hits;
+	Oid*  keys;
+	char  buf[256];
+	double hashMapTime;
+	double oidHashMapTime;
+	struct timeval start;
+	HashMap hashMap;
+	OidHashMap oidHashMap;
+	MemoryContext benchCtx;
+	MemoryContext oldCtx;
+
+	if(numKeys <= 0 || numLookups <= 0)
+		ereport(ERROR, (
+			errcode(ERRCODE_INVALID_PARAMETER_VALUE),
+			errmsg("number of keys and lookups must be positive")));
+
+	benchCtx = AllocSetContextCreate(CurrentMemoryContext,
+		"PL/Java HashMap benchmark",
+		ALLOCSET_DEFAULT_MINSIZE,
+		ALLOCSET_DEFAULT_INITSIZE,
+		ALLOCSET_DEFAULT_MAXSIZE);
+	oldCtx = MemoryContextSwitchTo(benchCtx);
+
+	/* Keys are stored at even positions and misses at odd positions.
+	 */
+	keys = (Oid*)palloc(numKeys * 2 * sizeof(Oid));
+	srandom(4711);
+	for(idx = 0; idx < numKeys; ++idx)
+	{
+		keys[idx * 2] = (idx & 1) ? (Oid)(16384 + idx) : (Oid)(16384 + (random() & 0xfffffff));
+		keys[idx * 2 + 1] = (Oid)(0x20000000 + idx);
+	}
+
+	hashMap = HashMap_create(59, benchCtx);
+	oidHashMap = OidHashMap_create(59, benchCtx);
+	for(idx = 0; idx < numKeys; ++idx)
+	{
+		HashMap_putByOid(hashMap, keys[idx * 2], keys + idx * 2);
+		OidHashMap_put(oidHashMap, keys[idx * 2], keys + idx * 2);
+	}
+
+	hits = 0;
+	gettimeofday(&start, 0);
+	for(idx = 0; idx < numLookups; ++idx)
+	{
+		if(HashMap_getByOid(hashMap, keys[idx % (numKeys * 2)]) != 0)
+			++hits;
+	}
+	hashMapTime = elapsedMillis(&start);
+
+	gettimeofday(&start, 0);
+	for(idx = 0; idx < numLookups; ++idx)
+	{
+		if(OidHashMap_get(oidHashMap, keys[idx % (numKeys * 2)]) != 0)
+			--hits;
+	}
+	oidHashMapTime = elapsedMillis(&start);
+
+	MemoryContextSwitchTo(oldCtx);
+	MemoryContextDelete(benchCtx);
+
+	if(hits != 0)
+		ereport(ERROR, (
+			errcode(ERRCODE_INTERNAL_ERROR),
+			errmsg("HashMap and OidHashMap disagree on %d lookups", hits)));
+
+	snprintf(buf, sizeof(buf), "%d keys, %d lookups: HashMap %.3f ms, OidHashMap %.3f ms",
+		numKeys, numLookups, hashMapTime, oidHashMapTime);
+	PG_RETURN_DATUM(DirectFunctionCall1(textin, CStringGetDatum(buf)));
+}
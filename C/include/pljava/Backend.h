@@ -27,6 +27,10 @@ void Backend_setJavaSecurity(bool trusted);
 
 int Backend_setJavaLogLevel(int logLevel);
 
+void Backend_syncJavaLogLevel(void);
+
+void Backend_drainJavaLog(bool wasException);
+
 #ifdef __cplusplus
 }
 #endif
@@ -34,10 +34,19 @@ extern "C" {
 
 /*
  * Clear all cached function to method entries. This is called after a
- * successful replace_jar operation.
+ * successful replace_jar operation. Functions cached by call sites are
+ * invalidated as well.
  */
 extern void Function_clearFunctionCache(void);
 
+/*
+ * Clear the cached functions that belong to the schema named schemaName.
+ * This is called when the class path of a schema has been affected by a
+ * jar operation. Functions that are dropped or replaced are removed from
+ * the cache by a syscache callback.
+ */
+extern void Function_clearSchemaFunctions(const char* schemaName);
+
 /*
  * Get a Function using a function Oid. If the function is not found, one
  * will be created based on the class and method name denoted in the "AS"
@@ -46,6 +55,9 @@ extern void Function_clearFunctionCache(void);
  * return value of the function will be fixed to:
  * 
  * org.postgresql.pljava.Tuple <method name>(org.postgresql.pljava.TriggerData td)
+ *
+ * The function is cached in flinfo->fn_extra so that subsequent calls from
+ * the same call site bypass the lookup.
  */
 extern Function Function_getFunction(PG_FUNCTION_ARGS);
 
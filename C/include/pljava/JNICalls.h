@@ -126,6 +126,8 @@ extern jfieldID     JNI_getStaticFieldID(jclass clazz, const char* name, const c
 extern jmethodID    JNI_getStaticMethodID(jclass clazz, const char* name, const char* sig);
 extern jmethodID    JNI_getStaticMethodIDOrNull(jclass clazz, const char* name, const char* sig);
 extern jobject      JNI_getStaticObjectField(jclass clazz, jfieldID field);
+extern jsize        JNI_getStringLength(jstring string);
+extern void         JNI_getStringRegion(jstring string, jsize start, jsize len, jchar* buf);
 extern const char*  JNI_getStringUTFChars(jstring string, jboolean* isCopy);
 extern jboolean     JNI_hasNullArrayElement(jobjectArray array);
 extern jboolean     JNI_isCallingJava(void);
@@ -143,6 +145,7 @@ extern jobject      JNI_newObject(jclass clazz, jmethodID ctor, ...);
 extern jobject      JNI_newObjectV(jclass clazz, jmethodID ctor, va_list args);
 extern jobjectArray JNI_newObjectArray(jsize length, jclass elementClass, jobject initialElement);
 extern jshortArray  JNI_newShortArray(jsize length);
+extern jstring      JNI_newString(const jchar* unicodeChars, jsize len);
 extern jstring      JNI_newStringUTF(const char* bytes);
 extern jobject      JNI_newWeakGlobalRef(jobject object);
 extern jint         JNI_pushLocalFrame(jint capacity);
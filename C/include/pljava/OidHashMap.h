@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#ifndef __pljava_OidHashMap_h
+#define __pljava_OidHashMap_h
+
+#include "pljava/PgObject.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*************************************************************
+ * The OidHashMap class. A map from Oid to values that uses open
+ * addressing with linear probing. The keys are stored inline in
+ * the table so neither lookups nor insertions allocate memory
+ * other than when the table grows. The table size is always a
+ * power of two.
+ *
+ * InvalidOid cannot be used as a key since it denotes an
+ * empty slot.
+ *
+ * The table is allocated using the same MemoryContext as the
+ * one used when creating the OidHashMap.
+ *
+ * @author Thomas Hallgren
+ *
+ *************************************************************/
+
+struct OidHashMap_;
+typedef struct OidHashMap_* OidHashMap;
+
+/*
+ * Creates a new OidHashMap with room for at least initialCapacity
+ * entries. If ctx is NULL, CurrentMemoryContext will be used.
+ */
+extern OidHashMap OidHashMap_create(uint32 initialCapacity, MemoryContext ctx);
+
+/*
+ * Clears the OidHashMap.
+ */
+extern void OidHashMap_clear(OidHashMap self);
+
+/*
+ * Returns the object stored using the given key or NULL if no
+ * such object can be found.
+ */
+extern void* OidHashMap_get(OidHashMap self, Oid key);
+
+/*
+ * Stores the given value under the given key. If
+ * an old value was stored using this key, the old value is returned.
+ * Otherwise this method returns NULL.
+ */
+extern void* OidHashMap_put(OidHashMap self, Oid key, void* value);
+
+/*
+ * Removes the value stored under the given key. The the old value
+ * (if any) is returned.
+ */
+extern void* OidHashMap_remove(OidHashMap self, Oid key);
+
+/*
+ * Returns the number of entries currently in the OidHashMap
+ */
+extern uint32 OidHashMap_size(OidHashMap self);
+
+/*
+ * Iterates over the entries of the map. The position must be set to
+ * zero prior to the first call. Returns false when there are no more
+ * entries. The map must not be modified during the iteration.
+ */
+extern bool OidHashMap_next(OidHashMap self, uint32* position, Oid* key, void** value);
+
+#ifdef __cplusplus
+} /* end of extern "C" declaration */
+#endif
+#endif
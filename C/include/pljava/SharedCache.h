@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#ifndef __pljava_SharedCache_h
+#define __pljava_SharedCache_h
+
+#include "pljava/pljava.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*****************************************************************
+ * The SharedCache is a key-value cache in shared memory that is
+ * visible to all backends. Keys and values are byte arrays. It is
+ * the native part of the org.postgresql.pljava.internal.SharedCacheImpl.
+ *
+ * The shared memory can only be reserved when the module is loaded
+ * through shared_preload_libraries. The size is given by the
+ * pljava.shared_cache_size setting. The cache is unavailable when
+ * the module is loaded in any other way or when the size is zero.
+ *
+ * @author Thomas Hallgren
+ *****************************************************************/
+
+/*
+ * Defines the pljava.shared_cache_size setting and, when called
+ * during shared_preload_libraries processing, requests the shared
+ * memory. Called from _PG_init.
+ */
+extern void SharedCache_requestShmem(void);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
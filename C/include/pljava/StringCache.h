@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#ifndef __pljava_StringCache_h
+#define __pljava_StringCache_h
+
+#include "pljava/type/Type.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*****************************************************************
+ * The StringCache is the native part of the
+ * org.postgresql.pljava.internal.StringCache. It maps the type and
+ * the stored bytes of short values to the Java Strings that have
+ * been created for them so that repeated values of a result set
+ * share one String without running the output function again.
+ *
+ * @author Thomas Hallgren
+ *****************************************************************/
+
+struct StringCache_;
+typedef struct StringCache_* StringCache;
+
+/*
+ * Coerce a Datum of the given type into a Java object. Values of types that
+ * are mapped to java.lang.String are obtained from the cache when possible.
+ * Values of other types are coerced using Type_coerceDatum.
+ */
+extern jobject StringCache_coerceDatum(StringCache self, Type type, Datum value);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -35,6 +35,22 @@ extern Type Coerce_createIn(Type originalType, Type source, Oid coerceFunctionID
  */
 extern Type Coerce_createOut(Type originalType, Type dest, Oid coerceFunctionID);
 
+/* Same as Coerce_createIn but for types that are cast using the output
+ * function of the source type and the input function of the originalType.
+ */
+extern Type Coerce_createInViaIO(Type originalType, Type source);
+
+/* Same as Coerce_createOut but for types that are cast using the output
+ * function of the originalType and the input function of the dest type.
+ */
+extern Type Coerce_createOutViaIO(Type originalType, Type dest);
+
+/* Applies the cast of a type returned by Type_getCoerceIn or Type_getCoerceOut
+ * to a Datum. A type that is not a Coerce denotes a binary compatible cast and
+ * the Datum is returned as is.
+ */
+extern Datum Coerce_apply(Type self, Datum arg);
+
 #ifdef __cplusplus
 }
 #endif
@@ -33,8 +33,9 @@ typedef struct String_* String;
 
 /*
  * Create a Java String object from a null terminated string. Conversion is
- * made from the encoding used by the database into UTF8 used when creating
- * the Java String. NULL Is accepted as a valid input and will yield
+ * made from the encoding used by the database into UTF8 which is then
+ * decoded into the UTF-16 of the Java String. No conversion is made when the
+ * database encoding is UTF8. NULL Is accepted as a valid input and will yield
  * a NULL result.
  */
 extern jstring String_createJavaStringFromNTS(const char* cp);
@@ -71,6 +72,12 @@ extern void String_appendJavaString(StringInfoData* buf, jstring javaString);
  */
 extern text* String_createText(jstring javaString);
 
+/*
+ * Returns true if the type is the default String type, i.e. if values are
+ * coerced into Java Strings using the textual output of the type.
+ */
+extern bool String_isString(Type type);
+
 extern Type String_obtain(Oid typeId);
 
 extern String StringClass_obtain(TypeClass self, Oid typeId);
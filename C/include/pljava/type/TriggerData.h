@@ -25,9 +25,11 @@ extern "C" {
  **********************************************************************/
  
 /*
- * Create the org.postgresql.pljava.TriggerData object.
+ * Create the org.postgresql.pljava.TriggerData object. The callSiteId
+ * identifies the statement level call site so that the Java side can
+ * reuse resolved metadata for all rows processed by that statement.
  */
-extern jobject TriggerData_create(TriggerData* triggerData);
+extern jobject TriggerData_create(TriggerData* triggerData, jlong callSiteId);
 
 /*
  * Obtains the returned Tuple after trigger has been processed.
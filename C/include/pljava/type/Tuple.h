@@ -10,6 +10,7 @@
 #define __pljava_Tuple_h
 
 #include "pljava/type/JavaWrapper.h"
+#include "pljava/StringCache.h"
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -35,6 +36,12 @@ extern jobjectArray Tuple_createArray(HeapTuple* tuples, jint size, bool mustCop
  */
 extern jobject Tuple_getObject(TupleDesc tupleDesc, HeapTuple tuple, int index);
 
+/*
+ * Return a java object at given index from a HeapTuple. Textual values are
+ * obtained through the given cache. A NULL cache is accepted.
+ */
+extern jobject Tuple_getObjectCached(TupleDesc tupleDesc, HeapTuple tuple, int index, StringCache cache);
+
 #ifdef __cplusplus
 }
 #endif
@@ -126,10 +126,17 @@ extern bool Type_isOutParameter(Type self);
 
 /*
  * Returns the real type for a dynamic type. A non dynamic type will
- * return itself.
+ * return itself. Resolved types are kept in a bounded cache keyed by
+ * the declared type, the real type, and the type map.
  */
 extern Type Type_getRealType(Type self, Oid realTypeID, jobject typeMap);
 
+/*
+ * Clears the cache of resolved dynamic types. Must be called when a
+ * type map that may have been used in a resolution is deleted.
+ */
+extern void Type_clearRealTypeCache(void);
+
 /*
  * Return a Type based on a PostgreSQL Oid. If the found
  * type is a primitive, return it's object corresponcance
@@ -141,6 +148,12 @@ extern Type Type_objectTypeFromOid(Oid typeId, jobject typeMap);
  */
 extern Type Type_fromJavaType(Oid dfltType, const char* javaTypeName);
 
+/*
+ * Like Type_fromJavaType but returns NULL when no mapping is installed for
+ * the java type name. Array types are not resolved.
+ */
+extern Type Type_lookupJavaType(Oid dfltType, const char* javaTypeName);
+
 /*
  * Returns the Java type name for the Type.
  */
@@ -11,6 +11,7 @@
 
 #include "pljava/PgObject_priv.h"
 #include "pljava/HashMap.h"
+#include "pljava/OidHashMap.h"
 #include "pljava/type/Type.h"
 
 #ifdef __cplusplus
@@ -145,13 +146,13 @@ struct Type_
 	 * Oid keyed hash map of coercion routines that can front this type when doing
 	 * parameter input coercion.
 	 */
-	HashMap inCoercions;
+	OidHashMap inCoercions;
 
 	/*
 	 * Oid keyed hash map of coercion routines that can front this type when doing
 	 * coercion of output results.
 	 */
-	HashMap outCoercions;
+	OidHashMap outCoercions;
 
 	int16 length;
 	bool  byValue;
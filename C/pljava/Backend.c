@@ -36,6 +36,7 @@
 #include "pljava/Exception.h"
 #include "pljava/Backend.h"
 #include "pljava/Session.h"
+#include "pljava/SharedCache.h"
 #include "pljava/SPI.h"
 #include "pljava/type/String.h"
 /* Example format: "/usr/local/pgsql/lib" */
@@ -50,6 +51,15 @@
 PG_MODULE_MAGIC;
 #endif
 
+/* Called when the module is loaded. Shared memory must be requested
+ * at this point when the module is loaded using shared_preload_libraries.
+ */
+extern void _PG_init(void);
+void _PG_init(void)
+{
+	SharedCache_requestShmem();
+}
+
 #ifdef PG_GETCONFIGOPTION
 #error The macro PG_GETCONFIGOPTION needs to be renamed.
 #endif
@@ -78,6 +88,12 @@ static bool  pljavaDebug;
 static bool  pljavaReleaseLingeringSavepoints;
 static bool  s_currentTrust;
 static int   s_javaLogLevel;
+static jclass    s_ELogHandler_class;
+static jmethodID s_ELogHandler_drain;
+static jmethodID s_ELogHandler_drainQuietly;
+static jmethodID s_ELogHandler_setMinLevel;
+static int   s_javaMinLevel = -1;
+static volatile bool s_logPending = false;
 
 bool integerDateTimes = false;
 
@@ -92,6 +108,7 @@ extern void Session_initialize(void);
 extern void PgSavepoint_initialize(void);
 extern void XactListener_initialize(void);
 extern void SubXactListener_initialize(void);
+extern void SharedCache_initialize(void);
 extern void SQLInputFromChunk_initialize(void);
 extern void SQLOutputToChunk_initialize(void);
 extern void SQLInputFromTuple_initialize(void);
@@ -99,6 +116,7 @@ extern void SQLOutputToTuple_initialize(void);
 
 static void initPLJavaClasses(void)
 {
+	jclass cls;
 	jfieldID tlField;
 	JNINativeMethod backendMethods[] =
 	{
@@ -128,10 +146,25 @@ static void initPLJavaClasses(void)
 		Java_org_postgresql_pljava_internal_Backend__1log
 		},
 		{
+		"_logBatch",
+		"([I[Ljava/lang/String;I)V",
+		Java_org_postgresql_pljava_internal_Backend__1logBatch
+		},
+		{
+		"_setLogPending",
+		"()V",
+		Java_org_postgresql_pljava_internal_Backend__1setLogPending
+		},
+		{
 		"_clearFunctionCache",
 		"()V",
 		Java_org_postgresql_pljava_internal_Backend__1clearFunctionCache
 		},
+		{
+		"_clearSchemaFunctionCache",
+		"(Ljava/lang/String;)V",
+		Java_org_postgresql_pljava_internal_Backend__1clearSchemaFunctionCache
+		},
 		{ 0, 0, 0 }
 	};
 
@@ -154,12 +187,20 @@ static void initPLJavaClasses(void)
 	PgSavepoint_initialize();
 	XactListener_initialize();
 	SubXactListener_initialize();
+	SharedCache_initialize();
 	SQLInputFromChunk_initialize();
 	SQLOutputToChunk_initialize();
 	SQLInputFromTuple_initialize();
 	SQLOutputToTuple_initialize();
 
 	s_setTrusted = PgObject_getStaticJavaMethod(s_Backend_class, "setTrusted", "(Z)V");
+
+	cls = PgObject_getJavaClass("org/postgresql/pljava/internal/ELogHandler");
+	s_ELogHandler_class = (jclass)JNI_newGlobalRef(cls);
+	JNI_deleteLocalRef(cls);
+	s_ELogHandler_drain = PgObject_getStaticJavaMethod(s_ELogHandler_class, "drain", "()V");
+	s_ELogHandler_drainQuietly = PgObject_getStaticJavaMethod(s_ELogHandler_class, "drainQuietly", "()V");
+	s_ELogHandler_setMinLevel = PgObject_getStaticJavaMethod(s_ELogHandler_class, "setMinLevel", "(I)V");
 }
 
 /**
@@ -193,6 +234,37 @@ int Backend_setJavaLogLevel(int logLevel)
 	s_javaLogLevel = logLevel;
 	return oldLevel;
 }
+
+/**
+ * Passes the lowest of log_min_messages and client_min_messages to the
+ * ELogHandler when it has changed so that Java can discard the messages
+ * that elog would discard without calling the backend.
+ */
+void Backend_syncJavaLogLevel(void)
+{
+	int minLevel = Min(log_min_messages, client_min_messages);
+	if(minLevel != s_javaMinLevel)
+	{
+		s_javaMinLevel = minLevel;
+		JNI_callStaticVoidMethod(s_ELogHandler_class, s_ELogHandler_setMinLevel, (jint)minLevel);
+	}
+}
+
+/**
+ * Sends the messages that the ELogHandler has buffered to elog. This is
+ * a no-op unless Java has buffered messages since the last drain. When the
+ * call ends with an error, the messages are sent ahead of it and a failure
+ * to send them is ignored so that it cannot replace the error.
+ */
+void Backend_drainJavaLog(bool wasException)
+{
+	if(s_logPending)
+	{
+		s_logPending = false;
+		JNI_callStaticVoidMethod(s_ELogHandler_class,
+			wasException ? s_ELogHandler_drainQuietly : s_ELogHandler_drain);
+	}
+}
 	
 /**
  * Special purpose logging function called from JNI when verbose is enabled.
@@ -864,15 +936,11 @@ Java_org_postgresql_pljava_internal_Backend__1getStatementCacheSize(JNIEnv* env,
 	return statementCacheSize;
 }
 
-/*
- * Class:     org_postgresql_pljava_internal_Backend
- * Method:    _log
- * Signature: (ILjava/lang/String;)V
+/* Sends one message to elog. A Java exception is pending on return if
+ * elog raised an error.
  */
-JNIEXPORT void JNICALL
-JNICALL Java_org_postgresql_pljava_internal_Backend__1log(JNIEnv* env, jclass cls, jint logLevel, jstring jstr)
+static void logString(int logLevel, jstring jstr)
 {
-	BEGIN_NATIVE_NO_ERRCHECK
 	char* str = String_createNTS(jstr);
 	if(str != 0)
 	{
@@ -918,9 +986,62 @@ JNICALL Java_org_postgresql_pljava_internal_Backend__1log(JNIEnv* env, jclass cl
 		}
 		PG_END_TRY();
 	}
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_Backend
+ * Method:    _log
+ * Signature: (ILjava/lang/String;)V
+ */
+JNIEXPORT void JNICALL
+JNICALL Java_org_postgresql_pljava_internal_Backend__1log(JNIEnv* env, jclass cls, jint logLevel, jstring jstr)
+{
+	BEGIN_NATIVE_NO_ERRCHECK
+	logString(logLevel, jstr);
+	END_NATIVE
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_Backend
+ * Method:    _logBatch
+ * Signature: ([I[Ljava/lang/String;I)V
+ *
+ * The ELogHandler sends errors one by one through _log so the levels in a
+ * batch are all below ERROR and elog returns from each of them.
+ */
+JNIEXPORT void JNICALL
+Java_org_postgresql_pljava_internal_Backend__1logBatch(JNIEnv* env, jclass cls, jintArray logLevels, jobjectArray jstrs, jint count)
+{
+	BEGIN_NATIVE_NO_ERRCHECK
+	if(count > 0)
+	{
+		int idx;
+		jint* levels = (jint*)palloc(count * sizeof(jint));
+		JNI_getIntArrayRegion(logLevels, 0, count, levels);
+		for(idx = 0; idx < count; ++idx)
+		{
+			jstring jstr = (jstring)JNI_getObjectArrayElement(jstrs, idx);
+			logString(Min(levels[idx], WARNING), jstr);
+			JNI_deleteLocalRef(jstr);
+			if(JNI_exceptionCheck())
+				break;
+		}
+		pfree(levels);
+	}
 	END_NATIVE
 }
 
+/*
+ * Class:     org_postgresql_pljava_internal_Backend
+ * Method:    _setLogPending
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL
+Java_org_postgresql_pljava_internal_Backend__1setLogPending(JNIEnv* env, jclass cls)
+{
+	s_logPending = true;
+}
+
 /*
  * Class:     org_postgresql_pljava_internal_Backend
  * Method:    isCallingJava
@@ -955,3 +1076,29 @@ Java_org_postgresql_pljava_internal_Backend__1clearFunctionCache(JNIEnv* env, jc
 	Function_clearFunctionCache();
 	END_NATIVE
 }
+
+/*
+ * Class:     org_postgresql_pljava_internal_Backend
+ * Method:    _clearSchemaFunctionCache
+ * Signature: (Ljava/lang/String;)V
+ */
+JNIEXPORT void JNICALL
+Java_org_postgresql_pljava_internal_Backend__1clearSchemaFunctionCache(JNIEnv* env, jclass cls, jstring schemaName)
+{
+	BEGIN_NATIVE
+	PG_TRY();
+	{
+		char* name = String_createNTS(schemaName);
+		if(name != 0)
+		{
+			Function_clearSchemaFunctions(name);
+			pfree(name);
+		}
+	}
+	PG_CATCH();
+	{
+		Exception_throw_ERROR("Function_clearSchemaFunctions");
+	}
+	PG_END_TRY();
+	END_NATIVE
+}
@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#include <postgres.h>
+#include <access/heapam.h>
+#include <executor/spi.h>
+#include <lib/stringinfo.h>
+#include <mb/pg_wchar.h>
+#include <utils/builtins.h>
+#include <utils/lsyscache.h>
+#include <utils/memutils.h>
+#include <utils/rel.h>
+
+#include "org_postgresql_pljava_internal_CopyIn.h"
+#include "pljava/Backend.h"
+#include "pljava/Exception.h"
+#include "pljava/Function.h"
+#include "pljava/Invocation.h"
+#include "pljava/type/String.h"
+
+/*
+ * Feeds data in the text format of COPY into a table. The data is passed in
+ * blocks of bytes that need not end at a line boundary. Each line is split
+ * into fields, the fields are converted using the input functions of the
+ * column types and the row is inserted by executing a plan that is prepared
+ * once. Since the rows are inserted by the executor, triggers, constraints
+ * and indexes are honored just like for COPY.
+ */
+/*
+ * The line terminator, as determined by the first line. Like COPY, all
+ * lines must then use the same terminator.
+ */
+typedef enum
+{
+	COPYIN_EOL_UNKNOWN,
+	COPYIN_EOL_NL,
+	COPYIN_EOL_CRNL
+} CopyInEol;
+
+typedef struct
+{
+	/* The context that holds the state. The state is freed by deleting it.
+	 */
+	MemoryContext memCtx;
+
+	/* Reset after each row
+	 */
+	MemoryContext rowCtx;
+
+	void*     plan;
+	int       natts;
+	FmgrInfo* inFuncs;
+	Oid*      typIOParams;
+	int32*    typMods;
+	Datum*    values;
+	char*     nulls;
+	int*      fieldStarts;
+	int*      fieldLengths;
+
+	/* A partial line carried over from the previous block
+	 */
+	StringInfoData line;
+
+	/* The de-escaped fields of the current line
+	 */
+	StringInfoData fields;
+
+	int64     rowCount;
+
+	CopyInEol eol;
+
+	/* Set when the end of data marker has been seen
+	 */
+	bool      done;
+} CopyInState;
+
+static int CopyIn_octal(char c)
+{
+	return c - '0';
+}
+
+static int CopyIn_hex(char c)
+{
+	if(c >= '0' && c <= '9')
+		return c - '0';
+	if(c >= 'a' && c <= 'f')
+		return c - 'a' + 10;
+	return c - 'A' + 10;
+}
+
+static bool CopyIn_isHex(char c)
+{
+	return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+}
+
+/*
+ * Splits a line into its de-escaped fields and inserts it. The line does not
+ * include the newline. A line that was terminated by a newline may end with
+ * a carriage return that belongs to the terminator. Returns false if a Java
+ * exception has been thrown.
+ */
+static bool CopyIn_processLine(CopyInState* self, const char* line, int len, bool terminated)
+{
+	int    rc;
+	int    pos = 0;
+	int    fieldNo = 0;
+	MemoryContext currCtx;
+
+	if(self->done)
+		return true;
+
+	if(terminated)
+	{
+		bool crnl = len > 0 && line[len - 1] == '\r';
+		if(self->eol == COPYIN_EOL_UNKNOWN)
+			self->eol = crnl ? COPYIN_EOL_CRNL : COPYIN_EOL_NL;
+		else if(!crnl && self->eol == COPYIN_EOL_CRNL)
+			ereport(ERROR, (
+				errcode(ERRCODE_BAD_COPY_FILE_FORMAT),
+				errmsg("literal newline found in data"),
+				errhint("Use \"\\n\" to represent newline.")));
+		if(crnl && self->eol == COPYIN_EOL_CRNL)
+			--len;
+	}
+
+	if(memchr(line, '\r', len) != 0)
+		ereport(ERROR, (
+			errcode(ERRCODE_BAD_COPY_FILE_FORMAT),
+			errmsg("literal carriage return found in data"),
+			errhint("Use \"\\r\" to represent carriage return.")));
+
+	if(len == 2 && line[0] == '\\' && line[1] == '.')
+	{
+		self->done = true;
+		return true;
+	}
+
+	resetStringInfo(&self->fields);
+	for(;;)
+	{
+		int start = pos;
+		if(fieldNo >= self->natts)
+			ereport(ERROR, (
+				errcode(ERRCODE_BAD_COPY_FILE_FORMAT),
+				errmsg("extra data after last expected column")));
+
+		self->fieldStarts[fieldNo] = self->fields.len;
+		self->nulls[fieldNo] = ' ';
+		while(pos < len && line[pos] != '\t')
+		{
+			char c = line[pos++];
+			if(c == '\\')
+			{
+				if(pos == len)
+					ereport(ERROR, (
+						errcode(ERRCODE_BAD_COPY_FILE_FORMAT),
+						errmsg("unterminated escape sequence at end of line")));
+				c = line[pos++];
+				switch(c)
+				{
+					case 'b': c = '\b'; break;
+					case 'f': c = '\f'; break;
+					case 'n': c = '\n'; break;
+					case 'r': c = '\r'; break;
+					case 't': c = '\t'; break;
+					case 'v': c = '\v'; break;
+					case 'N':
+						/* \N alone is the null marker
+						 */
+						if(pos - start == 2 && (pos == len || line[pos] == '\t'))
+							self->nulls[fieldNo] = 'n';
+						break;
+					case 'x':
+						if(pos < len && CopyIn_isHex(line[pos]))
+						{
+							int val = CopyIn_hex(line[pos++]);
+							if(pos < len && CopyIn_isHex(line[pos]))
+								val = (val << 4) + CopyIn_hex(line[pos++]);
+							c = (char)val;
+						}
+						break;
+					default:
+						if(c >= '0' && c <= '7')
+						{
+							int val = CopyIn_octal(c);
+							if(pos < len && line[pos] >= '0' && line[pos] <= '7')
+							{
+								val = (val << 3) + CopyIn_octal(line[pos++]);
+								if(pos < len && line[pos] >= '0' && line[pos] <= '7')
+									val = (val << 3) + CopyIn_octal(line[pos++]);
+							}
+							c = (char)val;
+						}
+				}
+			}
+			appendStringInfoChar(&self->fields, c);
+		}
+		self->fieldLengths[fieldNo] = self->fields.len - self->fieldStarts[fieldNo];
+		appendStringInfoChar(&self->fields, '\0');
+		++fieldNo;
+		if(pos >= len)
+			break;
+		++pos;	/* skip the delimiter */
+	}
+
+	if(fieldNo < self->natts)
+		ereport(ERROR, (
+			errcode(ERRCODE_BAD_COPY_FILE_FORMAT),
+			errmsg("missing data for column %d", fieldNo + 1)));
+
+	currCtx = MemoryContextSwitchTo(self->rowCtx);
+	for(fieldNo = 0; fieldNo < self->natts; ++fieldNo)
+	{
+		char* str = 0;
+		if(self->nulls[fieldNo] != 'n')
+		{
+			/* The length of the field is used rather than strlen so that
+			 * a NUL that results from an escape is reported as an invalid
+			 * byte rather than silently truncating the value.
+			 */
+			str = self->fields.data + self->fieldStarts[fieldNo];
+			pg_verifymbstr(str, self->fieldLengths[fieldNo], false);
+		}
+		self->values[fieldNo] = InputFunctionCall(&self->inFuncs[fieldNo],
+			str, self->typIOParams[fieldNo], self->typMods[fieldNo]);
+	}
+	MemoryContextSwitchTo(currCtx);
+
+	rc = SPI_execute_plan(self->plan, self->values, self->nulls, Function_isCurrentReadOnly(), 0);
+	if(rc < 0)
+	{
+		Exception_throwSPI("execute_plan", rc);
+		return false;
+	}
+	self->rowCount += SPI_processed;
+	SPI_freetuptable(SPI_tuptable);
+	MemoryContextReset(self->rowCtx);
+	return true;
+}
+
+static void CopyIn_free(CopyInState* self)
+{
+	if(self->plan != 0)
+		SPI_freeplan(self->plan);
+	MemoryContextDelete(self->memCtx);
+}
+
+/*
+ * Creates the state in the given memory context. Returns NULL if a Java
+ * exception has been thrown. The caller deletes the context on failure.
+ */
+static CopyInState* CopyIn_create(MemoryContext memCtx, Oid relId, jobjectArray columns)
+{
+	int       idx;
+	int       natts;
+	int*      attnums;
+	Oid*      argTypes;
+	void*     plan;
+	char*     nspName;
+	Relation  rel;
+	TupleDesc tupDesc;
+	StringInfoData stmt;
+	StringInfoData params;
+	CopyInState* self;
+	MemoryContext currCtx;
+
+	self = (CopyInState*)MemoryContextAllocZero(memCtx, sizeof(CopyInState));
+	self->memCtx = memCtx;
+	self->rowCtx = AllocSetContextCreate(memCtx,
+		"PL/Java COPY row",
+		ALLOCSET_DEFAULT_MINSIZE,
+		ALLOCSET_DEFAULT_INITSIZE,
+		ALLOCSET_DEFAULT_MAXSIZE);
+
+	rel = relation_open(relId, AccessShareLock);
+	tupDesc = RelationGetDescr(rel);
+
+	/* Resolve the target columns. All columns that are not dropped are
+	 * used when no column names are given.
+	 */
+	attnums = (int*)palloc((tupDesc->natts + 1) * sizeof(int));
+	natts = 0;
+	if(columns == 0)
+	{
+		for(idx = 0; idx < tupDesc->natts; ++idx)
+			if(!tupDesc->attrs[idx]->attisdropped)
+				attnums[natts++] = idx;
+	}
+	else
+	{
+		int count = JNI_getArrayLength(columns);
+		if(count > tupDesc->natts)
+			ereport(ERROR, (
+				errcode(ERRCODE_DUPLICATE_COLUMN),
+				errmsg("too many columns for relation \"%s\"", RelationGetRelationName(rel))));
+
+		for(natts = 0; natts < count; ++natts)
+		{
+			jstring jname = (jstring)JNI_getObjectArrayElement(columns, natts);
+			char* name = String_createNTS(jname);
+			JNI_deleteLocalRef(jname);
+			for(idx = 0; idx < tupDesc->natts; ++idx)
+			{
+				Form_pg_attribute att = tupDesc->attrs[idx];
+				if(!att->attisdropped && strcmp(NameStr(att->attname), name) == 0)
+					break;
+			}
+			if(idx == tupDesc->natts)
+				ereport(ERROR, (
+					errcode(ERRCODE_UNDEFINED_COLUMN),
+					errmsg("column \"%s\" of relation \"%s\" does not exist",
+						name, RelationGetRelationName(rel))));
+			pfree(name);
+			attnums[natts] = idx;
+		}
+	}
+
+	self->natts       = natts;
+	self->inFuncs     = (FmgrInfo*)MemoryContextAlloc(memCtx, (natts + 1) * sizeof(FmgrInfo));
+	self->typIOParams = (Oid*)MemoryContextAlloc(memCtx, (natts + 1) * sizeof(Oid));
+	self->typMods     = (int32*)MemoryContextAlloc(memCtx, (natts + 1) * sizeof(int32));
+	self->values      = (Datum*)MemoryContextAlloc(memCtx, (natts + 1) * sizeof(Datum));
+	self->nulls       = (char*)MemoryContextAllocZero(memCtx, natts + 1);
+	self->fieldStarts = (int*)MemoryContextAlloc(memCtx, (natts + 1) * sizeof(int));
+	self->fieldLengths = (int*)MemoryContextAlloc(memCtx, (natts + 1) * sizeof(int));
+	argTypes          = (Oid*)palloc((natts + 1) * sizeof(Oid));
+
+	nspName = get_namespace_name(RelationGetNamespace(rel));
+	initStringInfo(&stmt);
+	initStringInfo(&params);
+	appendStringInfo(&stmt, "INSERT INTO %s.%s (",
+		quote_identifier(nspName), quote_identifier(RelationGetRelationName(rel)));
+	for(idx = 0; idx < natts; ++idx)
+	{
+		Oid inFunc;
+		Form_pg_attribute att = tupDesc->attrs[attnums[idx]];
+		if(idx > 0)
+		{
+			appendStringInfoString(&stmt, ", ");
+			appendStringInfoString(&params, ", ");
+		}
+		appendStringInfoString(&stmt, quote_identifier(NameStr(att->attname)));
+		appendStringInfo(&params, "$%d", idx + 1);
+
+		argTypes[idx] = att->atttypid;
+		self->typMods[idx] = att->atttypmod;
+		getTypeInputInfo(att->atttypid, &inFunc, &self->typIOParams[idx]);
+		fmgr_info_cxt(inFunc, &self->inFuncs[idx], memCtx);
+	}
+	appendStringInfo(&stmt, ") VALUES (%s)", params.data);
+
+	/* The lock is kept until the end of the transaction
+	 */
+	relation_close(rel, NoLock);
+
+	Invocation_assertConnect();
+	plan = SPI_prepare(stmt.data, natts, argTypes);
+	pfree(stmt.data);
+	pfree(params.data);
+	pfree(argTypes);
+	pfree(attnums);
+
+	if(plan == 0)
+	{
+		Exception_throwSPI("prepare", SPI_result);
+		return 0;
+	}
+
+	self->plan = SPI_saveplan(plan);
+	SPI_freeplan(plan);
+
+	currCtx = MemoryContextSwitchTo(memCtx);
+	initStringInfo(&self->line);
+	initStringInfo(&self->fields);
+	MemoryContextSwitchTo(currCtx);
+	return self;
+}
+
+/* Make this datatype available to the postgres system.
+ */
+extern void CopyIn_initialize(void);
+void CopyIn_initialize(void)
+{
+	JNINativeMethod methods[] =
+	{
+		{
+		"_create",
+		"(JI[Ljava/lang/String;)J",
+		Java_org_postgresql_pljava_internal_CopyIn__1create
+		},
+		{
+		"_write",
+		"(JJ[BII)J",
+		Java_org_postgresql_pljava_internal_CopyIn__1write
+		},
+		{
+		"_end",
+		"(JJ)J",
+		Java_org_postgresql_pljava_internal_CopyIn__1end
+		},
+		{
+		"_cancel",
+		"(J)V",
+		Java_org_postgresql_pljava_internal_CopyIn__1cancel
+		},
+		{ 0, 0, 0 }
+	};
+	PgObject_registerNatives("org/postgresql/pljava/internal/CopyIn", methods);
+}
+
+/****************************************
+ * JNI methods
+ ****************************************/
+/*
+ * Class:     org_postgresql_pljava_internal_CopyIn
+ * Method:    _create
+ * Signature: (JI[Ljava/lang/String;)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_postgresql_pljava_internal_CopyIn__1create(JNIEnv* env, jclass clazz, jlong threadId, jint relId, jobjectArray columns)
+{
+	jlong result = 0;
+	MemoryContext memCtx;
+	BEGIN_NATIVE
+	STACK_BASE_VARS
+	STACK_BASE_PUSH(threadId)
+	memCtx = AllocSetContextCreate(JavaMemoryContext,
+		"PL/Java COPY",
+		ALLOCSET_DEFAULT_MINSIZE,
+		ALLOCSET_DEFAULT_INITSIZE,
+		ALLOCSET_DEFAULT_MAXSIZE);
+	PG_TRY();
+	{
+		CopyInState* self = CopyIn_create(memCtx, (Oid)relId, columns);
+		if(self == 0)
+			MemoryContextDelete(memCtx);
+		else
+		{
+			Ptr2Long p2l;
+			p2l.longVal = 0L; /* ensure that the rest is zeroed out */
+			p2l.ptrVal = self;
+			result = p2l.longVal;
+		}
+	}
+	PG_CATCH();
+	{
+		Exception_throw_ERROR("BeginCopyIn");
+		MemoryContextDelete(memCtx);
+	}
+	PG_END_TRY();
+	STACK_BASE_POP()
+	END_NATIVE
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_CopyIn
+ * Method:    _write
+ * Signature: (JJ[BII)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_postgresql_pljava_internal_CopyIn__1write(JNIEnv* env, jclass clazz, jlong _this, jlong threadId, jbyteArray data, jint offset, jint length)
+{
+	jlong result = 0;
+	if(_this != 0 && length > 0)
+	{
+		BEGIN_NATIVE
+		STACK_BASE_VARS
+		STACK_BASE_PUSH(threadId)
+		PG_TRY();
+		{
+			Ptr2Long p2l;
+			CopyInState* self;
+			char* buf;
+			int   start = 0;
+			int   idx;
+
+			p2l.longVal = _this;
+			self = (CopyInState*)p2l.ptrVal;
+			buf = (char*)palloc(length);
+			JNI_getByteArrayRegion(data, offset, length, (jbyte*)buf);
+
+			for(idx = 0; idx < length; ++idx)
+			{
+				if(buf[idx] != '\n')
+					continue;
+
+				if(self->line.len > 0)
+				{
+					/* Complete the line carried over from the previous block
+					 */
+					bool ok;
+					appendBinaryStringInfo(&self->line, buf + start, idx - start);
+					ok = CopyIn_processLine(self, self->line.data, self->line.len, true);
+					resetStringInfo(&self->line);
+					if(!ok)
+						break;
+				}
+				else if(!CopyIn_processLine(self, buf + start, idx - start, true))
+					break;
+				start = idx + 1;
+			}
+
+			if(idx == length && start < length)
+				appendBinaryStringInfo(&self->line, buf + start, length - start);
+			pfree(buf);
+			result = (jlong)self->rowCount;
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("CopyIn");
+		}
+		PG_END_TRY();
+		STACK_BASE_POP()
+		END_NATIVE
+	}
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_CopyIn
+ * Method:    _end
+ * Signature: (JJ)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_postgresql_pljava_internal_CopyIn__1end(JNIEnv* env, jclass clazz, jlong _this, jlong threadId)
+{
+	jlong result = 0;
+	if(_this != 0)
+	{
+		Ptr2Long p2l;
+		CopyInState* self;
+		BEGIN_NATIVE
+		STACK_BASE_VARS
+		STACK_BASE_PUSH(threadId)
+		p2l.longVal = _this;
+		self = (CopyInState*)p2l.ptrVal;
+		PG_TRY();
+		{
+			/* The last line need not be terminated
+			 */
+			if(self->line.len == 0 || CopyIn_processLine(self, self->line.data, self->line.len, false))
+				result = (jlong)self->rowCount;
+			CopyIn_free(self);
+		}
+		PG_CATCH();
+		{
+			/* The state is freed regardless of the outcome
+			 */
+			Exception_throw_ERROR("EndCopyIn");
+			CopyIn_free(self);
+		}
+		PG_END_TRY();
+		STACK_BASE_POP()
+		END_NATIVE
+	}
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_CopyIn
+ * Method:    _cancel
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL
+Java_org_postgresql_pljava_internal_CopyIn__1cancel(JNIEnv* env, jclass clazz, jlong _this)
+{
+	if(_this != 0)
+	{
+		BEGIN_NATIVE_NO_ERRCHECK
+		PG_TRY();
+		{
+			Ptr2Long p2l;
+			p2l.longVal = _this;
+			CopyIn_free((CopyInState*)p2l.ptrVal);
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("SPI_freeplan");
+		}
+		PG_END_TRY();
+		END_NATIVE
+	}
+}
@@ -7,14 +7,23 @@
  * @author Thomas Hallgren
  */
 #include <postgres.h>
+#include <catalog/pg_type.h>
 #include <executor/tuptable.h>
+#include <nodes/parsenodes.h>
+#include <utils/builtins.h>
 #include <utils/guc.h>
+#include <utils/lsyscache.h>
+#include <utils/memutils.h>
+#if (PGSQL_MAJOR_VER >= 9)
+#include <parser/parse_param.h>
+#endif
 
 #include "org_postgresql_pljava_internal_ExecutionPlan.h"
 #include "pljava/Invocation.h"
 #include "pljava/Exception.h"
 #include "pljava/Function.h"
 #include "pljava/SPI.h"
+#include "pljava/type/Coerce.h"
 #include "pljava/type/Oid.h"
 #include "pljava/type/Portal.h"
 #include "pljava/type/String.h"
@@ -22,6 +31,20 @@
 /* Class 07 - Dynamic SQL Error */
 #define ERRCODE_PARAMETER_COUNT_MISMATCH	MAKE_SQLSTATE('0','7', '0','0','1')
 
+/* The kinds of the values in a ParameterBlock. Must match the constants
+ * declared in org.postgresql.pljava.internal.ParameterBlock.
+ */
+#define KIND_UNSET   0
+#define KIND_NULL    1
+#define KIND_OBJECT  2
+#define KIND_BOOLEAN 3
+#define KIND_BYTE    4
+#define KIND_SHORT   5
+#define KIND_INT     6
+#define KIND_LONG    7
+#define KIND_FLOAT   8
+#define KIND_DOUBLE  9
+
 /* Make this datatype available to the postgres system.
  */
 extern void ExecutionPlan_initialize(void);
@@ -35,6 +58,11 @@ void ExecutionPlan_initialize(void)
 		Java_org_postgresql_pljava_internal_ExecutionPlan__1cursorOpen
 		},
 		{
+		"_cursorOpenBlock",
+		"(JJLjava/lang/String;[B[J[D[Ljava/lang/Object;[I)Lorg/postgresql/pljava/internal/Portal;",
+		Java_org_postgresql_pljava_internal_ExecutionPlan__1cursorOpenBlock
+		},
+		{
 		"_isCursorPlan",
 		"(J)Z",
 		Java_org_postgresql_pljava_internal_ExecutionPlan__1isCursorPlan
@@ -45,8 +73,28 @@ void ExecutionPlan_initialize(void)
 		Java_org_postgresql_pljava_internal_ExecutionPlan__1execute
 		},
 		{
+		"_executeBlock",
+		"(JJ[B[J[D[Ljava/lang/Object;[II)I",
+		Java_org_postgresql_pljava_internal_ExecutionPlan__1executeBlock
+		},
+		{
+		"_executeBatch",
+		"(JJ[[Ljava/lang/Object;[II)[I",
+		Java_org_postgresql_pljava_internal_ExecutionPlan__1executeBatch
+		},
+		{
+		"_canInferParameterTypes",
+		"()Z",
+		Java_org_postgresql_pljava_internal_ExecutionPlan__1canInferParameterTypes
+		},
+		{
+		"_getParameterTypes",
+		"(J)[I",
+		Java_org_postgresql_pljava_internal_ExecutionPlan__1getParameterTypes
+		},
+		{
 		"_prepare",
-		"(JLjava/lang/String;[Lorg/postgresql/pljava/internal/Oid;)J",
+		"(JLjava/lang/String;[Lorg/postgresql/pljava/internal/Oid;Z)J",
 		Java_org_postgresql_pljava_internal_ExecutionPlan__1prepare
 		},
 		{
@@ -107,6 +155,224 @@ static bool coerceObjects(void* ePlan, jobjectArray jvalues, Datum** valuesPtr,
 	return true;
 }
 
+/* Returns the Type that coerces a Java object of the given value type into a
+ * value of the parameter type. The value type is zero when it is the same as
+ * the parameter type.
+ */
+static Type getValueType(Oid argType, Oid valueType, jobject typeMap)
+{
+	Type type = Type_fromOid(argType, typeMap);
+	if(valueType != InvalidOid && valueType != argType)
+		type = Type_getCoerceOut(Type_fromOid(valueType, typeMap), type);
+	return type;
+}
+
+/* Returns the type of a primitive value of the given kind. A byte is a small
+ * integer and not a "char".
+ */
+static Oid kindTypeId(jbyte kind)
+{
+	switch(kind)
+	{
+		case KIND_BOOLEAN:
+			return BOOLOID;
+		case KIND_BYTE:
+		case KIND_SHORT:
+			return INT2OID;
+		case KIND_INT:
+			return INT4OID;
+		case KIND_LONG:
+			return INT8OID;
+		case KIND_FLOAT:
+			return FLOAT4OID;
+	}
+	return FLOAT8OID;
+}
+
+/* Converts a value of the given type into the parameter type using the same
+ * cast that the backend would use.
+ */
+static Datum castValue(Oid typeId, Oid valueTypeId, Datum value)
+{
+	jobject typeMap = Invocation_getTypeMap();
+	Type valueType = Type_fromOid(valueTypeId, typeMap);
+	return Coerce_apply(Type_getCoerceOut(valueType, Type_fromOid(typeId, typeMap)), value);
+}
+
+static Datum coerceLong(Oid typeId, jbyte kind, jlong value)
+{
+	Oid valueTypeId;
+
+	switch(typeId)
+	{
+		case BOOLOID:
+			return BoolGetDatum(value != 0);
+		case CHAROID:
+			return CharGetDatum((char)value);
+		case INT2OID:
+			return Int16GetDatum((int16)value);
+		case INT4OID:
+			return Int32GetDatum((int32)value);
+		case INT8OID:
+			return Int64GetDatum((int64)value);
+		case FLOAT4OID:
+			return Float4GetDatum((float4)value);
+		case FLOAT8OID:
+			return Float8GetDatum((float8)value);
+	}
+
+	/* Other types are cast from the type of the value itself so that, for
+	 * instance, a boolean becomes 'true' rather than '1' in a text.
+	 */
+	valueTypeId = kindTypeId(kind);
+	return castValue(typeId, valueTypeId, coerceLong(valueTypeId, kind, value));
+}
+
+static Datum coerceDouble(Oid typeId, jbyte kind, jdouble value)
+{
+	Oid valueTypeId;
+
+	switch(typeId)
+	{
+		case FLOAT4OID:
+			return Float4GetDatum((float4)value);
+		case FLOAT8OID:
+			return Float8GetDatum((float8)value);
+	}
+
+	/* A float is not widened to a double first since that would make the
+	 * text of 0.1f '0.100000001490116'.
+	 */
+	valueTypeId = kindTypeId(kind);
+	return castValue(typeId, valueTypeId, coerceDouble(valueTypeId, kind, value));
+}
+
+/* Converts the values of a ParameterBlock. The primitive slots are read in
+ * one go and converted directly, only the reference values are coerced using
+ * their Type, and cast when their type differs from the parameter type.
+ */
+static bool coerceBlock(void* ePlan, jbyteArray jkinds, jlongArray jlongs, jdoubleArray jdoubles, jobjectArray jobjects, jintArray jtypeIds, Datum** valuesPtr, char** nullsPtr)
+{
+	char*  nulls = 0;
+	Datum* values = 0;
+
+	int count = SPI_getargcount(ePlan);
+	if((jkinds == 0 && count != 0)
+	|| (jkinds != 0 && count != JNI_getArrayLength(jkinds)))
+	{
+		Exception_throw(ERRCODE_PARAMETER_COUNT_MISMATCH,
+			"Number of values does not match number of arguments for prepared plan");
+		return false;
+	}
+
+	if(count > 0)
+	{
+		int idx;
+		jobject typeMap = 0;
+		jbyte*   kinds   = (jbyte*)palloc(count * sizeof(jbyte));
+		jlong*   longs   = (jlong*)palloc(count * sizeof(jlong));
+		jdouble* doubles = (jdouble*)palloc(count * sizeof(jdouble));
+		jint*    typeIds = (jint*)palloc(count * sizeof(jint));
+
+		JNI_getByteArrayRegion(jkinds, 0, count, kinds);
+		JNI_getLongArrayRegion(jlongs, 0, count, longs);
+		JNI_getDoubleArrayRegion(jdoubles, 0, count, doubles);
+		JNI_getIntArrayRegion(jtypeIds, 0, count, typeIds);
+
+		values = (Datum*)palloc(count * sizeof(Datum));
+		for(idx = 0; idx < count; ++idx)
+		{
+			Oid typeId = SPI_getargtypeid(ePlan, idx);
+			switch(kinds[idx])
+			{
+				case KIND_OBJECT:
+				{
+					jobject value = JNI_getObjectArrayElement(jobjects, idx);
+					if(typeMap == 0)
+						typeMap = Invocation_getTypeMap();
+					values[idx] = Type_coerceObject(getValueType(typeId, (Oid)typeIds[idx], typeMap), value);
+					JNI_deleteLocalRef(value);
+					continue;
+				}
+				case KIND_BOOLEAN:
+				case KIND_BYTE:
+				case KIND_SHORT:
+				case KIND_INT:
+				case KIND_LONG:
+					values[idx] = coerceLong(typeId, kinds[idx], longs[idx]);
+					continue;
+				case KIND_FLOAT:
+				case KIND_DOUBLE:
+					values[idx] = coerceDouble(typeId, kinds[idx], doubles[idx]);
+					continue;
+			}
+
+			values[idx] = 0;
+			if(nulls == 0)
+			{
+				nulls = (char*)palloc(count+1);
+				memset(nulls, ' ', count);	/* all values non-null initially */
+				nulls[count] = 0;
+			}
+			nulls[idx] = 'n';
+		}
+		pfree(kinds);
+		pfree(longs);
+		pfree(doubles);
+		pfree(typeIds);
+	}
+	*valuesPtr = values;
+	*nullsPtr = nulls;
+	return true;
+}
+
+#if (PGSQL_MAJOR_VER >= 9)
+typedef struct
+{
+	Oid* paramTypes;
+	int  numParams;
+} InferenceState;
+
+static void setupInference(ParseState* pstate, void* arg)
+{
+	InferenceState* state = (InferenceState*)arg;
+	parse_variable_parameters(pstate, &state->paramTypes, &state->numParams);
+}
+#endif
+
+/* Replaces the InvalidOid entries of paramOids with the types that the
+ * parser infers from the context that the parameters are used in. Parameters
+ * that have no context, such as in SELECT $1, become text. The inference
+ * requires variable parameters which SPI supports from PostgreSQL 9.0.
+ */
+static void inferParameterTypes(const char* cmd, Oid* paramOids, int paramCount)
+{
+	int idx;
+#if (PGSQL_MAJOR_VER >= 9)
+	SPIPlanPtr plan;
+	InferenceState state;
+
+	state.numParams  = paramCount;
+	state.paramTypes = (Oid*)palloc(paramCount * sizeof(Oid));
+	for(idx = 0; idx < paramCount; ++idx)
+		state.paramTypes[idx] = (paramOids[idx] == InvalidOid) ? UNKNOWNOID : paramOids[idx];
+
+	plan = SPI_prepare_params(cmd, setupInference, &state, 0);
+	if(plan == 0)
+		Exception_throwSPI("prepare_params", SPI_result);
+	SPI_freeplan(plan);
+
+	for(idx = 0; idx < paramCount && idx < state.numParams; ++idx)
+		paramOids[idx] = state.paramTypes[idx];
+	pfree(state.paramTypes);
+#endif
+	for(idx = 0; idx < paramCount; ++idx)
+	{
+		if(paramOids[idx] == InvalidOid || paramOids[idx] == UNKNOWNOID)
+			paramOids[idx] = TEXTOID;
+	}
+}
+
 /****************************************
  * JNI methods
  ****************************************/
@@ -161,6 +427,57 @@ Java_org_postgresql_pljava_internal_ExecutionPlan__1cursorOpen(JNIEnv* env, jcla
 	return jportal;
 }
 
+/*
+ * Class:     org_postgresql_pljava_internal_ExecutionPlan
+ * Method:    _cursorOpenBlock
+ * Signature: (JJLjava/lang/String;[B[J[D[Ljava/lang/Object;[I)Lorg/postgresql/pljava/internal/Portal;
+ */
+JNIEXPORT jobject JNICALL
+Java_org_postgresql_pljava_internal_ExecutionPlan__1cursorOpenBlock(JNIEnv* env, jclass clazz, jlong _this, jlong threadId, jstring cursorName, jbyteArray jkinds, jlongArray jlongs, jdoubleArray jdoubles, jobjectArray jobjects, jintArray jtypeIds)
+{
+	jobject jportal = 0;
+	if(_this != 0)
+	{
+		BEGIN_NATIVE
+		STACK_BASE_VARS
+		STACK_BASE_PUSH(threadId)
+		PG_TRY();
+		{
+			Ptr2Long p2l;
+			Datum*  values  = 0;
+			char*   nulls   = 0;
+			p2l.longVal = _this;
+			if(coerceBlock(p2l.ptrVal, jkinds, jlongs, jdoubles, jobjects, jtypeIds, &values, &nulls))
+			{
+				Portal portal;
+				char* name = 0;
+				if(cursorName != 0)
+					name = String_createNTS(cursorName);
+
+				Invocation_assertConnect();
+				portal = SPI_cursor_open(
+					name, p2l.ptrVal, values, nulls, Function_isCurrentReadOnly());
+				if(name != 0)
+					pfree(name);
+				if(values != 0)
+					pfree(values);
+				if(nulls != 0)
+					pfree(nulls);
+			
+				jportal = Portal_create(portal);
+			}
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("SPI_cursor_open");
+		}
+		PG_END_TRY();
+		STACK_BASE_POP()
+		END_NATIVE
+	}
+	return jportal;
+}
+
 /*
  * Class:     org_postgresql_pljava_internal_ExecutionPlan
  * Method:    _isCursorPlan
@@ -236,13 +553,240 @@ Java_org_postgresql_pljava_internal_ExecutionPlan__1execute(JNIEnv* env, jclass
 	return result;
 }
 
+/*
+ * Class:     org_postgresql_pljava_internal_ExecutionPlan
+ * Method:    _executeBlock
+ * Signature: (JJ[B[J[D[Ljava/lang/Object;[II)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_postgresql_pljava_internal_ExecutionPlan__1executeBlock(JNIEnv* env, jclass clazz, jlong _this, jlong threadId, jbyteArray jkinds, jlongArray jlongs, jdoubleArray jdoubles, jobjectArray jobjects, jintArray jtypeIds, jint count)
+{
+	jint result = 0;
+	if(_this != 0)
+	{
+		BEGIN_NATIVE
+		STACK_BASE_VARS
+		STACK_BASE_PUSH(threadId)
+		PG_TRY();
+		{
+			Ptr2Long p2l;
+			Datum* values = 0;
+			char*  nulls  = 0;
+			p2l.longVal = _this;
+			if(coerceBlock(p2l.ptrVal, jkinds, jlongs, jdoubles, jobjects, jtypeIds, &values, &nulls))
+			{
+				Invocation_assertConnect();
+				result = (jint)SPI_execute_plan(
+					p2l.ptrVal, values, nulls, Function_isCurrentReadOnly(), (int)count);
+				if(result < 0)
+					Exception_throwSPI("execute_plan", result);
+
+				if(values != 0)
+					pfree(values);
+				if(nulls != 0)
+					pfree(nulls);
+			}
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("SPI_execute_plan");
+		}
+		PG_END_TRY();
+		STACK_BASE_POP()
+		END_NATIVE
+	}
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_ExecutionPlan
+ * Method:    _executeBatch
+ * Signature: (JJ[[Ljava/lang/Object;[II)[I
+ */
+JNIEXPORT jintArray JNICALL
+Java_org_postgresql_pljava_internal_ExecutionPlan__1executeBatch(JNIEnv* env, jclass clazz, jlong _this, jlong threadId, jobjectArray jcolumns, jintArray jtypeIds, jint rowCount)
+{
+	jintArray result = 0;
+	if(_this != 0)
+	{
+		BEGIN_NATIVE
+		STACK_BASE_VARS
+		STACK_BASE_PUSH(threadId)
+		PG_TRY();
+		{
+			Ptr2Long p2l;
+			int    idx;
+			int    row;
+			int    count;
+			Type*  types;
+			jobjectArray* columns;
+			Datum* values;
+			char*  nulls;
+			jint*  counts;
+			jint*  typeIds;
+			jobject typeMap;
+			MemoryContext rowCtx;
+			MemoryContext currCtx;
+
+			p2l.longVal = _this;
+			count = SPI_getargcount(p2l.ptrVal);
+			if((jcolumns == 0 && count != 0)
+			|| (jcolumns != 0 && count != JNI_getArrayLength(jcolumns)))
+			{
+				Exception_throw(ERRCODE_PARAMETER_COUNT_MISMATCH,
+					"Number of values does not match number of arguments for prepared plan");
+			}
+			else
+			{
+				/* The types and the parameter columns are resolved once for
+				 * the whole batch.
+				 */
+				typeMap = Invocation_getTypeMap();
+				types   = (Type*)palloc((count > 0 ? count : 1) * sizeof(Type));
+				columns = (jobjectArray*)palloc((count > 0 ? count : 1) * sizeof(jobjectArray));
+				values  = (Datum*)palloc((count > 0 ? count : 1) * sizeof(Datum));
+				nulls   = (char*)palloc(count + 1);
+				counts  = (jint*)palloc((rowCount > 0 ? rowCount : 1) * sizeof(jint));
+				typeIds = (jint*)palloc((count > 0 ? count : 1) * sizeof(jint));
+				nulls[count] = 0;
+				if(count > 0)
+					JNI_getIntArrayRegion(jtypeIds, 0, count, typeIds);
+				for(idx = 0; idx < count; ++idx)
+				{
+					types[idx] = getValueType(SPI_getargtypeid(p2l.ptrVal, idx), (Oid)typeIds[idx], typeMap);
+					columns[idx] = (jobjectArray)JNI_getObjectArrayElement(jcolumns, idx);
+				}
+
+				/* The coerced values of a row are released as soon as the row
+				 * has been executed.
+				 */
+				rowCtx = AllocSetContextCreate(CurrentMemoryContext,
+					"PL/Java batch row",
+					ALLOCSET_DEFAULT_MINSIZE,
+					ALLOCSET_DEFAULT_INITSIZE,
+					ALLOCSET_DEFAULT_MAXSIZE);
+
+				Invocation_assertConnect();
+				for(row = 0; row < rowCount; ++row)
+				{
+					int rc;
+					currCtx = MemoryContextSwitchTo(rowCtx);
+					for(idx = 0; idx < count; ++idx)
+					{
+						jobject value = JNI_getObjectArrayElement(columns[idx], row);
+						if(value != 0)
+						{
+							values[idx] = Type_coerceObject(types[idx], value);
+							nulls[idx] = ' ';
+							JNI_deleteLocalRef(value);
+						}
+						else
+						{
+							values[idx] = 0;
+							nulls[idx] = 'n';
+						}
+					}
+					MemoryContextSwitchTo(currCtx);
+
+					rc = SPI_execute_plan(p2l.ptrVal, values, nulls, Function_isCurrentReadOnly(), 0);
+					if(rc < 0)
+					{
+						Exception_throwSPI("execute_plan", rc);
+						break;
+					}
+					counts[row] = (jint)SPI_processed;
+					SPI_freetuptable(SPI_tuptable);
+					MemoryContextReset(rowCtx);
+				}
+				MemoryContextDelete(rowCtx);
+
+				if(row == rowCount)
+				{
+					result = JNI_newIntArray(rowCount);
+					JNI_setIntArrayRegion(result, 0, rowCount, counts);
+				}
+
+				for(idx = 0; idx < count; ++idx)
+					JNI_deleteLocalRef(columns[idx]);
+				pfree(types);
+				pfree(columns);
+				pfree(values);
+				pfree(nulls);
+				pfree(counts);
+				pfree(typeIds);
+			}
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("SPI_execute_plan");
+		}
+		PG_END_TRY();
+		STACK_BASE_POP()
+		END_NATIVE
+	}
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_ExecutionPlan
+ * Method:    _canInferParameterTypes
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_postgresql_pljava_internal_ExecutionPlan__1canInferParameterTypes(JNIEnv* env, jclass clazz)
+{
+#if (PGSQL_MAJOR_VER >= 9)
+	return JNI_TRUE;
+#else
+	return JNI_FALSE;
+#endif
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_ExecutionPlan
+ * Method:    _getParameterTypes
+ * Signature: (J)[I
+ */
+JNIEXPORT jintArray JNICALL
+Java_org_postgresql_pljava_internal_ExecutionPlan__1getParameterTypes(JNIEnv* env, jclass clazz, jlong _this)
+{
+	jintArray result = 0;
+	if(_this != 0)
+	{
+		BEGIN_NATIVE
+		PG_TRY();
+		{
+			Ptr2Long p2l;
+			int idx;
+			int count;
+			jint* types;
+
+			p2l.longVal = _this;
+			count = SPI_getargcount(p2l.ptrVal);
+			types = (jint*)palloc((count > 0 ? count : 1) * sizeof(jint));
+			for(idx = 0; idx < count; ++idx)
+				types[idx] = (jint)SPI_getargtypeid(p2l.ptrVal, idx);
+			result = JNI_newIntArray(count);
+			JNI_setIntArrayRegion(result, 0, count, types);
+			pfree(types);
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("SPI_getargtypeid");
+		}
+		PG_END_TRY();
+		END_NATIVE
+	}
+	return result;
+}
+
 /*
  * Class:     org_postgresql_pljava_internal_ExecutionPlan
  * Method:    _prepare
- * Signature: (JLjava/lang/String;[Lorg/postgresql/pljava/internal/Oid;)J;
+ * Signature: (JLjava/lang/String;[Lorg/postgresql/pljava/internal/Oid;Z)J;
  */
 JNIEXPORT jlong JNICALL
-Java_org_postgresql_pljava_internal_ExecutionPlan__1prepare(JNIEnv* env, jclass clazz, jlong threadId, jstring jcmd, jobjectArray paramTypes)
+Java_org_postgresql_pljava_internal_ExecutionPlan__1prepare(JNIEnv* env, jclass clazz, jlong threadId, jstring jcmd, jobjectArray paramTypes, jboolean scrollable)
 {
 	jlong result = 0;
 	BEGIN_NATIVE
@@ -254,6 +798,7 @@ Java_org_postgresql_pljava_internal_ExecutionPlan__1prepare(JNIEnv* env, jclass
 		void* ePlan;
 		int paramCount = 0;
 		Oid* paramOids = 0;
+		bool unknown = false;
 
 		if(paramTypes != 0)
 		{
@@ -266,6 +811,8 @@ Java_org_postgresql_pljava_internal_ExecutionPlan__1prepare(JNIEnv* env, jclass
 				{
 					jobject joid = JNI_getObjectArrayElement(paramTypes, idx);
 					paramOids[idx] = Oid_getOid(joid);
+					if(paramOids[idx] == InvalidOid)
+						unknown = true;
 					JNI_deleteLocalRef(joid);
 				}
 			}
@@ -273,6 +820,16 @@ Java_org_postgresql_pljava_internal_ExecutionPlan__1prepare(JNIEnv* env, jclass
 
 		cmd   = String_createNTS(jcmd);
 		Invocation_assertConnect();
+		if(unknown)
+			inferParameterTypes(cmd, paramOids, paramCount);
+#if (PGSQL_MAJOR_VER > 8 || (PGSQL_MAJOR_VER == 8 && PGSQL_MINOR_VER >= 2))
+		/* SPI_cursor_open only makes the cursor scrollable on its own when
+		 * the plan happens to support backward scans.
+		 */
+		if(scrollable)
+			ePlan = SPI_prepare_cursor(cmd, paramCount, paramOids, CURSOR_OPT_SCROLL);
+		else
+#endif
 		ePlan = SPI_prepare(cmd, paramCount, paramOids);
 		pfree(cmd);
 
@@ -11,8 +11,7 @@
 #include "pljava/Exception.h"
 #include "pljava/Invocation.h"
 #include "pljava/Function.h"
-#include "pljava/HashMap.h"
-#include "pljava/Iterator.h"
+#include "pljava/OidHashMap.h"
 #include "pljava/type/Oid.h"
 #include "pljava/type/String.h"
 #include "pljava/type/TriggerData.h"
@@ -24,6 +23,7 @@
 #include <ctype.h>
 #include <funcapi.h>
 #include <utils/typcache.h>
+#include <utils/inval.h>
 
 #if (PGSQL_MAJOR_VER == 8 && PGSQL_MINOR_VER == 0)
 #	define PARAM_OIDS(procStruct) (procStruct)->proargtypes
@@ -60,6 +60,29 @@ struct Function_
 	 */
 	jclass clazz;
 
+	/**
+	 * The Oid of the function and the Oid of the namespace that it belongs
+	 * to. The latter is used when the functions of a schema are cleared.
+	 */
+	Oid funcOid;
+	Oid namespaceOid;
+
+	/**
+	 * Identifies the pg_proc tuple of the function when a syscache
+	 * invalidation is received.
+	 */
+#if (PGSQL_MAJOR_VER > 9 || (PGSQL_MAJOR_VER == 9 && PGSQL_MINOR_VER > 1))
+	uint32 procHash;
+#else
+	ItemPointerData procTid;
+#endif
+
+	/**
+	 * Link to the next function that has been removed from the cache but
+	 * could not be released yet.
+	 */
+	Function nextPending;
+
 	union
 	{
 		struct
@@ -125,7 +148,52 @@ typedef struct ParseResultData
 
 typedef ParseResultData *ParseResult;
 
-static HashMap s_funcMap = 0;
+/*
+ * Information kept in flinfo->fn_extra for the lifetime of a call site. The
+ * executor creates a new FmgrInfo for each statement so the id uniquely
+ * identifies a call site within one statement execution.
+ *
+ * The resolved function is cached together with the generation of the
+ * function cache at the time of resolution. A call site whose generation
+ * differs from s_funcCacheGeneration must not use its function since it
+ * may have been freed by Function_clearFunctionCache. The expression of
+ * a call site never changes so the real types of dynamic parameters and
+ * return type are resolved once and kept in paramTypes and returnType.
+ */
+typedef struct CallSiteData
+{
+	jlong    id;
+	uint32   generation;
+	Function function;
+	Type     returnType;
+	Type*    paramTypes;
+} CallSiteData;
+
+typedef CallSiteData *CallSite;
+
+static OidHashMap s_funcMap = 0;
+
+static jlong s_callSiteCounter = 0;
+
+static uint32 s_funcCacheGeneration = 1;
+
+/*
+ * Functions that have been removed from the cache and are waiting to be
+ * released. Invalidation callbacks never release functions directly since
+ * they may be called at any time, and a function that is in use cannot be
+ * released until its invocation has completed.
+ */
+static Function s_pendingFree = 0;
+
+typedef bool (*FunctionFilter)(Function func, void* arg);
+
+static bool Function_inUse(Function func);
+
+#if (PGSQL_MAJOR_VER > 9 || (PGSQL_MAJOR_VER == 9 && PGSQL_MINOR_VER > 1))
+static void invalidateProcCallback(Datum arg, int cacheId, uint32 hashValue);
+#else
+static void invalidateProcCallback(Datum arg, int cacheId, ItemPointer tuplePtr);
+#endif
 
 static jclass s_Loader_class;
 static jmethodID s_Loader_getSchemaLoader;
@@ -137,7 +205,12 @@ static void _Function_finalize(PgObject func)
 	if(!self->isUDT)
 	{
 		if(self->func.nonudt.typeMap != 0)
+		{
+			/* The reference may be reused for another type map
+			 */
+			Type_clearRealTypeCache();
 			JNI_deleteGlobalRef(self->func.nonudt.typeMap);
+		}
 		if(self->func.nonudt.paramTypes != 0)
 			pfree(self->func.nonudt.paramTypes);
 	}
@@ -146,7 +219,8 @@ static void _Function_finalize(PgObject func)
 extern void Function_initialize(void);
 void Function_initialize(void)
 {
-	s_funcMap = HashMap_create(59, TopMemoryContext);
+	s_funcMap = OidHashMap_create(59, TopMemoryContext);
+	CacheRegisterSyscacheCallback(PROCOID, invalidateProcCallback, (Datum)0);
 	
 	s_Loader_class = JNI_newGlobalRef(PgObject_getJavaClass("org/postgresql/pljava/sqlj/Loader"));
 	s_Loader_getSchemaLoader = PgObject_getStaticJavaMethod(s_Loader_class, "getSchemaLoader", "(Ljava/lang/String;)Ljava/lang/ClassLoader;");
@@ -630,19 +704,229 @@ static Function Function_create(PG_FUNCTION_ARGS)
 	parseFunction(&info, procTup);
 	Function_init(self, &info, (Form_pg_proc)GETSTRUCT(procTup), fcinfo);
 
+	self->funcOid = fcinfo->flinfo->fn_oid;
+	self->namespaceOid = ((Form_pg_proc)GETSTRUCT(procTup))->pronamespace;
+#if (PGSQL_MAJOR_VER > 9 || (PGSQL_MAJOR_VER == 9 && PGSQL_MINOR_VER > 1))
+	self->procHash = GetSysCacheHashValue1(PROCOID, ObjectIdGetDatum(self->funcOid));
+#else
+	self->procTid = procTup->t_self;
+#endif
+
 	pfree(info.buffer);
 	ReleaseSysCache(procTup);
 	return self;
 }
 
+/*
+ * Returns the call site of flinfo or 0 when the call site cannot be cached.
+ * Set returning functions are excluded since their fn_extra is used for the
+ * FuncCallContext.
+ */
+static CallSite getCallSite(FmgrInfo* flinfo)
+{
+	CallSite cs;
+	if(flinfo->fn_retset)
+		return 0;
+
+	cs = (CallSite)flinfo->fn_extra;
+	if(cs == 0)
+	{
+		cs = (CallSite)MemoryContextAllocZero(flinfo->fn_mcxt, sizeof(CallSiteData));
+		cs->id = ++s_callSiteCounter;
+		flinfo->fn_extra = cs;
+	}
+	return cs;
+}
+
+static bool matchesAll(Function func, void* arg)
+{
+	return true;
+}
+
+/*
+ * Releases the pending functions that are no longer in use.
+ */
+static void releasePending(void)
+{
+	Function  func;
+	Function* fp = &s_pendingFree;
+	while((func = *fp) != 0)
+	{
+		if(Function_inUse(func))
+			fp = &func->nextPending;
+		else
+		{
+			*fp = func->nextPending;
+			PgObject_free((PgObject)func);
+		}
+	}
+}
+
+/*
+ * Removes the functions accepted by the filter from the cache and appends
+ * them to the pending list. Call sites that have cached a function are
+ * invalidated when at least one function was removed.
+ */
+static void removeFunctions(FunctionFilter filter, void* arg)
+{
+	void*    value;
+	uint32   position = 0;
+	Function removed = 0;
+
+	while(OidHashMap_next(s_funcMap, &position, 0, &value))
+	{
+		Function func = (Function)value;
+		if(func != 0 && filter(func, arg))
+		{
+			func->nextPending = removed;
+			removed = func;
+		}
+	}
+
+	if(removed == 0)
+		return;
+
+	while(removed != 0)
+	{
+		Function func = removed;
+		removed = func->nextPending;
+		OidHashMap_remove(s_funcMap, func->funcOid);
+		func->nextPending = s_pendingFree;
+		s_pendingFree = func;
+	}
+	++s_funcCacheGeneration;
+}
+
+#if (PGSQL_MAJOR_VER > 9 || (PGSQL_MAJOR_VER == 9 && PGSQL_MINOR_VER > 1))
+static bool matchesProcHash(Function func, void* arg)
+{
+	return func->procHash == *((uint32*)arg);
+}
+
+static void invalidateProcCallback(Datum arg, int cacheId, uint32 hashValue)
+{
+	if(s_funcMap == 0)
+		return;
+
+	/* A zero hash value means that the whole cache has been reset
+	 */
+	if(hashValue == 0)
+		removeFunctions(matchesAll, 0);
+	else
+		removeFunctions(matchesProcHash, &hashValue);
+}
+#else
+static bool matchesProcTid(Function func, void* arg)
+{
+	return ItemPointerEquals(&func->procTid, (ItemPointer)arg);
+}
+
+static void invalidateProcCallback(Datum arg, int cacheId, ItemPointer tuplePtr)
+{
+	if(s_funcMap == 0)
+		return;
+
+	/* A NULL tuple pointer means that the whole cache has been reset
+	 */
+	if(tuplePtr == 0)
+		removeFunctions(matchesAll, 0);
+	else
+		removeFunctions(matchesProcTid, tuplePtr);
+}
+#endif
+
+/*
+ * Schema names are compared without regard to case since that is how the
+ * schema loaders are keyed.
+ */
+static bool matchesSchemaName(Function func, void* arg)
+{
+	bool  result = false;
+	char* nspName = get_namespace_name(func->namespaceOid);
+	if(nspName != 0)
+	{
+		result = (pg_strcasecmp(nspName, (const char*)arg) == 0);
+		pfree(nspName);
+	}
+	return result;
+}
+
+void Function_clearSchemaFunctions(const char* schemaName)
+{
+	removeFunctions(matchesSchemaName, (void*)schemaName);
+	releasePending();
+}
+
+/*
+ * Resolves the real types of the dynamic parameters and return type of a
+ * function for a call site. Returns false if the call site lacks the
+ * expression information needed for the resolution.
+ */
+static bool resolveCallSiteTypes(Function self, CallSite cs, PG_FUNCTION_ARGS)
+{
+	int32 idx;
+	int32 top = self->func.nonudt.numParams;
+	jobject typeMap = self->func.nonudt.typeMap;
+	Type  retType = self->func.nonudt.returnType;
+	Type* types;
+
+	if(Type_isDynamic(retType))
+	{
+		Oid realTypeId = get_fn_expr_rettype(fcinfo->flinfo);
+		if(!OidIsValid(realTypeId))
+			return false;
+		retType = Type_getRealType(retType, realTypeId, typeMap);
+	}
+
+	types = (Type*)MemoryContextAlloc(fcinfo->flinfo->fn_mcxt, top * sizeof(Type));
+	for(idx = 0; idx < top; ++idx)
+	{
+		Type paramType = self->func.nonudt.paramTypes[idx];
+		if(Type_isDynamic(paramType))
+		{
+			Oid realTypeId = get_fn_expr_argtype(fcinfo->flinfo, idx);
+			if(!OidIsValid(realTypeId))
+			{
+				pfree(types);
+				return false;
+			}
+			paramType = Type_getRealType(paramType, realTypeId, typeMap);
+		}
+		types[idx] = paramType;
+	}
+	cs->returnType = retType;
+	cs->paramTypes = types;
+	return true;
+}
+
 Function Function_getFunction(PG_FUNCTION_ARGS)
 {
-	Oid funcOid = fcinfo->flinfo->fn_oid;
-	Function func = (Function)HashMap_getByOid(s_funcMap, funcOid);
+	Oid funcOid;
+	Function func;
+	CallSite cs = getCallSite(fcinfo->flinfo);
+
+	if(cs != 0 && cs->function != 0 && cs->generation == s_funcCacheGeneration)
+		return cs->function;
+
+	if(s_pendingFree != 0)
+		releasePending();
+
+	funcOid = fcinfo->flinfo->fn_oid;
+	func = (Function)OidHashMap_get(s_funcMap, funcOid);
 	if(func == 0)
 	{
 		func = Function_create(fcinfo);
-		HashMap_putByOid(s_funcMap, funcOid, func);
+		OidHashMap_put(s_funcMap, funcOid, func);
+	}
+
+	if(cs != 0)
+	{
+		if(cs->paramTypes != 0)
+			pfree(cs->paramTypes);
+		cs->function = func;
+		cs->generation = s_funcCacheGeneration;
+		cs->returnType = 0;
+		cs->paramTypes = 0;
 	}
 	return func;
 }
@@ -666,15 +950,18 @@ static bool Function_inUse(Function func)
 
 void Function_clearFunctionCache(void)
 {
-	Entry entry;
-
-	HashMap oldMap = s_funcMap;
-	Iterator itor = Iterator_create(oldMap);
+	Oid    funcOid;
+	void*  value;
+	uint32 position = 0;
+	OidHashMap oldMap = s_funcMap;
 
-	s_funcMap = HashMap_create(59, TopMemoryContext);
-	while((entry = Iterator_next(itor)) != 0)
+	/* Invalidates the functions cached by the call sites
+	 */
+	++s_funcCacheGeneration;
+	s_funcMap = OidHashMap_create(59, TopMemoryContext);
+	while(OidHashMap_next(oldMap, &position, &funcOid, &value))
 	{
-		Function func = (Function)Entry_getValue(entry);
+		Function func = (Function)value;
 		if(func != 0)
 		{
 			if(Function_inUse(func))
@@ -682,17 +969,14 @@ void Function_clearFunctionCache(void)
 				/* This is the replace_jar function or similar. Just
 				 * move it to the new map.
 				 */
-				HashMap_put(s_funcMap, Entry_getKey(entry), func);
+				OidHashMap_put(s_funcMap, funcOid, func);
 			}
 			else
-			{
-				Entry_setValue(entry, 0);
 				PgObject_free((PgObject)func);
-			}
 		}
 	}
-	PgObject_free((PgObject)itor);
 	PgObject_free((PgObject)oldMap);
+	releasePending();
 }
 
 Datum Function_invoke(Function self, PG_FUNCTION_ARGS)
@@ -722,12 +1006,18 @@ Datum Function_invoke(Function self, PG_FUNCTION_ARGS)
 	if(top > 0)
 	{
 		int32 idx;
+		bool  resolved = false;
 		Type* types = self->func.nonudt.paramTypes;
+		CallSite cs = getCallSite(fcinfo->flinfo);
 
-		/* a class loader or other mechanism might have connected already. This
-		 * connection must be dropped since its parent context is wrong.
-		 */
-		if(Type_isDynamic(invokerType))
+		if(cs != 0 && cs->function == self
+		&& (cs->paramTypes != 0 || resolveCallSiteTypes(self, cs, fcinfo)))
+		{
+			types = cs->paramTypes;
+			invokerType = cs->returnType;
+			resolved = true;
+		}
+		else if(Type_isDynamic(invokerType))
 			invokerType = Type_getRealType(invokerType, get_fn_expr_rettype(fcinfo->flinfo), self->func.nonudt.typeMap);
 
 		for(idx = 0; idx < top; ++idx)
@@ -740,7 +1030,7 @@ Datum Function_invoke(Function self, PG_FUNCTION_ARGS)
 			else
 			{
 				Type paramType = types[idx];
-				if(Type_isDynamic(paramType))
+				if(!resolved && Type_isDynamic(paramType))
 					paramType = Type_getRealType(paramType, get_fn_expr_argtype(fcinfo->flinfo, idx), self->func.nonudt.typeMap);
 				args[idx] = Type_coerceDatum(paramType, PG_GETARG_DATUM(idx));
 			}
@@ -759,8 +1049,10 @@ Datum Function_invokeTrigger(Function self, PG_FUNCTION_ARGS)
 {
 	jvalue arg;
 	Datum  ret;
+	CallSite cs;
 
-	arg.l = TriggerData_create((TriggerData*)fcinfo->context);
+	cs = getCallSite(fcinfo->flinfo);
+	arg.l = TriggerData_create((TriggerData*)fcinfo->context, cs == 0 ? 0 : cs->id);
 	if(arg.l == 0)
 		return 0;
 
@@ -417,10 +417,12 @@ uint32 HashMap_size(HashMap self)
 }
 
 extern void Iterator_initialize(void);
+extern void OidHashMap_initialize(void);
 extern void HashMap_initialize(void);
 void HashMap_initialize(void)
 {
 	Iterator_initialize();
+	OidHashMap_initialize();
 
 	s_EntryClass    = PgObjectClass_create("Entry", sizeof(struct Entry_), _Entry_finalize);
 	s_HashMapClass  = PgObjectClass_create("HashMap", sizeof(struct HashMap_), _HashMap_finalize);
@@ -140,6 +140,7 @@ void Invocation_pushInvocation(Invocation* ctx, bool trusted)
 	ctx->callLocals      = 0;
 	currentInvocation   = ctx;
 	Backend_setJavaSecurity(trusted);
+	Backend_syncJavaLogLevel();
 	++s_callLevel;
 }
 
@@ -155,6 +156,11 @@ void Invocation_popInvocation(bool wasException)
 		JNI_deleteGlobalRef(currentInvocation->invocation);
 	}
 
+	/* Messages logged before an error are sent before the error is
+	 * re-raised.
+	 */
+	Backend_drainJavaLog(wasException);
+
 	if(currentInvocation->hasConnected)
 		SPI_finish();
 
@@ -759,6 +759,22 @@ jobject JNI_getStaticObjectField(jclass clazz, jfieldID field)
 	return result;
 }
 
+jsize JNI_getStringLength(jstring string)
+{
+	jsize result;
+	BEGIN_JAVA
+	result = (*env)->GetStringLength(env, string);
+	END_JAVA
+	return result;
+}
+
+void JNI_getStringRegion(jstring string, jsize start, jsize len, jchar* buf)
+{
+	BEGIN_JAVA
+	(*env)->GetStringRegion(env, string, start, len, buf);
+	END_JAVA
+}
+
 const char* JNI_getStringUTFChars(jstring string, jboolean* isCopy)
 {
 	const char* result;
@@ -898,6 +914,15 @@ jshortArray JNI_newShortArray(jsize length)
 	return result;
 }
 
+jstring JNI_newString(const jchar* unicodeChars, jsize len)
+{
+	jstring result;
+	BEGIN_JAVA
+	result = (*env)->NewString(env, unicodeChars, len);
+	END_JAVA
+	return result;
+}
+
 jstring JNI_newStringUTF(const char* bytes)
 {
 	jstring result;
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#include "pljava/PgObject_priv.h"
+#include "pljava/OidHashMap.h"
+
+typedef struct
+{
+	Oid   key;
+	void* value;
+} OidEntry;
+
+struct OidHashMap_
+{
+	struct PgObject_ PgObject_extension;
+	OidEntry* table;
+
+	/* The table size is 1 << bits
+	 */
+	uint32 bits;
+	uint32 mask;
+	uint32 size;
+};
+
+static PgObjectClass s_OidHashMapClass;
+
+#define MIN_BITS 4
+
+/*
+ * Fibonacci hashing. Oids are often allocated in sequence so the
+ * multiplication is needed to spread them over the table. The high
+ * bits of the product are the best mixed ones.
+ */
+#define HOMESLOT(self, key) (((uint32)(key) * 2654435769U) >> (32 - (self)->bits))
+
+static void OidHashMap_rehash(OidHashMap self, uint32 newBits)
+{
+	OidEntry* oldTable = self->table;
+	uint32 top = self->mask + 1;
+	uint32 idx;
+
+	self->bits  = newBits;
+	self->mask  = (1U << newBits) - 1;
+	self->table = (OidEntry*)MemoryContextAllocZero(GetMemoryChunkContext(self), (self->mask + 1) * sizeof(OidEntry));
+
+	/* Move all old entries to the new table
+	 */
+	for(idx = 0; idx < top; ++idx)
+	{
+		OidEntry* e = oldTable + idx;
+		if(e->key != InvalidOid)
+		{
+			uint32 slotNo = HOMESLOT(self, e->key);
+			while(self->table[slotNo].key != InvalidOid)
+				slotNo = (slotNo + 1) & self->mask;
+			self->table[slotNo] = *e;
+		}
+	}
+	pfree(oldTable);
+}
+
+static void _OidHashMap_finalize(PgObject self)
+{
+	pfree(((OidHashMap)self)->table);
+}
+
+OidHashMap OidHashMap_create(uint32 initialCapacity, MemoryContext ctx)
+{
+	OidHashMap self;
+	uint32 bits = MIN_BITS;
+
+	if(ctx == 0)
+		ctx = CurrentMemoryContext;
+
+	/* Keep the load factor below one half.
+	 */
+	while((1U << bits) < initialCapacity * 2)
+		++bits;
+
+	self = (OidHashMap)PgObjectClass_allocInstance(s_OidHashMapClass, ctx);
+	self->bits  = bits;
+	self->mask  = (1U << bits) - 1;
+	self->size  = 0;
+	self->table = (OidEntry*)MemoryContextAllocZero(ctx, (self->mask + 1) * sizeof(OidEntry));
+	return self;
+}
+
+void OidHashMap_clear(OidHashMap self)
+{
+	if(self->size > 0)
+	{
+		memset(self->table, 0, (self->mask + 1) * sizeof(OidEntry));
+		self->size = 0;
+	}
+}
+
+void* OidHashMap_get(OidHashMap self, Oid key)
+{
+	OidEntry* table = self->table;
+	uint32 slotNo = HOMESLOT(self, key);
+	for(;;)
+	{
+		Oid slotKey = table[slotNo].key;
+		if(slotKey == key)
+			return table[slotNo].value;
+		if(slotKey == InvalidOid)
+			return 0;
+		slotNo = (slotNo + 1) & self->mask;
+	}
+}
+
+void* OidHashMap_put(OidHashMap self, Oid key, void* value)
+{
+	uint32 slotNo;
+	OidEntry* e;
+
+	if(key == InvalidOid)
+		elog(ERROR, "Attempt to use InvalidOid as a hash key");
+
+	slotNo = HOMESLOT(self, key);
+	for(;;)
+	{
+		e = self->table + slotNo;
+		if(e->key == key)
+		{
+			void* old = e->value;
+			e->value = value;
+			return old;
+		}
+		if(e->key == InvalidOid)
+			break;
+		slotNo = (slotNo + 1) & self->mask;
+	}
+
+	if((self->size + 1) * 2 > self->mask + 1)
+	{
+		OidHashMap_rehash(self, self->bits + 1);
+		slotNo = HOMESLOT(self, key);
+		while(self->table[slotNo].key != InvalidOid)
+			slotNo = (slotNo + 1) & self->mask;
+		e = self->table + slotNo;
+	}
+	e->key = key;
+	e->value = value;
+	self->size++;
+	return 0;
+}
+
+void* OidHashMap_remove(OidHashMap self, Oid key)
+{
+	void* old;
+	OidEntry* table = self->table;
+	uint32 mask = self->mask;
+	uint32 hole;
+	uint32 slotNo = HOMESLOT(self, key);
+
+	for(;;)
+	{
+		Oid slotKey = table[slotNo].key;
+		if(slotKey == key)
+			break;
+		if(slotKey == InvalidOid)
+			return 0;
+		slotNo = (slotNo + 1) & mask;
+	}
+
+	old = table[slotNo].value;
+	self->size--;
+
+	/* Shift subsequent entries of the probe sequence backwards so that
+	 * no entry ends up behind an empty slot. This makes tombstones
+	 * unnecessary.
+	 */
+	hole = slotNo;
+	for(;;)
+	{
+		uint32 home;
+		slotNo = (slotNo + 1) & mask;
+		if(table[slotNo].key == InvalidOid)
+			break;
+
+		/* The entry can fill the hole unless its home slot lies
+		 * cyclically within (hole, slotNo].
+		 */
+		home = HOMESLOT(self, table[slotNo].key);
+		if(hole <= slotNo
+			? (home <= hole || home > slotNo)
+			: (home <= hole && home > slotNo))
+		{
+			table[hole] = table[slotNo];
+			hole = slotNo;
+		}
+	}
+	table[hole].key = InvalidOid;
+	table[hole].value = 0;
+	return old;
+}
+
+uint32 OidHashMap_size(OidHashMap self)
+{
+	return self->size;
+}
+
+bool OidHashMap_next(OidHashMap self, uint32* position, Oid* key, void** value)
+{
+	uint32 idx = *position;
+	uint32 top = self->mask + 1;
+	while(idx < top)
+	{
+		OidEntry* e = self->table + idx++;
+		if(e->key != InvalidOid)
+		{
+			*position = idx;
+			if(key != 0)
+				*key = e->key;
+			if(value != 0)
+				*value = e->value;
+			return true;
+		}
+	}
+	*position = idx;
+	return false;
+}
+
+extern void OidHashMap_initialize(void);
+void OidHashMap_initialize(void)
+{
+	s_OidHashMapClass = PgObjectClass_create("OidHashMap", sizeof(struct OidHashMap_), _OidHashMap_finalize);
+}
@@ -0,0 +1,633 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#include <postgres.h>
+#include <miscadmin.h>
+#include <access/hash.h>
+#include <storage/ipc.h>
+#include <storage/lwlock.h>
+#include <storage/shmem.h>
+#include <storage/spin.h>
+#include <utils/guc.h>
+
+#include "org_postgresql_pljava_internal_SharedCacheImpl.h"
+#include "pljava/Backend.h"
+#include "pljava/Exception.h"
+#include "pljava/SharedCache.h"
+
+/* Shared memory hooks and preload detection are available from 8.4.
+ */
+#if (PGSQL_MAJOR_VER > 8 || (PGSQL_MAJOR_VER == 8 && PGSQL_MINOR_VER > 3))
+#define SHARED_CACHE_SUPPORTED
+#endif
+
+/* The key and the value of an entry are stored consecutively in a
+ * chain of fixed size blocks.
+ */
+#define BLOCK_SIZE 128
+#define NIL (-1)
+
+typedef struct
+{
+	uint32 hash;
+	int32  chain;       /* Next entry in the bucket or in the free list */
+	int32  lruPrev;     /* More recently used entry */
+	int32  lruNext;     /* Less recently used entry */
+	int32  firstBlock;
+	int32  keyLength;
+	int32  valueLength;
+} SharedEntry;
+
+/* The header is followed by the bucket array, the entry array, the
+ * block link array and the blocks themselves.
+ *
+ * Lookups hold the lock in shared mode. The LRU list and the counters are
+ * also updated by lookups and are therefore guarded by the mutex as well.
+ * Anything that holds the lock in exclusive mode needs no mutex since no
+ * lookup can run concurrently.
+ */
+typedef struct
+{
+	LWLockId lock;
+	slock_t  mutex;
+	int32  numBuckets;
+	int32  numEntries;
+	int32  numBlocks;
+	int32  freeEntries;
+	int32  freeBlocks;
+	int32  freeBlockCount;
+	int32  lruHead;
+	int32  lruTail;
+	int32  size;
+	int64  hits;
+	int64  misses;
+	int64  evictions;
+} SharedCacheHeader;
+
+#define BUCKETS(h)      ((int32*)((char*)(h) + MAXALIGN(sizeof(SharedCacheHeader))))
+#define ENTRIES(h)      ((SharedEntry*)(BUCKETS(h) + (h)->numBuckets))
+#define BLOCKLINKS(h)   ((int32*)(ENTRIES(h) + (h)->numEntries))
+#define BLOCK(h, idx)   ((char*)(BLOCKLINKS(h) + (h)->numBlocks) + (Size)(idx) * BLOCK_SIZE)
+
+/* Each block comes with one entry and one bucket so that a cache
+ * filled with small values does not run out of entries.
+ */
+#define BYTES_PER_BLOCK (BLOCK_SIZE + sizeof(int32) + sizeof(SharedEntry) + sizeof(int32))
+
+static SharedCacheHeader* s_cache = 0;
+static int s_sharedCacheSize = 0;
+
+static int32 getNumBlocks(void)
+{
+	Size total = (Size)s_sharedCacheSize * 1024;
+	Size header = MAXALIGN(sizeof(SharedCacheHeader));
+	return total > header ? (int32)((total - header) / BYTES_PER_BLOCK) : 0;
+}
+
+static Size getShmemSize(int32 numBlocks)
+{
+	return MAXALIGN(sizeof(SharedCacheHeader)) + (Size)numBlocks * BYTES_PER_BLOCK;
+}
+
+static void lruUnlink(SharedCacheHeader* h, int32 idx)
+{
+	SharedEntry* entries = ENTRIES(h);
+	SharedEntry* e = entries + idx;
+	if(e->lruPrev == NIL)
+		h->lruHead = e->lruNext;
+	else
+		entries[e->lruPrev].lruNext = e->lruNext;
+	if(e->lruNext == NIL)
+		h->lruTail = e->lruPrev;
+	else
+		entries[e->lruNext].lruPrev = e->lruPrev;
+}
+
+static void lruPush(SharedCacheHeader* h, int32 idx)
+{
+	SharedEntry* entries = ENTRIES(h);
+	SharedEntry* e = entries + idx;
+	e->lruPrev = NIL;
+	e->lruNext = h->lruHead;
+	if(h->lruHead == NIL)
+		h->lruTail = idx;
+	else
+		entries[h->lruHead].lruPrev = idx;
+	h->lruHead = idx;
+}
+
+static bool keyEquals(SharedCacheHeader* h, SharedEntry* e, const char* key, int32 keyLength)
+{
+	int32* links = BLOCKLINKS(h);
+	int32 block = e->firstBlock;
+	while(keyLength > 0)
+	{
+		int32 n = keyLength < BLOCK_SIZE ? keyLength : BLOCK_SIZE;
+		if(memcmp(BLOCK(h, block), key, n) != 0)
+			return false;
+		key += n;
+		keyLength -= n;
+		block = links[block];
+	}
+	return true;
+}
+
+static int32 findEntry(SharedCacheHeader* h, uint32 hash, const char* key, int32 keyLength)
+{
+	SharedEntry* entries = ENTRIES(h);
+	int32 idx = BUCKETS(h)[hash % h->numBuckets];
+	while(idx != NIL)
+	{
+		SharedEntry* e = entries + idx;
+		if(e->hash == hash && e->keyLength == keyLength && keyEquals(h, e, key, keyLength))
+			break;
+		idx = e->chain;
+	}
+	return idx;
+}
+
+static void removeEntry(SharedCacheHeader* h, int32 idx)
+{
+	SharedEntry* entries = ENTRIES(h);
+	SharedEntry* e = entries + idx;
+	int32* links = BLOCKLINKS(h);
+	int32* slot = BUCKETS(h) + e->hash % h->numBuckets;
+
+	while(*slot != idx)
+		slot = &entries[*slot].chain;
+	*slot = e->chain;
+
+	lruUnlink(h, idx);
+
+	if(e->firstBlock != NIL)
+	{
+		int32 last = e->firstBlock;
+		h->freeBlockCount++;
+		while(links[last] != NIL)
+		{
+			last = links[last];
+			h->freeBlockCount++;
+		}
+		links[last] = h->freeBlocks;
+		h->freeBlocks = e->firstBlock;
+	}
+
+	e->chain = h->freeEntries;
+	h->freeEntries = idx;
+	h->size--;
+}
+
+/* Stores the key and the value given in a buffer where the value
+ * follows the key. Returns false if the entry can never fit.
+ */
+static bool putEntry(SharedCacheHeader* h, uint32 hash, const char* bytes, int32 keyLength, int32 valueLength)
+{
+	int32  idx;
+	int32  block;
+	int32  length = keyLength + valueLength;
+	int32  needed = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	int32* links = BLOCKLINKS(h);
+	int32* bucket;
+	SharedEntry* e;
+
+	if(needed > h->numBlocks)
+		return false;
+
+	idx = findEntry(h, hash, bytes, keyLength);
+	if(idx != NIL)
+		removeEntry(h, idx);
+
+	while(h->freeBlockCount < needed || h->freeEntries == NIL)
+	{
+		removeEntry(h, h->lruTail);
+		h->evictions++;
+	}
+
+	idx = h->freeEntries;
+	e = ENTRIES(h) + idx;
+	h->freeEntries = e->chain;
+
+	e->hash = hash;
+	e->keyLength = keyLength;
+	e->valueLength = valueLength;
+	e->firstBlock = needed > 0 ? h->freeBlocks : NIL;
+
+	block = NIL;
+	while(length > 0)
+	{
+		int32 n = length < BLOCK_SIZE ? length : BLOCK_SIZE;
+		block = h->freeBlocks;
+		h->freeBlocks = links[block];
+		memcpy(BLOCK(h, block), bytes, n);
+		bytes += n;
+		length -= n;
+	}
+	if(block != NIL)
+		links[block] = NIL;
+	h->freeBlockCount -= needed;
+
+	bucket = BUCKETS(h) + hash % h->numBuckets;
+	e->chain = *bucket;
+	*bucket = idx;
+	lruPush(h, idx);
+	h->size++;
+	return true;
+}
+
+/* Copies the value of the entry into the given buffer.
+ */
+static void copyValue(SharedCacheHeader* h, SharedEntry* e, char* dest)
+{
+	int32* links = BLOCKLINKS(h);
+	int32 block = e->firstBlock;
+	int32 skip = e->keyLength;
+	int32 remaining = e->valueLength;
+
+	while(skip >= BLOCK_SIZE)
+	{
+		block = links[block];
+		skip -= BLOCK_SIZE;
+	}
+	while(remaining > 0)
+	{
+		int32 n = BLOCK_SIZE - skip;
+		if(n > remaining)
+			n = remaining;
+		memcpy(dest, BLOCK(h, block) + skip, n);
+		dest += n;
+		remaining -= n;
+		skip = 0;
+		block = links[block];
+	}
+}
+
+/* Copies the key, followed by the value if given, into palloc'ed memory.
+ * This is done before the lock is acquired so that nothing that may
+ * elog is done while the lock is held.
+ */
+static char* getBytes(jbyteArray key, jbyteArray value, int32* keyLength, int32* valueLength)
+{
+	char* bytes;
+	*keyLength = JNI_getArrayLength(key);
+	*valueLength = value == 0 ? 0 : JNI_getArrayLength(value);
+	bytes = (char*)palloc(*keyLength + *valueLength + 1);
+	JNI_getByteArrayRegion(key, 0, *keyLength, (jbyte*)bytes);
+	if(value != 0)
+		JNI_getByteArrayRegion(value, 0, *valueLength, (jbyte*)bytes + *keyLength);
+	return bytes;
+}
+
+#ifdef SHARED_CACHE_SUPPORTED
+static shmem_startup_hook_type s_prevShmemStartupHook = 0;
+
+static void sharedCacheShmemStartup(void)
+{
+	bool found;
+	int32 numBlocks = getNumBlocks();
+
+	if(s_prevShmemStartupHook != 0)
+		s_prevShmemStartupHook();
+
+	LWLockAcquire(AddinShmemInitLock, LW_EXCLUSIVE);
+	s_cache = (SharedCacheHeader*)ShmemInitStruct("PL/Java shared cache", getShmemSize(numBlocks), &found);
+	if(!found)
+	{
+		int32 idx;
+		int32* buckets;
+		int32* links;
+		SharedEntry* entries;
+		SharedCacheHeader* h = s_cache;
+
+		h->lock = LWLockAssign();
+		SpinLockInit(&h->mutex);
+		h->numBuckets = numBlocks;
+		h->numEntries = numBlocks;
+		h->numBlocks  = numBlocks;
+		h->lruHead = NIL;
+		h->lruTail = NIL;
+		h->size = 0;
+		h->hits = 0;
+		h->misses = 0;
+		h->evictions = 0;
+
+		buckets = BUCKETS(h);
+		entries = ENTRIES(h);
+		links = BLOCKLINKS(h);
+		for(idx = 0; idx < numBlocks; ++idx)
+		{
+			buckets[idx] = NIL;
+			entries[idx].chain = idx + 1;
+			links[idx] = idx + 1;
+		}
+		entries[numBlocks - 1].chain = NIL;
+		links[numBlocks - 1] = NIL;
+		h->freeEntries = 0;
+		h->freeBlocks = 0;
+		h->freeBlockCount = numBlocks;
+	}
+	LWLockRelease(AddinShmemInitLock);
+}
+#endif
+
+void SharedCache_requestShmem(void)
+{
+#ifdef SHARED_CACHE_SUPPORTED
+	DefineCustomIntVariable(
+		"pljava.shared_cache_size",
+		"Size of the cache that is shared between backends. Requires that pljava is loaded using shared_preload_libraries",
+		NULL,
+		&s_sharedCacheSize,
+		0,
+		0, MAX_KILOBYTES,
+		PGC_POSTMASTER,
+		GUC_UNIT_KB,
+		#if (PGSQL_MAJOR_VER > 9 || (PGSQL_MAJOR_VER == 9 && PGSQL_MINOR_VER > 0))
+			NULL,
+		#endif
+		NULL, NULL);
+
+	if(!process_shared_preload_libraries_in_progress || getNumBlocks() == 0)
+		return;
+
+	RequestAddinShmemSpace(getShmemSize(getNumBlocks()));
+	RequestAddinLWLocks(1);
+
+	s_prevShmemStartupHook = shmem_startup_hook;
+	shmem_startup_hook = sharedCacheShmemStartup;
+#endif
+}
+
+extern void SharedCache_initialize(void);
+void SharedCache_initialize(void)
+{
+	JNINativeMethod methods[] =
+	{
+		{
+		"_isAvailable",
+		"()Z",
+		Java_org_postgresql_pljava_internal_SharedCacheImpl__1isAvailable
+		},
+		{
+		"_get",
+		"([B)[B",
+		Java_org_postgresql_pljava_internal_SharedCacheImpl__1get
+		},
+		{
+		"_put",
+		"([B[B)Z",
+		Java_org_postgresql_pljava_internal_SharedCacheImpl__1put
+		},
+		{
+		"_remove",
+		"([B)Z",
+		Java_org_postgresql_pljava_internal_SharedCacheImpl__1remove
+		},
+		{
+		"_clear",
+		"()V",
+		Java_org_postgresql_pljava_internal_SharedCacheImpl__1clear
+		},
+		{
+		"_getStatistics",
+		"()[J",
+		Java_org_postgresql_pljava_internal_SharedCacheImpl__1getStatistics
+		},
+		{ 0, 0, 0 }
+	};
+	PgObject_registerNatives("org/postgresql/pljava/internal/SharedCacheImpl", methods);
+}
+
+/****************************************
+ * JNI methods
+ ****************************************/
+
+/*
+ * Class:     org_postgresql_pljava_internal_SharedCacheImpl
+ * Method:    _isAvailable
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_postgresql_pljava_internal_SharedCacheImpl__1isAvailable(JNIEnv* env, jclass cls)
+{
+	return s_cache != 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_SharedCacheImpl
+ * Method:    _get
+ * Signature: ([B)[B
+ */
+JNIEXPORT jbyteArray JNICALL
+Java_org_postgresql_pljava_internal_SharedCacheImpl__1get(JNIEnv* env, jclass cls, jbyteArray key)
+{
+	jbyteArray result = 0;
+	if(s_cache == 0 || key == 0)
+		return 0;
+
+	BEGIN_NATIVE
+	volatile bool locked = false;
+	PG_TRY();
+	{
+		int32 idx;
+		int32 keyLength;
+		int32 valueLength;
+		char* value = 0;
+		char* bytes = getBytes(key, 0, &keyLength, &valueLength);
+		uint32 hash = DatumGetUInt32(hash_any((unsigned char*)bytes, keyLength));
+
+		LWLockAcquire(s_cache->lock, LW_SHARED);
+		locked = true;
+		idx = findEntry(s_cache, hash, bytes, keyLength);
+		if(idx != NIL)
+		{
+			valueLength = ENTRIES(s_cache)[idx].valueLength;
+			value = (char*)palloc(valueLength + 1);
+			copyValue(s_cache, ENTRIES(s_cache) + idx, value);
+		}
+
+		SpinLockAcquire(&s_cache->mutex);
+		if(idx == NIL)
+			s_cache->misses++;
+		else
+		{
+			s_cache->hits++;
+			lruUnlink(s_cache, idx);
+			lruPush(s_cache, idx);
+		}
+		SpinLockRelease(&s_cache->mutex);
+		LWLockRelease(s_cache->lock);
+		locked = false;
+		pfree(bytes);
+
+		/* The Java array is created when the lock has been released.
+		 */
+		if(value != 0)
+		{
+			result = JNI_newByteArray(valueLength);
+			if(result != 0)
+				JNI_setByteArrayRegion(result, 0, valueLength, (jbyte*)value);
+			pfree(value);
+		}
+	}
+	PG_CATCH();
+	{
+		if(locked)
+			LWLockRelease(s_cache->lock);
+		Exception_throw_ERROR("SharedCache_get");
+	}
+	PG_END_TRY();
+	END_NATIVE
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_SharedCacheImpl
+ * Method:    _put
+ * Signature: ([B[B)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_postgresql_pljava_internal_SharedCacheImpl__1put(JNIEnv* env, jclass cls, jbyteArray key, jbyteArray value)
+{
+	jboolean result = JNI_FALSE;
+	if(s_cache == 0 || key == 0 || value == 0)
+		return JNI_FALSE;
+
+	BEGIN_NATIVE
+	volatile bool locked = false;
+	PG_TRY();
+	{
+		int32 keyLength;
+		int32 valueLength;
+		char* bytes = getBytes(key, value, &keyLength, &valueLength);
+		uint32 hash = DatumGetUInt32(hash_any((unsigned char*)bytes, keyLength));
+
+		LWLockAcquire(s_cache->lock, LW_EXCLUSIVE);
+		locked = true;
+		result = putEntry(s_cache, hash, bytes, keyLength, valueLength) ? JNI_TRUE : JNI_FALSE;
+		LWLockRelease(s_cache->lock);
+		locked = false;
+		pfree(bytes);
+	}
+	PG_CATCH();
+	{
+		if(locked)
+			LWLockRelease(s_cache->lock);
+		Exception_throw_ERROR("SharedCache_put");
+	}
+	PG_END_TRY();
+	END_NATIVE
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_SharedCacheImpl
+ * Method:    _remove
+ * Signature: ([B)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_postgresql_pljava_internal_SharedCacheImpl__1remove(JNIEnv* env, jclass cls, jbyteArray key)
+{
+	jboolean result = JNI_FALSE;
+	if(s_cache == 0 || key == 0)
+		return JNI_FALSE;
+
+	BEGIN_NATIVE
+	volatile bool locked = false;
+	PG_TRY();
+	{
+		int32 idx;
+		int32 keyLength;
+		int32 valueLength;
+		char* bytes = getBytes(key, 0, &keyLength, &valueLength);
+		uint32 hash = DatumGetUInt32(hash_any((unsigned char*)bytes, keyLength));
+
+		LWLockAcquire(s_cache->lock, LW_EXCLUSIVE);
+		locked = true;
+		idx = findEntry(s_cache, hash, bytes, keyLength);
+		if(idx != NIL)
+		{
+			removeEntry(s_cache, idx);
+			result = JNI_TRUE;
+		}
+		LWLockRelease(s_cache->lock);
+		locked = false;
+		pfree(bytes);
+	}
+	PG_CATCH();
+	{
+		if(locked)
+			LWLockRelease(s_cache->lock);
+		Exception_throw_ERROR("SharedCache_remove");
+	}
+	PG_END_TRY();
+	END_NATIVE
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_SharedCacheImpl
+ * Method:    _clear
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL
+Java_org_postgresql_pljava_internal_SharedCacheImpl__1clear(JNIEnv* env, jclass cls)
+{
+	if(s_cache == 0)
+		return;
+
+	BEGIN_NATIVE
+	volatile bool locked = false;
+	PG_TRY();
+	{
+		LWLockAcquire(s_cache->lock, LW_EXCLUSIVE);
+		locked = true;
+		while(s_cache->lruHead != NIL)
+			removeEntry(s_cache, s_cache->lruHead);
+		LWLockRelease(s_cache->lock);
+		locked = false;
+	}
+	PG_CATCH();
+	{
+		if(locked)
+			LWLockRelease(s_cache->lock);
+		Exception_throw_ERROR("SharedCache_clear");
+	}
+	PG_END_TRY();
+	END_NATIVE
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_SharedCacheImpl
+ * Method:    _getStatistics
+ * Signature: ()[J
+ */
+JNIEXPORT jlongArray JNICALL
+Java_org_postgresql_pljava_internal_SharedCacheImpl__1getStatistics(JNIEnv* env, jclass cls)
+{
+	jlongArray result = 0;
+	BEGIN_NATIVE
+	jlong stats[4];
+	memset(stats, 0, sizeof(stats));
+	if(s_cache != 0)
+	{
+		/* The counters are read without the lock. They are only
+		 * used for monitoring.
+		 */
+		stats[0] = (jlong)s_cache->size;
+		stats[1] = (jlong)s_cache->hits;
+		stats[2] = (jlong)s_cache->misses;
+		stats[3] = (jlong)s_cache->evictions;
+	}
+	result = JNI_newLongArray(4);
+	if(result != 0)
+		JNI_setLongArrayRegion(result, 0, 4, stats);
+	END_NATIVE
+	return result;
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#include <postgres.h>
+
+#include "org_postgresql_pljava_internal_StringCache.h"
+#include "pljava/Backend.h"
+#include "pljava/Exception.h"
+#include "pljava/StringCache.h"
+#include "pljava/type/String_priv.h"
+
+/*
+ * Must be kept in sync with StringCache.MAX_VALUE_LENGTH
+ */
+#define MAX_VALUE_LENGTH 64
+
+#define MIN_CAPACITY 16
+#define MAX_CAPACITY 4096
+
+typedef struct
+{
+	jstring value;
+	Oid     typeId;
+	uint32  hash;
+	int     length;
+	char    bytes[MAX_VALUE_LENGTH];
+} StringCacheEntry;
+
+/*
+ * A direct mapped table. A value that maps to an occupied slot replaces
+ * the value in that slot, so the size of the cache is bounded by its
+ * capacity.
+ */
+struct StringCache_
+{
+	uint32 mask;
+	StringCacheEntry entries[1];
+};
+
+static uint32 hashBytes(Oid typeId, const char* bytes, int length)
+{
+	uint32 h = (uint32)typeId;
+	while(--length >= 0)
+		h = 31 * h + (unsigned char)*bytes++;
+	return h ^ (h >> 16);
+}
+
+static StringCache StringCache_create(int capacity)
+{
+	StringCache self;
+	uint32 size = MIN_CAPACITY;
+
+	while(size < (uint32)capacity && size < MAX_CAPACITY)
+		size <<= 1;
+
+	self = (StringCache)MemoryContextAllocZero(JavaMemoryContext,
+		sizeof(struct StringCache_) + (size - 1) * sizeof(StringCacheEntry));
+	self->mask = size - 1;
+	return self;
+}
+
+static void StringCache_clear(StringCache self)
+{
+	uint32 idx;
+	for(idx = 0; idx <= self->mask; ++idx)
+	{
+		StringCacheEntry* e = self->entries + idx;
+		if(e->value != 0)
+		{
+			JNI_deleteGlobalRef(e->value);
+			e->value = 0;
+		}
+	}
+}
+
+/*
+ * Obtains the bytes that make up the stored representation of value. Returns
+ * false when the value cannot be cached because it is too long or because
+ * it is toasted (toasted values are never short).
+ */
+static bool getDatumBytes(Type type, Datum value, const char** bytesPtr, int* lengthPtr)
+{
+	const char* bytes;
+	int length;
+
+	if(type->byValue)
+	{
+		*bytesPtr  = (const char*)&value;
+		*lengthPtr = sizeof(Datum);
+		return true;
+	}
+
+	if(type->length > 0)
+	{
+		bytes  = (const char*)DatumGetPointer(value);
+		length = type->length;
+	}
+	else if(type->length == -1)
+	{
+		struct varlena* vl = (struct varlena*)DatumGetPointer(value);
+#if (PGSQL_MAJOR_VER == 8 && PGSQL_MINOR_VER < 3)
+		if(VARATT_IS_EXTENDED(vl))
+			return false;
+		bytes  = VARDATA(vl);
+		length = VARSIZE(vl) - VARHDRSZ;
+#else
+		if(VARATT_IS_EXTERNAL(vl) || VARATT_IS_COMPRESSED(vl))
+			return false;
+		bytes  = VARDATA_ANY(vl);
+		length = VARSIZE_ANY_EXHDR(vl);
+#endif
+	}
+	else
+	{
+		bytes  = DatumGetCString(value);
+		length = strlen(bytes);
+	}
+
+	if(length > MAX_VALUE_LENGTH)
+		return false;
+
+	*bytesPtr  = bytes;
+	*lengthPtr = length;
+	return true;
+}
+
+jobject StringCache_coerceDatum(StringCache self, Type type, Datum value)
+{
+	const char* bytes;
+	int     length;
+	uint32  hash;
+	jstring result;
+	StringCacheEntry* e;
+
+	if(self == 0 || !String_isString(type)
+	|| !getDatumBytes(type, value, &bytes, &length))
+		return Type_coerceDatum(type, value).l;
+
+	/* The entries are keyed by the type and the stored bytes of the value,
+	 * so a hit needs neither the output function nor a decoding.
+	 */
+	hash = hashBytes(type->typeId, bytes, length);
+	e = self->entries + (hash & self->mask);
+	if(e->value != 0 && e->hash == hash && e->typeId == type->typeId
+	&& e->length == length && memcmp(e->bytes, bytes, length) == 0)
+		return JNI_newLocalRef(e->value);
+
+	result = Type_coerceDatum(type, value).l;
+	if(result != 0)
+	{
+		if(e->value != 0)
+			JNI_deleteGlobalRef(e->value);
+		e->value  = (jstring)JNI_newGlobalRef(result);
+		e->typeId = type->typeId;
+		e->hash   = hash;
+		e->length = length;
+		memcpy(e->bytes, bytes, length);
+	}
+	return result;
+}
+
+/* Make this datatype available to the postgres system.
+ */
+extern void StringCache_initialize(void);
+void StringCache_initialize(void)
+{
+	JNINativeMethod methods[] =
+	{
+		{
+		"_create",
+		"(I)J",
+		Java_org_postgresql_pljava_internal_StringCache__1create
+		},
+		{
+		"_clear",
+		"(J)V",
+		Java_org_postgresql_pljava_internal_StringCache__1clear
+		},
+		{
+		"_free",
+		"(J)V",
+		Java_org_postgresql_pljava_internal_StringCache__1free
+		},
+		{ 0, 0, 0 }
+	};
+	PgObject_registerNatives("org/postgresql/pljava/internal/StringCache", methods);
+}
+
+/****************************************
+ * JNI methods
+ ****************************************/
+
+/*
+ * Class:     org_postgresql_pljava_internal_StringCache
+ * Method:    _create
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_postgresql_pljava_internal_StringCache__1create(JNIEnv* env, jclass cls, jint capacity)
+{
+	Ptr2Long p2l;
+	p2l.longVal = 0L; /* ensure that the rest is zeroed out */
+
+	BEGIN_NATIVE
+	PG_TRY();
+	{
+		p2l.ptrVal = StringCache_create((int)capacity);
+	}
+	PG_CATCH();
+	{
+		Exception_throw_ERROR("MemoryContextAlloc");
+	}
+	PG_END_TRY();
+	END_NATIVE
+	return p2l.longVal;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_StringCache
+ * Method:    _clear
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL
+Java_org_postgresql_pljava_internal_StringCache__1clear(JNIEnv* env, jclass cls, jlong pointer)
+{
+	BEGIN_NATIVE_NO_ERRCHECK
+	Ptr2Long p2l;
+	p2l.longVal = pointer;
+	if(p2l.ptrVal != 0)
+		StringCache_clear((StringCache)p2l.ptrVal);
+	END_NATIVE
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_StringCache
+ * Method:    _free
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL
+Java_org_postgresql_pljava_internal_StringCache__1free(JNIEnv* env, jobject _this, jlong pointer)
+{
+	BEGIN_NATIVE_NO_ERRCHECK
+	Ptr2Long p2l;
+	p2l.longVal = pointer;
+	if(p2l.ptrVal != 0)
+	{
+		StringCache_clear((StringCache)p2l.ptrVal);
+		pfree(p2l.ptrVal);
+	}
+	END_NATIVE
+}
@@ -27,10 +27,16 @@ static void subXactCB(SubXactEvent event, SubTransactionId mySubid, SubTransacti
 	{
 		case SUBXACT_EVENT_START_SUB:
 			{
+			/* infant is only set when the subtransaction is started by
+			 * a setSavepoint call.
+			 */
 			Ptr2Long infant2l;
-			infant->xid = mySubid;
 			infant2l.longVal = 0L; /* ensure that the rest is zeroed out */
-			infant2l.ptrVal = infant;
+			if(infant != 0)
+			{
+				infant->xid = mySubid;
+				infant2l.ptrVal = infant;
+			}
 			JNI_callStaticVoidMethod(s_SubXactListener_class, s_SubXactListener_onStart, p2l.longVal, infant2l.longVal, parentSubid);
 			}
 			break;
@@ -7,35 +7,312 @@
  * @author Thomas Hallgren
  */
 #include <postgres.h>
+#include <libpq/pqformat.h>
+#include <utils/builtins.h>
 #include <utils/memutils.h>
 #include <utils/numeric.h>
 
 #include "pljava/type/String_priv.h"
 
 /*
- * BigDecimal type. We use String conversions here. Perhaps there's
- * room for optimizations such as creating a 2's complement byte
- * array directly from the digits. Don't think we'd gain much though.
+ * BigDecimal type. The conversion uses the binary format of numeric_send
+ * and numeric_recv, i.e. a sign, a weight, a display scale and an array of
+ * base 10000 digits. The format is stable across PostgreSQL versions which
+ * the in-memory format is not. The BigDecimal is created from, and split
+ * into, an unscaled BigInteger and a scale. Values with at most 18 decimal
+ * digits use a long instead of a BigInteger.
  */
+#define NBASE       10000
+#define DEC_DIGITS  4
+#define NUMERIC_POS 0x0000
+#define NUMERIC_NEG 0x4000
+#define NUMERIC_NAN 0xC000
+
+/* The number of decimal digits that always fit in an int64
+ */
+#define MAX_LONG_DIGITS 18
+
 static jclass    s_BigDecimal_class;
 static jmethodID s_BigDecimal_init;
-static jmethodID s_BigDecimal_toString;
+static jmethodID s_BigDecimal_valueOf;
+static jmethodID s_BigDecimal_scale;
+static jmethodID s_BigDecimal_setScale;
+static jmethodID s_BigDecimal_unscaledValue;
+static jclass    s_BigInteger_class;
+static jmethodID s_BigInteger_init;
+static jmethodID s_BigInteger_abs;
+static jmethodID s_BigInteger_bitLength;
+static jmethodID s_BigInteger_longValue;
+static jmethodID s_BigInteger_signum;
+static jmethodID s_BigInteger_toByteArray;
 static TypeClass s_BigDecimalClass;
 
+static const uint32 s_pow10[] =
+{
+	1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000
+};
+
+/*
+ * Magnitudes are arrays of 32 bit limbs, least significant first.
+ */
+static int mulAdd(uint32* mag, int len, uint32 mul, uint32 add)
+{
+	uint64 carry = add;
+	int idx;
+	for(idx = 0; idx < len; ++idx)
+	{
+		carry += (uint64)mag[idx] * mul;
+		mag[idx] = (uint32)carry;
+		carry >>= 32;
+	}
+	if(carry != 0)
+		mag[len++] = (uint32)carry;
+	return len;
+}
+
+static int mulPow10(uint32* mag, int len, int exp)
+{
+	while(exp >= 9)
+	{
+		len = mulAdd(mag, len, s_pow10[9], 0);
+		exp -= 9;
+	}
+	if(exp > 0)
+		len = mulAdd(mag, len, s_pow10[exp], 0);
+	return len;
+}
+
+/*
+ * Divides the magnitude in place and returns the remainder. The length is
+ * updated so that the most significant limb is non zero.
+ */
+static uint32 divRem(uint32* mag, int* len, uint32 div)
+{
+	uint64 rem = 0;
+	int idx;
+	for(idx = *len - 1; idx >= 0; --idx)
+	{
+		uint64 cur = (rem << 32) | mag[idx];
+		mag[idx] = (uint32)(cur / div);
+		rem = cur % div;
+	}
+	while(*len > 0 && mag[*len - 1] == 0)
+		--(*len);
+	return (uint32)rem;
+}
+
+static int divPow10(uint32* mag, int len, int exp)
+{
+	while(exp >= 9)
+	{
+		divRem(mag, &len, s_pow10[9]);
+		exp -= 9;
+	}
+	if(exp > 0)
+		divRem(mag, &len, s_pow10[exp]);
+	return len;
+}
+
 static jvalue _BigDecimal_coerceDatum(Type self, Datum arg)
 {
-	jvalue result = _String_coerceDatum(self, arg);
-	if(result.l != 0)
-		result.l = JNI_newObject(s_BigDecimal_class, s_BigDecimal_init, result.l);
+	jvalue result;
+	StringInfoData buf;
+	bytea* bin;
+	int ndigits;
+	int weight;
+	int sign;
+	int dscale;
+	int digitScale;
+	int idx;
+
+	bin = DatumGetByteaP(DirectFunctionCall1(numeric_send, arg));
+	buf.data   = VARDATA(bin);
+	buf.len    = VARSIZE(bin) - VARHDRSZ;
+	buf.maxlen = buf.len;
+	buf.cursor = 0;
+
+	ndigits = (int)pq_getmsgint(&buf, sizeof(int16));
+	weight  = (int16)pq_getmsgint(&buf, sizeof(int16));
+	sign    = (int)pq_getmsgint(&buf, sizeof(int16));
+	dscale  = (int)pq_getmsgint(&buf, sizeof(int16));
+
+	if(sign == NUMERIC_NAN)
+		ereport(ERROR, (
+			errcode(ERRCODE_INVALID_PARAMETER_VALUE),
+			errmsg("cannot convert numeric NaN to java.math.BigDecimal")));
+
+	/* The digits form an integer with this many decimal digits after
+	 * the point. It is scaled to dscale below.
+	 */
+	digitScale = (ndigits - 1 - weight) * DEC_DIGITS;
+
+	if(ndigits * DEC_DIGITS + Max(dscale - digitScale, 0) <= MAX_LONG_DIGITS)
+	{
+		int64 value = 0;
+		for(idx = 0; idx < ndigits; ++idx)
+			value = value * NBASE + (int16)pq_getmsgint(&buf, sizeof(int16));
+
+		for(idx = digitScale; idx < dscale; ++idx)
+			value *= 10;
+		for(idx = dscale; idx < digitScale; ++idx)
+			value /= 10;
+
+		if(sign == NUMERIC_NEG)
+			value = -value;
+		result.l = JNI_callStaticObjectMethod(s_BigDecimal_class, s_BigDecimal_valueOf, value, dscale);
+	}
+	else
+	{
+		int len = 0;
+		int nbytes;
+		jbyte* bytes;
+		jbyteArray magnitude;
+		jobject unscaled;
+		uint32* mag = (uint32*)palloc(((ndigits * DEC_DIGITS + Max(dscale - digitScale, 0)) / 9 + 2) * sizeof(uint32));
+
+		for(idx = 0; idx < ndigits; ++idx)
+			len = mulAdd(mag, len, NBASE, (int16)pq_getmsgint(&buf, sizeof(int16)));
+
+		if(dscale > digitScale)
+			len = mulPow10(mag, len, dscale - digitScale);
+		else
+			len = divPow10(mag, len, digitScale - dscale);
+
+		/* BigInteger wants a big-endian magnitude
+		 */
+		nbytes = len * sizeof(uint32);
+		bytes = (jbyte*)palloc(nbytes + 1);
+		for(idx = 0; idx < len; ++idx)
+		{
+			uint32 limb = mag[len - 1 - idx];
+			bytes[idx * 4]     = (jbyte)(limb >> 24);
+			bytes[idx * 4 + 1] = (jbyte)(limb >> 16);
+			bytes[idx * 4 + 2] = (jbyte)(limb >> 8);
+			bytes[idx * 4 + 3] = (jbyte)limb;
+		}
+		magnitude = JNI_newByteArray(nbytes);
+		JNI_setByteArrayRegion(magnitude, 0, nbytes, bytes);
+		pfree(bytes);
+		pfree(mag);
+
+		unscaled = JNI_newObject(s_BigInteger_class, s_BigInteger_init,
+			len == 0 ? 0 : (sign == NUMERIC_NEG ? -1 : 1), magnitude);
+		JNI_deleteLocalRef(magnitude);
+		result.l = JNI_newObject(s_BigDecimal_class, s_BigDecimal_init, unscaled, dscale);
+		JNI_deleteLocalRef(unscaled);
+	}
+	pfree(bin);
 	return result;
 }
 
 static Datum _BigDecimal_coerceObject(Type self, jobject value)
 {
-	jstring jstr = (jstring)JNI_callObjectMethod(value, s_BigDecimal_toString);
-	Datum ret = _String_coerceObject(self, jstr);
-	JNI_deleteLocalRef(jstr);
-	return ret;
+	StringInfoData buf;
+	Datum result;
+	jobject unscaled;
+	uint32* mag;
+	int16* digits;
+	int len;
+	int pad;
+	int ndigits;
+	int first;
+	int weight;
+	int idx;
+	bool negative;
+	jint scale = JNI_callIntMethod(value, s_BigDecimal_scale);
+
+	if(scale < 0)
+	{
+		value = JNI_callObjectMethod(value, s_BigDecimal_setScale, 0);
+		unscaled = JNI_callObjectMethod(value, s_BigDecimal_unscaledValue);
+		JNI_deleteLocalRef(value);
+		scale = 0;
+	}
+	else
+		unscaled = JNI_callObjectMethod(value, s_BigDecimal_unscaledValue);
+
+	if(JNI_callIntMethod(unscaled, s_BigInteger_bitLength) < 64)
+	{
+		int64 lv = JNI_callLongMethod(unscaled, s_BigInteger_longValue);
+		uint64 uv;
+		negative = lv < 0;
+		uv = negative ? -(uint64)lv : (uint64)lv;
+		mag = (uint32*)palloc(4 * sizeof(uint32));
+		mag[0] = (uint32)uv;
+		mag[1] = (uint32)(uv >> 32);
+		len = mag[1] != 0 ? 2 : (mag[0] != 0 ? 1 : 0);
+	}
+	else
+	{
+		jobject absValue;
+		jbyteArray magnitude;
+		jbyte* bytes;
+		int nbytes;
+
+		negative = JNI_callIntMethod(unscaled, s_BigInteger_signum) < 0;
+		absValue = JNI_callObjectMethod(unscaled, s_BigInteger_abs);
+		magnitude = (jbyteArray)JNI_callObjectMethod(absValue, s_BigInteger_toByteArray);
+		JNI_deleteLocalRef(absValue);
+
+		nbytes = JNI_getArrayLength(magnitude);
+		bytes = (jbyte*)palloc(nbytes);
+		JNI_getByteArrayRegion(magnitude, 0, nbytes, bytes);
+		JNI_deleteLocalRef(magnitude);
+
+		len = (nbytes + 3) / 4;
+		mag = (uint32*)palloc0((len + 2) * sizeof(uint32));
+		for(idx = 0; idx < nbytes; ++idx)
+		{
+			int shift = idx % 4 * 8;
+			mag[idx / 4] |= (uint32)(uint8)bytes[nbytes - 1 - idx] << shift;
+		}
+		pfree(bytes);
+		while(len > 0 && mag[len - 1] == 0)
+			--len;
+	}
+	JNI_deleteLocalRef(unscaled);
+
+	/* Align the scale with the base 10000 digits
+	 */
+	pad = (DEC_DIGITS - scale % DEC_DIGITS) % DEC_DIGITS;
+	len = mulPow10(mag, len, pad);
+
+	/* Collect the digits, least significant first
+	 */
+	digits = (int16*)palloc((len * 3 + 3) * sizeof(int16));
+	ndigits = 0;
+	while(len > 0)
+		digits[ndigits++] = (int16)divRem(mag, &len, NBASE);
+	pfree(mag);
+
+	/* Trailing zero digits are not stored
+	 */
+	first = 0;
+	while(first < ndigits && digits[first] == 0)
+		++first;
+
+	weight = ndigits - 1 - (scale + pad) / DEC_DIGITS;
+	if(first == ndigits)
+	{
+		weight = 0;
+		negative = false;
+	}
+
+	initStringInfo(&buf);
+	pq_sendint(&buf, ndigits - first, sizeof(int16));
+	pq_sendint(&buf, weight, sizeof(int16));
+	pq_sendint(&buf, negative ? NUMERIC_NEG : NUMERIC_POS, sizeof(int16));
+	pq_sendint(&buf, scale, sizeof(int16));
+	for(idx = ndigits - 1; idx >= first; --idx)
+		pq_sendint(&buf, digits[idx], sizeof(int16));
+	pfree(digits);
+
+	result = DirectFunctionCall3(numeric_recv,
+		PointerGetDatum(&buf),
+		ObjectIdGetDatum(InvalidOid),
+		Int32GetDatum(-1));
+	pfree(buf.data);
+	return result;
 }
 
 static Type BigDecimal_obtain(Oid typeId)
@@ -49,8 +326,19 @@ extern void BigDecimal_initialize(void);
 void BigDecimal_initialize(void)
 {
 	s_BigDecimal_class = JNI_newGlobalRef(PgObject_getJavaClass("java/math/BigDecimal"));
-	s_BigDecimal_init = PgObject_getJavaMethod(s_BigDecimal_class, "<init>", "(Ljava/lang/String;)V");
-	s_BigDecimal_toString = PgObject_getJavaMethod(s_BigDecimal_class, "toString", "()Ljava/lang/String;");
+	s_BigDecimal_init = PgObject_getJavaMethod(s_BigDecimal_class, "<init>", "(Ljava/math/BigInteger;I)V");
+	s_BigDecimal_valueOf = PgObject_getStaticJavaMethod(s_BigDecimal_class, "valueOf", "(JI)Ljava/math/BigDecimal;");
+	s_BigDecimal_scale = PgObject_getJavaMethod(s_BigDecimal_class, "scale", "()I");
+	s_BigDecimal_setScale = PgObject_getJavaMethod(s_BigDecimal_class, "setScale", "(I)Ljava/math/BigDecimal;");
+	s_BigDecimal_unscaledValue = PgObject_getJavaMethod(s_BigDecimal_class, "unscaledValue", "()Ljava/math/BigInteger;");
+
+	s_BigInteger_class = JNI_newGlobalRef(PgObject_getJavaClass("java/math/BigInteger"));
+	s_BigInteger_init = PgObject_getJavaMethod(s_BigInteger_class, "<init>", "(I[B)V");
+	s_BigInteger_abs = PgObject_getJavaMethod(s_BigInteger_class, "abs", "()Ljava/math/BigInteger;");
+	s_BigInteger_bitLength = PgObject_getJavaMethod(s_BigInteger_class, "bitLength", "()I");
+	s_BigInteger_longValue = PgObject_getJavaMethod(s_BigInteger_class, "longValue", "()J");
+	s_BigInteger_signum = PgObject_getJavaMethod(s_BigInteger_class, "signum", "()I");
+	s_BigInteger_toByteArray = PgObject_getJavaMethod(s_BigInteger_class, "toByteArray", "()[B");
 
 	s_BigDecimalClass = TypeClass_alloc2("type.BigDecimal", sizeof(struct TypeClass_), sizeof(struct String_));
 	s_BigDecimalClass->JNISignature   = "Ljava/math/BigDecimal;";
@@ -6,6 +6,9 @@
  *
  * @author Thomas Hallgren
  */
+#include <postgres.h>
+#include <utils/lsyscache.h>
+
 #include "pljava/type/Type_priv.h"
 #include "pljava/type/Coerce.h"
 #include "pljava/HashMap.h"
@@ -28,10 +31,35 @@ struct Coerce_
 	Type outerType;
 
 	FmgrInfo coerceFunction;
+
+	/*
+	 * When there is no cast function, the value is converted using the
+	 * output function of the source type and the input function of the
+	 * target type.
+	 */
+	bool     viaIO;
+
+	FmgrInfo outputFunction;
+
+	FmgrInfo inputFunction;
+
+	Oid      inputParam;
 };
 
 typedef struct Coerce_* Coerce;
 
+static Datum _Coerce_apply(Coerce self, Datum arg)
+{
+	char* str;
+	if(!self->viaIO)
+		return FunctionCall1(&self->coerceFunction, arg);
+
+	str = OutputFunctionCall(&self->outputFunction, arg);
+	arg = InputFunctionCall(&self->inputFunction, str, self->inputParam, -1);
+	pfree(str);
+	return arg;
+}
+
 static Datum _Coerce_invoke(Type type, jclass cls, jmethodID method, jvalue* args, PG_FUNCTION_ARGS)
 {
 	Coerce self = (Coerce)type;
@@ -39,7 +67,7 @@ static Datum _Coerce_invoke(Type type, jclass cls, jmethodID method, jvalue* arg
 	if(arg != 0)
 	{
 		MemoryContext currCtx = Invocation_switchToUpperContext();
-		arg = FunctionCall1(&self->coerceFunction, arg);
+		arg = _Coerce_apply(self, arg);
 		MemoryContextSwitchTo(currCtx);
 	}
 	return arg;
@@ -52,7 +80,7 @@ static jvalue _Coerce_coerceDatum(Type type, Datum arg)
 	if(arg == 0)
 		result.j = 0;
 	else
-		result = Type_coerceDatum(self->innerType, FunctionCall1(&self->coerceFunction, arg));
+		result = Type_coerceDatum(self->innerType, _Coerce_apply(self, arg));
 	return result;
 }
 
@@ -63,7 +91,7 @@ static Datum _Coerce_coerceObject(Type type, jobject jval)
 	if(arg != 0)
 	{
 		MemoryContext currCtx = Invocation_switchToUpperContext();
-		arg = FunctionCall1(&self->coerceFunction, arg);
+		arg = _Coerce_apply(self, arg);
 		MemoryContextSwitchTo(currCtx);
 	}
 	return arg;
@@ -78,6 +106,7 @@ static Type _Coerce_create(TypeClass coerceClass, Type innerType, Type outerType
 {
 	Coerce self = (Coerce)TypeClass_allocInstance(coerceClass, Type_getOid(outerType));
 	fmgr_info_cxt(coerceFunctionID, &self->coerceFunction, GetMemoryChunkContext(self));
+	self->viaIO = false;
 	self->innerType = innerType;
 	self->outerType = outerType;
 	if(Type_isPrimitive(self->innerType))
@@ -85,6 +114,25 @@ static Type _Coerce_create(TypeClass coerceClass, Type innerType, Type outerType
 	return (Type)self;
 }
 
+static Type _Coerce_createViaIO(TypeClass coerceClass, Type innerType, Type outerType, Oid fromOid, Oid toOid)
+{
+	Oid  funcId;
+	bool isVarlena;
+	Coerce self = (Coerce)TypeClass_allocInstance(coerceClass, Type_getOid(outerType));
+	MemoryContext ctx = GetMemoryChunkContext(self);
+
+	getTypeOutputInfo(fromOid, &funcId, &isVarlena);
+	fmgr_info_cxt(funcId, &self->outputFunction, ctx);
+	getTypeInputInfo(toOid, &funcId, &self->inputParam);
+	fmgr_info_cxt(funcId, &self->inputFunction, ctx);
+	self->viaIO = true;
+	self->innerType = innerType;
+	self->outerType = outerType;
+	if(Type_isPrimitive(self->innerType))
+		((Type)self)->objectType = _Coerce_createViaIO(coerceClass, Type_getObjectType(self->innerType), outerType, fromOid, toOid);
+	return (Type)self;
+}
+
 Type Coerce_createIn(Type innerType, Type outerType, Oid coerceFunctionID)
 {
 	return _Coerce_create(s_coerceInClass, innerType, outerType, coerceFunctionID);
@@ -95,6 +143,23 @@ Type Coerce_createOut(Type innerType, Type outerType, Oid coerceFunctionID)
 	return _Coerce_create(s_coerceOutClass, innerType, outerType, coerceFunctionID);
 }
 
+Type Coerce_createInViaIO(Type innerType, Type outerType)
+{
+	return _Coerce_createViaIO(s_coerceInClass, innerType, outerType, Type_getOid(outerType), Type_getOid(innerType));
+}
+
+Type Coerce_createOutViaIO(Type innerType, Type outerType)
+{
+	return _Coerce_createViaIO(s_coerceOutClass, innerType, outerType, Type_getOid(innerType), Type_getOid(outerType));
+}
+
+Datum Coerce_apply(Type self, Datum arg)
+{
+	if(self->typeClass != s_coerceInClass && self->typeClass != s_coerceOutClass)
+		return arg;
+	return _Coerce_apply((Coerce)self, arg);
+}
+
 extern void Coerce_initialize(void);
 void Coerce_initialize(void)
 {
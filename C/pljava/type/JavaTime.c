@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ *
+ * @author Thomas Hallgren
+ */
+#include <postgres.h>
+#include <utils/date.h>
+#include <utils/datetime.h>
+#include <math.h>
+
+#include "pljava/Backend.h"
+#include "pljava/type/Type_priv.h"
+
+/*
+ * Mappings between the date and time types and the java.time classes. In
+ * contrast to java.sql.Date, Time and Timestamp, the java.time classes carry
+ * no time zone of their own so the values are converted arithmetically
+ * without any time zone lookup. The local types (date, time and timestamp)
+ * map to LocalDate, LocalTime and LocalDateTime. A timestamptz is an absolute
+ * point in time and maps to Instant or to an OffsetDateTime in UTC.
+ *
+ * The mappings are only installed when the JVM provides the java.time
+ * package.
+ */
+#define USECS_PER_SEC   INT64CONST(1000000)
+#define USECS_PER_DAY   INT64CONST(86400000000)
+#define EPOCH_DAYS      (POSTGRES_EPOCH_JDATE - UNIX_EPOCH_JDATE)
+#define EPOCH_SECS      (((int64)EPOCH_DAYS) * INT64CONST(86400))
+
+/* -infinity and infinity of integer timestamps
+ */
+#define INT64_MIN_VALUE (-INT64CONST(0x7fffffffffffffff) - 1)
+#define INT64_MAX_VALUE INT64CONST(0x7fffffffffffffff)
+
+static jclass    s_LocalDate_class;
+static jmethodID s_LocalDate_ofEpochDay;
+static jmethodID s_LocalDate_toEpochDay;
+
+static jclass    s_LocalTime_class;
+static jmethodID s_LocalTime_ofNanoOfDay;
+static jmethodID s_LocalTime_toNanoOfDay;
+
+static jclass    s_LocalDateTime_class;
+static jmethodID s_LocalDateTime_ofEpochSecond;
+static jmethodID s_LocalDateTime_toLocalDate;
+static jmethodID s_LocalDateTime_toLocalTime;
+
+static jclass    s_OffsetDateTime_class;
+static jmethodID s_OffsetDateTime_of;
+static jmethodID s_OffsetDateTime_toEpochSecond;
+static jmethodID s_OffsetDateTime_getNano;
+
+static jclass    s_Instant_class;
+static jmethodID s_Instant_ofEpochSecond;
+static jmethodID s_Instant_getEpochSecond;
+static jmethodID s_Instant_getNano;
+
+static jobject   s_ZoneOffset_UTC;
+
+static int64 floorDiv(int64 x, int64 y)
+{
+	int64 q = x / y;
+	if((x % y) != 0 && ((x < 0) != (y < 0)))
+		--q;
+	return q;
+}
+
+/*
+ * Returns the number of microseconds represented by a time, timestamp or
+ * timestamptz datum regardless of how the backend was compiled.
+ */
+static int64 JavaTime_getMicros(Datum arg, const char* javaTypeName)
+{
+	if(integerDateTimes)
+	{
+		int64 us = DatumGetInt64(arg);
+		if(us == INT64_MIN_VALUE || us == INT64_MAX_VALUE)
+			ereport(ERROR, (
+				errcode(ERRCODE_DATETIME_VALUE_OUT_OF_RANGE),
+				errmsg("infinite timestamp cannot be represented as a %s", javaTypeName)));
+		return us;
+	}
+	else
+	{
+		double ts = DatumGetFloat8(arg);
+		if(isinf(ts))
+			ereport(ERROR, (
+				errcode(ERRCODE_DATETIME_VALUE_OUT_OF_RANGE),
+				errmsg("infinite timestamp cannot be represented as a %s", javaTypeName)));
+		return (int64)rint(ts * 1000000.0);
+	}
+}
+
+static Datum JavaTime_microsGetDatum(int64 us)
+{
+	return integerDateTimes
+		? Int64GetDatum(us)
+		: Float8GetDatum(((double)us) / 1000000.0);
+}
+
+/*
+ * Splits microseconds since the Postgres epoch into seconds since the Java
+ * (Unix) epoch and a non negative nano adjustment.
+ */
+static jlong JavaTime_epochSecond(int64 us, jint* nanos)
+{
+	int64 secs = floorDiv(us, USECS_PER_SEC);
+	*nanos = (jint)((us - secs * USECS_PER_SEC) * 1000);
+	return (jlong)(secs + EPOCH_SECS);
+}
+
+static int64 JavaTime_micros(jlong epochSecond, jint nanos)
+{
+	return (epochSecond - EPOCH_SECS) * USECS_PER_SEC + nanos / 1000;
+}
+
+static bool _JavaTime_canReplaceType(Type self, Type other)
+{
+	return Type_getOid(self) == Type_getOid(other);
+}
+
+/*
+ * date <-> java.time.LocalDate
+ */
+static jvalue _LocalDate_coerceDatum(Type self, Datum arg)
+{
+	jvalue result;
+	DateADT date = DatumGetDateADT(arg);
+#ifdef DATEVAL_NOBEGIN
+	if(DATE_NOT_FINITE(date))
+		ereport(ERROR, (
+			errcode(ERRCODE_DATETIME_VALUE_OUT_OF_RANGE),
+			errmsg("infinite date cannot be represented as a java.time.LocalDate")));
+#endif
+	result.l = JNI_callStaticObjectMethod(s_LocalDate_class, s_LocalDate_ofEpochDay,
+		(jlong)date + EPOCH_DAYS);
+	return result;
+}
+
+static Datum _LocalDate_coerceObject(Type self, jobject date)
+{
+	jlong days = JNI_callLongMethod(date, s_LocalDate_toEpochDay) - EPOCH_DAYS;
+	return DateADTGetDatum((DateADT)days);
+}
+
+/*
+ * time <-> java.time.LocalTime
+ */
+static jvalue _LocalTime_coerceDatum(Type self, Datum arg)
+{
+	jvalue result;
+	int64 us = JavaTime_getMicros(arg, "java.time.LocalTime");
+	result.l = JNI_callStaticObjectMethod(s_LocalTime_class, s_LocalTime_ofNanoOfDay,
+		(jlong)(us * 1000));
+	return result;
+}
+
+static Datum _LocalTime_coerceObject(Type self, jobject time)
+{
+	jlong nanos = JNI_callLongMethod(time, s_LocalTime_toNanoOfDay);
+	return JavaTime_microsGetDatum(nanos / 1000);
+}
+
+/*
+ * timestamp <-> java.time.LocalDateTime
+ */
+static jvalue _LocalDateTime_coerceDatum(Type self, Datum arg)
+{
+	jint   nanos;
+	jvalue result;
+	jlong  secs = JavaTime_epochSecond(JavaTime_getMicros(arg, "java.time.LocalDateTime"), &nanos);
+	result.l = JNI_callStaticObjectMethod(s_LocalDateTime_class, s_LocalDateTime_ofEpochSecond,
+		secs, nanos, s_ZoneOffset_UTC);
+	return result;
+}
+
+static Datum _LocalDateTime_coerceObject(Type self, jobject dateTime)
+{
+	/* The date and time parts are fields of the LocalDateTime so fetching
+	 * them allocates nothing.
+	 */
+	jobject date = JNI_callObjectMethod(dateTime, s_LocalDateTime_toLocalDate);
+	jobject time = JNI_callObjectMethod(dateTime, s_LocalDateTime_toLocalTime);
+	int64 days   = JNI_callLongMethod(date, s_LocalDate_toEpochDay) - EPOCH_DAYS;
+	int64 nanos  = JNI_callLongMethod(time, s_LocalTime_toNanoOfDay);
+	JNI_deleteLocalRef(date);
+	JNI_deleteLocalRef(time);
+	return JavaTime_microsGetDatum(days * USECS_PER_DAY + nanos / 1000);
+}
+
+/*
+ * timestamptz <-> java.time.OffsetDateTime. Values passed to Java are always
+ * in UTC. Values returned from Java may have any offset.
+ */
+static jvalue _OffsetDateTime_coerceDatum(Type self, Datum arg)
+{
+	jint    nanos;
+	jobject dateTime;
+	jvalue  result;
+	jlong   secs = JavaTime_epochSecond(JavaTime_getMicros(arg, "java.time.OffsetDateTime"), &nanos);
+	dateTime = JNI_callStaticObjectMethod(s_LocalDateTime_class, s_LocalDateTime_ofEpochSecond,
+		secs, nanos, s_ZoneOffset_UTC);
+	result.l = JNI_callStaticObjectMethod(s_OffsetDateTime_class, s_OffsetDateTime_of,
+		dateTime, s_ZoneOffset_UTC);
+	JNI_deleteLocalRef(dateTime);
+	return result;
+}
+
+static Datum _OffsetDateTime_coerceObject(Type self, jobject dateTime)
+{
+	jlong secs  = JNI_callLongMethod(dateTime, s_OffsetDateTime_toEpochSecond);
+	jint  nanos = JNI_callIntMethod(dateTime, s_OffsetDateTime_getNano);
+	return JavaTime_microsGetDatum(JavaTime_micros(secs, nanos));
+}
+
+/*
+ * timestamptz <-> java.time.Instant
+ */
+static jvalue _Instant_coerceDatum(Type self, Datum arg)
+{
+	jint   nanos;
+	jvalue result;
+	jlong  secs = JavaTime_epochSecond(JavaTime_getMicros(arg, "java.time.Instant"), &nanos);
+	result.l = JNI_callStaticObjectMethod(s_Instant_class, s_Instant_ofEpochSecond,
+		secs, (jlong)nanos);
+	return result;
+}
+
+static Datum _Instant_coerceObject(Type self, jobject instant)
+{
+	jlong secs  = JNI_callLongMethod(instant, s_Instant_getEpochSecond);
+	jint  nanos = JNI_callIntMethod(instant, s_Instant_getNano);
+	return JavaTime_microsGetDatum(JavaTime_micros(secs, nanos));
+}
+
+static void JavaTime_registerType(const char* name, const char* signature,
+	DatumCoercer coerceDatum, ObjectCoercer coerceObject, Oid typeId)
+{
+	TypeClass cls = TypeClass_alloc(name);
+	cls->JNISignature   = signature;
+	cls->javaTypeName   = name + 5;	/* skip the "type." prefix */
+	cls->canReplaceType = _JavaTime_canReplaceType;
+	cls->coerceDatum    = coerceDatum;
+	cls->coerceObject   = coerceObject;
+	Type_registerType(cls->javaTypeName, TypeClass_allocInstance(cls, typeId));
+}
+
+/* Make the java.time types available to the postgres system. This must be
+ * done after the java.sql types have been registered since they remain the
+ * default mappings of the date and time types.
+ */
+extern void JavaTime_initialize(void);
+void JavaTime_initialize(void)
+{
+	jclass cls = JNI_findClass("java/time/LocalDate");
+	if(cls == 0)
+	{
+		/* JVM older than Java 8 */
+		JNI_exceptionClear();
+		return;
+	}
+	s_LocalDate_class = JNI_newGlobalRef(cls);
+	JNI_deleteLocalRef(cls);
+	s_LocalDate_ofEpochDay = PgObject_getStaticJavaMethod(s_LocalDate_class, "ofEpochDay", "(J)Ljava/time/LocalDate;");
+	s_LocalDate_toEpochDay = PgObject_getJavaMethod(s_LocalDate_class, "toEpochDay", "()J");
+
+	s_LocalTime_class = JNI_newGlobalRef(PgObject_getJavaClass("java/time/LocalTime"));
+	s_LocalTime_ofNanoOfDay = PgObject_getStaticJavaMethod(s_LocalTime_class, "ofNanoOfDay", "(J)Ljava/time/LocalTime;");
+	s_LocalTime_toNanoOfDay = PgObject_getJavaMethod(s_LocalTime_class, "toNanoOfDay", "()J");
+
+	s_LocalDateTime_class = JNI_newGlobalRef(PgObject_getJavaClass("java/time/LocalDateTime"));
+	s_LocalDateTime_ofEpochSecond = PgObject_getStaticJavaMethod(s_LocalDateTime_class, "ofEpochSecond", "(JILjava/time/ZoneOffset;)Ljava/time/LocalDateTime;");
+	s_LocalDateTime_toLocalDate = PgObject_getJavaMethod(s_LocalDateTime_class, "toLocalDate", "()Ljava/time/LocalDate;");
+	s_LocalDateTime_toLocalTime = PgObject_getJavaMethod(s_LocalDateTime_class, "toLocalTime", "()Ljava/time/LocalTime;");
+
+	s_OffsetDateTime_class = JNI_newGlobalRef(PgObject_getJavaClass("java/time/OffsetDateTime"));
+	s_OffsetDateTime_of = PgObject_getStaticJavaMethod(s_OffsetDateTime_class, "of", "(Ljava/time/LocalDateTime;Ljava/time/ZoneOffset;)Ljava/time/OffsetDateTime;");
+	s_OffsetDateTime_toEpochSecond = PgObject_getJavaMethod(s_OffsetDateTime_class, "toEpochSecond", "()J");
+	s_OffsetDateTime_getNano = PgObject_getJavaMethod(s_OffsetDateTime_class, "getNano", "()I");
+
+	s_Instant_class = JNI_newGlobalRef(PgObject_getJavaClass("java/time/Instant"));
+	s_Instant_ofEpochSecond = PgObject_getStaticJavaMethod(s_Instant_class, "ofEpochSecond", "(JJ)Ljava/time/Instant;");
+	s_Instant_getEpochSecond = PgObject_getJavaMethod(s_Instant_class, "getEpochSecond", "()J");
+	s_Instant_getNano = PgObject_getJavaMethod(s_Instant_class, "getNano", "()I");
+
+	cls = PgObject_getJavaClass("java/time/ZoneOffset");
+	s_ZoneOffset_UTC = JNI_newGlobalRef(JNI_getStaticObjectField(cls,
+		PgObject_getStaticJavaField(cls, "UTC", "Ljava/time/ZoneOffset;")));
+	JNI_deleteLocalRef(cls);
+
+	JavaTime_registerType("type.java.time.LocalDate", "Ljava/time/LocalDate;",
+		_LocalDate_coerceDatum, _LocalDate_coerceObject, DATEOID);
+	JavaTime_registerType("type.java.time.LocalTime", "Ljava/time/LocalTime;",
+		_LocalTime_coerceDatum, _LocalTime_coerceObject, TIMEOID);
+	JavaTime_registerType("type.java.time.LocalDateTime", "Ljava/time/LocalDateTime;",
+		_LocalDateTime_coerceDatum, _LocalDateTime_coerceObject, TIMESTAMPOID);
+	JavaTime_registerType("type.java.time.OffsetDateTime", "Ljava/time/OffsetDateTime;",
+		_OffsetDateTime_coerceDatum, _OffsetDateTime_coerceObject, TIMESTAMPTZOID);
+	JavaTime_registerType("type.java.time.Instant", "Ljava/time/Instant;",
+		_Instant_coerceDatum, _Instant_coerceObject, TIMESTAMPTZOID);
+}
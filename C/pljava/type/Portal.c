@@ -12,6 +12,8 @@
 #include <commands/portalcmds.h>
 #include <executor/spi.h>
 #include <executor/tuptable.h>
+#include <lib/stringinfo.h>
+#include <utils/lsyscache.h>
 
 #include "org_postgresql_pljava_internal_Portal.h"
 #include "pljava/Backend.h"
@@ -116,6 +118,11 @@ void Portal_initialize(void)
 	  	Java_org_postgresql_pljava_internal_Portal__1fetch
 		},
 		{
+		"_fetchText",
+	  	"(JJI)[B",
+	  	Java_org_postgresql_pljava_internal_Portal__1fetchText
+		},
+		{
 		"_close",
 	  	"(J)V",
 	  	Java_org_postgresql_pljava_internal_Portal__1close
@@ -205,6 +212,116 @@ Java_org_postgresql_pljava_internal_Portal__1fetch(JNIEnv* env, jclass clazz, jl
 	return result;
 }
 
+/*
+ * Appends a value to a row in the text format of COPY.
+ */
+static void Portal_appendCopyText(StringInfo buf, const char* str)
+{
+	char c;
+	while((c = *str++) != 0)
+	{
+		switch(c)
+		{
+			case '\\': appendStringInfoString(buf, "\\\\"); break;
+			case '\b': appendStringInfoString(buf, "\\b"); break;
+			case '\f': appendStringInfoString(buf, "\\f"); break;
+			case '\n': appendStringInfoString(buf, "\\n"); break;
+			case '\r': appendStringInfoString(buf, "\\r"); break;
+			case '\t': appendStringInfoString(buf, "\\t"); break;
+			case '\v': appendStringInfoString(buf, "\\v"); break;
+			default: appendStringInfoChar(buf, c);
+		}
+	}
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_Portal
+ * Method:    _fetchText
+ * Signature: (JJI)[B
+ */
+JNIEXPORT jbyteArray JNICALL
+Java_org_postgresql_pljava_internal_Portal__1fetchText(JNIEnv* env, jclass clazz, jlong _this, jlong threadId, jint count)
+{
+	jbyteArray result = 0;
+	if(_this != 0)
+	{
+		BEGIN_NATIVE
+		Ptr2Long p2l;
+		STACK_BASE_VARS
+		STACK_BASE_PUSH(threadId)
+
+		p2l.longVal = _this;
+		PG_TRY();
+		{
+			SPI_cursor_fetch((Portal)p2l.ptrVal, true, (int)count);
+			if(SPI_processed > 0)
+			{
+				uint32    row;
+				int       col;
+				StringInfoData buf;
+				TupleDesc tupDesc = SPI_tuptable->tupdesc;
+				int       natts   = tupDesc->natts;
+				FmgrInfo* outFuncs = (FmgrInfo*)palloc((natts + 1) * sizeof(FmgrInfo));
+
+				/* The output functions are looked up once per fetch
+				 */
+				for(col = 0; col < natts; ++col)
+				{
+					Oid  outFunc;
+					bool isVarlena;
+					if(tupDesc->attrs[col]->attisdropped)
+						continue;
+					getTypeOutputInfo(tupDesc->attrs[col]->atttypid, &outFunc, &isVarlena);
+					fmgr_info(outFunc, &outFuncs[col]);
+				}
+
+				initStringInfo(&buf);
+				for(row = 0; row < SPI_processed; ++row)
+				{
+					bool first = true;
+					HeapTuple tuple = SPI_tuptable->vals[row];
+					for(col = 0; col < natts; ++col)
+					{
+						bool  isNull;
+						Datum value;
+						if(tupDesc->attrs[col]->attisdropped)
+							continue;
+
+						if(!first)
+							appendStringInfoChar(&buf, '\t');
+						first = false;
+
+						value = SPI_getbinval(tuple, tupDesc, col + 1, &isNull);
+						if(isNull)
+							appendStringInfoString(&buf, "\\N");
+						else
+						{
+							char* str = OutputFunctionCall(&outFuncs[col], value);
+							Portal_appendCopyText(&buf, str);
+							pfree(str);
+						}
+					}
+					appendStringInfoChar(&buf, '\n');
+				}
+
+				result = JNI_newByteArray(buf.len);
+				JNI_setByteArrayRegion(result, 0, buf.len, (jbyte*)buf.data);
+				pfree(buf.data);
+				pfree(outFuncs);
+			}
+			SPI_freetuptable(SPI_tuptable);
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("SPI_cursor_fetch");
+		}
+		PG_END_TRY();
+		STACK_BASE_POP()
+		END_NATIVE
+	}
+	return result;
+}
+
 /*
  * Class:     org_postgresql_pljava_internal_Portal
  * Method:    _getName
@@ -19,6 +19,18 @@
 #include "pljava/type/Tuple.h"
 #include "pljava/type/Relation.h"
 
+/*
+ * Kinds of values stored in a TupleChangeBuffer. Must be kept in sync with
+ * the KIND_ constants in org.postgresql.pljava.internal.TupleChangeBuffer
+ */
+#define KIND_OBJECT  0
+#define KIND_BOOLEAN 1
+#define KIND_SHORT   2
+#define KIND_INT     3
+#define KIND_LONG    4
+#define KIND_FLOAT   5
+#define KIND_DOUBLE  6
+
 static jclass    s_Relation_class;
 static jmethodID s_Relation_init;
 
@@ -63,6 +75,11 @@ void Relation_initialize(void)
 		"(JJ[I[Ljava/lang/Object;)Lorg/postgresql/pljava/internal/Tuple;",
 		Java_org_postgresql_pljava_internal_Relation__1modifyTuple
 		},
+		{
+		"_modifyTupleBuffered",
+		"(JJI[I[B[J[D[Ljava/lang/Object;)Lorg/postgresql/pljava/internal/Tuple;",
+		Java_org_postgresql_pljava_internal_Relation__1modifyTupleBuffered
+		},
 		{ 0, 0, 0 }
 	};
 
@@ -264,3 +281,136 @@ Java_org_postgresql_pljava_internal_Relation__1modifyTuple(JNIEnv* env, jclass c
 	}
 	return result;
 }
+
+/*
+ * Class:     org_postgresql_pljava_internal_Relation
+ * Method:    _modifyTupleBuffered
+ * Signature: (JJI[I[B[J[D[Ljava/lang/Object;)Lorg/postgresql/pljava/internal/Tuple;
+ */
+JNIEXPORT jobject JNICALL
+Java_org_postgresql_pljava_internal_Relation__1modifyTupleBuffered(JNIEnv* env, jclass clazz, jlong _this, jlong _tuple, jint count, jintArray _indexes, jbyteArray _kinds, jlongArray _longs, jdoubleArray _doubles, jobjectArray _values)
+{
+	Relation self = Invocation_getWrappedPointer(_this);
+	jobject result = 0;
+	if(self != 0 && _tuple != 0 && count > 0)
+	{
+		Ptr2Long p2l;
+		p2l.longVal = _tuple;
+
+		BEGIN_NATIVE
+		HeapTuple tuple = (HeapTuple)p2l.ptrVal;
+		PG_TRY();
+		{
+			jint idx;
+			bool valid = true;
+			TupleDesc tupleDesc = self->rd_att;
+			jobject typeMap = 0;
+			Datum*  values  = (Datum*)palloc(count * sizeof(Datum));
+			int*    indexes = (int*)palloc(count * sizeof(int));
+			char*   nulls   = 0;
+
+			/* The buffers are preallocated to the number of columns in the
+			 * relation so only the first count elements are copied.
+			 */
+			jint*    javaIdxs = (jint*)palloc(count * sizeof(jint));
+			jbyte*   kinds    = (jbyte*)palloc(count * sizeof(jbyte));
+			jlong*   longs    = (jlong*)palloc(count * sizeof(jlong));
+			jdouble* doubles  = (jdouble*)palloc(count * sizeof(jdouble));
+
+			JNI_getIntArrayRegion(_indexes, 0, count, javaIdxs);
+			JNI_getByteArrayRegion(_kinds, 0, count, kinds);
+			JNI_getLongArrayRegion(_longs, 0, count, longs);
+			JNI_getDoubleArrayRegion(_doubles, 0, count, doubles);
+
+			for(idx = 0; valid && idx < count; ++idx)
+			{
+				int attIndex = (int)javaIdxs[idx];
+				indexes[idx] = attIndex;
+
+				switch(kinds[idx])
+				{
+					case KIND_BOOLEAN:
+						values[idx] = BoolGetDatum(longs[idx] != 0);
+						break;
+					case KIND_SHORT:
+						values[idx] = Int16GetDatum((int16)longs[idx]);
+						break;
+					case KIND_INT:
+						values[idx] = Int32GetDatum((int32)longs[idx]);
+						break;
+					case KIND_LONG:
+						values[idx] = Int64GetDatum((int64)longs[idx]);
+						break;
+					case KIND_FLOAT:
+						values[idx] = Float4GetDatum((float4)doubles[idx]);
+						break;
+					case KIND_DOUBLE:
+						values[idx] = Float8GetDatum((float8)doubles[idx]);
+						break;
+					default:
+					{
+						Type type;
+						jobject value;
+						Oid typeId = SPI_gettypeid(tupleDesc, attIndex);
+						if(!OidIsValid(typeId))
+						{
+							Exception_throw(ERRCODE_INVALID_DESCRIPTOR_INDEX,
+								"Invalid attribute index \"%d\"", attIndex);
+							valid = false;
+							break;
+						}
+
+						value = JNI_getObjectArrayElement(_values, idx);
+						if(value != 0)
+						{
+							if(typeMap == 0)
+								typeMap = Invocation_getTypeMap();
+							type = Type_fromOid(typeId, typeMap);
+							values[idx] = Type_coerceObject(type, value);
+							JNI_deleteLocalRef(value);
+						}
+						else
+						{
+							if(nulls == 0)
+							{
+								nulls = (char*)palloc(count+1);
+								memset(nulls, ' ', count);	/* all values non-null initially */
+								nulls[count] = 0;
+							}
+							nulls[idx] = 'n';
+							values[idx] = 0;
+						}
+					}
+				}
+			}
+
+			if(valid)
+			{
+				tuple = SPI_modifytuple(self, tuple, count, indexes, values, nulls);
+				if(tuple == 0)
+					Exception_throwSPI("modifytuple", SPI_result);
+			}
+			else
+				tuple = 0;
+
+			pfree(javaIdxs);
+			pfree(kinds);
+			pfree(longs);
+			pfree(doubles);
+			pfree(indexes);
+			pfree(values);
+			if(nulls != 0)
+				pfree(nulls);
+		}
+		PG_CATCH();
+		{
+			tuple = 0;
+			Exception_throw_ERROR("SPI_modifytuple");
+		}
+		PG_END_TRY();
+		if(tuple != 0)
+			result = Tuple_create(tuple);
+		END_NATIVE
+	}
+	return result;
+}
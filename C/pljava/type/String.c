@@ -73,6 +73,11 @@ static String String_create(TypeClass cls, Oid typeId)
 	return self;
 }
 
+bool String_isString(Type type)
+{
+	return type->typeClass == s_StringClass;
+}
+
 Type String_obtain(Oid typeId)
 {
 	return (Type)StringClass_obtain(s_StringClass, typeId);
@@ -83,28 +88,205 @@ String StringClass_obtain(TypeClass self, Oid typeId)
 	return String_create(self, typeId);
 }
 
+/*
+ * Size, in UTF-16 units, of the buffers that are allocated on the stack
+ * when converting short strings.
+ */
+#define STACK_BUFFER_SIZE 256
+
+/*
+ * True when the database encoding is UTF8. No conversion is then needed
+ * between the database and the UTF-8 used by the codecs below.
+ */
+static bool s_databaseIsUTF8;
+
+/*
+ * Creates a Java String from len bytes of standard UTF-8. The bytes are
+ * decoded into UTF-16 here and passed to NewString. That avoids the NUL
+ * terminated, modified UTF-8 that NewStringUTF requires and the extra
+ * scan that the JVM performs to decode it. The input is known to be valid
+ * since it comes from the database. Malformed sequences that are
+ * truncated by the end of the input yield U+FFFD.
+ */
+static jstring newJavaString(const char* utf8, int len)
+{
+	jstring result;
+	jchar   stackBuf[STACK_BUFFER_SIZE];
+	jchar*  buf = stackBuf;
+	jchar*  dst;
+	const unsigned char* cp = (const unsigned char*)utf8;
+	const unsigned char* ep = cp + len;
+
+	/* The decoded string never has more UTF-16 units than there are
+	 * bytes in the UTF-8 source.
+	 */
+	if(len > STACK_BUFFER_SIZE)
+		buf = (jchar*)palloc(len * sizeof(jchar));
+	dst = buf;
+
+	/* Fast path for the leading ASCII characters (often all of them).
+	 */
+	while(cp < ep && *cp < 0x80)
+		*dst++ = (jchar)*cp++;
+
+	while(cp < ep)
+	{
+		unsigned int c = *cp++;
+		if(c < 0x80)
+			*dst++ = (jchar)c;
+		else if(c >= 0xC2 && c < 0xE0 && cp < ep)
+		{
+			*dst++ = (jchar)(((c & 0x1F) << 6) | (cp[0] & 0x3F));
+			cp += 1;
+		}
+		else if(c >= 0xE0 && c < 0xF0 && cp + 1 < ep)
+		{
+			*dst++ = (jchar)(((c & 0x0F) << 12) | ((cp[0] & 0x3F) << 6) | (cp[1] & 0x3F));
+			cp += 2;
+		}
+		else if(c >= 0xF0 && c < 0xF5 && cp + 2 < ep)
+		{
+			/* Supplementary character. Encoded as a surrogate pair.
+			 */
+			c = ((c & 0x07) << 18) | ((cp[0] & 0x3F) << 12) | ((cp[1] & 0x3F) << 6) | (cp[2] & 0x3F);
+			c -= 0x10000;
+			*dst++ = (jchar)(0xD800 + (c >> 10));
+			*dst++ = (jchar)(0xDC00 + (c & 0x3FF));
+			cp += 3;
+		}
+		else
+		{
+			*dst++ = (jchar)0xFFFD;
+			while(cp < ep && (*cp & 0xC0) == 0x80)
+				++cp;
+		}
+	}
+
+	result = JNI_newString(buf, (jsize)(dst - buf));
+	if(buf != stackBuf)
+		pfree(buf);
+	return result;
+}
+
+/*
+ * Creates a Java String from len bytes in the database encoding.
+ */
+static jstring newJavaStringFromDatabase(const char* src, int len)
+{
+	jstring result;
+	char*   utf8;
+
+	if(s_databaseIsUTF8)
+		return newJavaString(src, len);
+
+	utf8 = (char*)pg_do_encoding_conversion((unsigned char*)src, len, GetDatabaseEncoding(), PG_UTF8);
+
+	/* pg_do_encoding_conversion will return the source argument
+	 * when no conversion is required. We don't want to accidentally
+	 * free that pointer.
+	 */
+	if(utf8 == src)
+		result = newJavaString(src, len);
+	else
+	{
+		result = newJavaString(utf8, strlen(utf8));
+		pfree(utf8);
+	}
+	return result;
+}
+
+/*
+ * Returns the contents of a Java String encoded using the database
+ * encoding in a palloc'ed, NUL terminated, buffer. The characters are
+ * obtained as UTF-16 and encoded into standard UTF-8 here. Unlike the
+ * modified UTF-8 that GetStringUTFChars returns, that is what the
+ * database expects for supplementary characters. Unpaired surrogates
+ * yield U+FFFD.
+ */
+static char* getDatabaseChars(jstring javaString, int* lenp)
+{
+	jchar  stackBuf[STACK_BUFFER_SIZE];
+	jchar* chars = stackBuf;
+	jsize  len = JNI_getStringLength(javaString);
+	jsize  idx = 0;
+	char*  utf8;
+	char*  denc;
+	unsigned char* dst;
+
+	if(len > STACK_BUFFER_SIZE)
+		chars = (jchar*)palloc(len * sizeof(jchar));
+	JNI_getStringRegion(javaString, 0, len, chars);
+
+	/* No UTF-16 unit will need more than three bytes.
+	 */
+	utf8 = (char*)palloc(len * 3 + 1);
+	dst = (unsigned char*)utf8;
+
+	/* Fast path for the leading ASCII characters (often all of them).
+	 */
+	while(idx < len && chars[idx] < 0x80)
+		*dst++ = (unsigned char)chars[idx++];
+
+	while(idx < len)
+	{
+		unsigned int c = chars[idx++];
+		if(c < 0x80)
+			*dst++ = (unsigned char)c;
+		else if(c < 0x800)
+		{
+			*dst++ = (unsigned char)(0xC0 | (c >> 6));
+			*dst++ = (unsigned char)(0x80 | (c & 0x3F));
+		}
+		else if(c >= 0xD800 && c < 0xDC00 && idx < len
+			&& chars[idx] >= 0xDC00 && chars[idx] < 0xE000)
+		{
+			c = 0x10000 + ((c - 0xD800) << 10) + (chars[idx++] - 0xDC00);
+			*dst++ = (unsigned char)(0xF0 | (c >> 18));
+			*dst++ = (unsigned char)(0x80 | ((c >> 12) & 0x3F));
+			*dst++ = (unsigned char)(0x80 | ((c >> 6) & 0x3F));
+			*dst++ = (unsigned char)(0x80 | (c & 0x3F));
+		}
+		else
+		{
+			if(c >= 0xD800 && c < 0xE000)
+				c = 0xFFFD;
+			*dst++ = (unsigned char)(0xE0 | (c >> 12));
+			*dst++ = (unsigned char)(0x80 | ((c >> 6) & 0x3F));
+			*dst++ = (unsigned char)(0x80 | (c & 0x3F));
+		}
+	}
+	*dst = 0;
+
+	if(chars != stackBuf)
+		pfree(chars);
+
+	*lenp = (int)((char*)dst - utf8);
+	if(s_databaseIsUTF8)
+		return utf8;
+
+	denc = (char*)pg_do_encoding_conversion(
+		(unsigned char*)utf8, *lenp, PG_UTF8, GetDatabaseEncoding());
+
+	/* pg_do_encoding_conversion will return the source argument
+	 * when no conversion is required.
+	 */
+	if(denc != utf8)
+	{
+		pfree(utf8);
+		*lenp = strlen(denc);
+	}
+	return denc;
+}
+
 jstring String_createJavaString(text* t)
 {
 	jstring result = 0;
 	if(t != 0)
 	{
-		char* utf8;
-		char* src = VARDATA(t);
 		int srcLen = VARSIZE(t) - VARHDRSZ;
 		if(srcLen == 0)
 			return 0;
-	
-		/* Would be nice if a direct conversion to UTF16 was provided.
-		 */
-		utf8 = (char*)pg_do_encoding_conversion((unsigned char*)src, srcLen, GetDatabaseEncoding(), PG_UTF8);
-		result = JNI_newStringUTF(utf8);
-
-		/* pg_do_encoding_conversion will return the source argument
-		 * when no conversion is required. We don't want to accidentally
-		 * free that pointer.
-		 */
-		if(utf8 != src)
-			pfree(utf8);
+		result = newJavaStringFromDatabase(VARDATA(t), srcLen);
 	}
 	return result;
 }
@@ -113,19 +295,7 @@ jstring String_createJavaStringFromNTS(const char* cp)
 {
 	jstring result = 0;
 	if(cp != 0)
-	{
-		/* Would be nice if a direct conversion to UTF16 was provided.
-		 */
-		char* utf8 = (char*)pg_do_encoding_conversion((unsigned char*)cp, strlen(cp), GetDatabaseEncoding(), PG_UTF8);
-		result = JNI_newStringUTF(utf8);
-
-		/* pg_do_encoding_conversion will return the source argument
-		 * when no conversion is required. We don't want to accidentally
-		 * free that pointer.
-		 */
-		if(utf8 != cp)
-			pfree(utf8);
-	}
+		result = newJavaStringFromDatabase(cp, strlen(cp));
 	return result;
 }
 
@@ -134,13 +304,9 @@ text* String_createText(jstring javaString)
 	text* result = 0;
 	if(javaString != 0)
 	{
-		/* Would be nice if a direct conversion from UTF16 was provided.
-		 */
-		char* utf8 = (char*)JNI_getStringUTFChars(javaString, 0);
-		char* denc = (char*)pg_do_encoding_conversion(
-			(unsigned char*)utf8, strlen(utf8), PG_UTF8, GetDatabaseEncoding());
-		int dencLen = strlen(denc);
-		int varSize = dencLen + VARHDRSZ;
+		int   dencLen;
+		char* denc = getDatabaseChars(javaString, &dencLen);
+		int   varSize = dencLen + VARHDRSZ;
 
 		/* Allocate and initialize the text structure.
 		 */
@@ -151,14 +317,7 @@ text* String_createText(jstring javaString)
 		SET_VARSIZE(result, varSize);	/* Total size of structure, not just data */
 #endif
 		memcpy(VARDATA(result), denc, dencLen);
-
-		/* pg_do_encoding_conversion will return the source argument
-		 * when no conversion is required. We don't want to accidentally
-		 * free that pointer.
-		 */
-		if(denc != utf8)
-			pfree(denc);
-		JNI_releaseStringUTFChars(javaString, utf8);
+		pfree(denc);
 	}
 	return result;
 }
@@ -168,18 +327,8 @@ char* String_createNTS(jstring javaString)
 	char* result = 0;
 	if(javaString != 0)
 	{
-		/* Would be nice if a direct conversion from UTF16 was provided.
-		 */
-		char* utf8 = (char*)JNI_getStringUTFChars(javaString, 0);
-		result = (char*)pg_do_encoding_conversion(
-			(unsigned char*)utf8, strlen(utf8), PG_UTF8, GetDatabaseEncoding());
-
-		/* pg_do_encoding_conversion will return the source argument
-		 * when no conversion is required. We always want a copy here.
-		 */
-		if(result == utf8)
-			result = pstrdup(result);
-		JNI_releaseStringUTFChars(javaString, utf8);
+		int len;
+		result = getDatabaseChars(javaString, &len);
 	}
 	return result;
 }
@@ -188,21 +337,10 @@ void String_appendJavaString(StringInfoData* buf, jstring javaString)
 {
 	if(javaString != 0)
 	{
-		/* Would be nice if a direct conversion from UTF16 was provided.
-		 */
-		char* utf8 = (char*)JNI_getStringUTFChars(javaString, 0);
-		char* dbEnc = (char*)pg_do_encoding_conversion(
-			(unsigned char*)utf8, strlen(utf8), PG_UTF8, GetDatabaseEncoding());
-
-		appendStringInfoString(buf, dbEnc);
-
-		/* pg_do_encoding_conversion will return the source argument
-		 * when no conversion is required. We don't want to accidentally
-		 * free that pointer.
-		 */
-		if(dbEnc != utf8)
-			pfree(dbEnc);
-		JNI_releaseStringUTFChars(javaString, utf8);
+		int   len;
+		char* dbEnc = getDatabaseChars(javaString, &len);
+		appendBinaryStringInfo(buf, dbEnc, len);
+		pfree(dbEnc);
 	}
 }
 
@@ -212,6 +350,7 @@ void String_initialize(void)
 	s_Object_class = (jclass)JNI_newGlobalRef(PgObject_getJavaClass("java/lang/Object"));
 	s_Object_toString = PgObject_getJavaMethod(s_Object_class, "toString", "()Ljava/lang/String;");
 	s_String_class = (jclass)JNI_newGlobalRef(PgObject_getJavaClass("java/lang/String"));
+	s_databaseIsUTF8 = (GetDatabaseEncoding() == PG_UTF8);
 
 	s_StringClass = TypeClass_alloc2("type.String", sizeof(struct TypeClass_), sizeof(struct String_));
 	s_StringClass->JNISignature   = "Ljava/lang/String;";
@@ -8,6 +8,7 @@
  */
 #include <postgres.h>
 #include <access/heapam.h>
+#include <utils/inval.h>
 #include "org_postgresql_pljava_internal_TriggerData.h"
 #include "pljava/Invocation.h"
 #include "pljava/Exception.h"
@@ -22,13 +23,41 @@
 static jclass    s_TriggerData_class;
 static jmethodID s_TriggerData_init;
 static jmethodID s_TriggerData_getTriggerReturnTuple;
+static jclass    s_TriggerMetaData_class;
+static jmethodID s_TriggerMetaData_clearCache;
+static bool      s_metaDataStale = false;
 
-jobject TriggerData_create(TriggerData* triggerData)
+/* Java cannot be called from an invalidation callback so the cached
+ * trigger metadata is flagged here and cleared by the next trigger call.
+ */
+static void relcacheCallback(Datum arg, Oid relid)
+{
+	s_metaDataStale = true;
+}
+
+jobject TriggerData_create(TriggerData* triggerData, jlong callSiteId)
 {
-	return (triggerData == 0) ? 0 : JNI_newObject(
+	jlong triggerKey;
+	if(triggerData == 0)
+		return 0;
+
+	if(s_metaDataStale)
+	{
+		s_metaDataStale = false;
+		JNI_callStaticVoidMethod(s_TriggerMetaData_class, s_TriggerMetaData_clearCache);
+	}
+
+	/* The trigger Oid and the relation Oid combined
+	 */
+	triggerKey = ((jlong)(uint32)triggerData->tg_trigger->tgoid << 32)
+		| (jlong)(uint32)RelationGetRelid(triggerData->tg_relation);
+
+	return JNI_newObject(
 			s_TriggerData_class,
 			s_TriggerData_init,
-			Invocation_createLocalWrapper(triggerData));
+			Invocation_createLocalWrapper(triggerData),
+			triggerKey,
+			callSiteId);
 }
 
 HeapTuple TriggerData_getTriggerReturnTuple(jobject jtd, bool* wasNull)
@@ -122,9 +151,13 @@ void TriggerData_initialize(void)
 	s_TriggerData_class = JNI_newGlobalRef(PgObject_getJavaClass("org/postgresql/pljava/internal/TriggerData"));
 	PgObject_registerNatives2(s_TriggerData_class, methods);
 
-	s_TriggerData_init = PgObject_getJavaMethod(s_TriggerData_class, "<init>", "(J)V");
+	s_TriggerData_init = PgObject_getJavaMethod(s_TriggerData_class, "<init>", "(JJJ)V");
 	s_TriggerData_getTriggerReturnTuple = PgObject_getJavaMethod(s_TriggerData_class, "getTriggerReturnTuple", "()J");
 
+	s_TriggerMetaData_class = JNI_newGlobalRef(PgObject_getJavaClass("org/postgresql/pljava/internal/TriggerMetaData"));
+	s_TriggerMetaData_clearCache = PgObject_getStaticJavaMethod(s_TriggerMetaData_class, "clearCache", "()V");
+	CacheRegisterRelcacheCallback(relcacheCallback, (Datum)0);
+
 	/* Use interface name for signatures.
 	 */
 	cls = TypeClass_alloc("type.TriggerData");
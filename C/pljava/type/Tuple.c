@@ -13,6 +13,7 @@
 #include "org_postgresql_pljava_internal_Tuple.h"
 #include "pljava/Backend.h"
 #include "pljava/Exception.h"
+#include "pljava/StringCache.h"
 #include "pljava/type/Type_priv.h"
 #include "pljava/type/Tuple.h"
 #include "pljava/type/TupleDesc.h"
@@ -81,6 +82,11 @@ void Tuple_initialize(void)
 	  	Java_org_postgresql_pljava_internal_Tuple__1getObject
 		},
 		{
+		"_getObjectWithType",
+	  	"(JJIJ)Ljava/lang/Object;",
+	  	Java_org_postgresql_pljava_internal_Tuple__1getObjectWithType
+		},
+		{
 		"_free",
 	  	"(J)V",
 	  	Java_org_postgresql_pljava_internal_Tuple__1free
@@ -100,6 +106,12 @@ void Tuple_initialize(void)
 
 jobject
 Tuple_getObject(TupleDesc tupleDesc, HeapTuple tuple, int index)
+{
+	return Tuple_getObjectCached(tupleDesc, tuple, index, 0);
+}
+
+jobject
+Tuple_getObjectCached(TupleDesc tupleDesc, HeapTuple tuple, int index, StringCache cache)
 {
 	jobject result = 0;
 	PG_TRY();
@@ -110,7 +122,7 @@ Tuple_getObject(TupleDesc tupleDesc, HeapTuple tuple, int index)
 			bool wasNull = false;
 			Datum binVal = SPI_getbinval(tuple, tupleDesc, (int)index, &wasNull);
 			if(!wasNull)
-				result = Type_coerceDatum(type, binVal).l;
+				result = StringCache_coerceDatum(cache, type, binVal);
 		}
 	}
 	PG_CATCH();
@@ -145,6 +157,65 @@ Java_org_postgresql_pljava_internal_Tuple__1getObject(JNIEnv* env, jclass cls, j
 	return result;
 }
 
+/*
+ * Class:     org_postgresql_pljava_internal_Tuple
+ * Method:    _getObjectCached
+ * Signature: (JJIJ)Ljava/lang/Object;
+ */
+JNIEXPORT jobject JNICALL
+Java_org_postgresql_pljava_internal_Tuple__1getObjectCached(JNIEnv* env, jclass cls, jlong _this, jlong _tupleDesc, jint index, jlong _cache)
+{
+	jobject result = 0;
+	Ptr2Long p2l;
+	p2l.longVal = _this;
+
+	BEGIN_NATIVE
+	HeapTuple self = (HeapTuple)p2l.ptrVal;
+	TupleDesc tupleDesc;
+	p2l.longVal = _tupleDesc;
+	tupleDesc = (TupleDesc)p2l.ptrVal;
+	p2l.longVal = _cache;
+	result = Tuple_getObjectCached(tupleDesc, self, (int)index, (StringCache)p2l.ptrVal);
+	END_NATIVE
+	return result;
+}
+
+/*
+ * Class:     org_postgresql_pljava_internal_Tuple
+ * Method:    _getObjectWithType
+ * Signature: (JJIJ)Ljava/lang/Object;
+ */
+JNIEXPORT jobject JNICALL
+Java_org_postgresql_pljava_internal_Tuple__1getObjectWithType(JNIEnv* env, jclass cls, jlong _this, jlong _tupleDesc, jint index, jlong _type)
+{
+	jobject result = 0;
+	Ptr2Long p2l;
+	p2l.longVal = _this;
+
+	BEGIN_NATIVE
+	HeapTuple self = (HeapTuple)p2l.ptrVal;
+	TupleDesc tupleDesc;
+	Type type;
+	p2l.longVal = _tupleDesc;
+	tupleDesc = (TupleDesc)p2l.ptrVal;
+	p2l.longVal = _type;
+	type = (Type)p2l.ptrVal;
+	PG_TRY();
+	{
+		bool wasNull = false;
+		Datum binVal = SPI_getbinval(self, tupleDesc, (int)index, &wasNull);
+		if(!wasNull)
+			result = Type_coerceDatum(type, binVal).l;
+	}
+	PG_CATCH();
+	{
+		Exception_throw_ERROR("SPI_getbinval");
+	}
+	PG_END_TRY();
+	END_NATIVE
+	return result;
+}
+
 /*
  * Class:     org_postgresql_pljava_internal_Tuple
  * Method:    _free
@@ -40,13 +40,30 @@ jobject TupleDesc_create(TupleDesc td)
 
 jobject TupleDesc_internalCreate(TupleDesc td)
 {
+	int idx;
 	jobject jtd;
+	jintArray typeIds;
+	jint* oids;
 	Ptr2Long tdH;
+	int natts = td->natts;
 
 	td = CreateTupleDescCopyConstr(td);
 	tdH.longVal = 0L; /* ensure that the rest is zeroed out */
 	tdH.ptrVal = td;
-	jtd = JNI_newObject(s_TupleDesc_class, s_TupleDesc_init, tdH.longVal, (jint)td->natts);
+
+	/* Pass a snapshot of the type Oids so that the Java side can answer type
+	 * lookups without calling back. The attribute names are fetched by the
+	 * Java side when a column is first looked up by name.
+	 */
+	typeIds = JNI_newIntArray(natts);
+	oids = (jint*)palloc((natts > 0 ? natts : 1) * sizeof(jint));
+	for(idx = 0; idx < natts; ++idx)
+		oids[idx] = (jint)SPI_gettypeid(td, idx + 1);
+	JNI_setIntArrayRegion(typeIds, 0, natts, oids);
+	pfree(oids);
+
+	jtd = JNI_newObject(s_TupleDesc_class, s_TupleDesc_init, tdH.longVal, (jint)natts, typeIds);
+	JNI_deleteLocalRef(typeIds);
 	return jtd;
 }
 
@@ -85,6 +102,11 @@ void TupleDesc_initialize(void)
 	  	Java_org_postgresql_pljava_internal_TupleDesc__1getColumnName
 		},
 		{
+		"_getColumnNames",
+	  	"(J)[Ljava/lang/String;",
+	  	Java_org_postgresql_pljava_internal_TupleDesc__1getColumnNames
+		},
+		{
 		"_getColumnIndex",
 		"(JLjava/lang/String;)I",
 		Java_org_postgresql_pljava_internal_TupleDesc__1getColumnIndex
@@ -100,6 +122,11 @@ void TupleDesc_initialize(void)
 		Java_org_postgresql_pljava_internal_TupleDesc__1getOid
 		},
 		{
+		"_getJavaType",
+		"(JILjava/lang/String;)J",
+		Java_org_postgresql_pljava_internal_TupleDesc__1getJavaType
+		},
+		{
 		"_free",
 		"(J)V",
 		Java_org_postgresql_pljava_internal_TupleDesc__1free
@@ -108,7 +135,7 @@ void TupleDesc_initialize(void)
 
 	s_TupleDesc_class = JNI_newGlobalRef(PgObject_getJavaClass("org/postgresql/pljava/internal/TupleDesc"));
 	PgObject_registerNatives2(s_TupleDesc_class, methods);
-	s_TupleDesc_init = PgObject_getJavaMethod(s_TupleDesc_class, "<init>", "(JI)V");
+	s_TupleDesc_init = PgObject_getJavaMethod(s_TupleDesc_class, "<init>", "(JI[I)V");
 
 	cls = JavaWrapperClass_alloc("type.TupleDesc");
 	cls->JNISignature = "Lorg/postgresql/pljava/internal/TupleDesc;";
@@ -158,6 +185,45 @@ Java_org_postgresql_pljava_internal_TupleDesc__1getColumnName(JNIEnv* env, jclas
 	return result;
 }
 
+/*
+ * Class:     org_postgresql_pljava_internal_TupleDesc
+ * Method:    _getColumnNames
+ * Signature: (J)[Ljava/lang/String;
+ */
+JNIEXPORT jobjectArray JNICALL
+Java_org_postgresql_pljava_internal_TupleDesc__1getColumnNames(JNIEnv* env, jclass cls, jlong _this)
+{
+	jobjectArray result = 0;
+
+	BEGIN_NATIVE
+	PG_TRY();
+	{
+		int idx;
+		int natts;
+		TupleDesc td;
+		Ptr2Long p2l;
+		p2l.longVal = _this;
+		td = (TupleDesc)p2l.ptrVal;
+		natts = td->natts;
+		result = JNI_newObjectArray(natts, s_String_class, 0);
+		for(idx = 0; idx < natts; ++idx)
+		{
+			char* name = SPI_fname(td, idx + 1);
+			jstring jname = String_createJavaStringFromNTS(name);
+			JNI_setObjectArrayElement(result, idx, jname);
+			JNI_deleteLocalRef(jname);
+			pfree(name);
+		}
+	}
+	PG_CATCH();
+	{
+		Exception_throw_ERROR("SPI_fname");
+	}
+	PG_END_TRY();
+	END_NATIVE
+	return result;
+}
+
 /*
  * Class:     org_postgresql_pljava_internal_TupleDesc
  * Method:    _getColumnIndex
@@ -298,3 +364,53 @@ Java_org_postgresql_pljava_internal_TupleDesc__1getOid(JNIEnv* env, jclass cls,
 
 	return result;
 }
+
+/*
+ * Class:     org_postgresql_pljava_internal_TupleDesc
+ * Method:    _getJavaType
+ * Signature: (JILjava/lang/String;)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_postgresql_pljava_internal_TupleDesc__1getJavaType(JNIEnv* env, jclass cls, jlong _this, jint index, jstring javaTypeName)
+{
+	jlong result = 0;
+
+	BEGIN_NATIVE
+	char* name = String_createNTS(javaTypeName);
+	if(name != 0)
+	{
+		Ptr2Long p2l;
+		p2l.longVal = _this;
+		PG_TRY();
+		{
+			Oid typeId = SPI_gettypeid((TupleDesc)p2l.ptrVal, (int)index);
+			if(!OidIsValid(typeId))
+			{
+				Exception_throw(ERRCODE_INVALID_DESCRIPTOR_INDEX,
+					"Invalid attribute index \"%d\"", (int)index);
+			}
+			else
+			{
+				/* Only a mapping of the column type itself can coerce the
+				 * column values. Types are never freed so the pointer stays
+				 * valid.
+				 */
+				Type type = Type_lookupJavaType(typeId, name);
+				if(type != 0 && !Type_isPrimitive(type) && Type_getOid(type) == typeId)
+				{
+					p2l.longVal = 0L;
+					p2l.ptrVal = type;
+					result = p2l.longVal;
+				}
+			}
+			pfree(name);
+		}
+		PG_CATCH();
+		{
+			Exception_throw_ERROR("Type_lookupJavaType");
+		}
+		PG_END_TRY();
+	}
+	END_NATIVE
+	return result;
+}
@@ -23,10 +23,11 @@
 #include "pljava/type/UDT.h"
 #include "pljava/Invocation.h"
 #include "pljava/HashMap.h"
+#include "pljava/OidHashMap.h"
 #include "pljava/SPI.h"
 
-static HashMap s_typeByOid;
-static HashMap s_obtainerByOid;
+static OidHashMap s_typeByOid;
+static OidHashMap s_obtainerByOid;
 static HashMap s_obtainerByJavaName;
 
 static jclass s_Map_class;
@@ -41,6 +42,22 @@ typedef struct CacheEntryData
 
 typedef CacheEntryData* CacheEntry;
 
+/*
+ * Bounded, direct mapped, cache of resolved dynamic types. Entries are
+ * keyed by the declared type, the actual type Oid, and the type map.
+ */
+#define REAL_TYPE_CACHE_SIZE 256
+
+typedef struct RealTypeEntryData
+{
+	Type    declared;
+	Oid     actualId;
+	jobject typeMap;
+	Type    real;
+} RealTypeEntryData;
+
+static RealTypeEntryData s_realTypeCache[REAL_TYPE_CACHE_SIZE];
+
 static jclass s_Iterator_class;
 static jmethodID s_Iterator_hasNext;
 static jmethodID s_Iterator_next;
@@ -96,6 +113,27 @@ static void _endOfSetCB(Datum arg)
 	currentInvocation->inExprContextCB = saveInExprCtxCB;
 }
 
+/* Finds the cast function from one type to another. Returns true when the
+ * types can only be cast using their input and output functions.
+ */
+static bool _findCoercion(Oid toOid, Oid fromOid, Oid* funcId)
+{
+#if (PGSQL_MAJOR_VER > 8 || (PGSQL_MAJOR_VER == 8 && PGSQL_MINOR_VER >= 3))
+	CoercionPathType path = find_coercion_pathway(toOid, fromOid, COERCION_EXPLICIT, funcId);
+	if(path == COERCION_PATH_COERCEVIAIO)
+		return true;
+	if(path != COERCION_PATH_NONE)
+		return false;
+#else
+	if (find_coercion_pathway(toOid, fromOid, COERCION_EXPLICIT, funcId))
+		return false;
+#endif
+	elog(ERROR, "no conversion function from %s to %s",
+		 format_type_be(fromOid),
+		 format_type_be(toOid));
+	return false;
+}
+
 Type Type_getCoerceIn(Type self, Type other)
 {
 	Oid  funcId;
@@ -105,29 +143,23 @@ Type Type_getCoerceIn(Type self, Type other)
 
 	if(self->inCoercions != 0)
 	{
-		coerce = HashMap_getByOid(self->inCoercions, fromOid);
+		coerce = OidHashMap_get(self->inCoercions, fromOid);
 		if(coerce != 0)
 			return coerce;
 	}
 
-	if (!find_coercion_pathway(toOid, fromOid, COERCION_EXPLICIT, &funcId))
-	{
-		elog(ERROR, "no conversion function from %s to %s",
-			 format_type_be(fromOid),
-			 format_type_be(toOid));
-	}
-
-	if(funcId == InvalidOid)
-		/*
-		 * Binary compatible type. No need for a special coercer
-		 */
-		return self;
+	/* A binary compatible type needs no special coercer. That is
+	 * remembered too so that the pathway isn't searched again.
+	 */
+	if(_findCoercion(toOid, fromOid, &funcId))
+		coerce = Coerce_createInViaIO(self, other);
+	else
+		coerce = (funcId == InvalidOid) ? self : Coerce_createIn(self, other, funcId);
 
 	if(self->inCoercions == 0)
-		self->inCoercions = HashMap_create(7, GetMemoryChunkContext(self));
+		self->inCoercions = OidHashMap_create(7, GetMemoryChunkContext(self));
 
-	coerce = Coerce_createIn(self, other, funcId);
-	HashMap_putByOid(self->inCoercions, fromOid, coerce);
+	OidHashMap_put(self->inCoercions, fromOid, coerce);
 	return coerce;
 }
 
@@ -140,29 +172,23 @@ Type Type_getCoerceOut(Type self, Type other)
 
 	if(self->outCoercions != 0)
 	{
-		coercer = HashMap_getByOid(self->outCoercions, toOid);
+		coercer = OidHashMap_get(self->outCoercions, toOid);
 		if(coercer != 0)
 			return coercer;
 	}
 
-	if(funcId == InvalidOid)
-		/*
-		 * Binary compatible type. No need for a special coercer
-		 */
-		return self;
-
-	if (!find_coercion_pathway(toOid, fromOid, COERCION_EXPLICIT, &funcId))
-	{
-		elog(ERROR, "no conversion function from %s to %s",
-			 format_type_be(fromOid),
-			 format_type_be(toOid));
-	}
+	/* A binary compatible type needs no special coercer. That is
+	 * remembered too so that the pathway isn't searched again.
+	 */
+	if(_findCoercion(toOid, fromOid, &funcId))
+		coercer = Coerce_createOutViaIO(self, other);
+	else
+		coercer = (funcId == InvalidOid) ? self : Coerce_createOut(self, other, funcId);
 
 	if(self->outCoercions == 0)
-		self->outCoercions = HashMap_create(7, GetMemoryChunkContext(self));
+		self->outCoercions = OidHashMap_create(7, GetMemoryChunkContext(self));
 
-	coercer = Coerce_createOut(self, other, funcId);
-	HashMap_putByOid(self->outCoercions, toOid, coercer);
+	OidHashMap_put(self->outCoercions, toOid, coercer);
 	return coercer;
 }
 
@@ -288,9 +314,45 @@ Type Type_getObjectType(Type self)
 	return self->objectType;
 }
 
+static uint32 realTypeSlot(Type self, Oid realTypeId, jobject typeMap)
+{
+	Ptr2Long p2l;
+	uint32 h;
+
+	p2l.longVal = 0L; /* ensure that the rest is zeroed out */
+	p2l.ptrVal = self;
+	h = (uint32)(p2l.longVal >> 3);
+
+	p2l.longVal = 0L;
+	p2l.ptrVal = typeMap;
+	h = h * 31 + (uint32)(p2l.longVal >> 3);
+	h = h * 31 + (uint32)realTypeId;
+	return (h * 2654435769U) >> 24;
+}
+
 Type Type_getRealType(Type self, Oid realTypeId, jobject typeMap)
 {
-	return self->typeClass->getRealType(self, realTypeId, typeMap);
+	Type real;
+	RealTypeEntryData* entry;
+
+	if(!Type_isDynamic(self))
+		return self;
+
+	entry = s_realTypeCache + realTypeSlot(self, realTypeId, typeMap);
+	if(entry->declared == self && entry->actualId == realTypeId && entry->typeMap == typeMap)
+		return entry->real;
+
+	real = self->typeClass->getRealType(self, realTypeId, typeMap);
+	entry->declared = self;
+	entry->actualId = realTypeId;
+	entry->typeMap  = typeMap;
+	entry->real     = real;
+	return real;
+}
+
+void Type_clearRealTypeCache(void)
+{
+	memset(s_realTypeCache, 0, sizeof(s_realTypeCache));
 }
 
 Oid Type_getOid(Type self)
@@ -423,6 +485,17 @@ bool Type_isPrimitive(Type self)
 	return self->objectType != 0;
 }
 
+Type Type_lookupJavaType(Oid typeId, const char* javaTypeName)
+{
+	CacheEntry ce = (CacheEntry)HashMap_getByString(s_obtainerByJavaName, javaTypeName);
+	if(ce == 0)
+		return 0;
+
+	return ce->type == 0
+		? ce->obtainer(typeId == InvalidOid ? ce->typeId : typeId)
+		: ce->type;
+}
+
 Type Type_fromJavaType(Oid typeId, const char* javaTypeName)
 {
 	CacheEntry ce = (CacheEntry)HashMap_getByString(s_obtainerByJavaName, javaTypeName);
@@ -451,12 +524,12 @@ Type Type_fromJavaType(Oid typeId, const char* javaTypeName)
 
 void Type_cacheByOid(Oid typeId, Type type)
 {
-	HashMap_putByOid(s_typeByOid, typeId, type);
+	OidHashMap_put(s_typeByOid, typeId, type);
 }
 
 Type Type_fromOidCache(Oid typeId)
 {
-	return (Type)HashMap_getByOid(s_typeByOid, typeId);
+	return (Type)OidHashMap_get(s_typeByOid, typeId);
 }
 
 Type Type_fromOid(Oid typeId, jobject typeMap)
@@ -519,7 +592,7 @@ Type Type_fromOid(Oid typeId, jobject typeMap)
 		goto finally;
 	}
 
-	ce = (CacheEntry)HashMap_getByOid(s_obtainerByOid, typeId);
+	ce = (CacheEntry)OidHashMap_get(s_obtainerByOid, typeId);
 	if(ce == 0)
 		/*
 		 * Default to String and standard textin/textout coersion.
@@ -669,6 +742,7 @@ extern void BigDecimal_initialize(void);
 extern void Date_initialize(void);
 extern void Time_initialize(void);
 extern void Timestamp_initialize(void);
+extern void JavaTime_initialize(void);
 
 extern void Oid_initialize(void);
 extern void AclId_initialize(void);
@@ -680,10 +754,12 @@ extern void byte_array_initialize(void);
 
 extern void JavaWrapper_initialize(void);
 extern void ExecutionPlan_initialize(void);
+extern void CopyIn_initialize(void);
 extern void Portal_initialize(void);
 extern void Relation_initialize(void);
 extern void TriggerData_initialize(void);
 extern void Tuple_initialize(void);
+extern void StringCache_initialize(void);
 extern void TupleDesc_initialize(void);
 extern void TupleTable_initialize(void);
 
@@ -692,8 +768,8 @@ extern void Composite_initialize(void);
 extern void Type_initialize(void);
 void Type_initialize(void)
 {
-	s_typeByOid          = HashMap_create(59, TopMemoryContext);
-	s_obtainerByOid      = HashMap_create(59, TopMemoryContext);
+	s_typeByOid          = OidHashMap_create(59, TopMemoryContext);
+	s_obtainerByOid      = OidHashMap_create(59, TopMemoryContext);
 	s_obtainerByJavaName = HashMap_create(59, TopMemoryContext);
 
 	String_initialize();
@@ -714,6 +790,7 @@ void Type_initialize(void)
 	Date_initialize();
 	Time_initialize();
 	Timestamp_initialize();
+	JavaTime_initialize();
 
 	Oid_initialize();
 	AclId_initialize();
@@ -724,11 +801,13 @@ void Type_initialize(void)
 
 	JavaWrapper_initialize();
 	ExecutionPlan_initialize();
+	CopyIn_initialize();
 	Portal_initialize();
 	TriggerData_initialize();
 	Relation_initialize();
 	TupleDesc_initialize();
 	Tuple_initialize();
+	StringCache_initialize();
 	TupleTable_initialize();
 
 	Composite_initialize();
@@ -830,8 +909,8 @@ static void _registerType(Oid typeId, const char* javaTypeName, Type type, TypeO
 	if(javaTypeName != 0)
 		HashMap_putByString(s_obtainerByJavaName, javaTypeName, ce);
 
-	if(typeId != InvalidOid && HashMap_getByOid(s_obtainerByOid, typeId) == 0)
-		HashMap_putByOid(s_obtainerByOid, typeId, ce);
+	if(typeId != InvalidOid && OidHashMap_get(s_obtainerByOid, typeId) == 0)
+		OidHashMap_put(s_obtainerByOid, typeId, ce);
 }
 
 void Type_registerType(const char* javaTypeName, Type type)
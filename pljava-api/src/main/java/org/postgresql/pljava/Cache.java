@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root directory of this distribution or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava;
+
+/**
+ * A bounded cache that lives as long as the session. Entries are evicted when
+ * the cache exceeds the bounds given by its {@link CacheSpec}. Unlike
+ * session attributes, a cache is not transactional; modifications are not
+ * undone when a transaction is aborted, although all entries can optionally
+ * be discarded.
+ * 
+ * @author Thomas Hallgren
+ */
+public interface Cache<K, V> {
+    /**
+     * Removes all entries from the cache. The statistics are not reset.
+     */
+    void clear();
+
+    /**
+     * Returns the value stored for the key or <code>null</code> if the key
+     * is not present or its entry has expired.
+     */
+    V get(K key);
+
+    /**
+     * Returns the number of entries that have been evicted to keep the cache
+     * within its bounds. Expired entries are not counted.
+     */
+    long getEvictionCount();
+
+    /**
+     * Returns the number of calls to {@link #get(Object)} that found a value.
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of calls to {@link #get(Object)} that did not find a
+     * value.
+     */
+    long getMissCount();
+
+    /**
+     * Returns the name that the cache was obtained with.
+     */
+    String getName();
+
+    /**
+     * Returns the total weight of the entries currently in the cache.
+     */
+    long getWeight();
+
+    /**
+     * Stores a value for the key, possibly evicting other entries. A value
+     * that alone weighs more than the maximum weight of the cache is not
+     * stored and the previous value for the key is removed.
+     * 
+     * @return The value previously stored for the key or <code>null</code>.
+     */
+    V put(K key, V value);
+
+    /**
+     * Removes the entry for the key.
+     * 
+     * @return The value that was stored for the key or <code>null</code>.
+     */
+    V remove(K key);
+
+    /**
+     * Returns the number of entries currently in the cache.
+     */
+    int size();
+}
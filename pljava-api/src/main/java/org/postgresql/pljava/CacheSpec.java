@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root directory of this distribution or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava;
+
+/**
+ * Describes the bounds and eviction policy of a {@link Cache} obtained from
+ * {@link Session#getCache(String, CacheSpec)}. The setters return the spec
+ * itself so that calls can be chained:
+ * 
+ * <pre>
+ * Cache&lt;String, Rate&gt; rates = session.getCache(&quot;rates&quot;,
+ *     new CacheSpec().maximumSize(1000).expireAfterWrite(60000));
+ * </pre>
+ * 
+ * The spec is only consulted when the cache is created.
+ * 
+ * @author Thomas Hallgren
+ */
+public class CacheSpec {
+    /**
+     * The policy used to select the entry to evict when the cache is full.
+     */
+    public enum Eviction {
+        /**
+         * Evict the least recently used entry.
+         */
+        LRU,
+
+        /**
+         * Evict the least frequently used entry. Ties are broken by evicting
+         * the entry that least recently had its use count increased.
+         */
+        LFU
+    }
+
+    /**
+     * Computes the weight of an entry, typically an estimate of the number
+     * of bytes that it retains.
+     */
+    public interface Weigher {
+        /**
+         * Returns the weight of the entry. Must not be negative.
+         */
+        long weigh(Object key, Object value);
+    }
+
+    private boolean  m_discardOnAbort   = false;
+
+    private Eviction m_eviction         = Eviction.LRU;
+
+    private long     m_expireAfterWrite = 0;
+
+    private int      m_maximumSize      = Integer.MAX_VALUE;
+
+    private long     m_maximumWeight    = Long.MAX_VALUE;
+
+    private Weigher  m_weigher          = null;
+
+    /**
+     * Discard all entries when a transaction is aborted. Use this when the
+     * cached values are derived from data that the transaction may have
+     * modified.
+     */
+    public CacheSpec discardOnAbort(boolean flag) {
+        m_discardOnAbort = flag;
+        return this;
+    }
+
+    /**
+     * Sets the eviction policy. The default is {@link Eviction#LRU}.
+     */
+    public CacheSpec eviction(Eviction eviction) {
+        if (eviction == null) {
+            throw new IllegalArgumentException("eviction cannot be null");
+        }
+        m_eviction = eviction;
+        return this;
+    }
+
+    /**
+     * Entries expire when the given number of milliseconds has elapsed since
+     * they were stored. Zero, the default, means that entries never expire.
+     */
+    public CacheSpec expireAfterWrite(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("expireAfterWrite cannot be negative");
+        }
+        m_expireAfterWrite = millis;
+        return this;
+    }
+
+    public Eviction getEviction() {
+        return m_eviction;
+    }
+
+    public long getExpireAfterWrite() {
+        return m_expireAfterWrite;
+    }
+
+    public int getMaximumSize() {
+        return m_maximumSize;
+    }
+
+    public long getMaximumWeight() {
+        return m_maximumWeight;
+    }
+
+    public Weigher getWeigher() {
+        return m_weigher;
+    }
+
+    public boolean isDiscardOnAbort() {
+        return m_discardOnAbort;
+    }
+
+    /**
+     * Sets the maximum number of entries.
+     */
+    public CacheSpec maximumSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        m_maximumSize = size;
+        return this;
+    }
+
+    /**
+     * Sets the maximum total weight of the entries. Entries weigh one unless
+     * a {@link #weigher(Weigher)} is given.
+     */
+    public CacheSpec maximumWeight(long weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("maximumWeight must be positive");
+        }
+        m_maximumWeight = weight;
+        return this;
+    }
+
+    /**
+     * Sets the weigher that computes the weight of each entry.
+     */
+    public CacheSpec weigher(Weigher weigher) {
+        m_weigher = weigher;
+        return this;
+    }
+}
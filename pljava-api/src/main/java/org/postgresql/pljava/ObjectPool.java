@@ -8,6 +8,13 @@ package org.postgresql.pljava;
 
 import java.sql.SQLException;
 
+/**
+ * A pool of passive instances of one class. Instances are activated when
+ * obtained from the pool and passivated when returned to it. The pool may be
+ * used by several threads concurrently.
+ * 
+ * @author Thomas Hallgren
+ */
 public interface ObjectPool {
     /**
      * Obtain a pooled object. A new instance is created if needed. The pooled
@@ -17,6 +24,40 @@ public interface ObjectPool {
      */
     PooledObject activateInstance() throws SQLException;
 
+    /**
+     * Returns the number of calls to {@link #activateInstance()} that
+     * succeeded.
+     */
+    long getActivationCount();
+
+    /**
+     * Returns the number of instances that have been created.
+     */
+    long getCreationCount();
+
+    /**
+     * Returns the number of passive instances currently in the pool.
+     */
+    int getIdleCount();
+
+    /**
+     * Returns the number of milliseconds that a passive instance may stay in
+     * the pool. Zero means forever.
+     */
+    long getIdleTimeout();
+
+    /**
+     * Returns the maximum number of passive instances that the pool will
+     * retain.
+     */
+    int getMaxIdle();
+
+    /**
+     * Returns the number of activations that reused a passive instance from
+     * the pool rather than creating a new one.
+     */
+    long getReuseCount();
+
     /**
      * Call the {@link PooledObject#passivate()} method and return the object to
      * the pool.
@@ -31,4 +72,26 @@ public interface ObjectPool {
      * the pool.
      */
     void removeInstance(PooledObject instance) throws SQLException;
+
+    /**
+     * Sets the number of milliseconds that a passive instance may stay in the
+     * pool. Instances that have been idle for longer are removed when a
+     * transaction ends. Zero, the default, means that instances are never
+     * removed for being idle.
+     */
+    void setIdleTimeout(long millis);
+
+    /**
+     * Sets the maximum number of passive instances that the pool will retain.
+     * Instances that are passivated when the pool is full are removed. The
+     * default is unbounded.
+     */
+    void setMaxIdle(int maxIdle);
+
+    /**
+     * Removes passive instances until no more than <code>maxIdle</code>
+     * instances remain. The instances that have been idle for the longest
+     * time are removed first.
+     */
+    void trim(int maxIdle);
 }
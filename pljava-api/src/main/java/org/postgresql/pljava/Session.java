@@ -66,6 +66,19 @@ public interface Session {
      */
     Object getAttribute(String attributeName);
 
+    /**
+     * Return the cache with the given name. The cache is created using the
+     * given <code>spec</code> the first time it is requested. Subsequent
+     * requests return the same cache and the <code>spec</code> is ignored.
+     * 
+     * @param name
+     *            The name of the cache
+     * @param spec
+     *            The bounds and eviction policy of the cache
+     * @return The cache
+     */
+    <K, V> Cache<K, V> getCache(String name, CacheSpec spec);
+
     /**
      * Return an object pool for the given class. The class must implement the
      * interface {@link PooledObject}.
@@ -75,6 +88,14 @@ public interface Session {
      */
     ObjectPool getObjectPool(Class<?> cls);
 
+    /**
+     * Return the cache that is shared between all sessions.
+     * 
+     * @return The shared cache. Check {@link SharedCache#isAvailable()} to
+     *         find out if it can store anything.
+     */
+    SharedCache getSharedCache();
+
     /**
      * Return the name of the user that owns the current session.
      */
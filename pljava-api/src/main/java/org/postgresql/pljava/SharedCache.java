@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root directory of this distribution or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava;
+
+/**
+ * A cache in shared memory that is visible to all backends, i.e. to all
+ * sessions. Keys and values are byte arrays, typically serialized arguments
+ * and results of an <code>IMMUTABLE</code> function, so that a result that
+ * was computed in one session can be reused by another. The least recently
+ * used entries are evicted when the cache is full.
+ * <p>
+ * The cache is only available when PL/Java is loaded using the
+ * <code>shared_preload_libraries</code> setting and
+ * <code>pljava.shared_cache_size</code> is set to the number of kilobytes to
+ * reserve. When it is not available, lookups always miss and nothing is
+ * stored.
+ * <p>
+ * The cache is not transactional.
+ * 
+ * @author Thomas Hallgren
+ */
+public interface SharedCache {
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear();
+
+    /**
+     * Returns a copy of the value stored for the key or <code>null</code> if
+     * the key is not present.
+     */
+    byte[] get(byte[] key);
+
+    /**
+     * Returns the number of entries that all backends have evicted to make
+     * room for new entries.
+     */
+    long getEvictionCount();
+
+    /**
+     * Returns the number of lookups in all backends that found a value.
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of lookups in all backends that did not find a value.
+     */
+    long getMissCount();
+
+    /**
+     * Returns <code>true</code> if shared memory has been reserved for the
+     * cache.
+     */
+    boolean isAvailable();
+
+    /**
+     * Stores a copy of the value for the key, evicting the least recently
+     * used entries as needed.
+     * 
+     * @return <code>false</code> if the cache is not available or if the key
+     *         and value are larger than the cache.
+     */
+    boolean put(byte[] key, byte[] value);
+
+    /**
+     * Removes the entry for the key.
+     * 
+     * @return <code>true</code> if an entry was removed.
+     */
+    boolean remove(byte[] key);
+
+    /**
+     * Returns the number of entries currently in the cache.
+     */
+    int size();
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.example;
+
+import java.sql.SQLException;
+
+import org.postgresql.pljava.Cache;
+import org.postgresql.pljava.CacheSpec;
+import org.postgresql.pljava.SessionManager;
+
+/**
+ * Checks the eviction rules of the session caches.
+ *
+ * @author Thomas Hallgren
+ */
+public class CacheTest {
+    private static class LengthWeigher implements CacheSpec.Weigher {
+        public long weigh(Object key, Object value) {
+            return ((String) value).length();
+        }
+    }
+
+    /**
+     * A full LFU cache must admit a new key by evicting the least frequently
+     * used entry rather than the new entry itself.
+     */
+    public static boolean testLfuAdmission() throws SQLException {
+        Cache<String, String> cache = SessionManager.current().getCache("javatest.lfu",
+                                                                        new CacheSpec().maximumSize(2).eviction(CacheSpec.Eviction.LFU));
+        cache.clear();
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertEquals("A", cache.get("a"));
+        assertEquals(null, cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        return true;
+    }
+
+    /**
+     * Entries are evicted until the new entry fits and an entry that alone
+     * exceeds the maximum weight is not stored.
+     */
+    public static boolean testWeights() throws SQLException {
+        Cache<String, String> cache = SessionManager.current().getCache("javatest.weights",
+                                                                        new CacheSpec().maximumWeight(10).weigher(new LengthWeigher()));
+        cache.clear();
+        cache.put("k1", "aaaa");
+        cache.put("k2", "bbbb");
+        cache.put("k3", "cccccc");
+
+        assertEquals(null, cache.get("k1"));
+        assertEquals("bbbb", cache.get("k2"));
+        assertEquals("cccccc", cache.get("k3"));
+
+        cache.put("k4", "dddddddddddd");
+        assertEquals(null, cache.get("k4"));
+        assertEquals("bbbb", cache.get("k2"));
+        if (cache.getWeight() != 10) {
+            throw new SQLException("Unexpected cache weight " + cache.getWeight());
+        }
+        return true;
+    }
+
+    private static void assertEquals(String expected, String actual)
+                                                                    throws SQLException {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new SQLException("Expected " + expected + " but got " + actual);
+        }
+    }
+}
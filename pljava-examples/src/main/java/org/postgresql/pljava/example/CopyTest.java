@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.example;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.postgresql.pljava.jdbc.SPIConnection;
+import org.postgresql.pljava.jdbc.SPICopyIn;
+
+/**
+ * Inserts rows into <code>javatest.copy_target</code> using
+ * <code>COPY FROM STDIN</code>.
+ *
+ * @author Thomas Hallgren
+ */
+public class CopyTest {
+    /**
+     * Copies <code>count</code> rows. Every tenth name is <code>null</code>
+     * and the other names contain characters that must be escaped.
+     *
+     * @return The number of rows inserted.
+     */
+    public static long copyInRows(int count) throws SQLException {
+        SPIConnection conn = (SPIConnection) DriverManager.getConnection("jdbc:default:connection");
+        SPICopyIn copy = conn.getCopyAPI().copyIn("COPY javatest.copy_target (id, name) FROM STDIN");
+        try {
+            for (int idx = 0; idx < count; ++idx) {
+                String name = idx % 10 == 0 ? null : "row\t" + idx + "\\\n";
+                copy.writeRow(new Object[] { new Integer(idx), name });
+            }
+            return copy.endCopy();
+        } finally {
+            copy.cancelCopy();
+        }
+    }
+
+    /**
+     * Copies <code>data</code>, which must be ASCII text in the text format
+     * of <code>COPY</code>, as it is.
+     *
+     * @return The number of rows inserted.
+     */
+    public static long copyInText(String data) throws SQLException {
+        SPIConnection conn = (SPIConnection) DriverManager.getConnection("jdbc:default:connection");
+        SPICopyIn copy = conn.getCopyAPI().copyIn("COPY javatest.copy_target (id, name) FROM STDIN");
+        try {
+            char[] chars = data.toCharArray();
+            byte[] bytes = new byte[chars.length];
+            for (int idx = 0; idx < chars.length; ++idx) {
+                bytes[idx] = (byte) chars[idx];
+            }
+            copy.writeToCopy(bytes, 0, bytes.length);
+            return copy.endCopy();
+        } finally {
+            copy.cancelCopy();
+        }
+    }
+}
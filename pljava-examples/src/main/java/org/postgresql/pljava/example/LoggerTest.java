@@ -6,6 +6,7 @@
  */
 package org.postgresql.pljava.example;
 
+import java.sql.SQLException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,4 +14,21 @@ public class LoggerTest {
     public static void logMessage(String logLevel, String message) {
         Logger.getAnonymousLogger().log(Level.parse(logLevel), message);
     }
+
+    /**
+     * Logs the messages <code>message 1</code> to <code>message count</code>
+     * at level <code>INFO</code>, and then fails if <code>fail</code> is set.
+     * The messages must reach the client in order, also when the call fails.
+     */
+    public static void logMessages(int count, boolean fail)
+                                                           throws SQLException {
+        Logger logger = Logger.getLogger("org.postgresql.pljava.example.LoggerTest");
+        for (int idx = 1; idx <= count; ++idx) {
+            logger.info("message " + idx);
+        }
+        if (fail) {
+            throw new SQLException("failed after logging " + count
+                                   + " messages");
+        }
+    }
 }
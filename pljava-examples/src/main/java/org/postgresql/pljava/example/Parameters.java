@@ -76,6 +76,21 @@ public class Parameters {
         return new Timestamp(System.currentTimeMillis());
     }
 
+    /**
+     * Returns the value unchanged so that it is converted both to and from
+     * a <code>BigDecimal</code>.
+     */
+    public static BigDecimal numericIdentity(BigDecimal value) {
+        return value;
+    }
+
+    /**
+     * Returns the plain string form of the value as seen by Java.
+     */
+    public static String numericToString(BigDecimal value) {
+        return value.toPlainString();
+    }
+
     public static Integer nullOnEven(int value) {
         return value % 2 == 0 ? null : new Integer(value);
     }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.example;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Checks that the types of the parameter values are used when a statement
+ * is prepared, so that operators and functions with several candidates can
+ * be resolved, and that values of other types are converted to the types of
+ * a prepared statement.
+ *
+ * @author Thomas Hallgren
+ */
+public class PreparedStatementTest {
+    public static boolean testParameterTypes() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+        PreparedStatement stmt = conn.prepareStatement("SELECT ? || ?");
+        stmt.setString(1, "abc");
+        stmt.setString(2, "def");
+        assertResult(stmt, "abcdef");
+        stmt.close();
+
+        stmt = conn.prepareStatement("SELECT ? + ?");
+        stmt.setInt(1, 40);
+        stmt.setInt(2, 2);
+        assertResult(stmt, new Integer(42));
+        stmt.close();
+
+        stmt = conn.prepareStatement("SELECT abs(?)");
+        stmt.setInt(1, -5);
+        assertResult(stmt, new Integer(5));
+
+        // Executed again with another type, the value is converted to the
+        // type that the statement was prepared with
+        //
+        stmt.setDouble(1, -7.0);
+        assertResult(stmt, new Integer(7));
+
+        // A null has no type of its own
+        //
+        stmt.setNull(1, Types.VARCHAR);
+        assertResult(stmt, null);
+        stmt.close();
+
+        stmt = conn.prepareStatement("SELECT ?");
+        stmt.setInt(1, 7);
+        assertResult(stmt, new Integer(7));
+        stmt.close();
+        return true;
+    }
+
+    /**
+     * Binds primitive values to a parameter that has been prepared as text.
+     * The values must be converted like the corresponding SQL types are cast
+     * to text.
+     */
+    public static boolean testTextParameters() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+        PreparedStatement stmt = conn.prepareStatement("SELECT CAST(? AS text)");
+        stmt.setString(1, "abc");
+        assertResult(stmt, "abc");
+
+        stmt.setBoolean(1, true);
+        assertResult(stmt, "true");
+
+        stmt.setFloat(1, 0.1f);
+        assertResult(stmt, "0.1");
+        stmt.close();
+        return true;
+    }
+
+    /**
+     * A statement that is prepared again after being closed must be a new
+     * statement so that a stale handle cannot close or alter it.
+     */
+    public static boolean testStaleHandle() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+        PreparedStatement first = conn.prepareStatement("SELECT ? + 1");
+        first.setInt(1, 1);
+        assertResult(first, new Integer(2));
+        first.close();
+
+        PreparedStatement second = conn.prepareStatement("SELECT ? + 1");
+        if (second == first) {
+            throw new SQLException("closed statement was handed out again");
+        }
+        first.close();
+        try {
+            first.setInt(1, 100);
+            throw new SQLException("closed statement accepted a parameter");
+        } catch (SQLException e) {
+            if (!"Statement is closed".equals(e.getMessage())) {
+                throw e;
+            }
+        }
+
+        second.setInt(1, 2);
+        assertResult(second, new Integer(3));
+        second.close();
+        return true;
+    }
+
+    private static void assertResult(PreparedStatement stmt, Object expected)
+                                                                             throws SQLException {
+        ResultSet rs = stmt.executeQuery();
+        try {
+            if (!rs.next()) {
+                throw new SQLException("No row returned by " + stmt);
+            }
+            Object actual = rs.getObject(1);
+            if (expected == null ? actual != null : !expected.equals(actual)) {
+                throw new SQLException(stmt + " returned " + actual + " ("
+                                       + (actual == null ? "null"
+                                                        : actual.getClass().getName())
+                                       + "), expected " + expected);
+            }
+        } finally {
+            rs.close();
+        }
+    }
+}
@@ -8,6 +8,7 @@ package org.postgresql.pljava.example;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -15,6 +16,8 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import org.postgresql.pljava.jdbc.SPIResultSet;
+
 /**
  * @author Filip Hrbek
  */
@@ -28,6 +31,140 @@ public class ResultSetTest {
         return new ResultSetTest(selectSQL).iterator();
     }
 
+    /**
+     * Returns the value of the column <code>a</code> in a result where two
+     * columns share that name. The first of them is expected.
+     */
+    public static int findDuplicateColumn() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:default:connection");
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT 1 AS a, 2 AS a");
+            if (!rs.next()) {
+                throw new SQLException("No row returned");
+            }
+            return rs.getInt("a");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Moves a scrollable result set of 100 rows in all directions, with a
+     * fetch size that makes the moves cross block boundaries.
+     */
+    public static boolean testScrollable() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:default:connection");
+        Statement stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
+                                              ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(10);
+        try {
+            checkScrolling(stmt.executeQuery("SELECT x FROM generate_series(1, 100) x"));
+        } finally {
+            stmt.close();
+        }
+
+        PreparedStatement pstmt = conn.prepareStatement("SELECT x FROM generate_series(1, ?) x",
+                                                        ResultSet.TYPE_SCROLL_INSENSITIVE,
+                                                        ResultSet.CONCUR_READ_ONLY);
+        pstmt.setFetchSize(10);
+        pstmt.setInt(1, 100);
+        try {
+            checkScrolling(pstmt.executeQuery());
+        } finally {
+            pstmt.close();
+        }
+        return true;
+    }
+
+    /**
+     * Moves a forward only result set of 100 rows forward with absolute,
+     * relative and skip, and checks that backward moves are rejected.
+     */
+    public static boolean testForwardOnly() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:default:connection");
+        Statement stmt = conn.createStatement();
+        stmt.setFetchSize(10);
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT x FROM generate_series(1, 100) x");
+            expectRow(rs, rs.absolute(5), 5);
+
+            // Asking whether the last row of a block is the last row fetches
+            // the next block without leaving that row.
+            //
+            expectRow(rs, rs.relative(9), 14);
+            if (rs.isLast()) {
+                throw new SQLException("Row 14 of 100 reported as the last row");
+            }
+            expectRow(rs, true, 14);
+            expectRow(rs, rs.next(), 15);
+            expectRow(rs, rs.relative(10), 25);
+
+            int skipped = ((SPIResultSet) rs).skip(30);
+            if (skipped != 30) {
+                throw new SQLException("skip(30) skipped " + skipped + " rows");
+            }
+            expectRow(rs, rs.next(), 56);
+
+            try {
+                rs.absolute(3);
+                throw new SQLException("absolute(3) moved a forward only result set backward");
+            } catch (SQLException e) {
+                if (e.getMessage().startsWith("absolute(3) moved")) {
+                    throw e;
+                }
+            }
+
+            skipped = ((SPIResultSet) rs).skip(100);
+            if (skipped != 44) {
+                throw new SQLException("skip(100) skipped " + skipped
+                                       + " rows where 44 remained");
+            }
+            if (rs.next()) {
+                throw new SQLException("Row found after the last row");
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return true;
+    }
+
+    private static void checkScrolling(ResultSet rs) throws SQLException {
+        if (rs.getType() != ResultSet.TYPE_SCROLL_INSENSITIVE) {
+            throw new SQLException("Result set is not scrollable");
+        }
+        expectRow(rs, rs.last(), 100);
+        expectRow(rs, rs.first(), 1);
+        expectRow(rs, rs.absolute(50), 50);
+        expectRow(rs, rs.relative(-10), 40);
+        expectRow(rs, rs.previous(), 39);
+        expectRow(rs, rs.absolute(-1), 100);
+        expectRow(rs, rs.relative(-99), 1);
+        rs.afterLast();
+        expectRow(rs, rs.previous(), 100);
+        rs.beforeFirst();
+        expectRow(rs, rs.next(), 1);
+        if (rs.absolute(101) || !rs.isAfterLast()) {
+            throw new SQLException("absolute(101) did not move after the last row");
+        }
+        rs.close();
+    }
+
+    private static void expectRow(ResultSet rs, boolean moved, int expected)
+                                                                            throws SQLException {
+        if (!moved) {
+            throw new SQLException("No row where row " + expected
+                                   + " was expected");
+        }
+        if (rs.getRow() != expected || rs.getInt(1) != expected) {
+            throw new SQLException("Positioned on row " + rs.getRow()
+                                   + " with value " + rs.getInt(1)
+                                   + " where row " + expected
+                                   + " was expected");
+        }
+    }
+
     private ArrayList<String> m_results;
 
     public ResultSetTest(String selectSQL) throws SQLException {
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.example;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.SQLException;
+
+import org.postgresql.pljava.SessionManager;
+import org.postgresql.pljava.SharedCache;
+
+/**
+ * Stores and retrieves strings in the cache that is shared between backends.
+ *
+ * @author Thomas Hallgren
+ */
+public class SharedCacheTest {
+    /**
+     * Returns the value stored for <code>key</code> or <code>null</code> if
+     * there is none or if the shared cache is not available.
+     */
+    public static String sharedGet(String key) throws SQLException {
+        byte[] value = getSharedCache().get(toBytes(key));
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new String(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new SQLException(e.getMessage());
+        }
+    }
+
+    /**
+     * Stores <code>value</code> for <code>key</code>.
+     *
+     * @return <code>false</code> if the shared cache is not available or
+     *         the value could not be stored.
+     */
+    public static boolean sharedPut(String key, String value)
+                                                             throws SQLException {
+        SharedCache cache = getSharedCache();
+        return cache.isAvailable() && cache.put(toBytes(key), toBytes(value));
+    }
+
+    /**
+     * Removes the value stored for <code>key</code>.
+     */
+    public static boolean sharedRemove(String key) throws SQLException {
+        return getSharedCache().remove(toBytes(key));
+    }
+
+    private static SharedCache getSharedCache() throws SQLException {
+        return SessionManager.current().getSharedCache();
+    }
+
+    private static byte[] toBytes(String s) throws SQLException {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new SQLException(e.getMessage());
+        }
+    }
+}
@@ -87,6 +87,29 @@ public class Triggers {
         }
     }
 
+    /**
+     * Sets the second column to twice the first using the primitive update
+     * methods. The trigger also verifies that a column beyond the end of the
+     * row is rejected by the change buffer.
+     */
+    public static void doubleId(TriggerData td) throws SQLException {
+        ResultSet _new = td.getNew();
+        _new.updateInt(2, _new.getInt(1) * 2);
+        if (_new.getInt(2) != _new.getInt(1) * 2) {
+            throw new TriggerException(td, "updated value was not returned");
+        }
+
+        int columnCount = _new.getMetaData().getColumnCount();
+        try {
+            _new.updateInt(columnCount + 1, 0);
+        } catch (SQLException e) {
+            return;
+        }
+        throw new TriggerException(td, "column " + (columnCount + 1)
+                                       + " was accepted for a row with "
+                                       + columnCount + " columns");
+    }
+
     public static void leakStatements(TriggerData td) throws SQLException {
         StringBuffer buf = new StringBuffer();
 
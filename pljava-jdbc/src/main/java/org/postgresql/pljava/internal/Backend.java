@@ -307,6 +307,19 @@ public class Backend {
         }
     }
 
+    /**
+     * Clears the cached functions that belong to the schema named
+     * <code>schemaName</code>. Functions of other schemas are retained.
+     * 
+     * @param schemaName
+     *            The name of the schema.
+     */
+    public static void clearSchemaFunctionCache(String schemaName) {
+        synchronized (THREADLOCK) {
+            _clearSchemaFunctionCache(schemaName);
+        }
+    }
+
     /**
      * Returns the configuration option as read from the Global Unified Config
      * package (GUC).
@@ -355,12 +368,19 @@ public class Backend {
 
     private native static void _clearFunctionCache();
 
+    private native static void _clearSchemaFunctionCache(String schemaName);
+
     private native static String _getConfigOption(String key);
 
     private native static int _getStatementCacheSize();
 
     private native static void _log(int logLevel, String str);
 
+    private native static void _logBatch(int[] logLevels, String[] strs,
+                                         int count);
+
+    private native static void _setLogPending();
+
     /**
      * Called when the JVM is first booted and then everytime a switch is made
      * between calling a trusted function versus an untrusted function.
@@ -393,4 +413,31 @@ public class Backend {
             _log(logLevel, str);
         }
     }
+
+    /**
+     * Log several messages using the internal elog command. The messages must
+     * be below {@link ELogHandler#LOG_ERROR} since elog does not return from
+     * an error. Use {@link #log(int, String)} for errors.
+     * 
+     * @param logLevels
+     *            The log levels as defined in {@link ELogHandler}.
+     * @param strs
+     *            The messages.
+     * @param count
+     *            The number of messages to log.
+     */
+    static void logBatch(int[] logLevels, String[] strs, int count) {
+        synchronized (THREADLOCK) {
+            _logBatch(logLevels, strs, count);
+        }
+    }
+
+    /**
+     * Tells the backend that there are buffered log messages that should be
+     * drained when the current call returns. This method does not call the
+     * backend and can be used without holding the {@link #THREADLOCK}.
+     */
+    static void setLogPending() {
+        _setLogPending();
+    }
 }
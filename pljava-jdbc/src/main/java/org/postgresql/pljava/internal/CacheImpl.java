@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root directory of this distribution or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.postgresql.pljava.Cache;
+import org.postgresql.pljava.CacheSpec;
+
+/**
+ * The implementation of {@link Cache}. The entries are kept in a map and
+ * linked into lists ordered by use. There is one list per use count; with the
+ * LRU policy the count is never incremented so all entries share one list.
+ * The victim is always the least recently used entry of the list with the
+ * lowest count.
+ *
+ * @author Thomas Hallgren
+ */
+class CacheImpl<K, V> implements Cache<K, V> {
+    private static class Entry<K, V> {
+        private long        m_count;
+        private long        m_expires;
+        private K           m_key;
+        private Entry<K, V> m_next;
+        private Entry<K, V> m_prev;
+        private V           m_value;
+        private long        m_weight;
+    }
+
+    private final TreeMap<Long, Entry<K, V>> m_buckets = new TreeMap<Long, Entry<K, V>>();
+
+    private final boolean                    m_countUses;
+
+    private final boolean                    m_discardOnAbort;
+
+    private final HashMap<K, Entry<K, V>>    m_entries = new HashMap<K, Entry<K, V>>();
+
+    private long                             m_evictionCount;
+
+    private final long                       m_expireAfterWrite;
+
+    private long                             m_hitCount;
+
+    private final int                        m_maximumSize;
+
+    private final long                       m_maximumWeight;
+
+    private long                             m_missCount;
+
+    private final String                     m_name;
+
+    private final CacheSpec.Weigher          m_weigher;
+
+    private long                             m_weight;
+
+    CacheImpl(String name, CacheSpec spec) {
+        m_name = name;
+        m_countUses = spec.getEviction() == CacheSpec.Eviction.LFU;
+        m_discardOnAbort = spec.isDiscardOnAbort();
+        m_expireAfterWrite = spec.getExpireAfterWrite();
+        m_maximumSize = spec.getMaximumSize();
+        m_maximumWeight = spec.getMaximumWeight();
+        m_weigher = spec.getWeigher();
+    }
+
+    public synchronized void clear() {
+        m_entries.clear();
+        m_buckets.clear();
+        m_weight = 0;
+    }
+
+    public synchronized V get(K key) {
+        Entry<K, V> e = m_entries.get(key);
+        if (e != null && m_expireAfterWrite > 0
+            && e.m_expires <= System.currentTimeMillis()) {
+            this.removeEntry(e);
+            e = null;
+        }
+
+        if (e == null) {
+            ++m_missCount;
+            return null;
+        }
+
+        ++m_hitCount;
+        this.unlink(e);
+        if (m_countUses) {
+            ++e.m_count;
+        }
+        this.link(e);
+        return e.m_value;
+    }
+
+    public synchronized long getEvictionCount() {
+        return m_evictionCount;
+    }
+
+    public synchronized long getHitCount() {
+        return m_hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return m_missCount;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public synchronized long getWeight() {
+        return m_weight;
+    }
+
+    public synchronized V put(K key, V value) {
+        long weight = m_weigher == null ? 1 : m_weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalStateException("Weigher returned a negative weight for " + key);
+        }
+
+        V old = null;
+        long count = 0;
+        Entry<K, V> e = m_entries.get(key);
+        if (e != null) {
+            old = e.m_value;
+            count = e.m_count;
+            this.removeEntry(e);
+        }
+
+        // An entry that alone exceeds the maximum weight would flush the
+        // whole cache, itself included, so it is never stored.
+        //
+        if (weight > m_maximumWeight) {
+            return old;
+        }
+
+        // Evict before the new entry is linked so that it cannot be chosen
+        // as the victim. With LFU it would otherwise always be the entry
+        // with the lowest count and a full cache would never admit new keys.
+        //
+        while (m_entries.size() >= m_maximumSize
+               || m_weight + weight > m_maximumWeight) {
+            Map.Entry<Long, Entry<K, V>> bucket = m_buckets.firstEntry();
+            this.removeEntry(bucket.getValue().m_next);
+            ++m_evictionCount;
+        }
+
+        e = new Entry<K, V>();
+        e.m_key = key;
+        e.m_count = count;
+        e.m_value = value;
+        e.m_weight = weight;
+        if (m_expireAfterWrite > 0) {
+            e.m_expires = System.currentTimeMillis() + m_expireAfterWrite;
+        }
+        m_entries.put(key, e);
+        m_weight += weight;
+        this.link(e);
+        return old;
+    }
+
+    public synchronized V remove(K key) {
+        Entry<K, V> e = m_entries.get(key);
+        if (e == null) {
+            return null;
+        }
+        this.removeEntry(e);
+        return e.m_value;
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Cache " + m_name + " (size " + this.size() + ", weight "
+               + this.getWeight() + ", hits " + this.getHitCount()
+               + ", misses " + this.getMissCount() + ", evictions "
+               + this.getEvictionCount() + ")";
+    }
+
+    boolean isDiscardOnAbort() {
+        return m_discardOnAbort;
+    }
+
+    /**
+     * Links the entry last in the list of its use count.
+     */
+    private void link(Entry<K, V> e) {
+        Long count = new Long(e.m_count);
+        Entry<K, V> head = m_buckets.get(count);
+        if (head == null) {
+            // The head is a sentinel of a circular list
+            //
+            head = new Entry<K, V>();
+            head.m_next = head;
+            head.m_prev = head;
+            m_buckets.put(count, head);
+        }
+        e.m_next = head;
+        e.m_prev = head.m_prev;
+        head.m_prev.m_next = e;
+        head.m_prev = e;
+    }
+
+    private void removeEntry(Entry<K, V> e) {
+        m_entries.remove(e.m_key);
+        m_weight -= e.m_weight;
+        this.unlink(e);
+    }
+
+    /**
+     * Unlinks the entry from the list of its use count and removes the list
+     * if it becomes empty.
+     */
+    private void unlink(Entry<K, V> e) {
+        e.m_prev.m_next = e.m_next;
+        e.m_next.m_prev = e.m_prev;
+        if (e.m_next == e.m_prev) {
+            // Only the sentinel remains
+            //
+            m_buckets.remove(new Long(e.m_count));
+        }
+        e.m_next = null;
+        e.m_prev = null;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.internal;
+
+import java.sql.SQLException;
+
+/**
+ * The <code>CopyIn</code> feeds data in the text format of
+ * <code>COPY</code> into a table. The data is written in blocks that need not
+ * end at a line boundary. Each row is converted using the input functions of
+ * the column types and inserted using a plan that is prepared once.
+ *
+ * @author Thomas Hallgren
+ */
+public class CopyIn {
+    /**
+     * Starts a copy into the given relation.
+     *
+     * @param relId
+     *            The Oid of the relation.
+     * @param columns
+     *            The names of the target columns or <code>null</code> for all
+     *            columns.
+     * @return The started copy.
+     * @throws SQLException
+     *             If the relation or one of the columns does not exist.
+     */
+    public static CopyIn create(Oid relId, String[] columns)
+                                                            throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            return new CopyIn(
+                              _create(System.identityHashCode(Thread.currentThread()),
+                                      relId.intValue(), columns));
+        }
+    }
+
+    private static native void _cancel(long pointer);
+
+    private static native long _create(long threadId, int relId,
+                                       String[] columns) throws SQLException;
+
+    private static native long _end(long pointer, long threadId)
+                                                                throws SQLException;
+
+    private static native long _write(long pointer, long threadId,
+                                      byte[] data, int offset, int length)
+                                                                          throws SQLException;
+
+    private long m_pointer;
+
+    private CopyIn(long pointer) {
+        m_pointer = pointer;
+    }
+
+    /**
+     * Discards the data that has not yet been inserted and releases the
+     * resources of the copy. This method does nothing if the copy has ended.
+     */
+    public void cancel() {
+        synchronized (Backend.THREADLOCK) {
+            if (m_pointer != 0) {
+                _cancel(m_pointer);
+                m_pointer = 0;
+            }
+        }
+    }
+
+    /**
+     * Inserts the last line, if it was not terminated, and ends the copy.
+     *
+     * @return The total number of rows inserted.
+     * @throws SQLException
+     *             If the copy has ended or if the last line could not be
+     *             inserted.
+     */
+    public long end() throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            long pointer = this.getPointer();
+
+            // The native side releases the copy even when it fails
+            //
+            m_pointer = 0;
+            return _end(pointer, System.identityHashCode(Thread.currentThread()));
+        }
+    }
+
+    /**
+     * Returns <code>true</code> until the copy has been ended or cancelled.
+     */
+    public boolean isActive() {
+        return m_pointer != 0;
+    }
+
+    /**
+     * Inserts the complete lines of a block of data. An incomplete last line
+     * is kept until the next block is written or the copy is ended.
+     *
+     * @return The total number of rows inserted so far.
+     * @throws SQLException
+     *             If the copy has ended or if a row could not be inserted.
+     */
+    public long write(byte[] data, int offset, int length) throws SQLException {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        synchronized (Backend.THREADLOCK) {
+            return _write(this.getPointer(),
+                          System.identityHashCode(Thread.currentThread()), data,
+                          offset, length);
+        }
+    }
+
+    private long getPointer() throws SQLException {
+        if (m_pointer == 0) {
+            throw new SQLException("Copy is not active");
+        }
+        return m_pointer;
+    }
+}
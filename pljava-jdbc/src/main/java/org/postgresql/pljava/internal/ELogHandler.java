@@ -9,6 +9,7 @@ package org.postgresql.pljava.internal;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Properties;
 import java.util.logging.Filter;
 import java.util.logging.Formatter;
@@ -16,13 +17,68 @@ import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 /**
  * Provides access to the loggin mechanism of the PostgreSQL server.
+ * <p>
+ * Messages below <code>WARNING</code> are not sent to the backend one by one.
+ * They are kept in a bounded ring buffer that is drained when the current call
+ * returns to the backend, when the buffer is full, or ahead of a warning or an
+ * error. Errors are sent at once. The level of the root logger follows the
+ * lowest of <code>log_min_messages</code> and <code>client_min_messages</code>
+ * unless it has been set by someone else, and messages that elog would
+ * discard are discarded before they are formatted. Each logger may also publish at most
+ * <code>rateLimit</code> messages per second. The messages that exceed the
+ * limit are counted and the count is logged when the next second starts.
+ * <p>
+ * The size of the buffer and the rate limit are configured using the
+ * <code>org.postgresql.pljava.internal.ELogHandler.bufferSize</code> and
+ * <code>org.postgresql.pljava.internal.ELogHandler.rateLimit</code> logging
+ * properties. A rate limit of zero means no limit.
  * 
  * @author Thomas Hallgren
  */
 public class ELogHandler extends Handler {
+    /**
+     * The number of messages a logger has published during the current
+     * second.
+     */
+    private static final class RateLimit {
+        int  m_count;
+        int  m_dropped;
+        long m_start;
+    }
+
+    private static final int     DEFAULT_BUFFER_SIZE = 256;
+
+    private static final int     DEFAULT_RATE_LIMIT  = 1000;
+
+    private static final Object  s_bufferLock        = new Object();
+
+    private static int           s_bufferCount;
+
+    private static int           s_bufferHead;
+
+    private static long          s_droppedCount;
+
+    private static int[]         s_levels;
+
+    private static String[]      s_messages;
+
+    /**
+     * The lowest of log_min_messages and client_min_messages. Set by the
+     * backend.
+     */
+    private static volatile int  s_minLevel          = 0;
+
+    private static int           s_overflowCount;
+
+    /**
+     * The level last given to the root logger by {@link #setMinLevel(int)}.
+     */
+    private static Level         s_rootLevel;
+
     public static final int LOG_DEBUG1  = 14;
     public static final int LOG_DEBUG2  = 13;
     public static final int LOG_DEBUG3  = 12;
@@ -107,10 +163,20 @@ public class ELogHandler extends Handler {
         return level;
     }
 
+    /**
+     * Returns the total number of messages that have been dropped, either
+     * because they exceeded the rate limit of their logger or because the
+     * buffer was full.
+     */
+    public static long getDroppedCount() {
+        synchronized (s_bufferLock) {
+            return s_droppedCount;
+        }
+    }
+
     public static void init() {
         Properties props = new Properties();
         props.setProperty("handlers", ELogHandler.class.getName());
-        props.setProperty(".level", getPgLevel().getName());
         ByteArrayOutputStream po = new ByteArrayOutputStream();
         try {
             props.store(po, null);
@@ -118,24 +184,51 @@ public class ELogHandler extends Handler {
                                                                                   po.toByteArray()));
         } catch (IOException e) {
         }
+
+        // The level is set by the backend before the first call.
+        //
+        s_rootLevel = Logger.getLogger("").getLevel();
     }
 
+    private final HashMap<String, RateLimit> m_rateLimits = new HashMap<String, RateLimit>();
+
+    private int                              m_rateLimit;
+
     public ELogHandler() {
         configure();
     }
 
     /**
-     * This is a no-op.
+     * Sends the buffered messages to the backend.
      */
     @Override
     public void close() throws SecurityException {
+        drain();
     }
 
     /**
-     * This is a no-op.
+     * Sends the buffered messages to the backend.
      */
     @Override
     public void flush() {
+        drain();
+    }
+
+    /**
+     * Returns <code>false</code> for the records that elog would discard.
+     */
+    @Override
+    public boolean isLoggable(LogRecord record) {
+        if (!super.isLoggable(record)) {
+            return false;
+        }
+
+        // LOG and INFO are ranked differently for the client and the server
+        // log so they are always sent.
+        //
+        int pgLevel = toPgLevel(record.getLevel());
+        return pgLevel >= s_minLevel || pgLevel >= LOG_ERROR
+               || pgLevel == LOG_LOG || pgLevel == LOG_INFO;
     }
 
     /* (non-Javadoc)
@@ -143,7 +236,159 @@ public class ELogHandler extends Handler {
      */
     @Override
     public void publish(LogRecord record) {
-        Level level = record.getLevel();
+        if (!this.isLoggable(record)) {
+            return;
+        }
+
+        int pgLevel = toPgLevel(record.getLevel());
+        if (pgLevel >= LOG_ERROR) {
+            // Errors are never dropped or buffered since elog does not
+            // return from them. The messages that precede it are sent
+            // first.
+            //
+            String msg = getFormatter().format(record);
+            drain();
+            Backend.log(pgLevel, msg);
+            return;
+        }
+
+        if (!this.acquire(record.getLoggerName())) {
+            return;
+        }
+
+        String msg = getFormatter().format(record);
+        if (pgLevel == LOG_WARNING) {
+            // Sent at once but after the messages that precede it.
+            //
+            enqueue(pgLevel, msg);
+            drain();
+        } else if (enqueue(pgLevel, msg) && Backend.isCallingJava()) {
+            drain();
+        }
+    }
+
+    /**
+     * Sends the buffered messages to elog. This is called by the backend when
+     * a call returns.
+     */
+    private static void drain() {
+        int count;
+        int[] levels;
+        String[] messages;
+        synchronized (s_bufferLock) {
+            int overflow = s_overflowCount;
+            count = s_bufferCount + (overflow > 0 ? 1 : 0);
+            if (count == 0) {
+                return;
+            }
+
+            levels = new int[count];
+            messages = new String[count];
+            int idx = 0;
+            if (overflow > 0) {
+                levels[idx] = LOG_WARNING;
+                messages[idx++] = overflow
+                                  + " log messages were dropped since the log buffer was full";
+                s_overflowCount = 0;
+            }
+
+            int capacity = s_levels.length;
+            int pos = s_bufferHead;
+            while (idx < count) {
+                levels[idx] = s_levels[pos];
+                messages[idx++] = s_messages[pos];
+                s_messages[pos] = null;
+                pos = (pos + 1) % capacity;
+            }
+            s_bufferHead = 0;
+            s_bufferCount = 0;
+        }
+        Backend.logBatch(levels, messages, count);
+    }
+
+    /**
+     * Sends the buffered messages to elog when a call ends with an error.
+     * Failures are ignored since the error that is about to be raised must
+     * not be replaced.
+     */
+    private static void drainQuietly() {
+        try {
+            drain();
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Adds a message to the buffer. The oldest message is dropped when the
+     * buffer is full.
+     * 
+     * @return <code>true</code> if the buffer is full.
+     */
+    private static boolean enqueue(int pgLevel, String msg) {
+        boolean wasEmpty;
+        boolean full;
+        synchronized (s_bufferLock) {
+            int capacity = s_levels.length;
+            wasEmpty = s_bufferCount == 0 && s_overflowCount == 0;
+            int pos = (s_bufferHead + s_bufferCount) % capacity;
+            if (s_bufferCount == capacity) {
+                s_bufferHead = (pos + 1) % capacity;
+                ++s_overflowCount;
+                ++s_droppedCount;
+            } else {
+                ++s_bufferCount;
+            }
+            s_levels[pos] = pgLevel;
+            s_messages[pos] = msg;
+            full = s_bufferCount == capacity;
+        }
+
+        if (wasEmpty) {
+            Backend.setLogPending();
+        }
+        return full;
+    }
+
+    /**
+     * Called from the backend when the lowest of log_min_messages and
+     * client_min_messages has changed. The root logger is given the
+     * corresponding level so that the debug messages are created only when
+     * they are wanted, unless its level has been set by someone else since
+     * other handlers may then want other messages.
+     */
+    private static void setMinLevel(int pgLevel) {
+        s_minLevel = pgLevel;
+
+        Logger root = Logger.getLogger("");
+        synchronized (s_bufferLock) {
+            if (root.getLevel() == s_rootLevel) {
+                s_rootLevel = toJavaLevel(pgLevel);
+                root.setLevel(s_rootLevel);
+            }
+        }
+    }
+
+    /**
+     * Returns the most severe level that lets every message that elog would
+     * send at the given minimum level through.
+     */
+    private static Level toJavaLevel(int pgLevel) {
+        Level level;
+        if (pgLevel <= LOG_DEBUG3) {
+            level = Level.FINEST;
+        } else if (pgLevel == LOG_DEBUG2) {
+            level = Level.FINER;
+        } else if (pgLevel == LOG_DEBUG1) {
+            level = Level.FINE;
+        } else {
+            // CONFIG is sent as LOG which is never discarded here.
+            //
+            level = Level.CONFIG;
+        }
+        return level;
+    }
+
+    private static int toPgLevel(Level level) {
         int pgLevel;
         if (level == null) {
             pgLevel = LOG_LOG;
@@ -162,7 +407,55 @@ public class ELogHandler extends Handler {
         } else {
             pgLevel = LOG_LOG;
         }
-        Backend.log(pgLevel, getFormatter().format(record));
+        return pgLevel;
+    }
+
+    /**
+     * Counts a message against the rate limit of its logger.
+     * 
+     * @return <code>false</code> if the message exceeds the limit and must be
+     *         dropped.
+     */
+    private boolean acquire(String loggerName) {
+        if (m_rateLimit <= 0) {
+            return true;
+        }
+
+        if (loggerName == null) {
+            loggerName = "";
+        }
+
+        int dropped = 0;
+        long now = System.currentTimeMillis();
+        synchronized (m_rateLimits) {
+            RateLimit limit = m_rateLimits.get(loggerName);
+            if (limit == null) {
+                limit = new RateLimit();
+                limit.m_start = now;
+                m_rateLimits.put(loggerName, limit);
+            } else if (now - limit.m_start >= 1000L) {
+                dropped = limit.m_dropped;
+                limit.m_start = now;
+                limit.m_count = 0;
+                limit.m_dropped = 0;
+            }
+
+            if (limit.m_count >= m_rateLimit) {
+                ++limit.m_dropped;
+                synchronized (s_bufferLock) {
+                    ++s_droppedCount;
+                }
+                return false;
+            }
+            ++limit.m_count;
+        }
+
+        if (dropped > 0) {
+            enqueue(LOG_WARNING, dropped + " messages from logger \""
+                                 + loggerName
+                                 + "\" were dropped by the rate limit");
+        }
+        return true;
     }
 
     // Private method to configure an ELogHandler
@@ -209,5 +502,30 @@ public class ELogHandler extends Handler {
             } catch (Exception e) { /* ignore */
             }
         }
+
+        int bufferSize = DEFAULT_BUFFER_SIZE;
+        val = mgr.getProperty(cname + ".bufferSize");
+        if (val != null) {
+            try {
+                bufferSize = Math.max(1, Integer.parseInt(val.trim()));
+            } catch (NumberFormatException e) { /* ignore */
+            }
+        }
+
+        synchronized (s_bufferLock) {
+            if (s_levels == null) {
+                s_levels = new int[bufferSize];
+                s_messages = new String[bufferSize];
+            }
+        }
+
+        m_rateLimit = DEFAULT_RATE_LIMIT;
+        val = mgr.getProperty(cname + ".rateLimit");
+        if (val != null) {
+            try {
+                m_rateLimit = Integer.parseInt(val.trim());
+            } catch (NumberFormatException e) { /* ignore */
+            }
+        }
     }
 }
@@ -50,14 +50,17 @@ public class ExecutionPlan {
     static final class PlanKey {
         private final Oid[]  m_argTypes;
 
-        private final int    m_hashCode;
+        private final int     m_hashCode;
 
-        private final String m_stmt;
+        private final boolean m_scrollable;
 
-        PlanKey(String stmt, Oid[] argTypes) {
+        private final String  m_stmt;
+
+        PlanKey(String stmt, Oid[] argTypes, boolean scrollable) {
             m_stmt = stmt;
-            m_hashCode = stmt.hashCode() + 1;
+            m_hashCode = stmt.hashCode() + (scrollable ? 2 : 1);
             m_argTypes = argTypes;
+            m_scrollable = scrollable;
         }
 
         @Override
@@ -67,19 +70,24 @@ public class ExecutionPlan {
             }
 
             PlanKey pk = (PlanKey) o;
-            if (!pk.m_stmt.equals(m_stmt)) {
+            if (pk.m_scrollable != m_scrollable || !pk.m_stmt.equals(m_stmt)) {
                 return false;
             }
 
             Oid[] pat = pk.m_argTypes;
             Oid[] mat = m_argTypes;
+            if (pat == null || mat == null) {
+                return pat == mat;
+            }
+
             int idx = pat.length;
             if (mat.length != idx) {
                 return false;
             }
 
             while (--idx >= 0) {
-                if (!pat[idx].equals(mat[idx])) {
+                Oid pt = pat[idx];
+                if (pt == null ? mat[idx] != null : !pt.equals(mat[idx])) {
                     return false;
                 }
             }
@@ -93,6 +101,8 @@ public class ExecutionPlan {
         }
     }
 
+    private static final boolean             s_canInferParameterTypes;
+
     private static final Map<Object, Object> s_planCache;
 
     static final float                       CACHE_LOAD_FACTOR      = 0.75f; ;
@@ -104,6 +114,18 @@ public class ExecutionPlan {
         s_planCache = Collections.synchronizedMap(new PlanCache(
                                                                 cacheSize < 11 ? 11
                                                                               : cacheSize));
+        synchronized (Backend.THREADLOCK) {
+            s_canInferParameterTypes = _canInferParameterTypes();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if {@link #prepare(String, Oid[])} accepts
+     * <code>null</code> argument types and infers them from the statement.
+     * This requires PostgreSQL 9.0 or later.
+     */
+    public static boolean canInferParameterTypes() {
+        return s_canInferParameterTypes;
     }
 
     /**
@@ -113,15 +135,42 @@ public class ExecutionPlan {
      * @param statement
      *            The command string.
      * @param argTypes
-     *            SQL types of argument types.
+     *            SQL types of argument types. A <code>null</code> element
+     *            means that the type is inferred from the statement, see
+     *            {@link #canInferParameterTypes()}.
      * @return An execution plan for the prepared statement.
      * @throws SQLException
      * @see java.sql.Types
      */
     public static ExecutionPlan prepare(String statement, Oid[] argTypes)
                                                                          throws SQLException {
-        Object key = argTypes == null ? (Object) statement
-                                     : (Object) new PlanKey(statement, argTypes);
+        return prepare(statement, argTypes, false);
+    }
+
+    /**
+     * Create an execution plan for a statement to be executed later. A
+     * scrollable plan is prepared using <code>SPI_prepare_cursor</code> with
+     * the <code>CURSOR_OPT_SCROLL</code> option so that the portals opened
+     * from it can always be moved and fetched backward.
+     * 
+     * @param statement
+     *            The command string.
+     * @param argTypes
+     *            SQL types of argument types.
+     * @param scrollable
+     *            <code>true</code> if the portals opened from the plan must
+     *            be scrollable.
+     * @return An execution plan for the prepared statement.
+     * @throws SQLException
+     * @see #prepare(String, Oid[])
+     */
+    public static ExecutionPlan prepare(String statement, Oid[] argTypes,
+                                        boolean scrollable) throws SQLException {
+        Object key = argTypes == null && !scrollable ? (Object) statement
+                                                    : (Object) new PlanKey(
+                                                                           statement,
+                                                                           argTypes,
+                                                                           scrollable);
 
         ExecutionPlan plan = (ExecutionPlan) s_planCache.remove(key);
         if (plan == null) {
@@ -129,28 +178,55 @@ public class ExecutionPlan {
                 plan = new ExecutionPlan(
                                          key,
                                          _prepare(System.identityHashCode(Thread.currentThread()),
-                                                  statement, argTypes));
+                                                  statement, argTypes,
+                                                  scrollable));
             }
         }
         return plan;
     }
 
+    private static native boolean _canInferParameterTypes();
+
     private static native Portal _cursorOpen(long pointer, long threadId,
                                              String cursorName,
                                              Object[] parameters)
                                                                  throws SQLException;
 
+    private static native Portal _cursorOpenBlock(long pointer,
+                                                  long threadId,
+                                                  String cursorName,
+                                                  byte[] kinds, long[] longs,
+                                                  double[] doubles,
+                                                  Object[] objects,
+                                                  int[] typeIds)
+                                                                throws SQLException;
+
     private static native int _execute(long pointer, long threadId,
                                        Object[] parameters, int rowCount)
                                                                          throws SQLException;
 
+    private static native int[] _executeBatch(long pointer, long threadId,
+                                              Object[][] columns,
+                                              int[] typeIds, int rowCount)
+                                                                          throws SQLException;
+
+    private static native int[] _getParameterTypes(long pointer)
+                                                                throws SQLException;
+
+    private static native int _executeBlock(long pointer, long threadId,
+                                            byte[] kinds, long[] longs,
+                                            double[] doubles,
+                                            Object[] objects, int[] typeIds,
+                                            int rowCount) throws SQLException;
+
     private static native void _invalidate(long pointer);
 
     private static native boolean _isCursorPlan(long pointer)
                                                              throws SQLException;
 
     private static native long _prepare(long threadId, String statement,
-                                        Oid[] argTypes) throws SQLException;
+                                        Oid[] argTypes, boolean scrollable)
+                                                                           throws SQLException;
 
     private final Object m_key;
 
@@ -196,6 +272,31 @@ public class ExecutionPlan {
         }
     }
 
+    /**
+     * Set up a cursor that will execute the plan using the internal
+     * <code>SPI_cursor_open</code> function. The primitive values of the
+     * parameter block are converted without boxing.
+     * 
+     * @param cursorName
+     *            Name of the cursor or <code>null</code> for a system generated
+     *            name.
+     * @param parameters
+     *            Values for the parameters.
+     * @return The <code>Portal</code> that represents the opened cursor.
+     * @throws SQLException
+     *             If the underlying native structure has gone stale.
+     */
+    public Portal cursorOpen(String cursorName, ParameterBlock parameters)
+                                                                          throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            return _cursorOpenBlock(m_pointer,
+                                    System.identityHashCode(Thread.currentThread()),
+                                    cursorName, parameters.m_kinds,
+                                    parameters.m_longs, parameters.m_doubles,
+                                    parameters.m_objects, parameters.m_typeIds);
+        }
+    }
+
     /**
      * Execute the plan using the internal <code>SPI_execp</code> function.
      * 
@@ -217,6 +318,77 @@ public class ExecutionPlan {
         }
     }
 
+    /**
+     * Execute the plan using the internal <code>SPI_execute_plan</code>
+     * function. The primitive values of the parameter block are converted
+     * without boxing.
+     * 
+     * @param parameters
+     *            Values for the parameters.
+     * @param rowCount
+     *            The maximum number of tuples to create. A value of
+     *            <code>rowCount</code> of zero is interpreted as no limit,
+     *            i.e., run to completion.
+     * @return One of the status codes declared in class {@link SPI}.
+     * @throws SQLException
+     *             If the underlying native structure has gone stale.
+     */
+    public int execute(ParameterBlock parameters, int rowCount)
+                                                               throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            return _executeBlock(m_pointer,
+                                 System.identityHashCode(Thread.currentThread()),
+                                 parameters.m_kinds, parameters.m_longs,
+                                 parameters.m_doubles, parameters.m_objects,
+                                 parameters.m_typeIds, rowCount);
+        }
+    }
+
+    /**
+     * Execute the plan once for each row of a parameter block using the
+     * internal <code>SPI_execute_plan</code> function. The whole block is
+     * executed in one call to the backend.
+     * 
+     * @param columns
+     *            The parameter block. It holds one array per parameter and
+     *            each array holds the values of that parameter for all rows.
+     * @param typeIds
+     *            The type of the values of each parameter, or zero when it
+     *            is the type of the parameter in the plan.
+     * @param rowCount
+     *            The number of rows in the parameter block.
+     * @return The number of rows processed by each execution.
+     * @throws SQLException
+     *             If the underlying native structure has gone stale.
+     */
+    public int[] executeBatch(Object[][] columns, int[] typeIds, int rowCount)
+                                                                              throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            return _executeBatch(m_pointer,
+                                 System.identityHashCode(Thread.currentThread()),
+                                 columns, typeIds, rowCount);
+        }
+    }
+
+    /**
+     * Returns the types of the parameters of the plan. These are the inferred
+     * types for the parameters that were prepared without a type.
+     * 
+     * @throws SQLException
+     *             If the underlying native structure has gone stale.
+     */
+    public Oid[] getParameterTypes() throws SQLException {
+        int[] typeIds;
+        synchronized (Backend.THREADLOCK) {
+            typeIds = _getParameterTypes(m_pointer);
+        }
+        Oid[] types = new Oid[typeIds.length];
+        for (int idx = 0; idx < typeIds.length; ++idx) {
+            types[idx] = new Oid(typeIds[idx]);
+        }
+        return types;
+    }
+
     /**
      * Checks if this <code>ExecutionPlan</code> can create a <code>Portal
      * </code> using {@link #cursorOpen}. This is true if the plan contains only
@@ -9,44 +9,104 @@ package org.postgresql.pljava.internal;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
 
 import org.postgresql.pljava.ObjectPool;
 import org.postgresql.pljava.PooledObject;
+import org.postgresql.pljava.TransactionListener;
 
 class ObjectPoolImpl implements ObjectPool {
     /**
-     * An InstanceHandle is a link in a single linked list that holds on to a
-     * ResultSetProvider.
+     * A PooledObjectHandle is a link in a double linked list of passive
+     * instances. The most recently passivated instance is first.
      */
     private static class PooledObjectHandle {
         private PooledObject       m_instance;
         private PooledObjectHandle m_next;
+        private long               m_passivated;
+        private PooledObjectHandle m_prev;
+    }
+
+    /**
+     * Trims the pools that have an idle timeout when a transaction ends.
+     */
+    private static class IdleTrimmer implements TransactionListener {
+        public void onAbort(org.postgresql.pljava.Session session) {
+            trimIdle();
+        }
+
+        public void onCommit(org.postgresql.pljava.Session session) {
+            trimIdle();
+        }
+
+        public void onPrepare(org.postgresql.pljava.Session session) {
+        }
     }
 
     private static Class<?>[]                                      s_ctorSignature = { ObjectPool.class };
-    private static PooledObjectHandle                              s_handlePool;
+    private static IdleTrimmer                                     s_idleTrimmer;
     private static final IdentityHashMap<Class<?>, ObjectPoolImpl> s_poolCache     = new IdentityHashMap<Class<?>, ObjectPoolImpl>();
 
     /**
      * Obtain a pool for the given class.
-     * 
+     *
      * @param cls
      * @return
      * @throws SQLException
      */
     public static ObjectPoolImpl getObjectPool(Class<?> cls) {
-        ObjectPoolImpl pool = s_poolCache.get(cls);
-        if (pool == null) {
-            pool = new ObjectPoolImpl(cls);
-            s_poolCache.put(cls, pool);
+        synchronized (s_poolCache) {
+            ObjectPoolImpl pool = s_poolCache.get(cls);
+            if (pool == null) {
+                pool = new ObjectPoolImpl(cls);
+                s_poolCache.put(cls, pool);
+            }
+            return pool;
+        }
+    }
+
+    private static void removeAll(ArrayList<PooledObject> removed) {
+        if (removed != null) {
+            for (PooledObject instance : removed) {
+                instance.remove();
+            }
         }
-        return pool;
     }
 
-    private final Constructor<?> m_ctor;
+    /**
+     * Removes the instances that have been idle for too long from all pools
+     * that have an idle timeout.
+     */
+    static void trimIdle() {
+        ArrayList<ObjectPoolImpl> pools;
+        synchronized (s_poolCache) {
+            pools = new ArrayList<ObjectPoolImpl>(s_poolCache.values());
+        }
+
+        long now = System.currentTimeMillis();
+        for (ObjectPoolImpl pool : pools) {
+            removeAll(pool.removeIdleSince(now));
+        }
+    }
+
+    private long                                                    m_activationCount;
+
+    private long                                                    m_creationCount;
+
+    private final Constructor<?>                                    m_ctor;
+
+    private PooledObjectHandle                                      m_first;
+
+    private final IdentityHashMap<PooledObject, PooledObjectHandle> m_handles = new IdentityHashMap<PooledObject, PooledObjectHandle>();
+
+    private long                                                    m_idleTimeout;
 
-    private PooledObjectHandle   m_providerPool;
+    private PooledObjectHandle                                      m_last;
+
+    private int                                                     m_maxIdle = Integer.MAX_VALUE;
+
+    private long                                                    m_reuseCount;
 
     private ObjectPoolImpl(Class<?> c) {
         if (!PooledObject.class.isAssignableFrom(c)) {
@@ -67,49 +127,57 @@ class ObjectPoolImpl implements ObjectPool {
     }
 
     public PooledObject activateInstance() throws SQLException {
-        PooledObject instance;
-        PooledObjectHandle handle = m_providerPool;
-        if (handle != null) {
-            m_providerPool = handle.m_next;
-            instance = handle.m_instance;
-
-            // Return the handle to the unused handle pool.
-            //
-            handle.m_instance = null;
-            handle.m_next = s_handlePool;
-            s_handlePool = handle;
-        } else {
-            try {
-                instance = (PooledObject) m_ctor.newInstance(new Object[] { this });
-            } catch (InvocationTargetException e) {
-                Throwable t = e.getTargetException();
-                if (t instanceof SQLException) {
-                    throw (SQLException) t;
-                }
-                if (t instanceof RuntimeException) {
-                    throw (RuntimeException) t;
-                }
-                if (t instanceof Error) {
-                    throw (Error) t;
-                }
-                throw new SQLException(e.getMessage());
-            } catch (RuntimeException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new SQLException("Failed to create an instance of: "
-                                       + m_ctor.getDeclaringClass() + " :"
-                                       + e.getMessage());
+        PooledObject instance = null;
+        synchronized (this) {
+            PooledObjectHandle handle = m_first;
+            if (handle != null) {
+                this.unlink(handle);
+                instance = handle.m_instance;
+                ++m_reuseCount;
             }
         }
+
+        if (instance == null) {
+            instance = this.createInstance();
+        }
+
         try {
             instance.activate();
         } catch (SQLException e) {
             instance.remove();
             throw e;
         }
+
+        synchronized (this) {
+            ++m_activationCount;
+        }
         return instance;
     }
 
+    public synchronized long getActivationCount() {
+        return m_activationCount;
+    }
+
+    public synchronized long getCreationCount() {
+        return m_creationCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return m_handles.size();
+    }
+
+    public synchronized long getIdleTimeout() {
+        return m_idleTimeout;
+    }
+
+    public synchronized int getMaxIdle() {
+        return m_maxIdle;
+    }
+
+    public synchronized long getReuseCount() {
+        return m_reuseCount;
+    }
+
     public void passivateInstance(PooledObject instance) throws SQLException {
         try {
             instance.passivate();
@@ -118,37 +186,150 @@ class ObjectPoolImpl implements ObjectPool {
             throw e;
         }
 
-        // Obtain a handle from the pool of handles so that
-        // we have something to wrap the instance in.
-        //
-        PooledObjectHandle handle = s_handlePool;
-        if (handle != null) {
-            s_handlePool = handle.m_next;
-        } else {
-            handle = new PooledObjectHandle();
+        boolean accepted;
+        synchronized (this) {
+            accepted = m_handles.containsKey(instance);
+            if (!accepted && m_handles.size() < m_maxIdle) {
+                PooledObjectHandle handle = new PooledObjectHandle();
+                handle.m_instance = instance;
+                handle.m_passivated = System.currentTimeMillis();
+                handle.m_next = m_first;
+                if (m_first == null) {
+                    m_last = handle;
+                } else {
+                    m_first.m_prev = handle;
+                }
+                m_first = handle;
+                m_handles.put(instance, handle);
+                accepted = true;
+            }
         }
 
-        handle.m_instance = instance;
-        handle.m_next = m_providerPool;
-        m_providerPool = handle;
+        if (!accepted) {
+            instance.remove();
+        }
     }
 
     public void removeInstance(PooledObject instance) throws SQLException {
-        PooledObjectHandle prev = null;
-        for (PooledObjectHandle handle = m_providerPool; handle != null; handle = handle.m_next) {
-            if (handle.m_instance == instance) {
-                if (prev == null) {
-                    m_providerPool = handle.m_next;
-                } else {
-                    prev.m_next = handle.m_next;
+        synchronized (this) {
+            PooledObjectHandle handle = m_handles.get(instance);
+            if (handle != null) {
+                this.unlink(handle);
+            }
+        }
+        instance.remove();
+    }
+
+    public void setIdleTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Idle timeout cannot be negative");
+        }
+
+        synchronized (this) {
+            m_idleTimeout = millis;
+        }
+
+        if (millis > 0) {
+            synchronized (Backend.THREADLOCK) {
+                if (s_idleTrimmer == null) {
+                    s_idleTrimmer = new IdleTrimmer();
+                    XactListener.addListener(s_idleTrimmer);
                 }
+            }
+        }
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("Max idle cannot be negative");
+        }
 
-                handle.m_instance = null;
-                handle.m_next = s_handlePool;
-                s_handlePool = handle;
-                break;
+        synchronized (this) {
+            m_maxIdle = maxIdle;
+        }
+        this.trim(maxIdle);
+    }
+
+    public void trim(int maxIdle) {
+        ArrayList<PooledObject> removed = null;
+        synchronized (this) {
+            while (m_handles.size() > maxIdle) {
+                PooledObjectHandle handle = m_last;
+                this.unlink(handle);
+                if (removed == null) {
+                    removed = new ArrayList<PooledObject>();
+                }
+                removed.add(handle.m_instance);
             }
         }
-        instance.remove();
+        removeAll(removed);
+    }
+
+    private PooledObject createInstance() throws SQLException {
+        PooledObject instance;
+        try {
+            instance = (PooledObject) m_ctor.newInstance(new Object[] { this });
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getTargetException();
+            if (t instanceof SQLException) {
+                throw (SQLException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new SQLException(e.getMessage());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Failed to create an instance of: "
+                                   + m_ctor.getDeclaringClass() + " :"
+                                   + e.getMessage());
+        }
+
+        synchronized (this) {
+            ++m_creationCount;
+        }
+        return instance;
+    }
+
+    /**
+     * Unlinks the instances that have been idle for longer than the idle
+     * timeout and returns them, or <code>null</code> if there are none.
+     */
+    private synchronized ArrayList<PooledObject> removeIdleSince(long now) {
+        if (m_idleTimeout == 0) {
+            return null;
+        }
+
+        ArrayList<PooledObject> removed = null;
+        long limit = now - m_idleTimeout;
+        while (m_last != null && m_last.m_passivated < limit) {
+            PooledObjectHandle handle = m_last;
+            this.unlink(handle);
+            if (removed == null) {
+                removed = new ArrayList<PooledObject>();
+            }
+            removed.add(handle.m_instance);
+        }
+        return removed;
+    }
+
+    private void unlink(PooledObjectHandle handle) {
+        if (handle.m_prev == null) {
+            m_first = handle.m_next;
+        } else {
+            handle.m_prev.m_next = handle.m_next;
+        }
+        if (handle.m_next == null) {
+            m_last = handle.m_prev;
+        } else {
+            handle.m_next.m_prev = handle.m_prev;
+        }
+        handle.m_next = null;
+        handle.m_prev = null;
+        m_handles.remove(handle.m_instance);
     }
 }
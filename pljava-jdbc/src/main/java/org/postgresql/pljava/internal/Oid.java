@@ -7,7 +7,6 @@
 package org.postgresql.pljava.internal;
 
 import java.sql.SQLException;
-import java.util.HashMap;
 
 /**
  * The <code>Oid</code> correspons to the internal PostgreSQL <code>Oid</code>.
@@ -17,11 +16,7 @@ import java.util.HashMap;
  * @author Thomas Hallgren
  */
 public class Oid extends Number {
-    private static final HashMap<Class<?>, Oid> s_class2typeId   = new HashMap<Class<?>, Oid>();
-
-    private static final HashMap<Oid, Class<?>> s_typeId2class   = new HashMap<Oid, Class<?>>();
-
-    private static final long                   serialVersionUID = 1L;
+    private static final long serialVersionUID = 1L;
     static {
         try {
             // Ensure that the SPI JDBC driver is loaded and registered
@@ -41,7 +36,7 @@ public class Oid extends Number {
      * @return The well known Oid or null if no such Oid could be found.
      */
     public static Oid forJavaClass(Class<?> clazz) {
-        return s_class2typeId.get(clazz);
+        return TypeRegistry.s_class2typeId.get(clazz);
     }
 
     /**
@@ -53,13 +48,22 @@ public class Oid extends Number {
      *             if the type could not be found
      */
     public static Oid forSqlType(int sqlType) {
-        synchronized (Backend.THREADLOCK) {
-            return new Oid(_forSqlType(sqlType));
+        Integer key = new Integer(sqlType);
+        Oid oid = TypeRegistry.s_sqlType2typeId.get(key);
+        if (oid == null) {
+            synchronized (Backend.THREADLOCK) {
+                oid = new Oid(_forSqlType(sqlType));
+            }
+            TypeRegistry.s_sqlType2typeId.put(key, oid);
         }
+        return oid;
     }
 
     /**
-     * Finds the PostgreSQL well known Oid for a type name.
+     * Finds the PostgreSQL well known Oid for a type name. Names that resolve
+     * to builtin types are remembered. Other names are resolved each time
+     * since their meaning depends on the search path and may change when types
+     * are created or dropped.
      * 
      * @param typeString
      *            The name of the type, optionally qualified with a namespace.
@@ -68,9 +72,17 @@ public class Oid extends Number {
      *             if the type could not be found
      */
     public static Oid forTypeName(String typeString) {
-        synchronized (Backend.THREADLOCK) {
-            return new Oid(_forTypeName(typeString));
+        Oid oid = TypeRegistry.s_typeName2typeId.get(typeString);
+        if (oid == null) {
+            synchronized (Backend.THREADLOCK) {
+                oid = new Oid(_forTypeName(typeString));
+            }
+            if (oid.m_native > 0
+                && oid.m_native < TypeRegistry.FIRST_NORMAL_OBJECT_ID) {
+                TypeRegistry.s_typeName2typeId.put(typeString, oid);
+            }
         }
+        return oid;
     }
 
     /**
@@ -93,10 +105,8 @@ public class Oid extends Number {
      *            The well known type id.
      */
     public static void registerType(Class<?> clazz, Oid typeId) {
-        s_class2typeId.put(clazz, typeId);
-        if (!s_typeId2class.containsKey(typeId)) {
-            s_typeId2class.put(typeId, clazz);
-        }
+        TypeRegistry.s_class2typeId.put(clazz, typeId);
+        TypeRegistry.s_typeId2class.putIfAbsent(typeId, clazz);
     }
 
     private native static int _forSqlType(int sqlType);
@@ -108,50 +118,6 @@ public class Oid extends Number {
 
     private native static Oid _getTypeId();
 
-    private static String getCanonicalClassName(String name, int nDims) {
-        if (name.endsWith("[]")) {
-            return getCanonicalClassName(name.substring(0, name.length() - 2),
-                                         nDims + 1);
-        }
-
-        boolean primitive = true;
-        if (name.equals("boolean")) {
-            name = "Z";
-        } else if (name.equals("byte")) {
-            name = "B";
-        } else if (name.equals("char")) {
-            name = "C";
-        } else if (name.equals("double")) {
-            name = "D";
-        } else if (name.equals("float")) {
-            name = "F";
-        } else if (name.equals("int")) {
-            name = "I";
-        } else if (name.equals("long")) {
-            name = "J";
-        } else if (name.equals("short")) {
-            name = "S";
-        } else {
-            primitive = false;
-        }
-
-        if (nDims > 0) {
-            StringBuffer bld = new StringBuffer();
-            while (--nDims >= 0) {
-                bld.append('[');
-            }
-            if (primitive) {
-                bld.append(name);
-            } else {
-                bld.append('L');
-                bld.append(name);
-                bld.append(';');
-            }
-            name = bld.toString();
-        }
-        return name;
-    }
-
     /*
      * The native Oid represented as a 32 bit quantity.
      * See definition in file &quot;include/postgres_ext&quot; of the
@@ -186,19 +152,22 @@ public class Oid extends Number {
     }
 
     public Class<?> getJavaClass() throws SQLException {
-        Class<?> c = s_typeId2class.get(this);
+        Class<?> c = TypeRegistry.s_typeId2class.get(this);
         if (c == null) {
-            String className;
-            synchronized (Backend.THREADLOCK) {
-                className = _getJavaClassName(m_native);
-            }
-            try {
-                c = Class.forName(getCanonicalClassName(className, 0));
-            } catch (ClassNotFoundException e) {
-                throw new SQLException(e.getMessage());
+            c = TypeRegistry.builtinClass(this);
+            if (c == null) {
+                String className;
+                synchronized (Backend.THREADLOCK) {
+                    className = _getJavaClassName(m_native);
+                }
+                try {
+                    c = TypeRegistry.classForTypeName(className);
+                } catch (ClassNotFoundException e) {
+                    throw new SQLException(e.getMessage());
+                }
             }
-            s_typeId2class.put(this, c);
-            s_class2typeId.put(c, this);
+            TypeRegistry.s_typeId2class.put(this, c);
+            TypeRegistry.s_class2typeId.put(c, this);
         }
         return c;
     }
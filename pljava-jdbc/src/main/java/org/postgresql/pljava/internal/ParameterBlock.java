@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.internal;
+
+import java.util.Arrays;
+
+/**
+ * The parameter values for an {@link ExecutionPlan}. Primitive values are
+ * kept in <code>long</code> and <code>double</code> slots and only reference
+ * values are kept as objects, so setting a parameter allocates nothing. The
+ * native code reads the slots directly and converts them to the parameter
+ * type of the plan.
+ *
+ * @author Thomas Hallgren
+ */
+public class ParameterBlock {
+    // The kinds are known by the native code and must not be changed.
+    //
+    static final byte      KIND_UNSET   = 0;
+    static final byte      KIND_NULL    = 1;
+    static final byte      KIND_OBJECT  = 2;
+    static final byte      KIND_BOOLEAN = 3;
+    static final byte      KIND_BYTE    = 4;
+    static final byte      KIND_SHORT   = 5;
+    static final byte      KIND_INT     = 6;
+    static final byte      KIND_LONG    = 7;
+    static final byte      KIND_FLOAT   = 8;
+    static final byte      KIND_DOUBLE  = 9;
+
+    final double[]         m_doubles;
+    final byte[]           m_kinds;
+    final long[]           m_longs;
+    final Object[]         m_objects;
+    final int[]            m_typeIds;
+
+    /**
+     * Creates a block where no parameter is set.
+     *
+     * @param count
+     *            The number of parameters.
+     */
+    public ParameterBlock(int count) {
+        m_kinds = new byte[count];
+        m_longs = new long[count];
+        m_doubles = new double[count];
+        m_objects = new Object[count];
+        m_typeIds = new int[count];
+    }
+
+    /**
+     * Marks all parameters as not set.
+     */
+    public void clear() {
+        Arrays.fill(m_kinds, KIND_UNSET);
+        Arrays.fill(m_objects, null);
+    }
+
+    /**
+     * Returns a copy of this block.
+     */
+    public ParameterBlock copy() {
+        ParameterBlock copy = new ParameterBlock(m_kinds.length);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Replaces the values of this block with the values of another block
+     * with the same number of parameters.
+     */
+    public void copyFrom(ParameterBlock other) {
+        int count = m_kinds.length;
+        System.arraycopy(other.m_kinds, 0, m_kinds, 0, count);
+        System.arraycopy(other.m_longs, 0, m_longs, 0, count);
+        System.arraycopy(other.m_doubles, 0, m_doubles, 0, count);
+        System.arraycopy(other.m_objects, 0, m_objects, 0, count);
+        System.arraycopy(other.m_typeIds, 0, m_typeIds, 0, count);
+    }
+
+    /**
+     * Returns the number of parameters.
+     */
+    public int getCount() {
+        return m_kinds.length;
+    }
+
+    /**
+     * Returns the value of a parameter. Primitive values are boxed.
+     *
+     * @param index
+     *            The zero based index of the parameter.
+     */
+    public Object getObject(int index) {
+        switch (m_kinds[index]) {
+            case KIND_OBJECT:
+                return m_objects[index];
+            case KIND_BOOLEAN:
+                return m_longs[index] != 0 ? Boolean.TRUE : Boolean.FALSE;
+            case KIND_BYTE:
+                return new Byte((byte) m_longs[index]);
+            case KIND_SHORT:
+                return new Short((short) m_longs[index]);
+            case KIND_INT:
+                return new Integer((int) m_longs[index]);
+            case KIND_LONG:
+                return new Long(m_longs[index]);
+            case KIND_FLOAT:
+                return new Float((float) m_doubles[index]);
+            case KIND_DOUBLE:
+                return new Double(m_doubles[index]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the parameter has been set.
+     */
+    public boolean isSet(int index) {
+        return m_kinds[index] != KIND_UNSET;
+    }
+
+    public void setBoolean(int index, boolean value) {
+        this.setLong(index, value ? 1 : 0, KIND_BOOLEAN);
+    }
+
+    public void setByte(int index, byte value) {
+        this.setLong(index, value, KIND_BYTE);
+    }
+
+    public void setDouble(int index, double value) {
+        this.setDouble(index, value, KIND_DOUBLE);
+    }
+
+    public void setFloat(int index, float value) {
+        this.setDouble(index, value, KIND_FLOAT);
+    }
+
+    public void setInt(int index, int value) {
+        this.setLong(index, value, KIND_INT);
+    }
+
+    public void setLong(int index, long value) {
+        this.setLong(index, value, KIND_LONG);
+    }
+
+    /**
+     * Sets a parameter to SQL <code>NULL</code>.
+     */
+    public void setNull(int index) {
+        m_kinds[index] = KIND_NULL;
+        m_objects[index] = null;
+    }
+
+    /**
+     * Sets a parameter to a reference value. A <code>null</code> value sets
+     * the parameter to SQL <code>NULL</code>.
+     */
+    public void setObject(int index, Object value) {
+        this.setObject(index, value, null);
+    }
+
+    /**
+     * Sets a parameter to a reference value of the given type. The value is
+     * cast when the type differs from the type of the parameter in the plan.
+     * A <code>null</code> value sets the parameter to SQL <code>NULL</code>.
+     */
+    public void setObject(int index, Object value, Oid typeId) {
+        m_kinds[index] = value == null ? KIND_NULL : KIND_OBJECT;
+        m_objects[index] = value;
+        m_typeIds[index] = typeId == null ? 0 : typeId.intValue();
+    }
+
+    public void setShort(int index, short value) {
+        this.setLong(index, value, KIND_SHORT);
+    }
+
+    private void setDouble(int index, double value, byte kind) {
+        m_kinds[index] = kind;
+        m_doubles[index] = value;
+        m_objects[index] = null;
+    }
+
+    private void setLong(int index, long value, byte kind) {
+        m_kinds[index] = kind;
+        m_longs[index] = value;
+        m_objects[index] = null;
+    }
+}
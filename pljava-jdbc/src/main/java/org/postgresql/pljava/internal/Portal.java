@@ -21,6 +21,9 @@ public class Portal {
                                      boolean forward, int count)
                                                                 throws SQLException;
 
+    private static native byte[] _fetchText(long pointer, long threadId,
+                                            int count) throws SQLException;
+
     private static native String _getName(long pointer) throws SQLException;
 
     private static native int _getPortalPos(long pointer) throws SQLException;
@@ -76,6 +79,25 @@ public class Portal {
         }
     }
 
+    /**
+     * Performs a forward <code>SPI_cursor_fetch</code> and returns the
+     * fetched rows in the text format of <code>COPY</code>, i.e. one line per
+     * row with tab separated and escaped values.
+     * 
+     * @param count
+     *            Maximum number of rows to fetch.
+     * @return The fetched rows or <code>null</code> if no rows remain.
+     * @throws SQLException
+     *             if the handle to the native structur is stale.
+     */
+    public byte[] fetchText(int count) throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            return _fetchText(m_pointer,
+                              System.identityHashCode(Thread.currentThread()),
+                              count);
+        }
+    }
+
     /**
      * Returns the name of this Portal.
      * 
@@ -26,6 +26,14 @@ public class Relation extends JavaWrapper {
                                              int[] fieldNumbers, Object[] values)
                                                                                  throws SQLException;
 
+    private static native Tuple _modifyTupleBuffered(long pointer,
+                                                     long original, int count,
+                                                     int[] fieldNumbers,
+                                                     byte[] kinds, long[] longs,
+                                                     double[] doubles,
+                                                     Object[] values)
+                                                                     throws SQLException;
+
     private TupleDesc m_tupleDesc;
 
     Relation(long pointer) {
@@ -94,6 +102,32 @@ public class Relation extends JavaWrapper {
         }
     }
 
+    /**
+     * Creates a new <code>Tuple</code> by substituting the values collected in
+     * <code>changes</code> for the corresponding columns of the original
+     * <code>Tuple</code>. Primitive values in the buffer are converted without
+     * boxing. The original <code>Tuple</code> is not modified.
+     * 
+     * @param original
+     *            The tuple that serves as the source.
+     * @param changes
+     *            The changes to apply.
+     * @return A copy of the original with modifications.
+     * @throws SQLException
+     *             if indexes are out of range or the values illegal.
+     */
+    public Tuple modifyTuple(Tuple original, TupleChangeBuffer changes)
+                                                                       throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            return _modifyTupleBuffered(getNativePointer(),
+                                        original.getNativePointer(),
+                                        changes.size(), changes.getIndexes(),
+                                        changes.getKinds(), changes.getLongs(),
+                                        changes.getDoubles(),
+                                        changes.getValues());
+        }
+    }
+
     @Override
     protected native void _free(long pointer);
 }
@@ -9,11 +9,15 @@ package org.postgresql.pljava.internal;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.HashMap;
 
+import org.postgresql.pljava.Cache;
+import org.postgresql.pljava.CacheSpec;
 import org.postgresql.pljava.ObjectPool;
 import org.postgresql.pljava.SavepointListener;
+import org.postgresql.pljava.SharedCache;
 import org.postgresql.pljava.TransactionListener;
 import org.postgresql.pljava.jdbc.SQLUtils;
 
@@ -38,8 +42,53 @@ public class Session implements org.postgresql.pljava.Session {
         return System.identityHashCode(Thread.currentThread());
     }
 
-    private final TransactionalMap m_attributes = new TransactionalMap(
-                                                                       new HashMap<Object, Object>());
+    /**
+     * Commits or aborts the attribute store when a transaction or
+     * subtransaction ends and discards the caches that should not survive
+     * an aborted transaction.
+     */
+    private class SessionListener implements SavepointListener,
+            TransactionListener {
+        public void onAbort(org.postgresql.pljava.Session session) {
+            m_attributes.abort();
+            synchronized (m_caches) {
+                for (CacheImpl<?, ?> cache : m_caches.values()) {
+                    if (cache.isDiscardOnAbort()) {
+                        cache.clear();
+                    }
+                }
+            }
+        }
+
+        public void onAbort(org.postgresql.pljava.Session session,
+                            Savepoint savepoint, Savepoint parent) {
+            m_attributes.abortLevel();
+        }
+
+        public void onCommit(org.postgresql.pljava.Session session) {
+            m_attributes.commit();
+        }
+
+        public void onCommit(org.postgresql.pljava.Session session,
+                             Savepoint savepoint, Savepoint parent) {
+            m_attributes.commitLevel();
+        }
+
+        public void onPrepare(org.postgresql.pljava.Session session) {
+            m_attributes.commit();
+        }
+
+        public void onStart(org.postgresql.pljava.Session session,
+                            Savepoint savepoint, Savepoint parent) {
+            m_attributes.startLevel();
+        }
+    }
+
+    private final TransactionalMap m_attributes = new TransactionalMap();
+
+    private final HashMap<String, CacheImpl<?, ?>> m_caches = new HashMap<String, CacheImpl<?, ?>>();
+
+    private volatile SessionListener m_sessionListener;
 
     /**
      * Adds the specified listener to the list of listeners that will receive
@@ -82,6 +131,22 @@ public class Session implements org.postgresql.pljava.Session {
         return m_attributes.get(attributeName);
     }
 
+    @SuppressWarnings("unchecked")
+    public <K, V> Cache<K, V> getCache(String name, CacheSpec spec) {
+        CacheImpl<?, ?> cache;
+        synchronized (m_caches) {
+            cache = m_caches.get(name);
+            if (cache == null) {
+                cache = new CacheImpl<K, V>(name, spec);
+                m_caches.put(name, cache);
+            }
+        }
+        if (cache.isDiscardOnAbort()) {
+            this.listenToTransactions();
+        }
+        return (Cache<K, V>) cache;
+    }
+
     public ObjectPool getObjectPool(Class<?> cls) {
         return ObjectPoolImpl.getObjectPool(cls);
     }
@@ -93,6 +158,10 @@ public class Session implements org.postgresql.pljava.Session {
         return AclId.getSessionUser().getName();
     }
 
+    public SharedCache getSharedCache() {
+        return SharedCacheImpl.getInstance();
+    }
+
     /**
      * Return the current user.
      */
@@ -101,6 +170,7 @@ public class Session implements org.postgresql.pljava.Session {
     }
 
     public void removeAttribute(String attributeName) {
+        this.listenToTransactions();
         m_attributes.remove(attributeName);
     }
 
@@ -121,6 +191,28 @@ public class Session implements org.postgresql.pljava.Session {
     }
 
     public void setAttribute(String attributeName, Object value) {
+        this.listenToTransactions();
         m_attributes.put(attributeName, value);
     }
+
+    /**
+     * Registers the listener that makes the attribute store transactional.
+     * This is done when the store is first modified, or a cache that is
+     * discarded on abort is obtained, so that sessions that use neither
+     * will not receive transaction events. A
+     * subtransaction that is already in progress when the listener is
+     * registered will abort all changes made since the registration.
+     */
+    private void listenToTransactions() {
+        if (m_sessionListener == null) {
+            synchronized (Backend.THREADLOCK) {
+                if (m_sessionListener == null) {
+                    SessionListener listener = new SessionListener();
+                    XactListener.addListener(listener);
+                    SubXactListener.addListener(listener);
+                    m_sessionListener = listener;
+                }
+            }
+        }
+    }
 }
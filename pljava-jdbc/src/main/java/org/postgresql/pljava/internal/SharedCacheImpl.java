@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root directory of this distribution or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.internal;
+
+import org.postgresql.pljava.SharedCache;
+
+/**
+ * The {@link SharedCache} of the backend. The entries live in shared memory
+ * that is managed by the native code.
+ * 
+ * @author Thomas Hallgren
+ */
+class SharedCacheImpl implements SharedCache {
+    private static final SharedCacheImpl s_instance = new SharedCacheImpl();
+
+    private static native void _clear();
+
+    private static native byte[] _get(byte[] key);
+
+    private static native long[] _getStatistics();
+
+    private static native boolean _isAvailable();
+
+    private static native boolean _put(byte[] key, byte[] value);
+
+    private static native boolean _remove(byte[] key);
+
+    static SharedCacheImpl getInstance() {
+        return s_instance;
+    }
+
+    private SharedCacheImpl() {
+    }
+
+    public void clear() {
+        synchronized (Backend.THREADLOCK) {
+            _clear();
+        }
+    }
+
+    public byte[] get(byte[] key) {
+        synchronized (Backend.THREADLOCK) {
+            return _get(key);
+        }
+    }
+
+    public long getEvictionCount() {
+        return this.getStatistic(3);
+    }
+
+    public long getHitCount() {
+        return this.getStatistic(1);
+    }
+
+    public long getMissCount() {
+        return this.getStatistic(2);
+    }
+
+    public boolean isAvailable() {
+        synchronized (Backend.THREADLOCK) {
+            return _isAvailable();
+        }
+    }
+
+    public boolean put(byte[] key, byte[] value) {
+        synchronized (Backend.THREADLOCK) {
+            return _put(key, value);
+        }
+    }
+
+    public boolean remove(byte[] key) {
+        synchronized (Backend.THREADLOCK) {
+            return _remove(key);
+        }
+    }
+
+    public int size() {
+        return (int) this.getStatistic(0);
+    }
+
+    private long getStatistic(int index) {
+        synchronized (Backend.THREADLOCK) {
+            return _getStatistics()[index];
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ */
+package org.postgresql.pljava.internal;
+
+/**
+ * A bounded cache of the Java <code>String</code> instances that have been
+ * created from textual column values. The cache is keyed by the type and the
+ * stored bytes of the values so repeated values, such as status codes, are
+ * converted once and then share the same <code>String</code>. A value that maps to an occupied slot
+ * replaces the previous value. Long values are never cached.
+ *
+ * @author Thomas Hallgren
+ */
+public class StringCache extends JavaWrapper {
+    /**
+     * Values that are stored in more than this number of bytes are never
+     * cached.
+     */
+    public static final int MAX_VALUE_LENGTH = 64;
+
+    /**
+     * Creates a cache with room for at least <code>capacity</code> values.
+     */
+    public static StringCache create(int capacity) {
+        synchronized (Backend.THREADLOCK) {
+            return new StringCache(_create(capacity));
+        }
+    }
+
+    private static native long _create(int capacity);
+
+    private static native void _clear(long pointer);
+
+    private StringCache(long pointer) {
+        super(pointer);
+    }
+
+    /**
+     * Releases the cached values.
+     */
+    public void clear() {
+        synchronized (Backend.THREADLOCK) {
+            _clear(getNativePointer());
+        }
+    }
+
+    /**
+     * Releases the cached values and the cache itself.
+     */
+    @Override
+    protected native void _free(long pointer);
+}
@@ -55,7 +55,9 @@ class SubXactListener {
                                                                         throws SQLException {
         SavepointListener listener = s_listeners.get(new Long(listenerId));
         if (listener != null) {
-            listener.onStart(Backend.getSession(), new PgSavepoint(spPointer),
+            listener.onStart(Backend.getSession(),
+                             spPointer == 0 ? null
+                                           : new PgSavepoint(spPointer),
                              PgSavepoint.forId(parentSpId));
         }
     }
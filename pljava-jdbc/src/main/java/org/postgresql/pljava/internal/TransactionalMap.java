@@ -6,372 +6,234 @@
  */
 package org.postgresql.pljava.internal;
 
-import java.util.AbstractCollection;
-import java.util.AbstractSet;
-import java.util.Collection;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A TransactionalMap acts as a modifiable front for a backing map. All
- * modifications can be reverted by a call to abort or propagated to the backing
- * map by a call to commit.
- * 
- * The map is not synchronized so care should be taken if multiple threads will
- * access the map.
- * 
+ * A TransactionalMap is a map whose modifications can be reverted by a call to
+ * abort or made permanent by a call to commit. Modifications can also be
+ * scoped to nested levels (subtransactions) that are committed into, or
+ * aborted back to, the enclosing level.
+ * <p>
+ * Modifications are applied directly to the current state of the map. Each
+ * level keeps an undo log holding the value that each key had when it was
+ * first modified on that level. Committing a level merges its undo log into
+ * the enclosing level and aborting a level restores the logged values, so both
+ * operations are proportional to the number of keys modified on the level
+ * rather than to the size of the map.
+ * <p>
+ * Reads do not lock and may be performed concurrently with each other and with
+ * modifications. Modifications are synchronized. <code>null</code> values
+ * are not stored, i.e. putting a <code>null</code> value removes the key.
+ * The entry, key and value views are read only.
+ *
  * @author Thomas Hallgren
  */
-public class TransactionalMap extends HashMap<Object, Object> {
-    protected class BackedEntry implements Map.Entry<Object, Object> {
-        private Object m_key;
+public class TransactionalMap extends AbstractMap<Object, Object> {
+    // The value logged for a key that was not present
+    //
+    private static final Object                        s_noObject = new Object();
 
-        public BackedEntry(Object key) {
-            m_key = key;
-        }
+    private final ConcurrentHashMap<Object, Object>     m_current  = new ConcurrentHashMap<Object, Object>();
 
-        public Object getKey() {
-            return m_key;
-        }
+    private final Map<Object, Object>                  m_readOnly = Collections.unmodifiableMap(m_current);
 
-        public Object getValue() {
-            return get(m_key);
-        }
+    // The undo log of the outermost level (the transaction).
+    //
+    private HashMap<Object, Object>                    m_baseLog  = new HashMap<Object, Object>();
 
-        public Object setValue(Object value) {
-            return put(m_key, value);
-        }
-    }
+    // The undo logs of the nested levels, innermost last. A nested level
+    // allocates its log when it is first modified.
+    //
+    private final ArrayList<HashMap<Object, Object>>   m_levels   = new ArrayList<HashMap<Object, Object>>();
 
-    protected class EntryIterator extends KeyIterator {
-        @Override
-        public Object next() {
-            return new BackedEntry(super.next());
+    /**
+     * Undo all changes made since the map was created or since last commit or
+     * abort. All nested levels are discarded.
+     */
+    public synchronized void abort() {
+        for (int idx = m_levels.size() - 1; idx >= 0; --idx) {
+            this.rollback(m_levels.get(idx));
         }
+        m_levels.clear();
+        this.rollback(m_baseLog);
+        m_baseLog = new HashMap<Object, Object>();
     }
 
-    protected class KeyIterator implements Iterator<Object> {
-        private Iterator<Object> m_currentItor = superKeySet().iterator();
-
-        private Object           m_currentKey  = null;
-
-        private boolean          m_phaseA      = true;
-
-        public boolean hasNext() {
-            m_currentKey = getValidKey(m_currentKey);
-            return m_currentKey != null;
-        }
-
-        public Object next() {
-            Object key = getValidKey(m_currentKey);
-            if (key == null) {
-                throw new NoSuchElementException();
-            }
-
-            m_currentKey = null; // Force retrieval of next key
-            return key;
-        }
-
-        public void remove() {
-            throw new UnsupportedOperationException();
-        }
-
-        protected Object getValidKey(Object key) {
-            if (key != null && containsKey(key)) {
-                return key;
-            }
-
-            // Entry is not valid. Get next entry.
-            //
-            for (;;) {
-                while (m_currentItor.hasNext()) {
-                    key = m_currentItor.next();
-                    if (containsKey(key)) {
-                        return key;
-                    }
-                }
-
-                if (!m_phaseA) {
-                    break;
-                }
-
-                m_currentItor = m_base.keySet().iterator();
-                m_phaseA = false;
-            }
-            return null;
+    /**
+     * Undo all changes made on the innermost level and discard it. If no level
+     * has been started, this method undoes all changes made since the last
+     * commit or abort, since they must all have been made within the level
+     * that is now aborted.
+     */
+    public synchronized void abortLevel() {
+        int top = m_levels.size() - 1;
+        if (top >= 0) {
+            this.rollback(m_levels.remove(top));
+        } else {
+            this.rollback(m_baseLog);
+            m_baseLog = new HashMap<Object, Object>();
         }
     }
 
-    protected class ValueIterator extends KeyIterator {
-        @Override
-        public Object next() {
-            return get(super.next());
+    /**
+     * Removes all entries. The removal can be undone by an abort.
+     */
+    @Override
+    public synchronized void clear() {
+        Iterator<Object> itor = m_current.keySet().iterator();
+        while (itor.hasNext()) {
+            this.remove(itor.next());
         }
     }
 
-    // The object representing no object (i.e. a shadowed entry)
-    //
-    private static final Object       s_noObject       = new Object();
-
-    private static final long         serialVersionUID = 5337569423915578121L;
-
-    // Commited data
-    //
-    private final Map<Object, Object> m_base;
-
-    // Cache of backed collections.
-    //
-    private Set<?>                    m_entrySet;
-
-    private Set<?>                    m_keySet;
-
-    private Collection<?>             m_valueColl;
-
-    protected TransactionalMap(Map<Object, Object> base) {
-        m_base = base;
-    }
-
     /**
-     * Undo all changes made since the map was created or since last commit or
-     * abort.
+     * Make all changes made since the map was created or since last commit or
+     * abort permanent. All nested levels are discarded.
      */
-    public void abort() {
-        super.clear();
+    public synchronized void commit() {
+        m_levels.clear();
+        if (!m_baseLog.isEmpty()) {
+            m_baseLog = new HashMap<Object, Object>();
+        }
     }
 
     /**
-     * Clear this map (an anti-object is inserted for each entry present in the
-     * backed map).
+     * Merge the changes made on the innermost level into the enclosing level
+     * and discard it. This method does nothing if no level has been started.
      */
-    @Override
-    public void clear() {
-        super.clear();
+    public synchronized void commitLevel() {
+        int top = m_levels.size() - 1;
+        if (top < 0) {
+            return;
+        }
 
-        // Add an anti-entry for each key represented in the
-        // parent scope.
-        //
-        Iterator<Object> itor = m_base.keySet().iterator();
-        while (itor.hasNext()) {
-            super.put(itor.next(), s_noObject);
+        HashMap<Object, Object> log = m_levels.remove(top);
+        if (log == null) {
+            return;
         }
-    }
 
-    /**
-     * Commit all changes made since the map was created or since last commit or
-     * abort. All changes are propagated to the backing map.
-     */
-    public void commit() {
-        Iterator<?> itor = super.entrySet().iterator();
-        while (itor.hasNext()) {
-            @SuppressWarnings("unchecked")
-            Map.Entry<Object, Object> e = (Map.Entry<Object, Object>) itor.next();
+        HashMap<Object, Object> parent = this.getLog(top - 1);
+        if (parent == null) {
+            // The enclosing level was never modified so it can adopt
+            // the log as is.
+            //
+            m_levels.set(top - 1, log);
+            return;
+        }
+
+        // Keys already present in the enclosing log were modified before
+        // this level was started and their logged values must be kept.
+        //
+        for (Map.Entry<Object, Object> e : log.entrySet()) {
             Object key = e.getKey();
-            Object val = e.getValue();
-            if (val == s_noObject) {
-                m_base.remove(key);
-            } else {
-                m_base.put(key, val);
+            if (!parent.containsKey(key)) {
+                parent.put(key, e.getValue());
             }
         }
-        super.clear();
     }
 
     @Override
     public boolean containsKey(Object key) {
-        Object v = super.get(key);
-        if (v != null) {
-            return v != s_noObject;
-        }
-
-        return super.containsKey(key) || m_base.containsKey(key);
+        return m_current.containsKey(key);
     }
 
     @Override
-    public boolean containsValue(Object val) {
-        Iterator<?> itor = getValueIterator();
-        while (itor.hasNext()) {
-            Object v = itor.next();
-            if (v == val || v != null && v.equals(val)) {
-                return true;
-            }
-        }
-        return false;
+    public boolean containsValue(Object value) {
+        return m_current.containsValue(value);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Set<Map.Entry<Object, Object>> entrySet() {
-        if (m_entrySet == null) {
-            m_entrySet = new AbstractSet<Object>() {
-                @Override
-                public boolean contains(Object k) {
-                    return TransactionalMap.this.containsKey(k);
-                }
-
-                @Override
-                public Iterator<Object> iterator() {
-                    return (Iterator<Object>) TransactionalMap.this.getEntryIterator();
-                }
-
-                @Override
-                public int size() {
-                    return TransactionalMap.this.size();
-                }
-            };
-        }
-        return (Set<java.util.Map.Entry<Object, Object>>) m_entrySet;
+        return m_readOnly.entrySet();
     }
 
     @Override
     public Object get(Object key) {
-        Object val = super.get(key);
-        if (val == s_noObject) {
-            val = null;
-        } else if (val == null && !super.containsKey(key)) {
-            val = m_base.get(key);
-        }
-        return val;
+        return m_current.get(key);
     }
 
     @Override
     public boolean isEmpty() {
-        return size() == 0;
+        return m_current.isEmpty();
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Set<Object> keySet() {
-        if (m_keySet == null) {
-            m_keySet = new AbstractSet<Object>() {
-                @Override
-                public boolean contains(Object k) {
-                    return TransactionalMap.this.containsKey(k);
-                }
-
-                @Override
-                public Iterator<Object> iterator() {
-                    return (Iterator<Object>) TransactionalMap.this.getKeyIterator();
-                }
-
-                @Override
-                public int size() {
-                    return TransactionalMap.this.size();
-                }
-            };
-        }
-        return (Set<Object>) m_keySet;
+        return m_readOnly.keySet();
     }
 
     @Override
-    public Object put(Object key, Object value) {
-        Object old = get(key);
-        super.put(key, value);
+    public synchronized Object put(Object key, Object value) {
+        if (value == null) {
+            return this.remove(key);
+        }
+
+        Object old = m_current.put(key, value);
+        this.log(key, old);
         return old;
     }
 
     @Override
-    public void putAll(Map<?, ?> t) {
-        super.putAll(t);
+    public synchronized Object remove(Object key) {
+        Object old = m_current.remove(key);
+        if (old != null) {
+            this.log(key, old);
+        }
+        return old;
     }
 
     @Override
-    public Object remove(Object key) {
-        Object val = super.get(key);
-        if (val == s_noObject) {
-            //
-            // Already removed
-            //
-            return null;
-        }
-
-        Object bval = m_base.get(key);
-        if (bval == null && !m_base.containsKey(key)) {
-            // Not present in base
-            //
-            if (val != null || super.containsKey(key)) {
-                super.remove(key);
-            }
-            return val;
-        }
-
-        if (val == null && !super.containsKey(key)) {
-            val = bval;
-        }
+    public int size() {
+        return m_current.size();
+    }
 
-        super.put(key, s_noObject);
-        return val;
+    /**
+     * Start a new nested level. Changes made from now on can be undone using
+     * {@link #abortLevel()} or merged into the enclosing level using
+     * {@link #commitLevel()}.
+     */
+    public synchronized void startLevel() {
+        m_levels.add(null);
     }
 
-    @Override
-    public int size() {
-        int sz = m_base.size();
-        int psz = super.size();
+    private HashMap<Object, Object> getLog(int level) {
+        return level < 0 ? m_baseLog : m_levels.get(level);
+    }
 
-        if (sz == 0) {
-            return psz;
+    private void log(Object key, Object old) {
+        int top = m_levels.size() - 1;
+        HashMap<Object, Object> log = this.getLog(top);
+        if (log == null) {
+            log = new HashMap<Object, Object>();
+            m_levels.set(top, log);
         }
-        if (psz == 0) {
-            return sz;
-        }
-
-        Iterator<?> itor = super.entrySet().iterator();
 
-        // Decrease counter for entries present in both maps.
+        // Only the first modification of a key on each level is logged
         //
-        while (itor.hasNext()) {
-            @SuppressWarnings("unchecked")
-            Map.Entry<Object, Object> me = (Map.Entry<Object, Object>) itor.next();
-
-            Object val = me.getValue();
-            if (val == s_noObject) {
-                --sz;
-            } else if (!m_base.containsKey(me.getKey())) {
-                ++sz;
-            }
+        if (!log.containsKey(key)) {
+            log.put(key, old == null ? s_noObject : old);
         }
-        return sz;
     }
 
-    @Override
-    @SuppressWarnings("unchecked")
-    public Collection<Object> values() {
-        if (m_valueColl == null) {
-            m_valueColl = new AbstractCollection<Object>() {
-                @Override
-                public boolean contains(Object v) {
-                    return TransactionalMap.this.containsValue(v);
-                }
-
-                @Override
-                public Iterator<Object> iterator() {
-                    return (Iterator<Object>) TransactionalMap.this.getValueIterator();
-                }
-
-                @Override
-                public int size() {
-                    return TransactionalMap.this.size();
-                }
-            };
+    private void rollback(HashMap<Object, Object> log) {
+        if (log == null) {
+            return;
         }
-        return (Collection<Object>) m_valueColl;
-    }
 
-    private Set<Object> superKeySet() {
-        return super.keySet();
-    }
-
-    protected Iterator<?> getEntryIterator() {
-        return new EntryIterator();
-    }
-
-    protected Iterator<?> getKeyIterator() {
-        return new KeyIterator();
-    }
-
-    protected Iterator<?> getValueIterator() {
-        return new ValueIterator();
+        for (Map.Entry<Object, Object> e : log.entrySet()) {
+            Object value = e.getValue();
+            if (value == s_noObject) {
+                m_current.remove(e.getKey());
+            } else {
+                m_current.put(e.getKey(), value);
+            }
+        }
     }
-}
\ No newline at end of file
+}
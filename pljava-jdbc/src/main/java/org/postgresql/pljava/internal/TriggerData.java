@@ -53,6 +53,10 @@ public class TriggerData extends JavaWrapper implements
     private static native boolean _isFiredForStatement(long pointer)
                                                                     throws SQLException;
 
+    private final long       m_callSiteId;
+
+    private TriggerMetaData  m_metaData;
+
     private TriggerResultSet m_new = null;
 
     private Tuple            m_newTuple;
@@ -61,10 +65,14 @@ public class TriggerData extends JavaWrapper implements
 
     private Relation         m_relation;
 
+    private final long       m_triggerKey;
+
     private Tuple            m_triggerTuple;
 
-    TriggerData(long pointer) {
+    TriggerData(long pointer, long triggerKey, long callSiteId) {
         super(pointer);
+        m_triggerKey = triggerKey;
+        m_callSiteId = callSiteId;
     }
 
     /**
@@ -119,11 +127,27 @@ public class TriggerData extends JavaWrapper implements
 
         // Triggers fired after will always have a read-only row
         //
-        m_new = new TriggerResultSet(getRelation().getTupleDesc(), tuple,
-                                     isFiredAfter());
+        m_new = new TriggerResultSet(getMetaData(), tuple, isFiredAfter());
         return m_new;
     }
 
+    /**
+     * Returns the column metadata of the trigger relation. The metadata is
+     * shared by all rows that this trigger fires for within the current
+     * statement.
+     * 
+     * @throws SQLException
+     *             if the contained native buffer has gone stale.
+     */
+    public TriggerMetaData getMetaData() throws SQLException {
+        if (m_metaData == null) {
+            m_metaData = TriggerMetaData.getMetaData(m_triggerKey,
+                                                     m_callSiteId,
+                                                     getRelation());
+        }
+        return m_metaData;
+    }
+
     /**
      * Returns a <code>Tuple</code> reflecting the new version of the row, if
      * the trigger was fired for an <code>UPDATE</code>, and <code>null</code>
@@ -162,8 +186,7 @@ public class TriggerData extends JavaWrapper implements
         if (isFiredByInsert() || isFiredForStatement()) {
             return null;
         }
-        m_old = new TriggerResultSet(getRelation().getTupleDesc(),
-                                     getTriggerTuple(), true);
+        m_old = new TriggerResultSet(getMetaData(), getTriggerTuple(), true);
         return m_old;
     }
 
@@ -209,12 +232,9 @@ public class TriggerData extends JavaWrapper implements
         }
 
         if (m_new != null) {
-            Object[] changes = m_new.getChangeIndexesAndValues();
-            if (changes != null) {
-                Tuple original = (Tuple) changes[0];
-                int[] indexes = (int[]) changes[1];
-                Object[] values = (Object[]) changes[2];
-                return getRelation().modifyTuple(original, indexes, values).getNativePointer();
+            Tuple modified = m_new.applyChanges(getRelation());
+            if (modified != null) {
+                return modified.getNativePointer();
             }
         }
 
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ */
+package org.postgresql.pljava.internal;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * Column metadata for the relation of a trigger, resolved once and then reused
+ * for every row that the trigger fires for within the same statement. The
+ * entries are keyed by trigger and relation and validated against the call
+ * site of the current statement. The cache is cleared when a relation cache
+ * invalidation is seen.
+ *
+ * @author Thomas Hallgren
+ */
+public class TriggerMetaData {
+    private static final HashMap<Long, TriggerMetaData> s_cache = new HashMap<Long, TriggerMetaData>();
+
+    /**
+     * Returns the metadata for the given trigger, creating it if there is no
+     * cached entry for the call site.
+     *
+     * @param triggerKey
+     *            The trigger Oid and the relation Oid combined.
+     * @param callSiteId
+     *            Identifies the statement level call site, or zero when there
+     *            is no call site and the metadata must not be cached.
+     * @param relation
+     *            The relation to resolve the metadata from on a cache miss.
+     */
+    static TriggerMetaData getMetaData(long triggerKey, long callSiteId,
+                                       Relation relation) throws SQLException {
+        synchronized (Backend.THREADLOCK) {
+            if (callSiteId == 0)
+                return new TriggerMetaData(callSiteId, relation.getTupleDesc());
+
+            Long key = Long.valueOf(triggerKey);
+            TriggerMetaData md = s_cache.get(key);
+            if (md == null || md.m_callSiteId != callSiteId) {
+                md = new TriggerMetaData(callSiteId, relation.getTupleDesc());
+                s_cache.put(key, md);
+            }
+            return md;
+        }
+    }
+
+    /**
+     * Called from the native code when a relation cache invalidation has been
+     * seen since the last trigger call.
+     */
+    static void clearCache() {
+        synchronized (Backend.THREADLOCK) {
+            s_cache.clear();
+        }
+    }
+
+    private final long                   m_callSiteId;
+
+    private final TupleChangeBuffer.Pool m_changeBuffers;
+
+    private final Class<?>[]             m_columnClasses;
+
+    private final TupleDesc              m_tupleDesc;
+
+    private TriggerMetaData(long callSiteId, TupleDesc tupleDesc)
+                                                                 throws SQLException {
+        int size = tupleDesc.size();
+        m_callSiteId = callSiteId;
+        m_tupleDesc = tupleDesc;
+        m_changeBuffers = new TupleChangeBuffer.Pool(size);
+        m_columnClasses = new Class<?>[size];
+        for (int idx = 1; idx <= size; ++idx) {
+            m_columnClasses[idx - 1] = tupleDesc.getColumnClass(idx);
+        }
+    }
+
+    /**
+     * Obtains a cleared change buffer from the pool of this trigger.
+     */
+    public TupleChangeBuffer obtainChangeBuffer() {
+        return m_changeBuffers.obtain();
+    }
+
+    /**
+     * Returns the Java class of the column at <code>index</code>.
+     *
+     * @param index
+     *            The one based index of the column.
+     */
+    public Class<?> getColumnClass(int index) {
+        return m_columnClasses[index - 1];
+    }
+
+    /**
+     * Returns the index of the column named <code>colName</code>.
+     *
+     * @param colName
+     *            The name of the column.
+     * @return The one based index for column <code>colName</code>.
+     * @throws SQLException
+     *             If no column with the given name can be found.
+     * @see TupleDesc#getColumnIndex(String)
+     */
+    public int getColumnIndex(String colName) throws SQLException {
+        return m_tupleDesc.getColumnIndex(colName);
+    }
+
+    /**
+     * Returns the descriptor of the tuples in the trigger relation.
+     */
+    public TupleDesc getTupleDesc() {
+        return m_tupleDesc;
+    }
+}
@@ -19,6 +19,16 @@ public class Tuple extends JavaWrapper {
                                             long tupleDescPointer, int index)
                                                                              throws SQLException;
 
+    private static native Object _getObjectCached(long pointer,
+                                                  long tupleDescPointer,
+                                                  int index, long cachePointer)
+                                                                               throws SQLException;
+
+    private static native Object _getObjectWithType(long pointer,
+                                                    long tupleDescPointer,
+                                                    int index, long typePointer)
+                                                                                throws SQLException;
+
     Tuple(long pointer) {
         super(pointer);
     }
@@ -42,6 +52,64 @@ public class Tuple extends JavaWrapper {
         }
     }
 
+    /**
+     * Obtains a value from the underlying native <code>HeapTuple</code>
+     * structure. Textual values are looked up in, and added to,
+     * <code>stringCache</code> so that repeated values share the same
+     * <code>String</code> instance.
+     * 
+     * @param tupleDesc
+     *            The Tuple descriptor for this instance.
+     * @param index
+     *            Index of value in the structure (one based).
+     * @param stringCache
+     *            The cache of textual values or <code>null</code>.
+     * @return The value or <code>null</code>.
+     * @throws SQLException
+     *             If the underlying native structure has gone stale.
+     */
+    public Object getObject(TupleDesc tupleDesc, int index,
+                            StringCache stringCache) throws SQLException {
+        if (stringCache == null) {
+            return this.getObject(tupleDesc, index);
+        }
+        synchronized (Backend.THREADLOCK) {
+            return _getObjectCached(getNativePointer(),
+                                    tupleDesc.getNativePointer(), index,
+                                    stringCache.getNativePointer());
+        }
+    }
+
+    /**
+     * Obtains a value from the underlying native <code>HeapTuple</code>
+     * structure as an instance of <code>cls</code> when the backend has a
+     * direct mapping between the column type and that class. Otherwise, the
+     * value is returned as an instance of the default class of the column
+     * and the caller must coerce it.
+     * 
+     * @param tupleDesc
+     *            The Tuple descriptor for this instance.
+     * @param index
+     *            Index of value in the structure (one based).
+     * @param cls
+     *            The requested class.
+     * @return The value or <code>null</code>.
+     * @throws SQLException
+     *             If the underlying native structure has gone stale.
+     */
+    public Object getObject(TupleDesc tupleDesc, int index, Class<?> cls)
+                                                                         throws SQLException {
+        long type = tupleDesc.getJavaType(index, cls);
+        if (type == 0) {
+            return this.getObject(tupleDesc, index);
+        }
+        synchronized (Backend.THREADLOCK) {
+            return _getObjectWithType(getNativePointer(),
+                                      tupleDesc.getNativePointer(), index,
+                                      type);
+        }
+    }
+
     /**
      * Calls the backend function heap_freetuple(HeapTuple tuple)
      * 
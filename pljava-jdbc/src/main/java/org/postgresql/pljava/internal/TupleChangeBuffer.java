@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ */
+package org.postgresql.pljava.internal;
+
+import java.sql.SQLException;
+
+/**
+ * A preallocated buffer that collects the column changes made to a
+ * <code>Tuple</code> prior to a call to
+ * {@link Relation#modifyTuple(Tuple, TupleChangeBuffer)}. Primitive values are
+ * stored unboxed in typed slots and are converted directly into
+ * <code>Datum</code>s by the native code. Buffers are pooled per trigger so
+ * that a trigger that fires for many rows will reuse the same arrays.
+ *
+ * @author Thomas Hallgren
+ */
+public class TupleChangeBuffer {
+    /*
+     * The kinds must be kept in sync with the KIND_ constants in
+     * C/pljava/type/Relation.c
+     */
+    public static final byte        KIND_OBJECT  = 0;
+    public static final byte        KIND_BOOLEAN = 1;
+    public static final byte        KIND_SHORT   = 2;
+    public static final byte        KIND_INT     = 3;
+    public static final byte        KIND_LONG    = 4;
+    public static final byte        KIND_FLOAT   = 5;
+    public static final byte        KIND_DOUBLE  = 6;
+
+    /**
+     * A pool of buffers for one trigger. All buffers of a pool hold changes
+     * for the same number of columns. At most {@link #MAX_FREE} buffers are
+     * kept, which is more than a trigger needs unless it fires recursively.
+     */
+    public static final class Pool {
+        private static final int          MAX_FREE = 4;
+
+        private final int                 m_columnCount;
+
+        private final TupleChangeBuffer[] m_free   = new TupleChangeBuffer[MAX_FREE];
+
+        private int                       m_freeCount;
+
+        public Pool(int columnCount) {
+            m_columnCount = columnCount;
+        }
+
+        /**
+         * Obtains a cleared buffer from the pool. The buffer should be
+         * returned using {@link TupleChangeBuffer#release()} when the changes
+         * have been applied.
+         */
+        public synchronized TupleChangeBuffer obtain() {
+            if (m_freeCount == 0) {
+                return new TupleChangeBuffer(m_columnCount, this);
+            }
+            TupleChangeBuffer buf = m_free[--m_freeCount];
+            m_free[m_freeCount] = null;
+            return buf;
+        }
+
+        synchronized void release(TupleChangeBuffer buf) {
+            if (m_freeCount < MAX_FREE) {
+                m_free[m_freeCount++] = buf;
+            }
+        }
+    }
+
+    /**
+     * Creates a buffer that holds changes for <code>columnCount</code>
+     * columns and that does not belong to any pool.
+     */
+    public static TupleChangeBuffer obtain(int columnCount) {
+        return new TupleChangeBuffer(columnCount, null);
+    }
+
+    private final int         m_columnCount;
+    private int               m_count;
+    private final double[]    m_doubles;
+    private final int[]       m_indexes;
+    private final byte[]      m_kinds;
+    private final long[]      m_longs;
+    private final Pool        m_pool;
+
+    /*
+     * Maps a zero based column index to the position of its change, or -1 if
+     * the column has not been changed.
+     */
+    private final int[]       m_slots;
+
+    private final Object[]    m_values;
+
+    private TupleChangeBuffer(int columnCount, Pool pool) {
+        m_columnCount = columnCount;
+        m_pool = pool;
+        m_indexes = new int[columnCount];
+        m_kinds = new byte[columnCount];
+        m_longs = new long[columnCount];
+        m_doubles = new double[columnCount];
+        m_values = new Object[columnCount];
+        m_slots = new int[columnCount];
+        for (int idx = 0; idx < columnCount; ++idx) {
+            m_slots[idx] = -1;
+        }
+    }
+
+    /**
+     * Forgets all changes while retaining the allocated slots.
+     */
+    public void clear() {
+        int top = m_count;
+        for (int idx = 0; idx < top; ++idx) {
+            m_slots[m_indexes[idx] - 1] = -1;
+            m_values[idx] = null;
+        }
+        m_count = 0;
+    }
+
+    /**
+     * Returns the current value of the column at <code>columnIndex</code>.
+     * Primitive values are boxed.
+     *
+     * @param columnIndex
+     *            The one based index of the column.
+     * @throws IllegalStateException
+     *             if the column has not been changed.
+     */
+    public Object getValue(int columnIndex) {
+        int slot = this.getSlot(columnIndex);
+        switch (m_kinds[slot]) {
+            case KIND_BOOLEAN:
+                return m_longs[slot] != 0 ? Boolean.TRUE : Boolean.FALSE;
+            case KIND_SHORT:
+                return Short.valueOf((short) m_longs[slot]);
+            case KIND_INT:
+                return Integer.valueOf((int) m_longs[slot]);
+            case KIND_LONG:
+                return Long.valueOf(m_longs[slot]);
+            case KIND_FLOAT:
+                return Float.valueOf((float) m_doubles[slot]);
+            case KIND_DOUBLE:
+                return Double.valueOf(m_doubles[slot]);
+            default:
+                return m_values[slot];
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the column at <code>columnIndex</code> has
+     * been changed.
+     */
+    public boolean isChanged(int columnIndex) {
+        return columnIndex >= 1 && columnIndex <= m_columnCount
+               && m_slots[columnIndex - 1] >= 0;
+    }
+
+    /**
+     * Returns <code>true</code> if no changes have been made.
+     */
+    public boolean isEmpty() {
+        return m_count == 0;
+    }
+
+    /**
+     * Clears this buffer and returns it to its pool, if it has one.
+     */
+    public void release() {
+        this.clear();
+        if (m_pool != null) {
+            m_pool.release(this);
+        }
+    }
+
+    public void setBoolean(int columnIndex, boolean value) throws SQLException {
+        int slot = this.allocSlot(columnIndex, KIND_BOOLEAN);
+        m_longs[slot] = value ? 1 : 0;
+    }
+
+    public void setDouble(int columnIndex, double value) throws SQLException {
+        int slot = this.allocSlot(columnIndex, KIND_DOUBLE);
+        m_doubles[slot] = value;
+    }
+
+    public void setFloat(int columnIndex, float value) throws SQLException {
+        int slot = this.allocSlot(columnIndex, KIND_FLOAT);
+        m_doubles[slot] = value;
+    }
+
+    public void setInt(int columnIndex, int value) throws SQLException {
+        int slot = this.allocSlot(columnIndex, KIND_INT);
+        m_longs[slot] = value;
+    }
+
+    public void setLong(int columnIndex, long value) throws SQLException {
+        int slot = this.allocSlot(columnIndex, KIND_LONG);
+        m_longs[slot] = value;
+    }
+
+    /**
+     * Stores an object value. A <code>null</code> value denotes SQL
+     * <code>NULL</code>. The value will be coerced by the native code using the
+     * type of the column.
+     */
+    public void setObject(int columnIndex, Object value) throws SQLException {
+        int slot = this.allocSlot(columnIndex, KIND_OBJECT);
+        m_values[slot] = value;
+    }
+
+    public void setShort(int columnIndex, short value) throws SQLException {
+        int slot = this.allocSlot(columnIndex, KIND_SHORT);
+        m_longs[slot] = value;
+    }
+
+    /**
+     * Returns the number of changed columns.
+     */
+    public int size() {
+        return m_count;
+    }
+
+    /**
+     * Returns the changes as a 2 element array where the first element is an
+     * <code>int[]</code> of column indexes and the second an
+     * <code>Object[]</code> with the corresponding (boxed) values.
+     */
+    public Object[] toIndexesAndValues() {
+        int top = m_count;
+        int[] indexes = new int[top];
+        Object[] values = new Object[top];
+        for (int idx = 0; idx < top; ++idx) {
+            indexes[idx] = m_indexes[idx];
+            values[idx] = this.getValue(m_indexes[idx]);
+        }
+        return new Object[] { indexes, values };
+    }
+
+    final double[] getDoubles() {
+        return m_doubles;
+    }
+
+    final int[] getIndexes() {
+        return m_indexes;
+    }
+
+    final byte[] getKinds() {
+        return m_kinds;
+    }
+
+    final long[] getLongs() {
+        return m_longs;
+    }
+
+    final Object[] getValues() {
+        return m_values;
+    }
+
+    private int allocSlot(int columnIndex, byte kind) throws SQLException {
+        if (columnIndex < 1 || columnIndex > m_columnCount) {
+            throw new SQLException("Invalid column index: " + columnIndex);
+        }
+        int slot = m_slots[columnIndex - 1];
+        if (slot < 0) {
+            slot = m_count++;
+            m_slots[columnIndex - 1] = slot;
+            m_indexes[slot] = columnIndex;
+        }
+        m_kinds[slot] = kind;
+        m_values[slot] = null;
+        return slot;
+    }
+
+    private int getSlot(int columnIndex) {
+        if (!this.isChanged(columnIndex)) {
+            throw new IllegalStateException("Column " + columnIndex
+                                            + " has not been changed");
+        }
+        return m_slots[columnIndex - 1];
+    }
+}
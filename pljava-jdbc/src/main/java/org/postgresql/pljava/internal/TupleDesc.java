@@ -7,10 +7,14 @@
 package org.postgresql.pljava.internal;
 
 import java.sql.SQLException;
+import java.util.HashMap;
 
 /**
  * The <code>TupleDesc</code> correspons to the internal PostgreSQL
- * <code>TupleDesc</code>.
+ * <code>TupleDesc</code>. The type Oids are captured when the descriptor is
+ * created and the attribute names are fetched once, when a column is first
+ * looked up by name, so that later lookups are answered without calling into
+ * the backend.
  * 
  * @author Thomas Hallgren
  */
@@ -21,19 +25,37 @@ public class TupleDesc extends JavaWrapper {
     private static native int _getColumnIndex(long _this, String colName)
                                                                          throws SQLException;
 
+    private static native String[] _getColumnNames(long _this)
+                                                              throws SQLException;
+
     private static native String _getColumnName(long _this, int index)
                                                                       throws SQLException;
 
+    private static native long _getJavaType(long _this, int index,
+                                            String javaTypeName)
+                                                                throws SQLException;
+
     private static native Oid _getOid(long _this, int index)
                                                             throws SQLException;
 
-    private Class<?>[] m_columnClasses;
+    private Class<?>[]                     m_columnClasses;
+
+    private HashMap<String, Integer>       m_columnIndexes;
+
+    private String[]                       m_columnNames;
+
+    private HashMap<Class<?>, long[]>      m_javaTypes;
 
-    private final int  m_size;
+    private Oid[]                          m_oids;
 
-    TupleDesc(long pointer, int size) throws SQLException {
+    private final int                      m_size;
+
+    private final int[]                    m_typeIds;
+
+    TupleDesc(long pointer, int size, int[] typeIds) throws SQLException {
         super(pointer);
         m_size = size;
+        m_typeIds = typeIds;
     }
 
     /**
@@ -57,19 +79,22 @@ public class TupleDesc extends JavaWrapper {
      */
     public Class<?> getColumnClass(int index) throws SQLException {
         if (m_columnClasses == null) {
-            m_columnClasses = new Class[m_size];
-            synchronized (Backend.THREADLOCK) {
-                long _this = getNativePointer();
-                for (int idx = 0; idx < m_size; ++idx) {
-                    m_columnClasses[idx] = _getOid(_this, idx + 1).getJavaClass();
-                }
+            Class<?>[] columnClasses = new Class[m_size];
+            for (int idx = 0; idx < m_size; ++idx) {
+                // Dropped columns have no type.
+                //
+                columnClasses[idx] = m_typeIds[idx] == 0 ? Object.class
+                                                        : this.getOid(idx + 1).getJavaClass();
             }
+            m_columnClasses = columnClasses;
         }
         return m_columnClasses[index - 1];
     }
 
     /**
-     * Returns the index of the column named <code>colName</code>.
+     * Returns the index of the column named <code>colName</code>. The name is
+     * first looked up as given and then in lower case. System columns are
+     * resolved by the backend.
      * 
      * @param colName
      *            The name of the column.
@@ -80,7 +105,32 @@ public class TupleDesc extends JavaWrapper {
      */
     public int getColumnIndex(String colName) throws SQLException {
         synchronized (Backend.THREADLOCK) {
-            return _getColumnIndex(getNativePointer(), colName.toLowerCase());
+            HashMap<String, Integer> columnIndexes = m_columnIndexes;
+            if (columnIndexes == null) {
+                String[] columnNames = getColumnNames();
+                columnIndexes = new HashMap<String, Integer>(m_size * 2);
+                for (int idx = 0; idx < m_size; ++idx) {
+                    // Dropped columns have no type and cannot be found by
+                    // name. The first of several columns with the same name
+                    // wins.
+                    //
+                    if (m_typeIds[idx] != 0
+                        && !columnIndexes.containsKey(columnNames[idx])) {
+                        columnIndexes.put(columnNames[idx], new Integer(idx + 1));
+                    }
+                }
+                m_columnIndexes = columnIndexes;
+            }
+
+            Integer idx = columnIndexes.get(colName);
+            if (idx == null) {
+                colName = colName.toLowerCase();
+                idx = columnIndexes.get(colName);
+            }
+            if (idx != null) {
+                return idx.intValue();
+            }
+            return _getColumnIndex(getNativePointer(), colName);
         }
     }
 
@@ -95,14 +145,86 @@ public class TupleDesc extends JavaWrapper {
      */
     public String getColumnName(int index) throws SQLException {
         synchronized (Backend.THREADLOCK) {
+            if (index >= 1 && index <= m_size) {
+                return getColumnNames()[index - 1];
+            }
             return _getColumnName(getNativePointer(), index);
         }
     }
 
+    /**
+     * Returns the names of all columns. The names are fetched from the
+     * backend on first use. Must be called while holding
+     * <code>Backend.THREADLOCK</code>.
+     */
+    private String[] getColumnNames() throws SQLException {
+        String[] columnNames = m_columnNames;
+        if (columnNames == null) {
+            columnNames = _getColumnNames(getNativePointer());
+            m_columnNames = columnNames;
+        }
+        return columnNames;
+    }
+
+    /**
+     * Returns a handle to the native type that coerces the values of the
+     * column at <code>index</code> directly into instances of
+     * <code>cls</code>, or <code>0</code> if there is no such type. The
+     * handles are looked up once per column and class.
+     */
+    long getJavaType(int index, Class<?> cls) throws SQLException {
+        if (index < 1 || index > m_size || cls.isPrimitive() || cls.isArray()) {
+            return 0;
+        }
+
+        synchronized (Backend.THREADLOCK) {
+            HashMap<Class<?>, long[]> javaTypes = m_javaTypes;
+            if (javaTypes == null) {
+                javaTypes = new HashMap<Class<?>, long[]>();
+                m_javaTypes = javaTypes;
+            }
+
+            // A type handle is never 0 so 0 means that the column has not
+            // been looked up and -1 that it has no direct mapping.
+            //
+            long[] types = javaTypes.get(cls);
+            if (types == null) {
+                types = new long[m_size];
+                javaTypes.put(cls, types);
+            }
+
+            long type = types[index - 1];
+            if (type == 0) {
+                type = _getJavaType(getNativePointer(), index, cls.getName());
+                if (type == 0) {
+                    type = -1;
+                }
+                types[index - 1] = type;
+            }
+            return type == -1 ? 0 : type;
+        }
+    }
+
     /**
      * Returns OID of the column type.
      */
     public Oid getOid(int index) throws SQLException {
+        if (index >= 1 && index <= m_size && m_typeIds[index - 1] != 0) {
+            Oid[] oids = m_oids;
+            if (oids == null) {
+                oids = new Oid[m_size];
+                m_oids = oids;
+            }
+            Oid oid = oids[index - 1];
+            if (oid == null) {
+                oid = new Oid(m_typeIds[index - 1]);
+                oids[index - 1] = oid;
+            }
+            return oid;
+        }
+
+        // Let the backend report the invalid index
+        //
         synchronized (Backend.THREADLOCK) {
             return _getOid(getNativePointer(), index);
         }
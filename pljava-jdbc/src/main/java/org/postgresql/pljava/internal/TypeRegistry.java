@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Copyright (c) 2010, 2011 PostgreSQL Global Development Group
+ *
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://wiki.tada.se/index.php?title=PLJava_License
+ */
+package org.postgresql.pljava.internal;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+
+/**
+ * The registry that backs the static lookups in {@link Oid}. Each map is
+ * copy-on-write: readers use the current immutable snapshot without locking
+ * while writers replace the snapshot under the registry lock. Writes are rare
+ * (they happen when a type is seen for the first time) so copying is cheap in
+ * comparison to locking every read.
+ * <p>
+ * The Java classes of the builtin types are known up front so that resolving
+ * them never reaches the backend. They are not entered into the class to type
+ * map until the type has been resolved, so {@link Oid#forJavaClass} answers
+ * exactly as it did when every class was resolved by the backend.
+ *
+ * @author Thomas Hallgren
+ */
+final class TypeRegistry {
+    /**
+     * A map where reads are lock free.
+     */
+    static final class CopyOnWriteMap<K, V> {
+        private volatile HashMap<K, V> m_map = new HashMap<K, V>();
+
+        V get(K key) {
+            return m_map.get(key);
+        }
+
+        synchronized void put(K key, V value) {
+            HashMap<K, V> map = new HashMap<K, V>(m_map);
+            map.put(key, value);
+            m_map = map;
+        }
+
+        synchronized void putIfAbsent(K key, V value) {
+            if (!m_map.containsKey(key)) {
+                this.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Oids below this value are assigned to builtin objects.
+     */
+    static final int                                  FIRST_NORMAL_OBJECT_ID = 16384;
+
+    static final CopyOnWriteMap<Class<?>, Oid>        s_class2typeId         = new CopyOnWriteMap<Class<?>, Oid>();
+
+    static final CopyOnWriteMap<Integer, Oid>         s_sqlType2typeId       = new CopyOnWriteMap<Integer, Oid>();
+
+    static final CopyOnWriteMap<Oid, Class<?>>        s_typeId2class         = new CopyOnWriteMap<Oid, Class<?>>();
+
+    static final CopyOnWriteMap<String, Oid>          s_typeName2typeId      = new CopyOnWriteMap<String, Oid>();
+
+    private static final HashMap<Oid, Class<?>>       s_builtinClasses       = new HashMap<Oid, Class<?>>();
+
+    private static final HashMap<String, Class<?>>    s_primitives           = new HashMap<String, Class<?>>();
+
+    static {
+        s_primitives.put("boolean", boolean.class);
+        s_primitives.put("byte", byte.class);
+        s_primitives.put("char", char.class);
+        s_primitives.put("double", double.class);
+        s_primitives.put("float", float.class);
+        s_primitives.put("int", int.class);
+        s_primitives.put("long", long.class);
+        s_primitives.put("short", short.class);
+
+        // The Java classes of the builtin types. Must be kept in sync with
+        // the javaTypeName of the corresponding native types.
+        //
+        registerBuiltin(Boolean.class, 16); // bool
+        registerBuiltin(byte[].class, 17); // bytea
+        registerBuiltin(Byte.class, 18); // char
+        registerBuiltin(String.class, 19); // name
+        registerBuiltin(Long.class, 20); // int8
+        registerBuiltin(Short.class, 21); // int2
+        registerBuiltin(Integer.class, 23); // int4
+        registerBuiltin(String.class, 25); // text
+        registerBuiltin(Oid.class, 26); // oid
+        registerBuiltin(Float.class, 700); // float4
+        registerBuiltin(Double.class, 701); // float8
+        registerBuiltin(String.class, 1042); // bpchar
+        registerBuiltin(String.class, 1043); // varchar
+        registerBuiltin(Date.class, 1082); // date
+        registerBuiltin(Time.class, 1083); // time
+        registerBuiltin(Timestamp.class, 1114); // timestamp
+        registerBuiltin(Timestamp.class, 1184); // timestamptz
+        registerBuiltin(Time.class, 1266); // timetz
+        registerBuiltin(BigDecimal.class, 1700); // numeric
+        registerBuiltin(String.class, 2275); // cstring
+
+        // The mapping of java.sql.Types. Must be kept in sync with
+        // Oid_forSqlType in C/pljava/type/Oid.c
+        //
+        registerSqlType(Types.BIT, 1560);
+        registerSqlType(Types.TINYINT, 18);
+        registerSqlType(Types.SMALLINT, 21);
+        registerSqlType(Types.INTEGER, 23);
+        registerSqlType(Types.BIGINT, 20);
+        registerSqlType(Types.FLOAT, 700);
+        registerSqlType(Types.REAL, 700);
+        registerSqlType(Types.DOUBLE, 701);
+        registerSqlType(Types.NUMERIC, 1700);
+        registerSqlType(Types.DECIMAL, 1700);
+        registerSqlType(Types.DATE, 1082);
+        registerSqlType(Types.TIME, 1083);
+        registerSqlType(Types.TIMESTAMP, 1114);
+        registerSqlType(Types.BOOLEAN, 16);
+        registerSqlType(Types.BINARY, 17);
+        registerSqlType(Types.VARBINARY, 17);
+        registerSqlType(Types.LONGVARBINARY, 17);
+        registerSqlType(Types.BLOB, 17);
+        registerSqlType(Types.CHAR, 25);
+        registerSqlType(Types.VARCHAR, 25);
+        registerSqlType(Types.LONGVARCHAR, 25);
+        registerSqlType(Types.CLOB, 25);
+        registerSqlType(Types.DATALINK, 25);
+    }
+
+    /**
+     * Returns the Java class of a builtin type or <code>null</code> if the
+     * type must be resolved by the backend.
+     */
+    static Class<?> builtinClass(Oid typeId) {
+        return s_builtinClasses.get(typeId);
+    }
+
+    /**
+     * Returns the class for a Java type name as returned by the native code,
+     * i.e. a class name or a primitive name followed by zero or more
+     * <code>[]</code>. Array classes are obtained from the element class.
+     */
+    static Class<?> classForTypeName(String name) throws ClassNotFoundException {
+        int nDims = 0;
+        int end = name.length();
+        while (end > 2 && name.charAt(end - 1) == ']'
+               && name.charAt(end - 2) == '[') {
+            end -= 2;
+            ++nDims;
+        }
+
+        if (nDims > 0) {
+            name = name.substring(0, end);
+        }
+
+        Class<?> c = s_primitives.get(name);
+        if (c == null) {
+            c = Class.forName(name);
+        }
+
+        if (nDims > 0) {
+            c = java.lang.reflect.Array.newInstance(c, new int[nDims]).getClass();
+        }
+        return c;
+    }
+
+    private static void registerBuiltin(Class<?> cls, int typeId) {
+        s_builtinClasses.put(new Oid(typeId), cls);
+    }
+
+    private static void registerSqlType(int sqlType, int typeId) {
+        s_sqlType2typeId.put(new Integer(sqlType), new Oid(typeId));
+    }
+
+    private TypeRegistry() {
+    }
+}
@@ -166,6 +166,11 @@ public abstract class AbstractResultSet implements ResultSet {
         return this.getObject(findColumn(columnName), map);
     }
 
+    public <T> T getObject(String columnName, Class<T> type)
+                                                            throws SQLException {
+        return this.getObject(findColumn(columnName), type);
+    }
+
     public Ref getRef(String columnName) throws SQLException {
         return this.getRef(findColumn(columnName));
     }
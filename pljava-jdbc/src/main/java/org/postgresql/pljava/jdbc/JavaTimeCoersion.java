@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.jdbc;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Derives <code>java.time</code> values from the values that the backend
+ * passes for the date and time types. The coercions are kept in a class of
+ * their own so that the <code>java.time</code> package is only referenced
+ * when it is requested, i.e. on a JVM that provides it.
+ *
+ * @author Thomas Hallgren
+ */
+class JavaTimeCoersion {
+    static Object coerce(Class<?> cls, Object value) throws SQLException {
+        try {
+            if (cls == LocalDate.class) {
+                if (value instanceof Date) {
+                    return ((Date) value).toLocalDate();
+                }
+                if (value instanceof Timestamp) {
+                    return ((Timestamp) value).toLocalDateTime().toLocalDate();
+                }
+                if (value instanceof LocalDateTime) {
+                    return ((LocalDateTime) value).toLocalDate();
+                }
+                if (value instanceof OffsetDateTime) {
+                    return ((OffsetDateTime) value).toLocalDate();
+                }
+                if (value instanceof String) {
+                    return LocalDate.parse((String) value);
+                }
+            } else if (cls == LocalTime.class) {
+                if (value instanceof Time) {
+                    return ((Time) value).toLocalTime();
+                }
+                if (value instanceof Timestamp) {
+                    return ((Timestamp) value).toLocalDateTime().toLocalTime();
+                }
+                if (value instanceof LocalDateTime) {
+                    return ((LocalDateTime) value).toLocalTime();
+                }
+                if (value instanceof String) {
+                    return LocalTime.parse((String) value);
+                }
+            } else if (cls == LocalDateTime.class) {
+                if (value instanceof Timestamp) {
+                    return ((Timestamp) value).toLocalDateTime();
+                }
+                if (value instanceof Date) {
+                    return ((Date) value).toLocalDate().atStartOfDay();
+                }
+                if (value instanceof LocalDate) {
+                    return ((LocalDate) value).atStartOfDay();
+                }
+                if (value instanceof OffsetDateTime) {
+                    return ((OffsetDateTime) value).toLocalDateTime();
+                }
+                if (value instanceof String) {
+                    return Timestamp.valueOf((String) value).toLocalDateTime();
+                }
+            } else if (cls == Instant.class) {
+                if (value instanceof Timestamp) {
+                    return ((Timestamp) value).toInstant();
+                }
+                if (value instanceof OffsetDateTime) {
+                    return ((OffsetDateTime) value).toInstant();
+                }
+            } else if (cls == OffsetDateTime.class) {
+                if (value instanceof Timestamp) {
+                    return ((Timestamp) value).toInstant().atOffset(ZoneOffset.UTC);
+                }
+                if (value instanceof Instant) {
+                    return ((Instant) value).atOffset(ZoneOffset.UTC);
+                }
+                if (value instanceof String) {
+                    return OffsetDateTime.parse((String) value);
+                }
+            }
+        } catch (DateTimeException e) {
+            throw new SQLException(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new SQLException(e.getMessage());
+        }
+        throw new SQLException("Cannot derive a value of class "
+                               + cls.getName() + " from an object of class "
+                               + value.getClass().getName());
+    }
+}
@@ -149,6 +149,18 @@ public abstract class ObjectResultSet extends AbstractResultSet {
         return value;
     }
 
+    /**
+     * Returns the value of the column as an instance of <code>type</code>.
+     * Besides the classes that the column can be coerced into by the other
+     * getters, the date and time types can be obtained as
+     * <code>java.time</code> values.
+     */
+    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+        Object value = this.getObjectValue(columnIndex, type);
+        m_wasNull = value == null;
+        return type.cast(SPIConnection.basicTypedCoersion(type, value));
+    }
+
     public Ref getRef(int columnIndex) throws SQLException {
         return (Ref) this.getValue(columnIndex, Ref.class);
     }
@@ -325,6 +337,16 @@ public abstract class ObjectResultSet extends AbstractResultSet {
                                               "Obtaining values using explicit Map");
     }
 
+    /**
+     * Returns the value of the column, preferably as an instance of
+     * <code>type</code>. The default implementation returns the value of the
+     * column's default class and leaves the coercion to the caller.
+     */
+    protected Object getObjectValue(int columnIndex, Class<?> type)
+                                                                   throws SQLException {
+        return this.getObjectValue(columnIndex);
+    }
+
     protected final Object getValue(int columnIndex, Class<?> cls)
                                                                   throws SQLException {
         return SPIConnection.basicCoersion(cls, this.getObject(columnIndex));
@@ -38,6 +38,7 @@ import java.util.BitSet;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
@@ -45,6 +46,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import org.postgresql.pljava.internal.Backend;
 import org.postgresql.pljava.internal.Oid;
 import org.postgresql.pljava.internal.PgSavepoint;
 
@@ -64,6 +66,34 @@ import org.postgresql.pljava.internal.PgSavepoint;
  * @author Thomas Hallgren
  */
 public class SPIConnection implements Connection {
+    /**
+     * MRU cache for the state of closed prepared statements, keyed by their
+     * SQL text.
+     */
+    static final class StatementCache extends
+            LinkedHashMap<String, SPIPreparedStatement.CachedState> {
+        private static final long serialVersionUID = 1L;
+        private final int         m_cacheSize;
+
+        StatementCache(int cacheSize) {
+            super(INITIAL_CACHE_CAPACITY, CACHE_LOAD_FACTOR, true);
+            m_cacheSize = cacheSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SPIPreparedStatement.CachedState> eldest) {
+            if (size() <= m_cacheSize) {
+                return false;
+            }
+            eldest.getValue().close();
+            return true;
+        }
+    }
+
+    static final float                              CACHE_LOAD_FACTOR   = 0.75f;
+
+    static final int                                INITIAL_CACHE_CAPACITY = 29;
+
     /*
      * This table holds the JDBC type for each entry above.
      *
@@ -261,6 +291,57 @@ public class SPIConnection implements Connection {
                                        + value.getClass().getName());
     }
 
+    /**
+     * Coerces a value obtained from the backend into an instance of
+     * <code>cls</code> as required by <code>ResultSet.getObject(int,
+     * Class)</code>.
+     */
+    static Object basicTypedCoersion(Class<?> cls, Object value)
+                                                                throws SQLException {
+        if (value == null || cls.isInstance(value)) {
+            return value;
+        }
+
+        if (cls.getName().startsWith("java.time.")) {
+            return JavaTimeCoersion.coerce(cls, value);
+        }
+
+        if (cls == Integer.class) {
+            return new Integer(basicNumericCoersion(int.class, value).intValue());
+        }
+        if (cls == Long.class) {
+            return new Long(basicNumericCoersion(long.class, value).longValue());
+        }
+        if (cls == Short.class) {
+            return new Short(basicNumericCoersion(short.class, value).shortValue());
+        }
+        if (cls == Byte.class) {
+            return new Byte(basicNumericCoersion(byte.class, value).byteValue());
+        }
+        if (cls == Double.class) {
+            return new Double(basicNumericCoersion(double.class, value).doubleValue());
+        }
+        if (cls == Float.class) {
+            return new Float(basicNumericCoersion(float.class, value).floatValue());
+        }
+        if (cls == BigDecimal.class) {
+            Number n = basicNumericCoersion(cls, value);
+            return n instanceof BigDecimal ? n : new BigDecimal(n.toString());
+        }
+        if (cls == Boolean.class) {
+            if (value instanceof Number) {
+                return Boolean.valueOf(((Number) value).intValue() != 0);
+            }
+            if (value instanceof String) {
+                return Boolean.valueOf((String) value);
+            }
+        }
+        if (cls == Timestamp.class || cls == Date.class || cls == Time.class) {
+            return basicCalendricalCoersion(cls, value, Calendar.getInstance());
+        }
+        return basicCoersion(cls, value);
+    }
+
     static int getTypeForClass(Class<?> c) {
         if (c.isArray() && !c.equals(byte[].class)) {
             return Types.ARRAY;
@@ -282,6 +363,12 @@ public class SPIConnection implements Connection {
      */
     private Properties _clientInfo;
 
+    /**
+     * Closed prepared statements that are ready to be handed out again.
+     * Created on first use.
+     */
+    private StatementCache m_statementCache;
+
     /**
      * The version number of the currently executing PostgreSQL server.
      */
@@ -367,31 +454,34 @@ public class SPIConnection implements Connection {
      * 
      * @throws SQLException
      * 
-     *             if the <code>resultSetType</code> differs from
-     *             {@link ResultSet#TYPE_FORWARD_ONLY} or if the
+     *             if the <code>resultSetType</code> is
+     *             {@link ResultSet#TYPE_SCROLL_SENSITIVE} or if the
      *             <code>resultSetConcurrencty</code> differs from
      *             {@link ResultSet#CONCUR_READ_ONLY}.
      */
     public Statement createStatement(int resultSetType, int resultSetConcurrency)
                                                                                  throws SQLException {
-        if (resultSetType != ResultSet.TYPE_FORWARD_ONLY) {
+        if (resultSetType != ResultSet.TYPE_FORWARD_ONLY
+            && resultSetType != ResultSet.TYPE_SCROLL_INSENSITIVE) {
             throw new UnsupportedOperationException(
-                                                    "TYPE_FORWARD_ONLY supported ResultSet type");
+                                                    "TYPE_FORWARD_ONLY and TYPE_SCROLL_INSENSITIVE are the supported ResultSet types");
         }
 
         if (resultSetConcurrency != ResultSet.CONCUR_READ_ONLY) {
             throw new UnsupportedOperationException(
                                                     "CONCUR_READ_ONLY is the supported ResultSet concurrency");
         }
-        return this.createStatement();
+        SPIStatement stmt = (SPIStatement) this.createStatement();
+        stmt.setResultSetType(resultSetType);
+        return stmt;
     }
 
     /**
      * Creates a new instance of <code>SPIStatement</code>.
      * 
      * @throws SQLException
-     *             if the <code>resultSetType</code> differs from
-     *             {@link ResultSet#TYPE_FORWARD_ONLY}, if the
+     *             if the <code>resultSetType</code> is
+     *             {@link ResultSet#TYPE_SCROLL_SENSITIVE}, if the
      *             <code>resultSetConcurrencty</code> differs from
      *             {@link ResultSet#CONCUR_READ_ONLY}, or if the
      *             resultSetHoldability differs from
@@ -447,6 +537,14 @@ public class SPIConnection implements Connection {
         return null;
     }
 
+    /**
+     * Returns a {@link SPICopyManager} that streams data into and out of
+     * tables using the text format of <code>COPY</code>.
+     */
+    public SPICopyManager getCopyAPI() {
+        return new SPICopyManager(this);
+    }
+
     /**
      * Returns {@link ResultSet#CLOSE_CURSORS_AT_COMMIT}. Cursors are actually
      * closed when a function returns to SQL.
@@ -730,16 +828,36 @@ public class SPIConnection implements Connection {
     }
 
     /**
-     * Creates a new instance of <code>SPIPreparedStatement</code>.
+     * Returns a new <code>SPIPreparedStatement</code> for the given SQL. When
+     * a closed statement with the same SQL text left its state in the
+     * statement cache, the new statement takes over its plan, its parameter
+     * block and the parameter types of its last execution.
+     * <p>
+     * The statement belongs to the current invocation until it is closed, and
+     * it is closed when the invocation exits if the caller forgot to. Closing
+     * it returns its state to the cache, so the state is never shared between
+     * nested invocations.
      */
     public PreparedStatement prepareStatement(String sql) throws SQLException {
         if (isClosed()) {
             throw new SQLException("Connection is closed");
         }
 
-        int[] pcount = new int[] { 0 };
-        sql = this.nativeSQL(sql, pcount);
-        PreparedStatement stmt = new SPIPreparedStatement(this, sql, pcount[0]);
+        SPIPreparedStatement.CachedState state = null;
+        synchronized (this) {
+            if (m_statementCache != null) {
+                state = m_statementCache.remove(sql);
+            }
+        }
+
+        SPIPreparedStatement stmt;
+        if (state != null) {
+            stmt = new SPIPreparedStatement(this, sql, state);
+        } else {
+            int[] pcount = new int[] { 0 };
+            String nativeSql = this.nativeSQL(sql, pcount);
+            stmt = new SPIPreparedStatement(this, sql, nativeSql, pcount[0]);
+        }
         Invocation.current().manageStatement(stmt);
         return stmt;
     }
@@ -760,32 +878,35 @@ public class SPIConnection implements Connection {
      * Creates a new instance of <code>SPIPreparedStatement</code>.
      * 
      * @throws SQLException
-     *             if the <code>resultSetType</code> differs from
-     *             {@link ResultSet#TYPE_FORWARD_ONLY} or if the
+     *             if the <code>resultSetType</code> is
+     *             {@link ResultSet#TYPE_SCROLL_SENSITIVE} or if the
      *             <code>resultSetConcurrencty</code> differs from
      *             {@link ResultSet#CONCUR_READ_ONLY}.
      */
     public PreparedStatement prepareStatement(String sql, int resultSetType,
                                               int resultSetConcurrency)
                                                                        throws SQLException {
-        if (resultSetType != ResultSet.TYPE_FORWARD_ONLY) {
+        if (resultSetType != ResultSet.TYPE_FORWARD_ONLY
+            && resultSetType != ResultSet.TYPE_SCROLL_INSENSITIVE) {
             throw new UnsupportedOperationException(
-                                                    "TYPE_FORWARD_ONLY supported ResultSet type");
+                                                    "TYPE_FORWARD_ONLY and TYPE_SCROLL_INSENSITIVE are the supported ResultSet types");
         }
 
         if (resultSetConcurrency != ResultSet.CONCUR_READ_ONLY) {
             throw new UnsupportedOperationException(
                                                     "CONCUR_READ_ONLY is the supported ResultSet concurrency");
         }
-        return prepareStatement(sql);
+        SPIPreparedStatement stmt = (SPIPreparedStatement) prepareStatement(sql);
+        stmt.setResultSetType(resultSetType);
+        return stmt;
     }
 
     /**
      * Creates a new instance of <code>SPIPreparedStatement</code>.
      * 
      * @throws SQLException
-     *             if the <code>resultSetType</code> differs from
-     *             {@link ResultSet#TYPE_FORWARD_ONLY}, if the
+     *             if the <code>resultSetType</code> is
+     *             {@link ResultSet#TYPE_SCROLL_SENSITIVE}, if the
      *             <code>resultSetConcurrencty</code> differs from
      *             {@link ResultSet#CONCUR_READ_ONLY}, or if the
      *             resultSetHoldability differs from
@@ -980,6 +1101,26 @@ public class SPIConnection implements Connection {
                                                   "0A000");
     }
 
+    /**
+     * Puts the state of a closed statement in the statement cache. If the
+     * cache already holds a state for the same SQL text, the cached one is
+     * kept.
+     *
+     * @return <code>true</code> if the state was cached.
+     */
+    final boolean cacheStatement(String sql,
+                                 SPIPreparedStatement.CachedState state) {
+        synchronized (this) {
+            if (m_statementCache == null) {
+                m_statementCache = new StatementCache(Backend.getStatementCacheSize());
+            } else if (m_statementCache.containsKey(sql)) {
+                return false;
+            }
+            m_statementCache.put(sql, state);
+            return true;
+        }
+    }
+
     private Savepoint rememberSavepoint(PgSavepoint sp) throws SQLException {
         // Remember the first savepoint for each call-level so
         // that it can be released when the function call ends. Releasing
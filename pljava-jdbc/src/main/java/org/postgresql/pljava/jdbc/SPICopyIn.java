@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.jdbc;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.SQLException;
+
+import org.postgresql.pljava.internal.CopyIn;
+
+/**
+ * A <code>COPY FROM STDIN</code> in progress. Data is either written as blocks
+ * in the text format of <code>COPY</code> using
+ * {@link #writeToCopy(byte[], int, int)} or one row at a time using
+ * {@link #writeRow(Object[])}. Rows are buffered and the buffer is passed to
+ * the backend when it is full, so a copy must always be completed with
+ * {@link #endCopy()} or abandoned with {@link #cancelCopy()}.
+ *
+ * @author Thomas Hallgren
+ */
+public class SPICopyIn {
+    private final CopyIn  m_copy;
+
+    private StringBuilder m_rows;
+
+    private String        m_charset;
+
+    SPICopyIn(CopyIn copy) {
+        m_copy = copy;
+    }
+
+    /**
+     * Discards the rows that have not yet been inserted. The rows that are
+     * already inserted are rolled back with the transaction or savepoint, not
+     * by this method. Does nothing if the copy has ended.
+     */
+    public void cancelCopy() {
+        m_rows = null;
+        m_copy.cancel();
+    }
+
+    /**
+     * Inserts the buffered rows and ends the copy.
+     *
+     * @return The total number of rows inserted.
+     * @throws SQLException
+     *             If the copy is not active or a row could not be inserted.
+     */
+    public long endCopy() throws SQLException {
+        this.flushRows();
+        return m_copy.end();
+    }
+
+    /**
+     * Returns <code>true</code> until the copy has been ended or cancelled.
+     */
+    public boolean isActive() {
+        return m_copy.isActive();
+    }
+
+    /**
+     * Appends one row. Each value is converted using its
+     * <code>toString()</code> method and <code>null</code> values become
+     * SQL <code>NULL</code>.
+     *
+     * @throws SQLException
+     *             If the copy is not active or if the buffer was full and one
+     *             of its rows could not be inserted.
+     */
+    public void writeRow(Object[] values) throws SQLException {
+        if (!m_copy.isActive()) {
+            throw new SQLException("Copy is not active");
+        }
+
+        StringBuilder rows = m_rows;
+        if (rows == null) {
+            rows = new StringBuilder();
+            m_rows = rows;
+        }
+
+        int top = values.length;
+        for (int idx = 0; idx < top; ++idx) {
+            if (idx > 0) {
+                rows.append('\t');
+            }
+            Object value = values[idx];
+            if (value == null) {
+                rows.append("\\N");
+            } else {
+                appendEscaped(rows, value.toString());
+            }
+        }
+        rows.append('\n');
+
+        if (rows.length() >= SPICopyManager.BUFFER_SIZE) {
+            this.flushRows();
+        }
+    }
+
+    /**
+     * Writes a block of data in the text format of <code>COPY</code>. The
+     * block need not end at a line boundary.
+     *
+     * @throws SQLException
+     *             If the copy is not active or a row could not be inserted.
+     */
+    public void writeToCopy(byte[] data, int offset, int length)
+                                                                throws SQLException {
+        this.flushRows();
+        m_copy.write(data, offset, length);
+    }
+
+    private static void appendEscaped(StringBuilder rows, String value) {
+        int top = value.length();
+        for (int idx = 0; idx < top; ++idx) {
+            char c = value.charAt(idx);
+            switch (c) {
+                case '\\':
+                    rows.append("\\\\");
+                    break;
+                case '\t':
+                    rows.append("\\t");
+                    break;
+                case '\n':
+                    rows.append("\\n");
+                    break;
+                case '\r':
+                    rows.append("\\r");
+                    break;
+                default:
+                    rows.append(c);
+            }
+        }
+    }
+
+    private void flushRows() throws SQLException {
+        StringBuilder rows = m_rows;
+        if (rows == null || rows.length() == 0) {
+            return;
+        }
+
+        if (m_charset == null) {
+            m_charset = SPICopyManager.getServerCharset();
+        }
+
+        byte[] data;
+        try {
+            data = rows.toString().getBytes(m_charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new SQLException(e.getMessage());
+        }
+        rows.setLength(0);
+        m_copy.write(data, 0, data.length);
+    }
+}
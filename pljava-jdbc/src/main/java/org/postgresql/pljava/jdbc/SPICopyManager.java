@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2004, 2005, 2006 TADA AB - Taby Sweden
+ * Distributed under the terms shown in the file COPYRIGHT
+ * found in the root folder of this project or at
+ * http://eng.tada.se/osprojects/COPYRIGHT.html
+ */
+package org.postgresql.pljava.jdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.postgresql.pljava.internal.Backend;
+import org.postgresql.pljava.internal.CopyIn;
+import org.postgresql.pljava.internal.ExecutionPlan;
+import org.postgresql.pljava.internal.Oid;
+import org.postgresql.pljava.internal.Portal;
+
+/**
+ * Streams bulk data into and out of tables using the text format of
+ * <code>COPY</code>. The statements accepted are
+ * <code>COPY table [( column [, ...] )] FROM STDIN</code>,
+ * <code>COPY table [( column [, ...] )] TO STDOUT</code> and
+ * <code>COPY ( query ) TO STDOUT</code>. Options are not supported.
+ * <p>
+ * The data must be encoded in the server encoding. Since a backend cannot run
+ * <code>COPY FROM STDIN</code> on itself, the rows are inserted by executing
+ * one prepared <code>INSERT</code> per row in the backend, which means that
+ * triggers and constraints apply just as they do for <code>COPY</code>.
+ *
+ * @author Thomas Hallgren
+ */
+public class SPICopyManager {
+    private static final String  IDENT           = "(?:\"(?:[^\"]|\"\")*\"|[^\\s\\(\\)\",\\.]+)";
+
+    private static final String  QUALIFIED_IDENT = IDENT + "(?:\\s*\\.\\s*"
+                                                   + IDENT + ")*";
+
+    private static final Pattern s_copyIn        = Pattern.compile("\\s*COPY\\s+("
+                                                                   + QUALIFIED_IDENT
+                                                                   + ")\\s*(?:\\(([^\\)]*)\\))?\\s*FROM\\s+STDIN\\s*;?\\s*",
+                                                                   Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern s_copyQueryOut  = Pattern.compile("\\s*COPY\\s*\\((.*)\\)\\s*TO\\s+STDOUT\\s*;?\\s*",
+                                                                   Pattern.CASE_INSENSITIVE
+                                                                           | Pattern.DOTALL);
+
+    private static final Pattern s_copyTableOut  = Pattern.compile("\\s*COPY\\s+("
+                                                                   + QUALIFIED_IDENT
+                                                                   + ")\\s*(?:\\(([^\\)]*)\\))?\\s*TO\\s+STDOUT\\s*;?\\s*",
+                                                                   Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern s_ident         = Pattern.compile(IDENT);
+
+    /**
+     * The size of the blocks that are passed to and from the backend.
+     */
+    static final int             BUFFER_SIZE     = 65536;
+
+    /**
+     * The number of rows that are formatted per call to the backend.
+     */
+    private static final int     FETCH_SIZE      = 1000;
+
+    /**
+     * Returns the name of the Java charset that corresponds to the server
+     * encoding.
+     */
+    static String getServerCharset() throws SQLException {
+        String encoding = Backend.getConfigOption("server_encoding");
+        if (encoding == null || encoding.equals("UTF8")) {
+            return "UTF-8";
+        }
+        if (encoding.equals("SQL_ASCII") || encoding.equals("LATIN1")) {
+            // SQL_ASCII passes the bytes as is
+            //
+            return "ISO-8859-1";
+        }
+        if (encoding.startsWith("WIN")) {
+            encoding = "windows-" + encoding.substring(3);
+        }
+        if (!Charset.isSupported(encoding)) {
+            throw new UnsupportedFeatureException("COPY with server encoding "
+                                                  + encoding);
+        }
+        return encoding;
+    }
+
+    /**
+     * Splits a column list into the column names. Quoted names are unquoted
+     * and other names are folded to lower case.
+     */
+    private static String[] parseColumns(String columnList)
+                                                           throws SQLException {
+        if (columnList == null) {
+            return null;
+        }
+
+        ArrayList<String> columns = new ArrayList<String>();
+        for (String column : columnList.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)")) {
+            column = column.trim();
+            if (!s_ident.matcher(column).matches()) {
+                throw new SQLException("Invalid column name: " + column);
+            }
+            if (column.startsWith("\"")) {
+                column = column.substring(1, column.length() - 1).replace("\"\"",
+                                                                          "\"");
+            } else {
+                column = column.toLowerCase();
+            }
+            columns.add(column);
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    private final SPIConnection m_connection;
+
+    SPICopyManager(SPIConnection connection) {
+        m_connection = connection;
+    }
+
+    /**
+     * Starts a <code>COPY FROM STDIN</code>. The data is written to the
+     * returned <code>SPICopyIn</code>.
+     *
+     * @param sql
+     *            The <code>COPY</code> statement.
+     * @return The started copy.
+     * @throws SQLException
+     *             If the statement is not a supported <code>COPY</code>
+     *             statement or if the table or one of the columns does not
+     *             exist.
+     */
+    public SPICopyIn copyIn(String sql) throws SQLException {
+        Matcher m = s_copyIn.matcher(sql);
+        if (!m.matches()) {
+            throw new UnsupportedFeatureException("COPY statement " + sql);
+        }
+        return new SPICopyIn(CopyIn.create(this.getRelationId(m.group(1)),
+                                           parseColumns(m.group(2))));
+    }
+
+    /**
+     * Performs a <code>COPY FROM STDIN</code> with the data read from the
+     * given stream until it is exhausted.
+     *
+     * @param sql
+     *            The <code>COPY</code> statement.
+     * @param from
+     *            The data in the text format of <code>COPY</code>.
+     * @return The number of rows inserted.
+     * @throws SQLException
+     *             If the copy fails.
+     * @throws IOException
+     *             If the stream cannot be read.
+     */
+    public long copyIn(String sql, InputStream from) throws SQLException,
+            IOException {
+        SPICopyIn copy = this.copyIn(sql);
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = from.read(buf)) >= 0) {
+                if (count > 0) {
+                    copy.writeToCopy(buf, 0, count);
+                }
+            }
+            return copy.endCopy();
+        } finally {
+            copy.cancelCopy();
+        }
+    }
+
+    /**
+     * Performs a <code>COPY TO STDOUT</code> and writes the rows to the given
+     * stream.
+     *
+     * @param sql
+     *            The <code>COPY</code> statement.
+     * @param to
+     *            The stream that receives the rows in the text format of
+     *            <code>COPY</code>.
+     * @return The number of rows written.
+     * @throws SQLException
+     *             If the copy fails.
+     * @throws IOException
+     *             If the stream cannot be written.
+     */
+    public long copyOut(String sql, OutputStream to) throws SQLException,
+            IOException {
+        String query;
+        Matcher m = s_copyQueryOut.matcher(sql);
+        if (m.matches()) {
+            query = m.group(1);
+        } else {
+            m = s_copyTableOut.matcher(sql);
+            if (!m.matches()) {
+                throw new UnsupportedFeatureException("COPY statement " + sql);
+            }
+            String columns = m.group(2);
+            query = "SELECT " + (columns == null ? "*" : columns) + " FROM "
+                    + m.group(1);
+        }
+
+        ExecutionPlan plan = ExecutionPlan.prepare(query, null);
+        try {
+            if (!plan.isCursorPlan()) {
+                throw new SQLException("COPY query must be a SELECT");
+            }
+
+            long rowCount = 0;
+            Portal portal = plan.cursorOpen(null, (Object[]) null);
+            try {
+                byte[] rows;
+                while ((rows = portal.fetchText(FETCH_SIZE)) != null) {
+                    // Line breaks within values are escaped so there is
+                    // exactly one per row.
+                    //
+                    for (int idx = 0; idx < rows.length; ++idx) {
+                        if (rows[idx] == '\n') {
+                            ++rowCount;
+                        }
+                    }
+                    to.write(rows);
+                }
+            } finally {
+                portal.close();
+            }
+            return rowCount;
+        } finally {
+            plan.close();
+        }
+    }
+
+    private Oid getRelationId(String tableName) throws SQLException {
+        PreparedStatement stmt = m_connection.prepareStatement("SELECT CAST(CAST(CAST(? AS regclass) AS oid) AS int8)");
+        try {
+            stmt.setString(1, tableName);
+            ResultSet rs = stmt.executeQuery();
+            try {
+                rs.next();
+                return new Oid((int) rs.getLong(1));
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}
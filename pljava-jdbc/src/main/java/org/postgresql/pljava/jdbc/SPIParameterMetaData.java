@@ -12,26 +12,43 @@ import java.sql.ParameterMetaData;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 
+import org.postgresql.pljava.internal.Oid;
+
 /**
  * 
  * @author Thomas Hallgren
  */
 public class SPIParameterMetaData implements ParameterMetaData {
-    private final int[] m_sqlTypes;
+    private final int[]    m_sqlTypes;
+    private final Oid[]    m_typeIds;
+    private final String[] m_typeNames;
 
     SPIParameterMetaData(int[] sqlTypes) {
+        this(sqlTypes, null, null);
+    }
+
+    SPIParameterMetaData(int[] sqlTypes, String[] typeNames, Oid[] typeIds) {
         m_sqlTypes = sqlTypes;
+        m_typeNames = typeNames;
+        m_typeIds = typeIds;
     }
 
     /**
-     * This feature is not yet supported.
+     * Returns the name of the Java class of the parameter type. This feature
+     * is only supported when the parameter types were inferred by the backend.
      * 
      * @throws SQLException
      *             indicating that this feature is not supported.
      */
-    public String getParameterClassName(int arg0) throws SQLException {
-        throw new UnsupportedFeatureException(
-                                              "Parameter class name support not yet implemented");
+    public String getParameterClassName(int paramIndex) throws SQLException {
+        if (m_typeIds == null) {
+            throw new UnsupportedFeatureException(
+                                                  "Parameter class name support not yet implemented");
+        }
+        if (paramIndex < 1 || paramIndex > getParameterCount()) {
+            throw new SQLException("Parameter index out of range");
+        }
+        return m_typeIds[paramIndex - 1].getJavaClass().getName();
     }
 
     public int getParameterCount() throws SQLException {
@@ -57,14 +74,21 @@ public class SPIParameterMetaData implements ParameterMetaData {
     }
 
     /**
-     * This feature is not yet supported.
+     * Returns the name of the parameter type. This feature is only supported
+     * when the parameter types were inferred by the backend.
      * 
      * @throws SQLException
      *             indicating that this feature is not supported.
      */
-    public String getParameterTypeName(int arg0) throws SQLException {
-        throw new UnsupportedFeatureException(
-                                              "Parameter type name support not yet implemented");
+    public String getParameterTypeName(int paramIndex) throws SQLException {
+        if (m_typeNames == null) {
+            throw new UnsupportedFeatureException(
+                                                  "Parameter type name support not yet implemented");
+        }
+        if (paramIndex < 1 || paramIndex > getParameterCount()) {
+            throw new SQLException("Parameter index out of range");
+        }
+        return m_typeNames[paramIndex - 1];
     }
 
     public int getPrecision(int arg0) throws SQLException {
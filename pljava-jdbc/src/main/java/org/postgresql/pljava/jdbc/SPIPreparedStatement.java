@@ -33,9 +33,11 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 
 import org.postgresql.pljava.internal.ExecutionPlan;
 import org.postgresql.pljava.internal.Oid;
+import org.postgresql.pljava.internal.ParameterBlock;
 
 /**
  * 
@@ -43,24 +45,89 @@ import org.postgresql.pljava.internal.Oid;
  */
 public class SPIPreparedStatement extends SPIStatement implements
         PreparedStatement {
-    private ExecutionPlan  m_plan;
-    private final int[]    m_sqlTypes;
-    private final String   m_statement;
-    private final Oid[]    m_typeIds;
-    private final Object[] m_values;
+    /**
+     * What is kept of a closed statement in the statement cache of the
+     * connection: the plan, the parameter types and the parameter block. A
+     * new statement is created from it each time the SQL text is prepared
+     * again, so a closed statement never shares its identity with a later
+     * one.
+     */
+    static final class CachedState {
+        final ParameterBlock m_params;
+        final ExecutionPlan  m_plan;
+        final boolean        m_planScrollable;
+        final String         m_statement;
+        final Oid[]          m_typeIds;
+
+        CachedState(SPIPreparedStatement stmt) {
+            m_params = stmt.m_params;
+            m_plan = stmt.m_plan;
+            m_planScrollable = stmt.m_planScrollable;
+            m_statement = stmt.m_statement;
+            m_typeIds = stmt.m_typeIds;
+        }
+
+        /**
+         * Returns the plan to the plan cache.
+         */
+        void close() {
+            if (m_plan != null) {
+                m_plan.close();
+            }
+        }
+    }
+
+    private final String         m_cacheKey;
+    private final ParameterBlock m_params;
+    private ExecutionPlan        m_plan;
+    private boolean              m_planScrollable;
+    private final int[]          m_sqlTypes;
+    private final String         m_statement;
+    private final Oid[]          m_typeIds;
 
     public SPIPreparedStatement(SPIConnection conn, String statement,
                                 int paramCount) {
+        this(conn, null, statement, paramCount);
+    }
+
+    /**
+     * Creates a statement that is returned to the statement cache of the
+     * connection when it is closed.
+     * 
+     * @param cacheKey
+     *            The SQL text that the statement was prepared from or
+     *            <code>null</code> if the statement should not be cached.
+     */
+    SPIPreparedStatement(SPIConnection conn, String cacheKey,
+                         String statement, int paramCount) {
         super(conn);
+        m_cacheKey = cacheKey;
         m_statement = statement;
         m_typeIds = new Oid[paramCount];
-        m_values = new Object[paramCount];
+        m_params = new ParameterBlock(paramCount);
         m_sqlTypes = new int[paramCount];
         Arrays.fill(m_sqlTypes, Types.NULL);
     }
 
+    /**
+     * Creates a statement from the state of a closed statement that was
+     * kept in the statement cache of the connection.
+     */
+    SPIPreparedStatement(SPIConnection conn, String cacheKey,
+                         CachedState state) {
+        super(conn);
+        m_cacheKey = cacheKey;
+        m_statement = state.m_statement;
+        m_typeIds = state.m_typeIds;
+        m_params = state.m_params;
+        m_plan = state.m_plan;
+        m_planScrollable = state.m_planScrollable;
+        m_sqlTypes = new int[m_typeIds.length];
+        Arrays.fill(m_sqlTypes, Types.NULL);
+    }
+
     public void addBatch() throws SQLException {
-        internalAddBatch(new Object[] { m_values.clone(), m_sqlTypes.clone(),
+        internalAddBatch(new Object[] { m_params.copy(), m_sqlTypes.clone(),
                 m_typeIds.clone() });
         clearParameters(); // Parameters are cleared upon successful completion.
     }
@@ -78,19 +145,35 @@ public class SPIPreparedStatement extends SPIStatement implements
     }
 
     public void clearParameters() throws SQLException {
-        Arrays.fill(m_values, null);
+        if (this.isClosed()) {
+            throw new SQLException("Statement is closed");
+        }
+        m_params.clear();
         Arrays.fill(m_sqlTypes, Types.NULL);
     }
 
+    /**
+     * Closes the statement. The plan of a statement that was obtained from
+     * {@link SPIConnection#prepareStatement(String)} is handed over to the
+     * statement cache of the connection together with the parameter types
+     * and the parameter block. The closed statement itself can no longer be
+     * used.
+     */
     @Override
     public void close() throws SQLException {
-        if (m_plan != null) {
-            m_plan.close();
-            m_plan = null;
+        if (this.isClosed()) {
+            return;
         }
         clearParameters();
         super.close();
         Invocation.current().forgetStatement(this);
+        if (m_cacheKey != null
+            && ((SPIConnection) this.getConnection()).cacheStatement(m_cacheKey,
+                                                                     new CachedState(this))) {
+            m_plan = null;
+        } else {
+            this.closePlan();
+        }
     }
 
     public boolean execute() throws SQLException {
@@ -102,11 +185,7 @@ public class SPIPreparedStatement extends SPIStatement implements
             }
         }
 
-        if (m_plan == null) {
-            m_plan = ExecutionPlan.prepare(m_statement, m_typeIds);
-        }
-
-        boolean result = executePlan(m_plan, m_values);
+        boolean result = executePlan(this.getPlan(), m_params);
         clearParameters(); // Parameters are cleared upon successful completion.
         return result;
     }
@@ -145,17 +224,34 @@ public class SPIPreparedStatement extends SPIStatement implements
     }
 
     /**
-     * Due to the design of the <code>SPI_prepare</code>, it is currently
-     * impossible to obtain the correct parameter meta data before all the
-     * parameters have been set, hence a ParameterMetaData obtained prior to
-     * setting the paramteres will have all parameters set to the default type
-     * {@link Types#VARCHAR}. Once the parameters have been set, a fair attempt
-     * is made to generate this object based on the supplied values.
+     * When the backend infers the parameter types (PostgreSQL 9.0 and later),
+     * the meta data describes the parameter types of the plan and the
+     * statement is prepared if it has not been prepared already.
+     * <p>
+     * Otherwise it is impossible to obtain the correct parameter meta data
+     * before all the parameters have been set, hence a ParameterMetaData
+     * obtained prior to setting the paramteres will have all parameters set
+     * to the default type {@link Types#VARCHAR}. Once the parameters have been
+     * set, a fair attempt is made to generate this object based on the
+     * supplied values.
      * 
      * @return The meta data for parameter values.
      */
     public ParameterMetaData getParameterMetaData() throws SQLException {
-        return new SPIParameterMetaData(getSqlTypes());
+        if (!ExecutionPlan.canInferParameterTypes()) {
+            return new SPIParameterMetaData(getSqlTypes());
+        }
+
+        SPIConnection conn = (SPIConnection) this.getConnection();
+        Oid[] typeIds = this.getPlan().getParameterTypes();
+        int top = typeIds.length;
+        int[] sqlTypes = new int[top];
+        String[] typeNames = new String[top];
+        for (int idx = 0; idx < top; ++idx) {
+            typeNames[idx] = conn.getPGType(typeIds[idx]);
+            sqlTypes[idx] = conn.getSQLType(typeNames[idx]);
+        }
+        return new SPIParameterMetaData(sqlTypes, typeNames, typeIds);
     }
 
     public void setArray(int columnIndex, Array value) throws SQLException {
@@ -249,12 +345,13 @@ public class SPIPreparedStatement extends SPIStatement implements
     }
 
     public void setBoolean(int columnIndex, boolean value) throws SQLException {
-        this.setObject(columnIndex, value ? Boolean.TRUE : Boolean.FALSE,
-                       Types.BOOLEAN);
+        m_params.setBoolean(this.setParameterType(columnIndex, Types.BOOLEAN),
+                            value);
     }
 
     public void setByte(int columnIndex, byte value) throws SQLException {
-        this.setObject(columnIndex, new Byte(value), Types.TINYINT);
+        m_params.setByte(this.setParameterType(columnIndex, Types.TINYINT),
+                         value);
     }
 
     public void setBytes(int columnIndex, byte[] value) throws SQLException {
@@ -322,19 +419,23 @@ public class SPIPreparedStatement extends SPIStatement implements
     }
 
     public void setDouble(int columnIndex, double value) throws SQLException {
-        this.setObject(columnIndex, new Double(value), Types.DOUBLE);
+        m_params.setDouble(this.setParameterType(columnIndex, Types.DOUBLE),
+                           value);
     }
 
     public void setFloat(int columnIndex, float value) throws SQLException {
-        this.setObject(columnIndex, new Float(value), Types.FLOAT);
+        m_params.setFloat(this.setParameterType(columnIndex, Types.FLOAT),
+                          value);
     }
 
     public void setInt(int columnIndex, int value) throws SQLException {
-        this.setObject(columnIndex, new Integer(value), Types.INTEGER);
+        m_params.setInt(this.setParameterType(columnIndex, Types.INTEGER),
+                        value);
     }
 
     public void setLong(int columnIndex, long value) throws SQLException {
-        this.setObject(columnIndex, new Long(value), Types.BIGINT);
+        m_params.setLong(this.setParameterType(columnIndex, Types.BIGINT),
+                         value);
     }
 
     public void setNCharacterStream(int parameterIndex, Reader value)
@@ -420,30 +521,16 @@ public class SPIPreparedStatement extends SPIStatement implements
             throw new SQLException("Illegal parameter index");
         }
 
-        Oid id = sqlType == Types.OTHER ? Oid.forJavaClass(value.getClass())
-                                       : Oid.forSqlType(sqlType);
-
-        // Default to String.
-        //
-        if (id == null) {
-            id = Oid.forSqlType(Types.VARCHAR);
-        }
-
-        Oid op = m_typeIds[--columnIndex];
-        if (op == null) {
-            m_typeIds[columnIndex] = id;
-        } else if (!op.equals(id)) {
-            m_typeIds[columnIndex] = id;
-
-            // We must re-prepare
-            //
-            if (m_plan != null) {
-                m_plan.close();
-            }
-            m_plan = null;
+        Oid id;
+        if (value == null) {
+            id = null;
+        } else if (sqlType == Types.OTHER) {
+            id = Oid.forJavaClass(value.getClass());
+        } else {
+            id = Oid.forSqlType(sqlType);
         }
-        m_sqlTypes[columnIndex] = sqlType;
-        m_values[columnIndex] = value;
+        int idx = this.setParameterType(columnIndex, sqlType, id);
+        m_params.setObject(idx, value, m_typeIds[idx]);
     }
 
     public void setObject(int columnIndex, Object value, int sqlType, int scale)
@@ -463,7 +550,8 @@ public class SPIPreparedStatement extends SPIStatement implements
     }
 
     public void setShort(int columnIndex, short value) throws SQLException {
-        this.setObject(columnIndex, new Short(value), Types.SMALLINT);
+        m_params.setShort(this.setParameterType(columnIndex, Types.SMALLINT),
+                          value);
     }
 
     public void setSQLXML(int parameterIndex, SQLXML xmlObject)
@@ -524,6 +612,73 @@ public class SPIPreparedStatement extends SPIStatement implements
         return m_statement;
     }
 
+    /**
+     * Returns the plan to the plan cache.
+     */
+    private void closePlan() {
+        if (m_plan != null) {
+            m_plan.close();
+            m_plan = null;
+        }
+    }
+
+    /**
+     * Returns the plan, preparing it if necessary. The types of the
+     * parameters that have been set are passed to the backend. The types of
+     * the other parameters, including those set to <code>null</code>, are
+     * inferred by the backend when it supports that and are text otherwise.
+     * Once prepared, the plan is kept when parameters are set to values of
+     * other types. Such values are converted to the types of the plan when
+     * the plan is executed. A plan that is not scrollable is replaced when
+     * the statement becomes scrollable.
+     */
+    private ExecutionPlan getPlan() throws SQLException {
+        if (this.isClosed()) {
+            throw new SQLException("Statement is closed");
+        }
+        boolean scrollable = this.isScrollable();
+        if (m_plan != null && scrollable && !m_planScrollable) {
+            this.closePlan();
+        }
+        if (m_plan == null) {
+            m_plan = ExecutionPlan.prepare(m_statement, m_typeIds.clone(),
+                                           scrollable);
+            m_planScrollable = scrollable;
+        }
+        return m_plan;
+    }
+
+    /**
+     * Records the type of the value of a parameter. The plan is never
+     * discarded because of it, see {@link #getPlan()}.
+     * 
+     * @return The zero based index of the parameter.
+     */
+    private int setParameterType(int columnIndex, int sqlType)
+                                                              throws SQLException {
+        if (columnIndex < 1 || columnIndex > m_sqlTypes.length) {
+            throw new SQLException("Illegal parameter index");
+        }
+        return this.setParameterType(columnIndex, sqlType,
+                                     Oid.forSqlType(sqlType));
+    }
+
+    private int setParameterType(int columnIndex, int sqlType, Oid id)
+                                                                      throws SQLException {
+        // The parameter block of a closed statement may belong to another
+        // statement by now.
+        //
+        if (this.isClosed()) {
+            throw new SQLException("Statement is closed");
+        }
+
+        // A null id, as for null values, leaves the type to the plan.
+        //
+        m_typeIds[--columnIndex] = id;
+        m_sqlTypes[columnIndex] = sqlType;
+        return columnIndex;
+    }
+
     /**
      * Obtains the XOPEN SQL types for the parameters.
      * 
@@ -540,34 +695,79 @@ public class SPIPreparedStatement extends SPIStatement implements
         return types;
     }
 
+    /**
+     * Executes the batch entries in runs of consecutive entries that have the
+     * same parameter types. Each run is executed in one call to the backend
+     * with a column oriented parameter block. The plan is prepared once and
+     * the values of each run are converted to its parameter types. Plans that
+     * produce a result set are executed one entry at a time.
+     */
+    @Override
+    protected int[] executeBatchEntries(List<Object> batch)
+                                                          throws SQLException {
+        int numEntries = batch.size();
+        int numParams = m_params.getCount();
+        int[] result = new int[numEntries];
+        int start = 0;
+        while (start < numEntries) {
+            Object[] typeIds = (Object[]) ((Object[]) batch.get(start))[2];
+            int end = start;
+            do {
+                Object[] entry = (Object[]) batch.get(end);
+                if (!Arrays.equals(typeIds, (Object[]) entry[2])) {
+                    break;
+                }
+
+                int[] sqlTypes = (int[]) entry[1];
+                for (int idx = 0; idx < numParams; ++idx) {
+                    if (sqlTypes[idx] == Types.NULL) {
+                        throw new SQLException(
+                                               "Not all parameters have been set");
+                    }
+                }
+            } while (++end < numEntries);
+
+            System.arraycopy(typeIds, 0, m_typeIds, 0, numParams);
+            ExecutionPlan plan = this.getPlan();
+            if (plan.isCursorPlan()) {
+                for (int idx = start; idx < end; ++idx) {
+                    result[idx] = this.executeBatchEntry(batch.get(idx));
+                }
+            } else {
+                int rowCount = end - start;
+                Object[][] columns = new Object[numParams][rowCount];
+                for (int row = 0; row < rowCount; ++row) {
+                    ParameterBlock params = (ParameterBlock) ((Object[]) batch.get(start
+                                                                                  + row))[0];
+                    for (int idx = 0; idx < numParams; ++idx) {
+                        columns[idx][row] = params.getObject(idx);
+                    }
+                }
+                int[] valueTypes = new int[numParams];
+                for (int idx = 0; idx < numParams; ++idx) {
+                    Oid typeId = m_typeIds[idx];
+                    valueTypes[idx] = typeId == null ? 0 : typeId.intValue();
+                }
+                int[] counts = plan.executeBatch(columns, valueTypes, rowCount);
+                System.arraycopy(counts, 0, result, start, rowCount);
+            }
+            start = end;
+        }
+        return result;
+    }
+
     @Override
     protected int executeBatchEntry(Object batchEntry) throws SQLException {
         int ret = SUCCESS_NO_INFO;
         Object batchParams[] = (Object[]) batchEntry;
-        Object batchValues = batchParams[0];
+        ParameterBlock batchValues = (ParameterBlock) batchParams[0];
         Object batchSqlTypes = batchParams[1];
         Object batchTypeIds[] = (Object[]) batchParams[2];
 
-        System.arraycopy(batchValues, 0, m_values, 0, m_values.length);
+        m_params.copyFrom(batchValues);
         System.arraycopy(batchSqlTypes, 0, m_sqlTypes, 0, m_sqlTypes.length);
 
-        // Determine if we need to replan the query because the
-        // types have changed from the last execution.
-        //
-        for (int i = 0; i < m_typeIds.length; i++) {
-            if (m_typeIds[i] != batchTypeIds[i]) {
-                // We must re-prepare
-                //
-                if (m_plan != null) {
-                    m_plan.close();
-                    m_plan = null;
-                }
-
-                System.arraycopy(batchTypeIds, 0, m_typeIds, 0,
-                                 m_typeIds.length);
-                break;
-            }
-        }
+        System.arraycopy(batchTypeIds, 0, m_typeIds, 0, m_typeIds.length);
 
         if (this.execute()) {
             getResultSet().close();
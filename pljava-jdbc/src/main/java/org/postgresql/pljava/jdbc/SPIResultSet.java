@@ -12,28 +12,69 @@ import java.sql.Statement;
 
 import org.postgresql.pljava.internal.Portal;
 import org.postgresql.pljava.internal.SPI;
+import org.postgresql.pljava.internal.StringCache;
 import org.postgresql.pljava.internal.Tuple;
 import org.postgresql.pljava.internal.TupleDesc;
 import org.postgresql.pljava.internal.TupleTable;
 
 /**
  * A Read-only ResultSet that provides direct access to a
- * {@link org.postgresql.pljava.internal.Portal Portal}. At present, only
- * forward positioning is implemented. Attempts to use reverse or absolute
- * positioning will fail.
+ * {@link org.postgresql.pljava.internal.Portal Portal}. The rows are fetched
+ * in blocks of the fetch size. A result set of type
+ * {@link java.sql.ResultSet#TYPE_SCROLL_INSENSITIVE TYPE_SCROLL_INSENSITIVE}
+ * is positioned by moving the portal, so the rows that are skipped are never
+ * fetched and the query is never executed again. A result set of type
+ * {@link java.sql.ResultSet#TYPE_FORWARD_ONLY TYPE_FORWARD_ONLY} can only be
+ * moved forward. Rows that are passed over by {@link #absolute(int)},
+ * {@link #relative(int)} or {@link #skip(int)} are discarded by the executor
+ * without being fetched into Java.
  * 
  * @author Thomas Hallgren
  */
 public class SPIResultSet extends ResultSetBase {
     private Tuple              m_currentRow;
+    private int                m_fetchDirection;
     private final int          m_maxRows;
-    private Tuple              m_nextRow;
     private final Portal       m_portal;
 
+    /**
+     * A block of rows that has been fetched ahead by {@link #isLast()} but
+     * that the result set has not yet moved onto.
+     */
+    private TupleTable         m_pendingTable;
+
+    /**
+     * The row number of the first row in <code>m_pendingTable</code>.
+     */
+    private int                m_pendingStart;
+
+    /**
+     * The number of rows that the portal has passed. Zero means before the
+     * first row and <code>m_rowCount + 1</code> means after the last row.
+     */
+    private int                m_portalPos;
+
+    /**
+     * The current row number. Zero means before the first row.
+     */
+    private int                m_position;
+
+    /**
+     * The number of rows in the result or -1 until the portal has reached the
+     * end.
+     */
+    private int                m_rowCount;
+
+    private final boolean      m_scrollable;
     private final SPIStatement m_statement;
+    private final StringCache  m_stringCache;
     private TupleTable         m_table;
 
-    private int                m_tableRow;
+    /**
+     * The row number of the first row in <code>m_table</code>.
+     */
+    private int                m_tableStart;
+
     private final TupleDesc    m_tupleDesc;
 
     SPIResultSet(SPIStatement statement, Portal portal, int maxRows)
@@ -42,8 +83,40 @@ public class SPIResultSet extends ResultSetBase {
         m_statement = statement;
         m_portal = portal;
         m_maxRows = maxRows;
+        m_scrollable = statement.isScrollable();
+        m_fetchDirection = FETCH_FORWARD;
+        m_rowCount = -1;
         m_tupleDesc = portal.getTupleDesc();
-        m_tableRow = -1;
+
+        int cacheSize = statement.getStringCacheSize();
+        m_stringCache = cacheSize > 0 ? StringCache.create(cacheSize) : null;
+    }
+
+    @Override
+    public boolean absolute(int row) throws SQLException {
+        if (row < 0) {
+            this.checkScrollable();
+            row += this.getRowCount() + 1;
+            if (row < 0) {
+                row = 0;
+            }
+        } else if (row < m_position) {
+            this.checkScrollable();
+        }
+        return this.moveTo(row);
+    }
+
+    @Override
+    public void afterLast() throws SQLException {
+        this.checkScrollable();
+        this.getRowCount();
+        this.setAfterLast();
+    }
+
+    @Override
+    public void beforeFirst() throws SQLException {
+        this.checkScrollable();
+        this.moveTo(0);
     }
 
     @Override
@@ -52,9 +125,11 @@ public class SPIResultSet extends ResultSetBase {
             m_portal.close();
             m_statement.resultSetClosed(this);
             m_table = null;
-            m_tableRow = -1;
+            m_pendingTable = null;
             m_currentRow = null;
-            m_nextRow = null;
+            if (m_stringCache != null) {
+                m_stringCache.clear();
+            }
             super.close();
         }
     }
@@ -63,6 +138,12 @@ public class SPIResultSet extends ResultSetBase {
         return m_tupleDesc.getColumnIndex(columnName);
     }
 
+    @Override
+    public boolean first() throws SQLException {
+        this.checkScrollable();
+        return this.moveTo(1);
+    }
+
     @Override
     public String getCursorName() throws SQLException {
         return getPortal().getName();
@@ -70,7 +151,7 @@ public class SPIResultSet extends ResultSetBase {
 
     @Override
     public int getFetchDirection() throws SQLException {
-        return FETCH_FORWARD;
+        return m_fetchDirection;
     }
 
     @Override
@@ -78,38 +159,135 @@ public class SPIResultSet extends ResultSetBase {
         return new SPIResultSetMetaData(m_tupleDesc);
     }
 
-    /* (non-Javadoc)
-     * @see java.sql.ResultSet#getObject(int, java.lang.Class)
-     */
-    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
-        // TODO Auto-generated method stub
-        return null;
+    @Override
+    public Statement getStatement() throws SQLException {
+        return m_statement;
     }
 
-    /* (non-Javadoc)
-     * @see java.sql.ResultSet#getObject(java.lang.String, java.lang.Class)
-     */
-    public <T> T getObject(String columnLabel, Class<T> type)
-                                                             throws SQLException {
-        // TODO Auto-generated method stub
-        return null;
+    @Override
+    public int getType() throws SQLException {
+        return m_scrollable ? TYPE_SCROLL_INSENSITIVE : TYPE_FORWARD_ONLY;
     }
 
     @Override
-    public Statement getStatement() throws SQLException {
-        return m_statement;
+    public boolean isClosed() throws SQLException {
+        return !m_portal.isValid();
     }
 
     public boolean isLast() throws SQLException {
-        return m_currentRow != null && peekNext() == null;
+        if (m_currentRow == null) {
+            return false;
+        }
+
+        int next = m_position + 1;
+        if (m_table != null && next < m_tableStart + m_table.getCount()) {
+            return false;
+        }
+        if (isInBlock(m_pendingTable, m_pendingStart, next)) {
+            return false;
+        }
+
+        if (m_rowCount < 0 && !this.isBeyondMaxRows(next)) {
+            // Fetch the next block to find out. It is kept pending so that
+            // the current row and its block remain valid.
+            //
+            this.fetchBlock(next);
+        }
+        return this.isAfterEnd(next);
+    }
+
+    @Override
+    public boolean last() throws SQLException {
+        this.checkScrollable();
+        return this.moveTo(this.getRowCount());
     }
 
     public boolean next() throws SQLException {
-        m_currentRow = peekNext();
-        m_nextRow = null;
-        boolean result = m_currentRow != null;
-        setRow(result ? getRow() + 1 : -1);
-        return result;
+        return this.moveTo(m_position + 1);
+    }
+
+    @Override
+    public boolean previous() throws SQLException {
+        this.checkScrollable();
+        return m_position > 0 && this.moveTo(m_position - 1);
+    }
+
+    @Override
+    public boolean relative(int rows) throws SQLException {
+        if (rows < 0) {
+            this.checkScrollable();
+        }
+        int row = m_position + rows;
+        return this.moveTo(row < 0 ? 0 : row);
+    }
+
+    /**
+     * Skips the rows that follow the current row without fetching them, much
+     * like the <code>OFFSET</code> of a query. The result set is left without
+     * a current row and a subsequent {@link #next()} returns the row after
+     * the skipped ones. This is also permitted on a result set of type
+     * {@link java.sql.ResultSet#TYPE_FORWARD_ONLY TYPE_FORWARD_ONLY}.
+     * 
+     * @param rows
+     *            The number of rows to skip.
+     * @return The number of rows actually skipped. This is less than
+     *         <code>rows</code> if the end of the result set was reached.
+     * @throws SQLException
+     *             If <code>rows</code> is negative or the result set is
+     *             closed.
+     */
+    public int skip(int rows) throws SQLException {
+        if (rows < 0) {
+            throw new SQLException("Cannot skip a negative number of rows");
+        }
+
+        int target = m_position + rows;
+        if (this.isBeyondMaxRows(target)) {
+            target = m_maxRows;
+        }
+
+        if (m_table == null || target + 1 >= m_tableStart + m_table.getCount()) {
+            // The rows in the current block are not needed anymore.
+            //
+            m_table = null;
+            if (!isInBlock(m_pendingTable, m_pendingStart, target + 1)) {
+                m_pendingTable = null;
+                if (target > m_portalPos) {
+                    this.movePortal(target);
+                }
+            }
+        }
+
+        if (m_rowCount >= 0 && target > m_rowCount) {
+            target = m_rowCount;
+        }
+        if (target <= m_position) {
+            return 0;
+        }
+
+        int skipped = target - m_position;
+        m_currentRow = null;
+        m_position = target;
+        setRow(target);
+        return skipped;
+    }
+
+    /**
+     * Gives a hint on the direction in which the rows will be traversed.
+     * Directions other than {@link java.sql.ResultSet#FETCH_FORWARD} require
+     * a scrollable result set.
+     */
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        // The super class accepts FETCH_FORWARD only, which is all that a
+        // forward only result set supports.
+        //
+        boolean scrollDirection = direction == FETCH_REVERSE
+                                  || direction == FETCH_UNKNOWN;
+        if (!(m_scrollable && scrollDirection)) {
+            super.setFetchDirection(direction);
+        }
+        m_fetchDirection = direction;
     }
 
     protected final Tuple getCurrentRow() throws SQLException {
@@ -121,7 +299,14 @@ public class SPIResultSet extends ResultSetBase {
 
     @Override
     protected Object getObjectValue(int columnIndex) throws SQLException {
-        return getCurrentRow().getObject(m_tupleDesc, columnIndex);
+        return getCurrentRow().getObject(m_tupleDesc, columnIndex,
+                                         m_stringCache);
+    }
+
+    @Override
+    protected Object getObjectValue(int columnIndex, Class<?> type)
+                                                                   throws SQLException {
+        return getCurrentRow().getObject(m_tupleDesc, columnIndex, type);
     }
 
     protected final Portal getPortal() throws SQLException {
@@ -131,61 +316,165 @@ public class SPIResultSet extends ResultSetBase {
         return m_portal;
     }
 
+    /**
+     * Returns the block of rows that contains the current row or
+     * <code>null</code> if the result set is not positioned on a row.
+     */
     protected final TupleTable getTupleTable() throws SQLException {
-        if (m_table == null) {
-            Portal portal = getPortal();
-            if (portal.isAtEnd()) {
-                return null;
+        return m_currentRow == null ? null : m_table;
+    }
+
+    private void checkScrollable() throws SQLException {
+        if (!m_scrollable) {
+            throw new SQLException("ResultSet is TYPE_FORWARD_ONLY");
+        }
+    }
+
+    /**
+     * Fetches the block of rows that contains the given row into the pending
+     * block. The block ends with the row when the result set is read backward.
+     */
+    private void fetchBlock(int row) throws SQLException {
+        int fetchSize = getFetchSize();
+        int start = row;
+        if (m_scrollable
+            && (row < m_position || m_fetchDirection == FETCH_REVERSE)) {
+            start = row - fetchSize + 1;
+            if (start < 1) {
+                start = 1;
             }
+        }
 
-            int mx;
-            int fetchSize = getFetchSize();
-            if (m_maxRows > 0) {
-                mx = m_maxRows - portal.getPortalPos();
-                if (mx <= 0) {
-                    return null;
-                }
-                if (mx > fetchSize) {
-                    mx = fetchSize;
-                }
+        int count = fetchSize;
+        if (m_maxRows > 0 && count > m_maxRows - start + 1) {
+            count = m_maxRows - start + 1;
+        }
+
+        m_pendingTable = null;
+        if (!this.movePortal(start - 1)) {
+            return;
+        }
+
+        Portal portal = getPortal();
+        try {
+            int result = portal.fetch(true, count);
+            if (result > 0) {
+                m_pendingTable = SPI.getTupTable(m_tupleDesc);
+                m_pendingStart = start;
+            }
+            if (result < count) {
+                this.setRowCount(m_portalPos + result);
             } else {
-                mx = fetchSize;
+                m_portalPos += result;
             }
+        } finally {
+            SPI.freeTupTable();
+        }
+    }
 
-            try {
-                int result = portal.fetch(true, mx);
-                if (result > 0) {
-                    m_table = SPI.getTupTable(m_tupleDesc);
-                }
-                m_tableRow = -1;
-            } finally {
-                SPI.freeTupTable();
+    /**
+     * Returns the number of rows, limited by the max rows of the statement.
+     * The portal is moved to the end if the number is not yet known.
+     */
+    private int getRowCount() throws SQLException {
+        if (m_rowCount < 0) {
+            int limit = m_maxRows > 0 ? m_maxRows - m_portalPos
+                                     : Integer.MAX_VALUE;
+            int moved = limit > 0 ? getPortal().move(true, limit) : 0;
+            if (moved < limit) {
+                this.setRowCount(m_portalPos + moved);
+            } else {
+                // Rows beyond the max rows are not of interest.
+                //
+                m_rowCount = m_maxRows;
+                m_portalPos = m_maxRows;
             }
         }
-        return m_table;
+        return m_maxRows > 0 && m_rowCount > m_maxRows ? m_maxRows
+                                                      : m_rowCount;
+    }
+
+    private boolean isAfterEnd(int row) {
+        return (m_rowCount >= 0 && row > m_rowCount)
+               || this.isBeyondMaxRows(row);
+    }
+
+    private boolean isBeyondMaxRows(int row) {
+        return m_maxRows > 0 && row > m_maxRows;
+    }
+
+    private static boolean isInBlock(TupleTable table, int start, int row) {
+        return table != null && row >= start && row < start + table.getCount();
     }
 
-    protected final Tuple peekNext() throws SQLException {
-        if (m_nextRow != null) {
-            return m_nextRow;
+    /**
+     * Moves the portal so that it has passed the given number of rows.
+     * 
+     * @return <code>false</code> if the portal reached the end first.
+     */
+    private boolean movePortal(int pos) throws SQLException {
+        int count = pos - m_portalPos;
+        if (count > 0) {
+            int moved = getPortal().move(true, count);
+            if (moved < count) {
+                this.setRowCount(m_portalPos + moved);
+                return false;
+            }
+        } else if (count < 0) {
+            this.checkScrollable();
+            getPortal().move(false, -count);
         }
+        m_portalPos = pos;
+        return true;
+    }
 
-        TupleTable table = getTupleTable();
-        if (table == null) {
-            return null;
+    /**
+     * Positions the result set on the given row. Zero means before the first
+     * row.
+     * 
+     * @return <code>true</code> if the result set is positioned on a row.
+     */
+    private boolean moveTo(int row) throws SQLException {
+        m_currentRow = null;
+        if (row <= 0) {
+            m_position = 0;
+            setRow(0);
+            return false;
         }
 
-        if (m_tableRow >= table.getCount() - 1) {
-            // Current table is exhaused, get the next
-            // one.
-            //
-            m_table = null;
-            table = getTupleTable();
-            if (table == null) {
-                return null;
+        if (!this.isAfterEnd(row) && !isInBlock(m_table, m_tableStart, row)) {
+            if (!isInBlock(m_pendingTable, m_pendingStart, row)) {
+                this.fetchBlock(row);
             }
+            m_table = m_pendingTable;
+            m_tableStart = m_pendingStart;
+            m_pendingTable = null;
+        }
+
+        if (this.isAfterEnd(row) || m_table == null || row < m_tableStart) {
+            this.setAfterLast();
+            return false;
         }
-        m_nextRow = table.getSlot(++m_tableRow);
-        return m_nextRow;
+
+        m_currentRow = m_table.getSlot(row - m_tableStart);
+        m_position = row;
+        setRow(row);
+        return true;
+    }
+
+    private void setAfterLast() {
+        m_currentRow = null;
+        m_position = (m_maxRows > 0 && (m_rowCount < 0 || m_rowCount > m_maxRows)) ? m_maxRows + 1
+                                                                             : m_rowCount + 1;
+        setRow(-1);
+    }
+
+    /**
+     * Records that the portal has reached the end after the given number of
+     * rows.
+     */
+    private void setRowCount(int rowCount) {
+        m_rowCount = rowCount;
+        m_portalPos = rowCount + 1;
     }
 }
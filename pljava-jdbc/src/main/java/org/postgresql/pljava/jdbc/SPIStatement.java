@@ -15,8 +15,10 @@ import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.postgresql.pljava.internal.ExecutionPlan;
+import org.postgresql.pljava.internal.ParameterBlock;
 import org.postgresql.pljava.internal.Portal;
 import org.postgresql.pljava.internal.SPI;
 import org.postgresql.pljava.internal.SPIException;
@@ -36,6 +38,8 @@ public class SPIStatement implements Statement {
     private int                 m_fetchSize   = 1000;
     private int                 m_maxRows     = 0;
     private ResultSet           m_resultSet   = null;
+    private int                 m_resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+    private int                 m_stringCacheSize = 0;
     private int                 m_updateCount = 0;
 
     public SPIStatement(SPIConnection conn) {
@@ -79,7 +83,7 @@ public class SPIStatement implements Statement {
         clear();
 
         ExecutionPlan plan = ExecutionPlan.prepare(m_connection.nativeSQL(statement),
-                                                   null);
+                                                   null, this.isScrollable());
 
         int result = SPI.getResult();
         if (plan == null) {
@@ -87,7 +91,7 @@ public class SPIStatement implements Statement {
         }
 
         try {
-            return executePlan(plan, null);
+            return executePlan(plan, (Object[]) null);
         } finally {
             try {
                 plan.close();
@@ -131,12 +135,9 @@ public class SPIStatement implements Statement {
     }
 
     public int[] executeBatch() throws SQLException {
-        int numBatches = m_batch == null ? 0 : m_batch.size();
-        int[] result = new int[numBatches];
-        for (int idx = 0; idx < numBatches; ++idx) {
-            result[idx] = executeBatchEntry(m_batch.get(idx));
-        }
-        return result;
+        ArrayList<Object> batch = m_batch;
+        m_batch = null;
+        return batch == null ? new int[0] : executeBatchEntries(batch);
     }
 
     public ResultSet executeQuery(String statement) throws SQLException {
@@ -238,12 +239,30 @@ public class SPIStatement implements Statement {
         return ResultSet.CONCUR_READ_ONLY;
     }
 
+    /**
+     * Returns {@link ResultSet#CLOSE_CURSORS_AT_COMMIT}. The portals of the
+     * result sets cannot outlive the function call that created them.
+     */
     public int getResultSetHoldability() throws SQLException {
-        throw new SQLException("JDK 1.4 functionality not yet implemented");
+        return ResultSet.CLOSE_CURSORS_AT_COMMIT;
     }
 
+    /**
+     * Returns {@link ResultSet#TYPE_FORWARD_ONLY} or
+     * {@link ResultSet#TYPE_SCROLL_INSENSITIVE}.
+     */
     public int getResultSetType() {
-        return ResultSet.TYPE_FORWARD_ONLY;
+        return m_resultSetType;
+    }
+
+    /**
+     * Returns the number of textual values that the result sets of this
+     * statement will cache, or zero if caching is disabled.
+     * 
+     * @see #setStringCacheSize(int)
+     */
+    public int getStringCacheSize() {
+        return m_stringCacheSize;
     }
 
     public int getUpdateCount() throws SQLException {
@@ -259,10 +278,7 @@ public class SPIStatement implements Statement {
     }
 
     public boolean isClosed() throws SQLException {
-        throw new SQLFeatureNotSupportedException(
-                                                  this.getClass()
-                                                          + ".isClosed() not implemented yet.",
-                                                  "0A000");
+        return m_closed;
     }
 
     /* (non-Javadoc)
@@ -316,6 +332,20 @@ public class SPIStatement implements Statement {
         // throw new UnsupportedFeatureException("Statement.setMaxFieldSize");
     }
 
+    /**
+     * Enables caching of the <code>String</code> values that the result sets
+     * of this statement produce. Repeated values of textual columns will then
+     * share the same <code>String</code> instance instead of being decoded on
+     * each row. This is useful for scans of columns with few distinct values,
+     * such as status codes. Caching is disabled by default.
+     * 
+     * @param size
+     *            The number of values to cache, or zero to disable caching.
+     */
+    public void setStringCacheSize(int size) {
+        m_stringCacheSize = size < 0 ? 0 : size;
+    }
+
     public void setMaxRows(int rows) throws SQLException {
         m_maxRows = rows;
     }
@@ -356,6 +386,25 @@ public class SPIStatement implements Statement {
         m_batch = null;
     }
 
+    /**
+     * Returns <code>true</code> if the result sets of this statement are
+     * scrollable.
+     */
+    boolean isScrollable() {
+        return m_resultSetType != ResultSet.TYPE_FORWARD_ONLY;
+    }
+
+    /**
+     * Sets the type of the result sets created by this statement.
+     * 
+     * @param resultSetType
+     *            {@link ResultSet#TYPE_FORWARD_ONLY} or
+     *            {@link ResultSet#TYPE_SCROLL_INSENSITIVE}.
+     */
+    void setResultSetType(int resultSetType) {
+        m_resultSetType = resultSetType;
+    }
+
     protected int executeBatchEntry(Object batchEntry) throws SQLException {
         int ret = SUCCESS_NO_INFO;
         if (this.execute(m_connection.nativeSQL((String) batchEntry))) {
@@ -366,6 +415,16 @@ public class SPIStatement implements Statement {
         return ret;
     }
 
+    protected int[] executeBatchEntries(List<Object> batch)
+                                                          throws SQLException {
+        int numBatches = batch.size();
+        int[] result = new int[numBatches];
+        for (int idx = 0; idx < numBatches; ++idx) {
+            result[idx] = executeBatchEntry(batch.get(idx));
+        }
+        return result;
+    }
+
     protected boolean executePlan(ExecutionPlan plan, Object[] paramValues)
                                                                            throws SQLException {
         m_updateCount = -1;
@@ -386,6 +445,26 @@ public class SPIStatement implements Statement {
         return isResultSet;
     }
 
+    protected boolean executePlan(ExecutionPlan plan, ParameterBlock params)
+                                                                            throws SQLException {
+        m_updateCount = -1;
+        m_resultSet = null;
+
+        boolean isResultSet = plan.isCursorPlan();
+        if (isResultSet) {
+            Portal portal = plan.cursorOpen(m_cursorName, params);
+            m_resultSet = new SPIResultSet(this, portal, m_maxRows);
+        } else {
+            try {
+                plan.execute(params, m_maxRows);
+                m_updateCount = SPI.getProcessed();
+            } finally {
+                SPI.freeTupTable();
+            }
+        }
+        return isResultSet;
+    }
+
     protected void internalAddBatch(Object batch) throws SQLException {
         if (m_batch == null) {
             m_batch = new ArrayList<Object>();
@@ -78,23 +78,6 @@ public class SingleRowReader extends SingleRowResultSet {
         return ResultSet.CONCUR_READ_ONLY;
     }
 
-    /* (non-Javadoc)
-     * @see java.sql.ResultSet#getObject(int, java.lang.Class)
-     */
-    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
-        // TODO Auto-generated method stub
-        return null;
-    }
-
-    /* (non-Javadoc)
-     * @see java.sql.ResultSet#getObject(java.lang.String, java.lang.Class)
-     */
-    public <T> T getObject(String columnLabel, Class<T> type)
-                                                             throws SQLException {
-        // TODO Auto-generated method stub
-        return null;
-    }
-
     /**
      * This feature is not supported on a <code>ReadOnlyResultSet</code>.
      * 
@@ -63,23 +63,6 @@ public class SingleRowWriter extends SingleRowResultSet {
         return ResultSet.CLOSE_CURSORS_AT_COMMIT;
     }
 
-    /* (non-Javadoc)
-     * @see java.sql.ResultSet#getObject(int, java.lang.Class)
-     */
-    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
-        // TODO Auto-generated method stub
-        return null;
-    }
-
-    /* (non-Javadoc)
-     * @see java.sql.ResultSet#getObject(java.lang.String, java.lang.Class)
-     */
-    public <T> T getObject(String columnLabel, Class<T> type)
-                                                             throws SQLException {
-        // TODO Auto-generated method stub
-        return null;
-    }
-
     /**
      * Creates a tuple from the current row values and then cancel all row
      * updates to prepare for a new row. This method is called automatically by
@@ -9,43 +9,90 @@
 package org.postgresql.pljava.jdbc;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
 
+import org.postgresql.pljava.internal.Relation;
+import org.postgresql.pljava.internal.TriggerMetaData;
 import org.postgresql.pljava.internal.Tuple;
+import org.postgresql.pljava.internal.TupleChangeBuffer;
 import org.postgresql.pljava.internal.TupleDesc;
 
 /**
  * A single row, updateable ResultSet specially made for triggers. The changes
- * made to this ResultSet are remembered and converted to a SPI_modify_tuple
- * call prior to function return.
+ * made to this ResultSet are remembered in a pooled {@link TupleChangeBuffer}
+ * and converted to a SPI_modify_tuple call prior to function return.
  * 
  * @author Thomas Hallgren
  */
 public class TriggerResultSet extends SingleRowResultSet {
-    private final boolean     m_readOnly;
-    private final Tuple       m_tuple;
-    private ArrayList<Object> m_tupleChanges;
-    private final TupleDesc   m_tupleDesc;
+    private TupleChangeBuffer     m_changes;
+    private final TriggerMetaData m_metaData;
+    private final boolean         m_readOnly;
+    private final Tuple           m_tuple;
+    private final TupleDesc       m_tupleDesc;
+
+    /**
+     * Creates a result set that resolves column names and classes using the
+     * metadata that is cached for the trigger.
+     */
+    public TriggerResultSet(TriggerMetaData metaData, Tuple tuple,
+                            boolean readOnly) throws SQLException {
+        m_metaData = metaData;
+        m_tupleDesc = metaData.getTupleDesc();
+        m_tuple = tuple;
+        m_readOnly = readOnly;
+    }
 
     public TriggerResultSet(TupleDesc tupleDesc, Tuple tuple, boolean readOnly)
                                                                                throws SQLException {
+        m_metaData = null;
         m_tupleDesc = tupleDesc;
         m_tuple = tuple;
         m_readOnly = readOnly;
     }
 
+    /**
+     * Creates a new <code>Tuple</code> from the contained <code>Tuple</code>
+     * and the changes made to this ResultSet. The change buffer is returned to
+     * its pool so that it can be reused for the next row.
+     * 
+     * @param relation
+     *            The relation that the tuple belongs to.
+     * @return The modified tuple or <code>null</code> if no change has been
+     *         made.
+     */
+    public Tuple applyChanges(Relation relation) throws SQLException {
+        TupleChangeBuffer changes = m_changes;
+        if (changes == null) {
+            return null;
+        }
+
+        m_changes = null;
+        try {
+            return changes.isEmpty() ? null : relation.modifyTuple(m_tuple,
+                                                                   changes);
+        } finally {
+            changes.release();
+        }
+    }
+
     /**
      * Cancel all changes made to the Tuple.
      */
     public void cancelRowUpdates() throws SQLException {
-        m_tupleChanges = null;
+        this.releaseChanges();
     }
 
     /**
      * Cancels all changes but doesn't really close the set.
      */
     public void close() throws SQLException {
-        m_tupleChanges = null;
+        this.releaseChanges();
+    }
+
+    @Override
+    public int findColumn(String columnName) throws SQLException {
+        return m_metaData == null ? super.findColumn(columnName)
+                                 : m_metaData.getColumnIndex(columnName);
     }
 
     /**
@@ -58,25 +105,14 @@ public class TriggerResultSet extends SingleRowResultSet {
      *         made.
      */
     public Object[] getChangeIndexesAndValues() {
-        ArrayList<Object> changes = m_tupleChanges;
-        if (changes == null) {
+        TupleChangeBuffer changes = m_changes;
+        if (changes == null || changes.isEmpty()) {
             return null;
         }
 
-        int top = changes.size();
-        if (changes.size() == 0) {
-            return null;
-        }
-
-        top /= 2;
-        int[] indexes = new int[top];
-        Object[] values = new Object[top];
-        int vIdx = 0;
-        for (int idx = 0; idx < top; ++idx) {
-            indexes[idx] = ((Integer) changes.get(vIdx++)).intValue();
-            values[idx] = changes.get(vIdx++);
-        }
-        return new Object[] { m_tuple, indexes, values };
+        Object[] indexesAndValues = changes.toIndexesAndValues();
+        return new Object[] { m_tuple, indexesAndValues[0],
+                indexesAndValues[1] };
     }
 
     /**
@@ -107,14 +143,79 @@ public class TriggerResultSet extends SingleRowResultSet {
     }
 
     public boolean isClosed() throws SQLException {
-        return m_tupleChanges == null;
+        return m_changes == null;
     }
 
     /**
      * Returns <code>true</code> if this row has been updated.
      */
     public boolean rowUpdated() throws SQLException {
-        return m_tupleChanges != null;
+        return m_changes != null;
+    }
+
+    /**
+     * Stores a <code>boolean</code> change without boxing when the column is
+     * of a matching type.
+     */
+    @Override
+    public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+        if (this.isColumnClass(columnIndex, Boolean.class)) {
+            this.getChanges().setBoolean(columnIndex, x);
+        } else {
+            super.updateBoolean(columnIndex, x);
+        }
+    }
+
+    /**
+     * Stores a <code>double</code> change without boxing when the column is
+     * of a matching type.
+     */
+    @Override
+    public void updateDouble(int columnIndex, double x) throws SQLException {
+        if (this.isColumnClass(columnIndex, Double.class)) {
+            this.getChanges().setDouble(columnIndex, x);
+        } else {
+            super.updateDouble(columnIndex, x);
+        }
+    }
+
+    /**
+     * Stores a <code>float</code> change without boxing when the column is of
+     * a matching type.
+     */
+    @Override
+    public void updateFloat(int columnIndex, float x) throws SQLException {
+        if (this.isColumnClass(columnIndex, Float.class)) {
+            this.getChanges().setFloat(columnIndex, x);
+        } else {
+            super.updateFloat(columnIndex, x);
+        }
+    }
+
+    /**
+     * Stores an <code>int</code> change without boxing when the column is of a
+     * matching type.
+     */
+    @Override
+    public void updateInt(int columnIndex, int x) throws SQLException {
+        if (this.isColumnClass(columnIndex, Integer.class)) {
+            this.getChanges().setInt(columnIndex, x);
+        } else {
+            super.updateInt(columnIndex, x);
+        }
+    }
+
+    /**
+     * Stores a <code>long</code> change without boxing when the column is of a
+     * matching type.
+     */
+    @Override
+    public void updateLong(int columnIndex, long x) throws SQLException {
+        if (this.isColumnClass(columnIndex, Long.class)) {
+            this.getChanges().setLong(columnIndex, x);
+        } else {
+            super.updateLong(columnIndex, x);
+        }
     }
 
     // ************************************************************
@@ -125,30 +226,29 @@ public class TriggerResultSet extends SingleRowResultSet {
      * Store this change for later use
      */
     public void updateObject(int columnIndex, Object x) throws SQLException {
-        if (m_readOnly) {
-            throw new UnsupportedFeatureException("ResultSet is read-only");
-        }
+        this.getChanges().setObject(columnIndex, x);
+    }
 
-        if (m_tupleChanges == null) {
-            m_tupleChanges = new ArrayList<Object>();
+    /**
+     * Stores a <code>short</code> change without boxing when the column is of
+     * a matching type.
+     */
+    @Override
+    public void updateShort(int columnIndex, short x) throws SQLException {
+        if (this.isColumnClass(columnIndex, Short.class)) {
+            this.getChanges().setShort(columnIndex, x);
+        } else {
+            super.updateShort(columnIndex, x);
         }
-
-        m_tupleChanges.add(new Integer(columnIndex));
-        m_tupleChanges.add(x);
     }
 
     @Override
     protected Object getObjectValue(int columnIndex) throws SQLException {
         // Check if this value has been changed.
         //
-        ArrayList<Object> changes = m_tupleChanges;
-        if (changes != null) {
-            int top = changes.size();
-            for (int idx = 0; idx < top; idx += 2) {
-                if (columnIndex == ((Integer) changes.get(idx)).intValue()) {
-                    return changes.get(idx + 1);
-                }
-            }
+        TupleChangeBuffer changes = m_changes;
+        if (changes != null && changes.isChanged(columnIndex)) {
+            return changes.getValue(columnIndex);
         }
         return m_tuple.getObject(getTupleDesc(), columnIndex);
     }
@@ -161,4 +261,34 @@ public class TriggerResultSet extends SingleRowResultSet {
     // ************************************************************
     // End of implementation of JDBC 4 methods.
     // ************************************************************
+
+    private TupleChangeBuffer getChanges() throws SQLException {
+        if (m_readOnly) {
+            throw new UnsupportedFeatureException("ResultSet is read-only");
+        }
+
+        if (m_changes == null) {
+            m_changes = m_metaData == null ? TupleChangeBuffer.obtain(m_tupleDesc.size())
+                                          : m_metaData.obtainChangeBuffer();
+        }
+        return m_changes;
+    }
+
+    private boolean isColumnClass(int columnIndex, Class<?> cls)
+                                                                throws SQLException {
+        if (columnIndex < 1 || columnIndex > m_tupleDesc.size()) {
+            return false;
+        }
+        Class<?> c = m_metaData == null ? m_tupleDesc.getColumnClass(columnIndex)
+                                       : m_metaData.getColumnClass(columnIndex);
+        return c == cls;
+    }
+
+    private void releaseChanges() {
+        TupleChangeBuffer changes = m_changes;
+        if (changes != null) {
+            m_changes = null;
+            changes.release();
+        }
+    }
 }
@@ -230,7 +230,7 @@ public class Commands {
         } finally {
             SQLUtils.close(stmt);
         }
-        Loader.clearSchemaLoaders();
+        Loader.clearTypeMaps();
     }
 
     /**
@@ -253,7 +253,7 @@ public class Commands {
         } finally {
             SQLUtils.close(stmt);
         }
-        Loader.clearSchemaLoaders();
+        Loader.clearTypeMaps();
     }
 
     /**
@@ -404,7 +404,7 @@ public class Commands {
         } finally {
             SQLUtils.close(stmt);
         }
-        Loader.clearSchemaLoaders();
+        Loader.clearJarLoaders(jarId);
     }
 
     /**
@@ -800,7 +800,7 @@ public class Commands {
             InputStream imageStream = new ByteArrayInputStream(image);
             Backend.addClassImages(jarId, imageStream);
         }
-        Loader.clearSchemaLoaders();
+        Loader.clearJarLoaders(jarId);
         if (deploy) {
             deployInstall(jarId, jarName);
         }
@@ -852,7 +852,7 @@ public class Commands {
             InputStream imageStream = new ByteArrayInputStream(image);
             Backend.addClassImages(jarId, imageStream);
         }
-        Loader.clearSchemaLoaders();
+        Loader.clearJarLoaders(jarId);
         if (redeploy) {
             deployInstall(jarId, jarName);
         }
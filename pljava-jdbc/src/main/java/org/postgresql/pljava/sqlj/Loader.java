@@ -18,8 +18,11 @@ import java.sql.Statement;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,10 +58,14 @@ public class Loader extends ClassLoader {
 
     private final static Logger                          s_logger        = Logger.getLogger(Loader.class.getName());
 
+    private static final Map<String, Set<Integer>>       s_schemaJars    = new HashMap<String, Set<Integer>>();
+
     private static final Map<String, ClassLoader>        s_schemaLoaders = new HashMap<String, ClassLoader>();
 
     private static final Map<String, Map<Oid, Class<?>>> s_typeMap       = new HashMap<String, Map<Oid, Class<?>>>();
 
+    private static Map<Oid, String>                      s_typeMapEntries;
+
     /**
      * Removes all cached schema loaders, functions, and type maps. This method
      * is called by the utility functions that manipulate the data that has been
@@ -66,10 +73,52 @@ public class Loader extends ClassLoader {
      */
     public static void clearSchemaLoaders() {
         s_schemaLoaders.clear();
+        s_schemaJars.clear();
+        s_typeMapEntries = null;
         s_typeMap.clear();
         Backend.clearFunctionCache();
     }
 
+    /**
+     * Removes the cached schema loaders, functions, and type maps of the
+     * schemas that have the jar identified by <code>jarId</code> in their
+     * class path. Schemas that are unaffected by the jar retain their loaders
+     * and functions. This method is called by the utility functions that
+     * install, replace, or remove a jar. It is not intended to be called from
+     * user code.
+     */
+    public static void clearJarLoaders(int jarId) {
+        Integer key = new Integer(jarId);
+        Set<String> schemas = new HashSet<String>();
+        Iterator<Map.Entry<String, Set<Integer>>> itor = s_schemaJars.entrySet().iterator();
+        while (itor.hasNext()) {
+            Map.Entry<String, Set<Integer>> entry = itor.next();
+            if (entry.getValue().contains(key)) {
+                schemas.add(entry.getKey());
+                s_schemaLoaders.remove(entry.getKey());
+                itor.remove();
+            }
+        }
+
+        if (schemas.isEmpty()) {
+            return;
+        }
+
+        // The type maps are keyed by the schema name as it appears in the
+        // catalog while the loaders use the lower case name.
+        //
+        Iterator<String> typeMapItor = s_typeMap.keySet().iterator();
+        while (typeMapItor.hasNext()) {
+            if (schemas.contains(typeMapItor.next().toLowerCase())) {
+                typeMapItor.remove();
+            }
+        }
+
+        for (String schemaName : schemas) {
+            Backend.clearSchemaFunctionCache(schemaName);
+        }
+    }
+
     /**
      * Obtains the loader that is in effect for the current schema (i.e. the
      * schema that is first in the search path).
@@ -117,6 +166,7 @@ public class Loader extends ClassLoader {
         }
 
         Map<String, int[]> classImages = new HashMap<String, int[]>();
+        Set<Integer> jars = new HashSet<Integer>();
         Connection conn = SQLUtils.getDefaultConnection();
         PreparedStatement outer = null;
         PreparedStatement inner = null;
@@ -133,7 +183,9 @@ public class Loader extends ClassLoader {
             ResultSet rs = outer.executeQuery();
             try {
                 while (rs.next()) {
-                    inner.setInt(1, rs.getInt(1));
+                    int jarId = rs.getInt(1);
+                    jars.add(new Integer(jarId));
+                    inner.setInt(1, jarId);
                     ResultSet rs2 = inner.executeQuery();
                     try {
                         while (rs2.next()) {
@@ -170,16 +222,33 @@ public class Loader extends ClassLoader {
             // classpath of public schema or to the system classloader if the
             // request already is for the public schema.
             //
-            loader = schemaName.equals(PUBLIC_SCHEMA) ? parent
-                                                     : getSchemaLoader(PUBLIC_SCHEMA);
+            if (schemaName.equals(PUBLIC_SCHEMA)) {
+                loader = parent;
+            } else {
+                loader = getSchemaLoader(PUBLIC_SCHEMA);
+                jars.addAll(s_schemaJars.get(PUBLIC_SCHEMA));
+            }
         } else {
             loader = new Loader(classImages, parent);
         }
 
         s_schemaLoaders.put(schemaName, loader);
+        s_schemaJars.put(schemaName, jars);
         return loader;
     }
 
+    /**
+     * Removes the cached type maps. Schema loaders are retained since the
+     * type mappings do not affect them. This method is called by the utility
+     * functions that add or drop type mappings. It is not intended to be
+     * called from user code.
+     */
+    public static void clearTypeMaps() {
+        s_typeMapEntries = null;
+        s_typeMap.clear();
+        Backend.clearFunctionCache();
+    }
+
     /**
      * Returns the SQL type {@link Oid} to Java {@link Class} map that contains
      * the Java UDT mappings for the given <code>schema</code>. This method is
@@ -197,52 +266,64 @@ public class Loader extends ClassLoader {
             return typesForSchema;
         }
 
-        s_logger.fine("Creating typeMappings for schema " + schema);
-        typesForSchema = new HashMap<Oid, Class<?>>() {
-            private static final long serialVersionUID = 1L;
-
-            @Override
-            public Class<?> get(Object key) {
-                s_logger.fine("Obtaining type mapping for OID " + key
-                              + " for schema " + schema);
-                return super.get(key);
-            }
-        };
-        ClassLoader loader = Loader.getSchemaLoader(schema);
-        Statement stmt = SQLUtils.getDefaultConnection().createStatement();
-        ResultSet rs = null;
-        try {
-            rs = stmt.executeQuery("SELECT javaName, sqlName FROM sqlj.typemap_entry");
-            while (rs.next()) {
+        Map<Oid, String> entries = getTypeMapEntries();
+        if (entries.isEmpty()) {
+            typesForSchema = Collections.emptyMap();
+        } else {
+            s_logger.fine("Creating typeMappings for schema " + schema);
+            typesForSchema = new HashMap<Oid, Class<?>>();
+            ClassLoader loader = Loader.getSchemaLoader(schema);
+            for (Map.Entry<Oid, String> entry : entries.entrySet()) {
+                String javaClassName = entry.getValue();
+                Class<?> cls;
                 try {
-                    String javaClassName = rs.getString(1);
-                    String sqlName = rs.getString(2);
-                    Class<?> cls = loader.loadClass(javaClassName);
-                    if (!SQLData.class.isAssignableFrom(cls)) {
-                        throw new SQLException(
-                                               "Class "
-                                                       + javaClassName
-                                                       + " does not implement java.sql.SQLData");
-                    }
-
-                    Oid typeOid = Oid.forTypeName(sqlName);
-                    typesForSchema.put(typeOid, cls);
-                    s_logger.fine("Adding type mapping for OID " + typeOid
-                                  + " -> class " + cls.getName()
-                                  + " for schema " + schema);
+                    cls = loader.loadClass(javaClassName);
                 } catch (ClassNotFoundException e) {
                     // Ignore, type is not know to this schema and that is ok
+                    continue;
+                }
+                if (!SQLData.class.isAssignableFrom(cls)) {
+                    throw new SQLException("Class " + javaClassName
+                                           + " does not implement java.sql.SQLData");
                 }
+                typesForSchema.put(entry.getKey(), cls);
             }
             if (typesForSchema.isEmpty()) {
                 typesForSchema = Collections.emptyMap();
             }
-            s_typeMap.put(schema, typesForSchema);
-            return typesForSchema;
+        }
+        s_typeMap.put(schema, typesForSchema);
+        return typesForSchema;
+    }
+
+    /**
+     * Reads all entries of <code>sqlj.typemap_entry</code> and resolves their
+     * type names in one query. The result is shared by the type maps of all
+     * schemas.
+     */
+    private static Map<Oid, String> getTypeMapEntries() throws SQLException {
+        Map<Oid, String> entries = s_typeMapEntries;
+        if (entries != null) {
+            return entries;
+        }
+
+        entries = new HashMap<Oid, String>();
+        Statement stmt = SQLUtils.getDefaultConnection().createStatement();
+        ResultSet rs = null;
+        try {
+            rs = stmt.executeQuery("SELECT e.javaName, t.oid"
+                                   + " FROM sqlj.typemap_entry e, pg_catalog.pg_type t, pg_catalog.pg_namespace n"
+                                   + " WHERE t.typnamespace = n.oid"
+                                   + " AND e.sqlName = n.nspname || '.' || t.typname");
+            while (rs.next()) {
+                entries.put((Oid) rs.getObject(2), rs.getString(1));
+            }
         } finally {
             SQLUtils.close(rs);
             SQLUtils.close(stmt);
         }
+        s_typeMapEntries = entries;
+        return entries;
     }
 
     private static URL entryURL(int entryId) {
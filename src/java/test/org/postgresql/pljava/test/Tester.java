@@ -12,6 +12,7 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
+import java.sql.SQLWarning;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.regex.Pattern;
@@ -45,6 +46,12 @@ public class Tester
 
 	private final Connection m_connection;
 
+	private final String m_url;
+
+	private final String m_userName;
+
+	private final String m_password;
+
 	private static final ArrayList s_commands = new ArrayList();
 
 	static
@@ -212,7 +219,7 @@ public class Tester
 			Connection c = DriverManager.getConnection(cc.toString(), userName,
 				password);
 
-			Tester t = new Tester(c);
+			Tester t = new Tester(c, cc.toString(), userName, password);
 			if(debug)
 			{
 				System.out.println("Attach debugger to backend");
@@ -261,6 +268,28 @@ public class Tester
 					t.testComplexScalar();
 				if(p == null || !p.matcher("complextuple").matches())
 					t.testComplexTuple();
+				if(p == null || !p.matcher("changebuffer").matches())
+					t.testChangeBuffer();
+				if(p == null || !p.matcher("duplicatecolumn").matches())
+					t.testDuplicateColumn();
+				if(p == null || !p.matcher("cache").matches())
+					t.testCache();
+				if(p == null || !p.matcher("sharedcache").matches())
+					t.testSharedCache();
+				if(p == null || !p.matcher("copyin").matches())
+					t.testCopyIn();
+				if(p == null || !p.matcher("parametertypes").matches())
+					t.testParameterTypes();
+				if(p == null || !p.matcher("textparameters").matches())
+					t.testTextParameters();
+				if(p == null || !p.matcher("stalehandle").matches())
+					t.testStaleHandle();
+				if(p == null || !p.matcher("scrollable").matches())
+					t.testScrollable();
+				if(p == null || !p.matcher("forwardonly").matches())
+					t.testForwardOnly();
+				if(p == null || !p.matcher("logbuffering").matches())
+					t.testLogBuffering();
 			}
 			t.close();
 		}
@@ -271,11 +300,23 @@ public class Tester
 	}
 
 	public Tester(Connection conn) throws SQLException
+	{
+		this(conn, null, null, null);
+	}
+
+	/**
+	 * The url, user name and password are used by tests that need a second
+	 * backend.
+	 */
+	public Tester(Connection conn, String url, String userName, String password) throws SQLException
 	{
 		Statement stmt = conn.createStatement();
 		stmt.execute("SET search_path TO javatest,public");
 		stmt.close();
 		m_connection = conn;
+		m_url = url;
+		m_userName = userName;
+		m_password = password;
 	}
 
 	public void close() throws SQLException
@@ -287,6 +328,38 @@ public class Tester
 	{
 		this.testTimestamp();
 		this.testInt();
+		this.testNumeric();
+	}
+
+	public void testNumeric() throws SQLException
+	{
+		System.out.println("*** testNumeric()");
+
+		// Values on both sides of 18 digits, with and without scale, and
+		// with digits that are not aligned on the base 10000 groups.
+		//
+		String[] values = {
+			"0", "1", "-1", "0.0001", "-0.00010", "10000", "123456.789",
+			"999999999999999999", "-1000000000000000000",
+			"12345678901234567890.123456789",
+			"0.000000000000000000000000000001",
+			"-98765432109876543210987654321098765432.10" };
+
+		Statement stmt = m_connection.createStatement();
+		for(int idx = 0; idx < values.length; ++idx)
+		{
+			String v = values[idx];
+			ResultSet rs = stmt.executeQuery("SELECT javatest.numericToString('"
+				+ v + "'::numeric), javatest.numericIdentity('" + v
+				+ "'::numeric)::text");
+			if(!rs.next())
+				throw new SQLException("Unable to position ResultSet");
+			if(!v.equals(rs.getString(1)) || !v.equals(rs.getString(2)))
+				throw new SQLException("numeric " + v + " converted to "
+					+ rs.getString(1) + " and back to " + rs.getString(2));
+			rs.close();
+		}
+		stmt.close();
 	}
 
 	public void testSPIActions() throws SQLException
@@ -465,6 +538,287 @@ public class Tester
 		stmt.close();
 	}
 
+	public void testChangeBuffer() throws SQLException
+	{
+		System.out.println("*** testChangeBuffer()");
+		Statement stmt = m_connection.createStatement();
+
+		// Fire a trigger on a wider table first. Change buffers are pooled
+		// per trigger so the one on narrow_row must not see a wider buffer.
+		//
+		stmt.execute("DELETE FROM mdt");
+		stmt.execute("INSERT INTO mdt VALUES (1, 'first')");
+		stmt.execute("UPDATE mdt SET id = 2 WHERE id = 1");
+		stmt.execute("DELETE FROM narrow_row");
+		stmt.execute("INSERT INTO narrow_row VALUES (21, 0)");
+
+		ResultSet rs = stmt.executeQuery("SELECT val FROM narrow_row");
+		if(!rs.next() || rs.getInt(1) != 42)
+			throw new SQLException("trigger change was not applied");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testDuplicateColumn() throws SQLException
+	{
+		System.out.println("*** testDuplicateColumn()");
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT javatest.findDuplicateColumn()");
+		if(!rs.next() || rs.getInt(1) != 1)
+			throw new SQLException("first column with a duplicate name was not found");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testCache() throws SQLException
+	{
+		System.out.println("*** testCache()");
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery(
+			"SELECT javatest.testLfuAdmission(), javatest.testCacheWeights()");
+		if(!rs.next() || !rs.getBoolean(1) || !rs.getBoolean(2))
+			throw new SQLException("cache eviction test failed");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testSharedCache() throws SQLException
+	{
+		System.out.println("*** testSharedCache()");
+		if(m_url == null)
+		{
+			System.out.println("No url to connect a second backend, skipping");
+			return;
+		}
+
+		// The value spans several blocks of the shared cache.
+		//
+		StringBuffer bld = new StringBuffer();
+		for(int idx = 0; idx < 300; ++idx)
+			bld.append((char)('a' + idx % 26));
+		String value = bld.toString();
+
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery(
+			"SELECT javatest.sharedPut('testSharedCache', '" + value + "')");
+		rs.next();
+		boolean available = rs.getBoolean(1);
+		rs.close();
+		if(!available)
+		{
+			System.out.println("Shared cache not available, skipping");
+			stmt.close();
+			return;
+		}
+
+		// The value must be visible to another backend.
+		//
+		Connection other = DriverManager.getConnection(m_url, m_userName, m_password);
+		try
+		{
+			Statement otherStmt = other.createStatement();
+			rs = otherStmt.executeQuery(
+				"SELECT javatest.sharedGet('testSharedCache'), javatest.sharedRemove('testSharedCache')");
+			if(!rs.next() || !value.equals(rs.getString(1)) || !rs.getBoolean(2))
+				throw new SQLException("shared cache value not visible to another backend");
+			rs.close();
+			otherStmt.close();
+		}
+		finally
+		{
+			other.close();
+		}
+
+		rs = stmt.executeQuery("SELECT javatest.sharedGet('testSharedCache')");
+		if(!rs.next() || rs.getString(1) != null)
+			throw new SQLException("shared cache value was not removed");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testCopyIn() throws SQLException
+	{
+		System.out.println("*** testCopyIn()");
+		Statement stmt = m_connection.createStatement();
+		stmt.execute("DELETE FROM copy_target");
+
+		ResultSet rs = stmt.executeQuery("SELECT copyInRows(2500)");
+		if(!rs.next() || rs.getLong(1) != 2500)
+			throw new SQLException("COPY did not report 2500 rows");
+		rs.close();
+
+		rs = stmt.executeQuery("SELECT count(*), count(name) FROM copy_target");
+		if(!rs.next() || rs.getInt(1) != 2500 || rs.getInt(2) != 2250)
+			throw new SQLException("COPY did not insert the expected rows");
+		rs.close();
+
+		rs = stmt.executeQuery("SELECT name FROM copy_target WHERE id = 7");
+		if(!rs.next() || !"row\t7\\\n".equals(rs.getString(1)))
+			throw new SQLException("COPY did not preserve escaped characters");
+		rs.close();
+
+		// Lines terminated by CR LF are accepted when all lines use them.
+		//
+		stmt.execute("DELETE FROM copy_target");
+		rs = stmt.executeQuery("SELECT copyInText(E'1\\tcrlf\\r\\n2\\tx\\r\\n')");
+		if(!rs.next() || rs.getLong(1) != 2)
+			throw new SQLException("COPY did not accept CR LF line endings");
+		rs.close();
+		rs = stmt.executeQuery("SELECT name FROM copy_target WHERE id = 1");
+		if(!rs.next() || !"crlf".equals(rs.getString(1)))
+			throw new SQLException("COPY did not strip the CR LF line ending");
+		rs.close();
+
+		this.assertCopyFails(stmt, "E'1\\ta\\r\\n2\\tb\\n'", "mixed line endings");
+		this.assertCopyFails(stmt, "E'1\\ta\\n2\\tb\\r\\n'", "mixed line endings");
+		this.assertCopyFails(stmt, "E'1\\tab\\\\\\n'", "a trailing backslash");
+		this.assertCopyFails(stmt, "E'1\\ta\\\\000b\\n'", "an escaped NUL");
+
+		// A function that is not volatile must not be able to insert.
+		//
+		try
+		{
+			stmt.executeQuery("SELECT copyInRowsStable(1)");
+			throw new SQLException("COPY succeeded in a STABLE function");
+		}
+		catch(SQLException e)
+		{
+			if(e.getMessage().startsWith("COPY succeeded"))
+				throw e;
+			System.out.println("Expected failure: " + e.getMessage());
+		}
+		stmt.close();
+	}
+
+	private void assertCopyFails(Statement stmt, String data, String what)
+	throws SQLException
+	{
+		try
+		{
+			stmt.executeQuery("SELECT copyInText(" + data + ")");
+			throw new SQLException("COPY succeeded with " + what);
+		}
+		catch(SQLException e)
+		{
+			if(e.getMessage().startsWith("COPY succeeded"))
+				throw e;
+			System.out.println("Expected failure: " + e.getMessage());
+		}
+	}
+
+	public void testParameterTypes() throws SQLException
+	{
+		System.out.println("*** testParameterTypes()");
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT testParameterTypes()");
+		if(!rs.next() || !rs.getBoolean(1))
+			throw new SQLException("prepared statement parameter types test failed");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testTextParameters() throws SQLException
+	{
+		System.out.println("*** testTextParameters()");
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT testTextParameters()");
+		if(!rs.next() || !rs.getBoolean(1))
+			throw new SQLException("primitive values bound to text parameters test failed");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testStaleHandle() throws SQLException
+	{
+		System.out.println("*** testStaleHandle()");
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT testStaleHandle()");
+		if(!rs.next() || !rs.getBoolean(1))
+			throw new SQLException("stale prepared statement handle test failed");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testScrollable() throws SQLException
+	{
+		System.out.println("*** testScrollable()");
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT testScrollable()");
+		if(!rs.next() || !rs.getBoolean(1))
+			throw new SQLException("scrollable result set test failed");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testForwardOnly() throws SQLException
+	{
+		System.out.println("*** testForwardOnly()");
+		Statement stmt = m_connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT testForwardOnly()");
+		if(!rs.next() || !rs.getBoolean(1))
+			throw new SQLException("forward only result set test failed");
+		rs.close();
+		stmt.close();
+	}
+
+	public void testLogBuffering() throws SQLException
+	{
+		System.out.println("*** testLogBuffering()");
+
+		// More messages than the default buffer holds.
+		//
+		Statement stmt = m_connection.createStatement();
+		stmt.execute("SELECT logMessages(300, false)");
+		checkLogMessages(stmt.getWarnings(), 300);
+		stmt.close();
+
+		// Messages logged before an error must be sent with it.
+		//
+		stmt = m_connection.createStatement();
+		try
+		{
+			stmt.execute("SELECT logMessages(5, true)");
+			throw new SQLException("logMessages did not fail");
+		}
+		catch(SQLException e)
+		{
+			if(e.getMessage().startsWith("logMessages did not fail"))
+				throw e;
+		}
+		checkLogMessages(stmt.getWarnings(), 5);
+		stmt.close();
+
+		// Debug messages must reach the client when client_min_messages
+		// asks for them, whatever log_min_messages is.
+		//
+		stmt = m_connection.createStatement();
+		stmt.execute("SET client_min_messages TO debug1");
+		try
+		{
+			stmt.execute("SELECT logMessage('FINE', 'message 1')");
+			checkLogMessages(stmt.getWarnings(), 1);
+		}
+		finally
+		{
+			stmt.execute("RESET client_min_messages");
+			stmt.close();
+		}
+	}
+
+	private static void checkLogMessages(SQLWarning warning, int count) throws SQLException
+	{
+		int idx = 1;
+		for(; warning != null && idx <= count; warning = warning.getNextWarning())
+		{
+			String msg = warning.getMessage();
+			if(msg != null && msg.trim().endsWith("message " + idx))
+				++idx;
+		}
+		if(idx <= count)
+			throw new SQLException("log message " + idx + " of " + count
+				+ " did not reach the client in order");
+	}
+
 	public void testInsertUsernameTrigger() throws SQLException
 	{
 		System.out.println("*** testInsertUsernameTrigger()");